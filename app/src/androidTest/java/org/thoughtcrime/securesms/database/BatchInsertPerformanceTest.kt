@@ -0,0 +1,94 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.core.content.contentValuesOf
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.SqlUtil
+import org.signal.core.util.logging.Log
+import org.signal.core.util.withinTransaction
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Compares the ways we write many rows at once, using a table shaped like [GroupReceiptTable]: one [SQLiteDatabase.insert] per row, multi-row
+ * inserts from [SqlUtil.buildBulkInsert], and [SQLiteDatabase.insertBatch].
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class BatchInsertPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(BatchInsertPerformanceTest::class.java)
+
+    private const val TABLE = "batch_insert_perf"
+    private const val ROWS_PER_BATCH = 50
+    private const val BATCHES = 200
+
+    private val COLUMNS = arrayOf<BatchColumn<Long>>(
+      BatchColumn.ofLong("mms_id") { it / ROWS_PER_BATCH },
+      BatchColumn.ofLong("address") { it },
+      BatchColumn.ofInt("status") { 1 },
+      BatchColumn.ofLong("timestamp") { it }
+    )
+  }
+
+  private lateinit var db: SQLiteDatabase
+
+  @Before
+  fun setUp() {
+    db = SignalDatabase.instance!!.signalWritableDatabase
+    db.execSQL("CREATE TABLE $TABLE (_id INTEGER PRIMARY KEY, mms_id INTEGER, address INTEGER, status INTEGER, timestamp INTEGER)")
+  }
+
+  @After
+  fun tearDown() {
+    db.execSQL("DROP TABLE $TABLE")
+  }
+
+  @Test
+  fun insertPerRow() {
+    measure("insert()") { rows ->
+      db.withinTransaction {
+        for (row in rows) {
+          db.insert(TABLE, null, contentValuesOf("mms_id" to row / ROWS_PER_BATCH, "address" to row, "status" to 1, "timestamp" to row))
+        }
+      }
+    }
+  }
+
+  @Test
+  fun buildBulkInsert() {
+    measure("buildBulkInsert()") { rows ->
+      val values = rows.map { row -> contentValuesOf("mms_id" to row / ROWS_PER_BATCH, "address" to row, "status" to 1, "timestamp" to row) }
+      val queries = SqlUtil.buildBulkInsert(TABLE, arrayOf("mms_id", "address", "status", "timestamp"), values)
+
+      db.withinTransaction {
+        queries.forEach { db.execSQL(it.where, it.whereArgs) }
+      }
+    }
+  }
+
+  @Test
+  fun insertBatch() {
+    measure("insertBatch()") { rows ->
+      db.insertBatch(TABLE, SQLiteDatabase.CONFLICT_NONE, rows, *COLUMNS)
+    }
+  }
+
+  private fun measure(name: String, insert: (List<Long>) -> Unit) {
+    // Warm up, so we're not measuring the first compile of anything
+    insert((0L until ROWS_PER_BATCH).toList())
+
+    val start = System.nanoTime()
+    for (batch in 0 until BATCHES) {
+      val first = batch.toLong() * ROWS_PER_BATCH
+      insert((first until first + ROWS_PER_BATCH).toList())
+    }
+    val duration = (System.nanoTime() - start).nanoseconds
+
+    Log.i(TAG, "$name: $BATCHES batches of $ROWS_PER_BATCH rows in ${duration.inWholeMilliseconds} ms (${duration.inWholeMicroseconds / BATCHES} us/batch)")
+  }
+}
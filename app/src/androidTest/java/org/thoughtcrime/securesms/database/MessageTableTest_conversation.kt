@@ -0,0 +1,67 @@
+package org.thoughtcrime.securesms.database
+
+import android.database.Cursor
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.models.ServiceId.ACI
+import org.signal.core.models.ServiceId.PNI
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import org.thoughtcrime.securesms.recipients.Recipient
+import java.util.UUID
+
+@Suppress("ClassName")
+@RunWith(AndroidJUnit4::class)
+class MessageTableTest_conversation {
+  private lateinit var mms: MessageTable
+
+  private var threadId: Long = -1
+
+  @Before
+  fun setUp() {
+    mms = SignalDatabase.messages
+
+    mms.deleteAllThreads()
+
+    SignalStore.account.setAci(ACI.from(UUID.randomUUID()))
+    SignalStore.account.setPni(PNI.from(UUID.randomUUID()))
+
+    val recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+
+    // Inserted quickly enough that many of them share a received date, which is what the anchor's ID is there to break ties on
+    repeat(25) {
+      MmsHelper.insert(recipient = recipient, threadId = threadId)
+    }
+  }
+
+  @Test
+  fun givenAnAnchor_whenIGetConversation_thenIExpectTheSameMessagesAsAnOffset() {
+    val all = readIds(mms.getConversation(threadId))
+
+    for (anchorPosition in all.indices) {
+      val anchor = readAnchor(anchorPosition)
+
+      for (skip in 0..2) {
+        val expected = readIds(mms.getConversation(threadId, (anchorPosition + 1 + skip).toLong(), 5))
+        val actual = readIds(mms.getConversation(threadId, anchor, skip.toLong(), 5))
+
+        assertEquals("anchor $anchorPosition, skip $skip", expected, actual)
+      }
+    }
+  }
+
+  private fun readAnchor(position: Int): MessageTable.ConversationAnchor {
+    return MessageTable.mmsReaderFor(mms.getConversation(threadId, position.toLong(), 1)).use { reader ->
+      MessageTable.ConversationAnchor(reader.first())
+    }
+  }
+
+  private fun readIds(cursor: Cursor): List<Long> {
+    return MessageTable.mmsReaderFor(cursor).use { reader ->
+      reader.map { it.id }
+    }
+  }
+}
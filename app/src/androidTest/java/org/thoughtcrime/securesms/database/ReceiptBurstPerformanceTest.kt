@@ -0,0 +1,75 @@
+package org.thoughtcrime.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.models.ServiceId.ACI
+import org.signal.core.models.ServiceId.PNI
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import org.thoughtcrime.securesms.recipients.Recipient
+import java.util.UUID
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Replays a burst of receipts against a conversation, the way a large read sync or delivery burst would arrive. Compares applying them as one set
+ * ([MessageTable.incrementDeliveryReceiptCounts]) against one receipt at a time ([MessageTable.incrementDeliveryReceiptCount]).
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class ReceiptBurstPerformanceTest {
+
+  companion object {
+    private val TAG = Log.tag(ReceiptBurstPerformanceTest::class.java)
+
+    private const val RECEIPT_COUNT = 1_000
+  }
+
+  private lateinit var recipient: Recipient
+  private lateinit var targetTimestamps: List<Long>
+
+  @Before
+  fun setUp() {
+    SignalDatabase.messages.deleteAllThreads()
+
+    SignalStore.account.setAci(ACI.from(UUID.randomUUID()))
+    SignalStore.account.setPni(PNI.from(UUID.randomUUID()))
+
+    recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+
+    val firstTimestamp = System.currentTimeMillis() - RECEIPT_COUNT
+    targetTimestamps = (0 until RECEIPT_COUNT).map { firstTimestamp + it }
+
+    SignalDatabase.runInTransaction {
+      for (timestamp in targetTimestamps) {
+        MmsHelper.insert(recipient = recipient, sentTimeMillis = timestamp)
+      }
+    }
+  }
+
+  @Test
+  fun applyAsSet() {
+    measure("set") {
+      SignalDatabase.messages.incrementDeliveryReceiptCounts(targetTimestamps, recipient.id, System.currentTimeMillis())
+    }
+  }
+
+  @Test
+  fun applyOneAtATime() {
+    measure("one-at-a-time") {
+      for (timestamp in targetTimestamps) {
+        SignalDatabase.messages.incrementDeliveryReceiptCount(timestamp, recipient.id, System.currentTimeMillis())
+      }
+    }
+  }
+
+  private fun measure(name: String, apply: () -> Unit) {
+    val start = System.nanoTime()
+    apply()
+    val duration = (System.nanoTime() - start).nanoseconds
+
+    Log.i(TAG, "$name: $RECEIPT_COUNT receipts in ${duration.inWholeMilliseconds} ms")
+  }
+}
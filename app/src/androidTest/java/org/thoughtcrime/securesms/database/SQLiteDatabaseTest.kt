@@ -1,16 +1,26 @@
 package org.thoughtcrime.securesms.database
 
 import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
 import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.readToList
+import org.signal.core.util.readToSingleLong
+import org.signal.core.util.requireLong
+import org.signal.core.util.requireString
+import org.signal.core.util.select
 import org.thoughtcrime.securesms.testing.SignalFlakyTestRule
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * These are tests for the wrapper we wrote around SQLCipherDatabase, not the stock or SQLCipher one.
@@ -227,4 +237,170 @@ class SQLiteDatabaseTest {
     assertTrue(hasRun1.get())
     assertTrue(hasRun2.get())
   }
+
+  @Test
+  fun getPreCommitTask_returnsNullIfNotInTransaction() {
+    assertNull(db.getPreCommitTask("test") { CountingTask() })
+  }
+
+  @Test
+  fun getPreCommitTask_runsOnceBeforeTheTransactionCommits() {
+    val postRanAfterTask = AtomicBoolean(false)
+
+    db.beginTransaction()
+
+    val task = db.getPreCommitTask("test") { CountingTask() }!!
+    assertSame(task, db.getPreCommitTask("test") { CountingTask() })
+
+    db.runPostSuccessfulTransaction { postRanAfterTask.set(task.runs.get() == 1) }
+
+    db.beginTransaction()
+    assertSame(task, db.getPreCommitTask("test") { CountingTask() })
+    db.setTransactionSuccessful()
+    db.endTransaction()
+
+    assertEquals(0, task.runs.get())
+
+    db.setTransactionSuccessful()
+    db.endTransaction()
+
+    assertEquals(1, task.runs.get())
+    assertTrue(postRanAfterTask.get())
+  }
+
+  @Test
+  fun getPreCommitTask_doesNotRunAfterFailedTransaction() {
+    db.beginTransaction()
+    val task = db.getPreCommitTask("test") { CountingTask() }!!
+    db.endTransaction()
+
+    assertEquals(0, task.runs.get())
+
+    // The next transaction starts with a clean slate
+    db.beginTransaction()
+    val nextTask = db.getPreCommitTask("test") { CountingTask() }!!
+    assertNotSame(task, nextTask)
+    db.setTransactionSuccessful()
+    db.endTransaction()
+
+    assertEquals(0, task.runs.get())
+    assertEquals(1, nextTask.runs.get())
+  }
+
+  @Test
+  fun getPreCommitTask_canWriteInItsOwnTransaction() {
+    withBatchTable {
+      db.beginTransaction()
+
+      db.getPreCommitTask("test") {
+        Runnable {
+          db.beginTransaction()
+          try {
+            db.insertBatch<BatchRow>(BATCH_TABLE, SQLiteDatabase.CONFLICT_NONE, listOf(BatchRow(1, "a")), *BATCH_COLUMNS)
+            db.setTransactionSuccessful()
+          } finally {
+            db.endTransaction()
+          }
+        }
+      }
+
+      db.setTransactionSuccessful()
+      db.endTransaction()
+
+      assertFalse(db.inTransaction())
+      assertEquals(listOf(BatchRow(1, "a")), readBatchTable())
+    }
+  }
+
+  @Test
+  fun insertBatch_insertsEveryRow() {
+    withBatchTable {
+      val inserted = db.insertBatch<BatchRow>(BATCH_TABLE, SQLiteDatabase.CONFLICT_NONE, listOf(BatchRow(1, "a"), BatchRow(2, null)), *BATCH_COLUMNS)
+
+      assertEquals(2, inserted)
+      assertEquals(listOf(BatchRow(1, "a"), BatchRow(2, null)), readBatchTable())
+    }
+  }
+
+  @Test
+  fun insertBatch_ignoredConflictsAreNotCounted() {
+    withBatchTable {
+      db.insertBatch<BatchRow>(BATCH_TABLE, SQLiteDatabase.CONFLICT_NONE, listOf(BatchRow(1, "a")), *BATCH_COLUMNS)
+      val inserted = db.insertBatch<BatchRow>(BATCH_TABLE, SQLiteDatabase.CONFLICT_IGNORE, listOf(BatchRow(1, "b"), BatchRow(2, "c")), *BATCH_COLUMNS)
+
+      assertEquals(1, inserted)
+      assertEquals(listOf(BatchRow(1, "a"), BatchRow(2, "c")), readBatchTable())
+    }
+  }
+
+  @Test
+  fun upsertBatch_updatesConflictingRowsInPlace() {
+    withBatchTable {
+      db.insertBatch<BatchRow>(BATCH_TABLE, SQLiteDatabase.CONFLICT_NONE, listOf(BatchRow(1, "a")), *BATCH_COLUMNS)
+      val rowIdBefore = readRowId(1)
+
+      val changed = db.upsertBatch<BatchRow>(BATCH_TABLE, arrayOf("key"), listOf(BatchRow(1, "b"), BatchRow(2, "c")), *BATCH_COLUMNS)
+
+      assertEquals(2, changed)
+      assertEquals(listOf(BatchRow(1, "b"), BatchRow(2, "c")), readBatchTable())
+      assertEquals(rowIdBefore, readRowId(1))
+    }
+  }
+
+  @Test
+  fun insertBatch_rollsBackWithTheEnclosingTransaction() {
+    withBatchTable {
+      db.beginTransaction()
+      db.insertBatch<BatchRow>(BATCH_TABLE, SQLiteDatabase.CONFLICT_NONE, listOf(BatchRow(1, "a")), *BATCH_COLUMNS)
+      db.endTransaction()
+
+      assertEquals(emptyList<BatchRow>(), readBatchTable())
+    }
+  }
+
+  private fun withBatchTable(block: () -> Unit) {
+    db.execSQL("CREATE TABLE $BATCH_TABLE (_id INTEGER PRIMARY KEY, key INTEGER UNIQUE, value TEXT)")
+    try {
+      block()
+    } finally {
+      db.execSQL("DROP TABLE $BATCH_TABLE")
+    }
+  }
+
+  private fun readBatchTable(): List<BatchRow> {
+    return db
+      .select("key", "value")
+      .from(BATCH_TABLE)
+      .orderBy("key")
+      .run()
+      .readToList { BatchRow(it.requireLong("key"), it.requireString("value")) }
+  }
+
+  private fun readRowId(key: Long): Long {
+    return db
+      .select("_id")
+      .from(BATCH_TABLE)
+      .where("key = ?", key)
+      .run()
+      .readToSingleLong()
+  }
+
+  private data class BatchRow(val key: Long, val value: String?)
+
+  private class CountingTask : Runnable {
+    val runs = AtomicInteger(0)
+
+    override fun run() {
+      runs.incrementAndGet()
+    }
+  }
+
+  companion object {
+    private const val BATCH_TABLE = "batch_test"
+
+    private val BATCH_COLUMNS = arrayOf<BatchColumn<BatchRow>>(
+      BatchColumn.ofLong("key") { it.key },
+      BatchColumn.ofString("value") { it.value }
+    )
+  }
 }
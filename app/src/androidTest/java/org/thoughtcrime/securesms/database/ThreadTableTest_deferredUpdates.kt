@@ -0,0 +1,154 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.signal.core.models.ServiceId.ACI
+import org.signal.core.util.readToSingleObject
+import org.signal.core.util.requireString
+import org.signal.core.util.select
+import org.thoughtcrime.securesms.mms.IncomingMessage
+import org.thoughtcrime.securesms.recipients.Recipient
+import org.thoughtcrime.securesms.testing.SignalDatabaseRule
+import java.util.UUID
+
+@Suppress("ClassName")
+class ThreadTableTest_deferredUpdates {
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  private lateinit var recipient: Recipient
+  private var threadId: Long = -1
+
+  @Before
+  fun setUp() {
+    recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+  }
+
+  @Test
+  fun givenDeferredUpdates_whenIInsertMessages_thenIExpectTheInsertsToCommitAndTheThreadToUpdate() {
+    // WHEN
+    val messageIds = SignalDatabase.threads.withDeferredUpdates {
+      listOf(
+        MmsHelper.insert(recipient = recipient, threadId = threadId, body = "first"),
+        MmsHelper.insert(recipient = recipient, threadId = threadId, body = "second")
+      )
+    }
+
+    // THEN
+    messageIds.forEach { assertNotNull(SignalDatabase.messages.getMessageRecordOrNull(it)) }
+    assertEquals("second", readSnippet())
+  }
+
+  @Test
+  fun givenDeferredUpdates_whenIInsertAMessageInsideAnotherTransaction_thenIExpectTheInsertToCommitAndTheThreadToUpdate() {
+    // WHEN
+    val messageId = SignalDatabase.runInTransaction {
+      SignalDatabase.threads.withDeferredUpdates {
+        MmsHelper.insert(recipient = recipient, threadId = threadId, body = "nested")
+      }
+    }
+
+    // THEN
+    assertNotNull(SignalDatabase.messages.getMessageRecordOrNull(messageId))
+    assertEquals("nested", readSnippet())
+  }
+
+  @Test
+  fun givenDeferredUpdates_whenIReadTheThreadBeforeCommit_thenIExpectItToBeUpToDate() {
+    // WHEN
+    val body = SignalDatabase.threads.withDeferredUpdates {
+      MmsHelper.insert(recipient = recipient, threadId = threadId, body = "read before commit")
+      SignalDatabase.threads.getThreadRecord(threadId)!!.body
+    }
+
+    // THEN
+    assertEquals("read before commit", body)
+  }
+
+  @Test
+  fun givenDeferredUpdates_whenTheTransactionFails_thenIExpectNothingToCommit() {
+    // WHEN
+    var messageId = -1L
+    try {
+      SignalDatabase.threads.withDeferredUpdates {
+        messageId = MmsHelper.insert(recipient = recipient, threadId = threadId, body = "rolled back")
+        throw IllegalStateException()
+      }
+    } catch (e: IllegalStateException) {
+      // Expected
+    }
+
+    // THEN
+    assertNull(SignalDatabase.messages.getMessageRecordOrNull(messageId))
+    assertEquals("", readSnippet())
+  }
+
+  @Test
+  fun givenAPlainTransaction_whenIInsertAMessage_thenIExpectTheThreadToUpdateRightAway() {
+    // WHEN
+    val body = SignalDatabase.runInTransaction {
+      MmsHelper.insert(recipient = recipient, threadId = threadId, body = "inline")
+      readSnippet()
+    }
+
+    // THEN
+    assertEquals("inline", body)
+  }
+
+  @Test
+  fun givenDeferredUpdates_whenIReceiveMessagesOutOfOrder_thenIExpectTheNewestToBeTheSnippet() {
+    // WHEN
+    SignalDatabase.threads.withDeferredUpdates {
+      MmsHelper.insert(incoming(body = "newer", receivedTime = 2000), threadId)
+      MmsHelper.insert(incoming(body = "older", receivedTime = 1000), threadId)
+    }
+
+    // THEN
+    assertEquals("newer", readSnippet())
+  }
+
+  @Test
+  fun givenDeferredUpdates_whenIReceiveMessages_thenIExpectTheUnreadCountToMatchARecount() {
+    // GIVEN
+    MmsHelper.insert(incoming(body = "before", receivedTime = 1000), threadId)
+
+    // WHEN
+    SignalDatabase.threads.withDeferredUpdates {
+      MmsHelper.insert(incoming(body = "first", receivedTime = 2000), threadId)
+      MmsHelper.insert(incoming(body = "second", receivedTime = 3000), threadId)
+    }
+
+    // THEN
+    val thread = SignalDatabase.threads.getThreadRecord(threadId)!!
+    assertEquals(3, thread.unreadCount)
+    assertEquals(SignalDatabase.messages.getUnreadCount(threadId), thread.unreadCount)
+    assertEquals("second", readSnippet())
+  }
+
+  private fun incoming(body: String, receivedTime: Long): IncomingMessage {
+    return IncomingMessage(
+      type = MessageType.NORMAL,
+      from = recipient.id,
+      sentTimeMillis = receivedTime,
+      serverTimeMillis = receivedTime,
+      receivedTimeMillis = receivedTime,
+      body = body
+    )
+  }
+
+  private fun readSnippet(): String {
+    return SignalDatabase.rawDatabase
+      .select(ThreadTable.SNIPPET)
+      .from(ThreadTable.TABLE_NAME)
+      .where("${ThreadTable.ID} = ?", threadId)
+      .run()
+      .readToSingleObject { it.requireString(ThreadTable.SNIPPET) ?: "" } ?: ""
+  }
+}
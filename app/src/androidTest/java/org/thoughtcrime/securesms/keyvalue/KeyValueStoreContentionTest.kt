@@ -0,0 +1,89 @@
+package org.thoughtcrime.securesms.keyvalue
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.logging.Log
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Measures read throughput of [KeyValueStore] with N reader threads and a single writer, roughly the way job runners and message processing
+ * hit [SignalStore] at the same time.
+ */
+@Ignore("Ignore test in normal testing as it's a performance test with no assertions")
+@RunWith(AndroidJUnit4::class)
+class KeyValueStoreContentionTest {
+
+  companion object {
+    private val TAG = Log.tag(KeyValueStoreContentionTest::class.java)
+
+    private const val KEY_COUNT = 500
+    private val DURATION = TimeUnit.SECONDS.toMillis(5)
+  }
+
+  @Test
+  fun readers_1() {
+    measure(readerCount = 1)
+  }
+
+  @Test
+  fun readers_4() {
+    measure(readerCount = 4)
+  }
+
+  @Test
+  fun readers_8() {
+    measure(readerCount = 8)
+  }
+
+  private fun measure(readerCount: Int) {
+    val initial = KeyValueDataSet()
+    for (i in 0 until KEY_COUNT) {
+      initial.putLong("key_$i", i.toLong())
+    }
+
+    val store = KeyValueStore(MockKeyValuePersistentStorage.withDataSet(initial))
+    val running = AtomicBoolean(true)
+    val reads = AtomicLong()
+    val writes = AtomicLong()
+    val done = CountDownLatch(readerCount + 1)
+
+    val readers = (0 until readerCount).map { index ->
+      Thread {
+        var count = 0L
+        var i = index
+        while (running.get()) {
+          store.getLong("key_${i % KEY_COUNT}", 0)
+          store.getBoolean("missing", false)
+          i++
+          count += 2
+        }
+        reads.addAndGet(count)
+        done.countDown()
+      }
+    }
+
+    val writer = Thread {
+      var i = 0L
+      while (running.get()) {
+        store.beginWrite().putLong("key_${i % KEY_COUNT}", i).apply()
+        i++
+        Thread.sleep(1)
+      }
+      writes.set(i)
+      done.countDown()
+    }
+
+    (readers + writer).forEach { it.start() }
+
+    Thread.sleep(DURATION)
+    running.set(false)
+    done.await()
+
+    Log.i(TAG, "readers=$readerCount reads/ms=${reads.get() / DURATION} writes=${writes.get()}")
+  }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.attachments
+
+import org.signal.core.util.logging.Log
+import java.io.Closeable
+
+/**
+ * Decides which attachment downloads get to use the network, and how many of them can do so at once.
+ *
+ * - Downloads for messages that are on screen go first, followed by those for messages within a few screens of it (see [updateViewport]), followed
+ *   by everything else. Within a priority, downloads go in the order they asked.
+ * - No more than [maxPerHost] downloads run against a single CDN at a time.
+ * - The overall limit is adjusted based on measured throughput. While there's more work than slots, we compare the throughput of each window to the
+ *   last one and keep stepping the limit in whichever direction helped. If a step made things worse, we undo it. If it made no difference, we keep
+ *   shrinking, since fewer connections for the same throughput is better. Every so often we probe upwards again in case the network got better.
+ *
+ * Downloads call [acquire] (or [tryAcquire], if they can't block) before they touch the network, and close the [Permit] they get back once they're
+ * done. Callers of [tryAcquire] are told when their turn comes, so they don't need to keep asking.
+ */
+class AttachmentTransferScheduler(
+  private val minConcurrency: Int = 1,
+  private val maxConcurrency: Int = 8,
+  initialConcurrency: Int = 2,
+  private val maxPerHost: Int = 4,
+  private val sampleWindowMs: Long = 2_000,
+  private val clock: () -> Long = System::currentTimeMillis
+) {
+
+  companion object {
+    private val TAG = Log.tag(AttachmentTransferScheduler::class.java)
+
+    /** How much better or worse throughput has to be to count as a change, rather than noise. */
+    private const val CHANGE_THRESHOLD = 0.1
+
+    /** How many windows we'll sit at a limit that seems right before trying one more. */
+    private const val PROBE_AFTER_WINDOWS = 5
+
+    private const val CANCEL_CHECK_INTERVAL_MS = 500L
+
+    /** How long a permit granted to a [tryAcquire] caller is held for it to come back and claim it, before it's given to someone else. */
+    private const val CLAIM_TIMEOUT_MS = 30_000L
+  }
+
+  enum class Priority {
+    VISIBLE,
+    PREFETCH,
+    BACKGROUND
+  }
+
+  private val lock = Object()
+
+  private val waiting: MutableList<Ticket> = mutableListOf()
+  private val runningPerHost: MutableMap<String, Int> = mutableMapOf()
+  private var running = 0
+  private var nextSequence = 0L
+
+  /** Places in line held for [tryAcquire] callers, by their key. */
+  private val held: MutableMap<Any, Ticket> = mutableMapOf()
+
+  private var visibleMessageIds: Set<Long> = emptySet()
+  private var prefetchMessageIds: Set<Long> = emptySet()
+
+  private var limit = initialConcurrency.coerceIn(minConcurrency, maxConcurrency)
+  private var windowStart = -1L
+  private var windowBytes = 0L
+  private var windowSaturated = true
+  private var lastThroughput = 0.0
+  private var lastStep = 0
+  private var lastStepWasRecovery = false
+  private var windowsSinceStep = 0
+
+  /** The number of downloads that may currently run at once. */
+  val concurrencyLimit: Int
+    get() = synchronized(lock) { limit }
+
+  /**
+   * Sets the messages that are currently on screen, and those that are close enough that their attachments should be fetched ahead of everything else.
+   */
+  fun updateViewport(visibleMessageIds: Set<Long>, prefetchMessageIds: Set<Long>) {
+    val granted = synchronized(lock) {
+      this.visibleMessageIds = visibleMessageIds
+      this.prefetchMessageIds = prefetchMessageIds
+      dispatch()
+    }
+
+    notifyGranted(granted)
+  }
+
+  fun clearViewport() {
+    updateViewport(emptySet(), emptySet())
+  }
+
+  /**
+   * Blocks until a download of an attachment in [messageId] is allowed to run against [host].
+   *
+   * @return The permit to close when the download is done, or null if [shouldCancel] returned true (or the thread was interrupted) while waiting.
+   */
+  fun acquire(messageId: Long, host: String, shouldCancel: () -> Boolean = { false }): Permit? {
+    return request(messageId, host).await(shouldCancel)
+  }
+
+  /**
+   * A version of [acquire] that never blocks, for callers like jobs that would otherwise park a thread that other work could use. The first call
+   * for a [key] puts the download in line, and it keeps its place between calls. Once it's been granted, the next call returns the permit.
+   *
+   * A caller that gets null is called back with [onGranted] once it's granted, and should come back for its permit then, or call [release] if it
+   * gives up. [onGranted] is called without any locks held, on whichever thread caused the grant. A permit that isn't claimed within
+   * [CLAIM_TIMEOUT_MS] of being granted goes to the next download in line.
+   *
+   * @return The permit to close when the download is done, or null if it's still waiting.
+   */
+  fun tryAcquire(key: Any, messageId: Long, host: String, onGranted: () -> Unit = {}): Permit? {
+    val (permit, granted) = synchronized(lock) {
+      val ticket = held.getOrPut(key) {
+        Ticket(messageId, host, nextSequence++).also { waiting += it }
+      }
+      ticket.onGranted = onGranted
+
+      val granted = dispatch()
+      val permit = ticket.permit
+
+      if (permit != null) {
+        held.remove(key)
+      }
+
+      permit to granted.filterNot { it.permit === permit }
+    }
+
+    notifyGranted(granted)
+    return permit
+  }
+
+  /**
+   * Whether the place in line held for [key] by [tryAcquire] has been granted, and its permit is waiting to be claimed.
+   */
+  fun isGranted(key: Any): Boolean {
+    return synchronized(lock) { held[key]?.permit != null }
+  }
+
+  /**
+   * Gives up the place in line held for [key] by [tryAcquire], along with its permit if it had been granted one.
+   */
+  fun release(key: Any) {
+    val ticket = synchronized(lock) { held.remove(key) }
+    ticket?.cancel()
+  }
+
+  /**
+   * Puts a download in line without waiting for it. It may have been granted by the time this returns.
+   */
+  fun request(messageId: Long, host: String): Ticket {
+    val (ticket, granted) = synchronized(lock) {
+      val ticket = Ticket(messageId, host, nextSequence++)
+      waiting += ticket
+      ticket to dispatch()
+    }
+
+    notifyGranted(granted)
+    return ticket
+  }
+
+  /**
+   * Hands out as many permits as the limits allow, best priority first. Must be called while holding [lock].
+   *
+   * @return The tickets that were granted, so their callbacks can be run once the lock is released.
+   */
+  private fun dispatch(): List<Ticket> {
+    expireUnclaimedPermits()
+
+    val granted = mutableListOf<Ticket>()
+
+    while (running < limit) {
+      val next = waiting
+        .filter { (runningPerHost[it.host] ?: 0) < maxPerHost }
+        .minWithOrNull(compareBy<Ticket> { priorityOf(it.messageId) }.thenBy { it.sequence })
+        ?: break
+
+      waiting.remove(next)
+      running++
+      runningPerHost[next.host] = (runningPerHost[next.host] ?: 0) + 1
+      next.permit = Permit(next.host)
+      next.grantedAt = clock()
+      granted += next
+    }
+
+    if (running < limit && waiting.isEmpty()) {
+      // We had room to spare, so whatever this window measures isn't the limit's doing
+      windowSaturated = false
+    }
+
+    if (granted.isNotEmpty()) {
+      lock.notifyAll()
+    }
+
+    return granted
+  }
+
+  /**
+   * Lets [tryAcquire] callers know that their turn has come. Must be called without holding [lock].
+   */
+  private fun notifyGranted(granted: List<Ticket>) {
+    for (ticket in granted) {
+      ticket.onGranted?.invoke()
+    }
+  }
+
+  /**
+   * Takes back permits that [tryAcquire] callers haven't come back for, e.g. because their job was cancelled while it waited. Must be called while
+   * holding [lock].
+   */
+  private fun expireUnclaimedPermits() {
+    val now = clock()
+    val iterator = held.values.iterator()
+
+    while (iterator.hasNext()) {
+      val ticket = iterator.next()
+      val permit = ticket.permit ?: continue
+
+      if (now - ticket.grantedAt >= CLAIM_TIMEOUT_MS) {
+        Log.w(TAG, "Permit for message ${ticket.messageId} went unclaimed. Giving it to the next download.")
+        iterator.remove()
+        permit.closeLocked()
+      }
+    }
+  }
+
+  private fun priorityOf(messageId: Long): Priority {
+    return when (messageId) {
+      in visibleMessageIds -> Priority.VISIBLE
+      in prefetchMessageIds -> Priority.PREFETCH
+      else -> Priority.BACKGROUND
+    }
+  }
+
+  private fun onPermitClosed(permit: Permit) {
+    val granted = synchronized(lock) {
+      releaseSlot(permit)
+      recordSample(permit.bytesTransferred)
+      dispatch()
+    }
+
+    notifyGranted(granted)
+  }
+
+  private fun releaseSlot(permit: Permit) {
+    running--
+    val hostCount = (runningPerHost[permit.host] ?: 1) - 1
+    if (hostCount > 0) {
+      runningPerHost[permit.host] = hostCount
+    } else {
+      runningPerHost.remove(permit.host)
+    }
+  }
+
+  private fun recordSample(bytes: Long) {
+    val now = clock()
+
+    if (windowStart < 0) {
+      windowStart = now
+    }
+
+    windowBytes += bytes
+
+    val elapsed = now - windowStart
+    if (elapsed < sampleWindowMs) {
+      return
+    }
+
+    if (windowSaturated) {
+      adjustLimit(windowBytes.toDouble() / elapsed)
+    }
+
+    windowStart = now
+    windowBytes = 0
+    windowSaturated = running >= limit || waiting.isNotEmpty()
+  }
+
+  private fun adjustLimit(throughput: Double) {
+    val previous = lastThroughput
+    lastThroughput = throughput
+
+    var recovering = false
+    val step = when {
+      previous == 0.0 -> 1
+      throughput > previous * (1 + CHANGE_THRESHOLD) -> if (lastStep != 0) lastStep else 1
+      throughput < previous * (1 - CHANGE_THRESHOLD) -> {
+        recovering = lastStep != 0
+        if (lastStep != 0) -lastStep else -1
+      }
+      lastStep != 0 && !lastStepWasRecovery -> -1
+      windowsSinceStep >= PROBE_AFTER_WINDOWS -> 1
+      else -> 0
+    }
+
+    val newLimit = (limit + step).coerceIn(minConcurrency, maxConcurrency)
+
+    if (newLimit != limit) {
+      Log.d(TAG, "Concurrency $limit -> $newLimit (${"%.1f".format(throughput)} bytes/ms, was ${"%.1f".format(previous)})")
+      lastStep = newLimit - limit
+      lastStepWasRecovery = recovering
+      limit = newLimit
+      windowsSinceStep = 0
+    } else {
+      lastStep = 0
+      lastStepWasRecovery = false
+      windowsSinceStep++
+    }
+  }
+
+  /**
+   * A download's place in line.
+   */
+  inner class Ticket internal constructor(
+    val messageId: Long,
+    val host: String,
+    internal val sequence: Long
+  ) {
+    internal var permit: Permit? = null
+    internal var grantedAt = 0L
+    internal var onGranted: (() -> Unit)? = null
+    private var cancelled = false
+
+    val isGranted: Boolean
+      get() = synchronized(lock) { permit != null }
+
+    /**
+     * Blocks until granted, checking [shouldCancel] every so often.
+     */
+    fun await(shouldCancel: () -> Boolean = { false }): Permit? {
+      synchronized(lock) {
+        while (permit == null && !cancelled) {
+          if (shouldCancel()) {
+            cancel()
+            return null
+          }
+
+          try {
+            lock.wait(CANCEL_CHECK_INTERVAL_MS)
+          } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            cancel()
+            return null
+          }
+        }
+
+        return permit
+      }
+    }
+
+    /**
+     * Gives up our place in line, or our permit if we were already granted one.
+     */
+    fun cancel() {
+      val granted: Permit? = synchronized(lock) {
+        cancelled = true
+        waiting.remove(this)
+        permit
+      }
+
+      granted?.close()
+    }
+  }
+
+  /**
+   * Held for the duration of a download. Set [bytesTransferred] before closing so the download counts towards the throughput measurements.
+   */
+  inner class Permit internal constructor(internal val host: String) : Closeable {
+    var bytesTransferred: Long = 0
+    private var closed = false
+
+    override fun close() {
+      synchronized(lock) {
+        if (closed) {
+          return
+        }
+        closed = true
+      }
+
+      onPermitClosed(this)
+    }
+
+    /**
+     * Closes a permit that was never used, without counting it towards the throughput measurements. Must be called while holding [lock].
+     */
+    internal fun closeLocked() {
+      if (!closed) {
+        closed = true
+        releaseSlot(this)
+      }
+    }
+  }
+}
@@ -312,4 +312,40 @@ object ArchiveRestoreProgress {
   }
 
   //endregion Attachment Debug
+
+  //region Database Restore Debug
+
+  /** Stats for the most recent database restore in this process, if there's been one. */
+  @Volatile
+  var lastDatabaseRestoreStats: DatabaseRestoreStats? = null
+    private set
+
+  fun onDatabaseRestoreFinished(stats: DatabaseRestoreStats) {
+    lastDatabaseRestoreStats = stats
+    Log.i(TAG, "Database restore finished! $stats")
+  }
+
+  /**
+   * Throughput of a database restore, along with a breakdown of where the time went.
+   */
+  data class DatabaseRestoreStats(
+    val frameCount: Long,
+    val totalBytes: Long,
+    val durationMs: Long,
+    /** Total time spent in each stage, in fractional milliseconds. Some stages run in parallel, so these can add up to more than [durationMs]. */
+    val stageTimesMs: Map<String, Double>
+  ) {
+    val framesPerSecond: Long
+      get() = if (durationMs > 0) frameCount * 1000 / durationMs else 0
+
+    val bytesPerSecond: Long
+      get() = if (durationMs > 0) totalBytes * 1000 / durationMs else 0
+
+    override fun toString(): String {
+      val stages = stageTimesMs.entries.joinToString(separator = ", ") { (stage, time) -> "$stage=${time.toLong()}ms" }
+      return "Duration=${durationMs}ms, Frames=$frameCount, TotalBytes=$totalBytes (${totalBytes.bytes.toUnitString()}), FrameRate=$framesPerSecond frames/sec, ByteRate=$bytesPerSecond bytes/sec (${bytesPerSecond.bytes.toUnitString()}/sec), Stages=[$stages]"
+    }
+  }
+
+  //endregion Database Restore Debug
 }
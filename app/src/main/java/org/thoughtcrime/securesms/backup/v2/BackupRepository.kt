@@ -31,6 +31,7 @@ import org.signal.core.util.DiskUtil
 import org.signal.core.util.EventTimer
 import org.signal.core.util.PendingIntentFlags.cancelCurrent
 import org.signal.core.util.Stopwatch
+import org.signal.core.util.ThreadUtil
 import org.signal.core.util.bytes
 import org.signal.core.util.concurrent.LimitedWorker
 import org.signal.core.util.concurrent.SignalDispatchers
@@ -44,6 +45,7 @@ import org.signal.core.util.getAllTriggerDefinitions
 import org.signal.core.util.getForeignKeyViolations
 import org.signal.core.util.logging.Log
 import org.signal.core.util.logging.logW
+import org.signal.core.util.mebiBytes
 import org.signal.core.util.money.FiatMoney
 import org.signal.core.util.requireBoolean
 import org.signal.core.util.requireIntOrNull
@@ -81,6 +83,8 @@ import org.thoughtcrime.securesms.backup.v2.stream.BackupExportWriter
 import org.thoughtcrime.securesms.backup.v2.stream.BackupImportReader
 import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupReader
 import org.thoughtcrime.securesms.backup.v2.stream.EncryptedBackupWriter
+import org.thoughtcrime.securesms.backup.v2.stream.PipelinedBackupExportWriter
+import org.thoughtcrime.securesms.backup.v2.stream.PipelinedBackupImportReader
 import org.thoughtcrime.securesms.backup.v2.stream.PlainTextBackupReader
 import org.thoughtcrime.securesms.backup.v2.stream.PlainTextBackupWriter
 import org.thoughtcrime.securesms.backup.v2.ui.BackupAlert
@@ -179,10 +183,13 @@ import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicLong
 import kotlin.jvm.optionals.getOrNull
+import kotlin.math.max
 import kotlin.time.Duration
 import kotlin.time.Duration.Companion.days
 import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.nanoseconds
 import kotlin.time.Duration.Companion.seconds
+import kotlin.time.DurationUnit
 
 object BackupRepository {
 
@@ -195,6 +202,12 @@ object BackupRepository {
   private const val RECENT_RECIPIENTS_MAX = 50
   private val MANUAL_BACKUP_NOTIFICATION_THRESHOLD = 30.days
 
+  /** How much encoded data we let pile up in front of the writer before the export waits for it to catch up. */
+  private val EXPORT_MAX_BYTES_IN_FLIGHT = 16.mebiBytes
+
+  /** How much data we let the import read ahead of the database writes. */
+  private val IMPORT_MAX_BYTES_IN_FLIGHT = 16.mebiBytes
+
   private val resetInitializedStateErrorAction: StatusCodeErrorAction = { error ->
     when (error.code) {
       401 -> {
@@ -929,6 +942,7 @@ object BackupRepository {
     val eventTimer = EventTimer()
     val mainDbName = if (isLocal) LOCAL_MAIN_DB_SNAPSHOT_NAME else REMOTE_MAIN_DB_SNAPSHOT_NAME
     val keyValueDbName = if (isLocal) LOCAL_KEYVALUE_DB_SNAPSHOT_NAME else REMOTE_KEYVALUE_DB_SNAPSHOT_NAME
+    val exportExecutor = SignalExecutors.newCachedBoundedExecutor("signal-backup-export", ThreadUtil.PRIORITY_BACKGROUND_THREAD, 1, max(Runtime.getRuntime().availableProcessors() - 1, 1), 15)
 
     try {
       val dbSnapshot: SignalDatabase = createSignalDatabaseSnapshot(mainDbName)
@@ -943,11 +957,14 @@ object BackupRepository {
 
       var frameCount = 0L
 
-      writer.use {
+      // Frames are encoded and written off of this thread, leaving it free to keep reading from the database
+      val pipelinedWriter = PipelinedBackupExportWriter(writer, exportExecutor, EXPORT_MAX_BYTES_IN_FLIGHT.inWholeBytes)
+
+      pipelinedWriter.use {
         val debugInfo = buildDebugInfo()
         eventTimer.emit("debug-info")
 
-        writer.write(
+        pipelinedWriter.write(
           BackupInfo(
             version = VERSION,
             backupTimeMs = exportState.backupTime,
@@ -963,7 +980,7 @@ object BackupRepository {
         dbSnapshot.rawWritableDatabase.withinTransaction {
           progressEmitter?.onAccount()
           AccountDataArchiveProcessor.export(dbSnapshot, signalStoreSnapshot, exportState) { frame ->
-            writer.write(frame)
+            pipelinedWriter.write(frame)
             extraFrameOperation?.invoke(frame)
             eventTimer.emit("account")
             frameCount++
@@ -975,7 +992,7 @@ object BackupRepository {
 
           progressEmitter?.onRecipient()
           RecipientArchiveProcessor.export(dbSnapshot, signalStoreSnapshot, exportState, selfAci) {
-            writer.write(it)
+            pipelinedWriter.write(it)
             extraFrameOperation?.invoke(it)
             eventTimer.emit("recipient")
             frameCount++
@@ -987,7 +1004,7 @@ object BackupRepository {
 
           progressEmitter?.onThread()
           ChatArchiveProcessor.export(dbSnapshot, exportState) { frame ->
-            writer.write(frame)
+            pipelinedWriter.write(frame)
             extraFrameOperation?.invoke(frame)
             eventTimer.emit("thread")
             frameCount++
@@ -998,7 +1015,7 @@ object BackupRepository {
 
           progressEmitter?.onCall()
           AdHocCallArchiveProcessor.export(dbSnapshot, exportState) { frame ->
-            writer.write(frame)
+            pipelinedWriter.write(frame)
             extraFrameOperation?.invoke(frame)
             eventTimer.emit("call")
             frameCount++
@@ -1010,7 +1027,7 @@ object BackupRepository {
 
           progressEmitter?.onSticker()
           StickerArchiveProcessor.export(dbSnapshot) { frame ->
-            writer.write(frame)
+            pipelinedWriter.write(frame)
             extraFrameOperation?.invoke(frame)
             eventTimer.emit("sticker-pack")
             frameCount++
@@ -1022,7 +1039,7 @@ object BackupRepository {
 
           progressEmitter?.onNotificationProfile()
           NotificationProfileArchiveProcessor.export(dbSnapshot, exportState) { frame ->
-            writer.write(frame)
+            pipelinedWriter.write(frame)
             extraFrameOperation?.invoke(frame)
             eventTimer.emit("notification-profile")
             frameCount++
@@ -1034,7 +1051,7 @@ object BackupRepository {
 
           progressEmitter?.onChatFolder()
           ChatFolderArchiveProcessor.export(dbSnapshot, exportState) { frame ->
-            writer.write(frame)
+            pipelinedWriter.write(frame)
             extraFrameOperation?.invoke(frame)
             eventTimer.emit("chat-folder")
             frameCount++
@@ -1047,8 +1064,8 @@ object BackupRepository {
           val approximateMessageCount = dbSnapshot.messageTable.getApproximateExportableMessageCount(exportState.threadIds)
           val frameCountStart = frameCount
           progressEmitter?.onMessage(0, approximateMessageCount)
-          ChatItemArchiveProcessor.export(dbSnapshot, exportState, selfRecipientId, messageInclusionCutoffTime, cancellationSignal) { frame ->
-            writer.write(frame)
+          ChatItemArchiveProcessor.export(dbSnapshot, exportState, selfRecipientId, messageInclusionCutoffTime, exportExecutor, cancellationSignal) { frame ->
+            pipelinedWriter.write(frame)
             extraFrameOperation?.invoke(frame)
             eventTimer.emit("message")
             frameCount++
@@ -1069,6 +1086,7 @@ object BackupRepository {
 
       Log.d(TAG, "[export] totalFrames: $frameCount | ${eventTimer.stop().summary}")
     } finally {
+      exportExecutor.shutdown()
       deleteDatabaseSnapshot(mainDbName)
       deleteDatabaseSnapshot(keyValueDbName)
     }
@@ -1297,72 +1315,96 @@ object BackupRepository {
       Log.d(TAG, "[import] Beginning to read frames.")
       val totalLength = frameReader.getStreamLength()
       var frameCount = 0
-      for (frame in frameReader) {
-        when {
-          frame.account != null -> {
-            AccountDataArchiveProcessor.import(frame.account, selfId, importState)
-            eventTimer.emit("account")
-            frameCount++
-          }
 
-          frame.recipient != null -> {
-            RecipientArchiveProcessor.import(frame.recipient, importState)
-            eventTimer.emit("recipient")
-            frameCount++
-          }
+      // Decrypting and parsing frames happens on other threads, leaving this one (which holds the transaction) free to just write to the database
+      val importExecutor = SignalExecutors.newCachedBoundedExecutor("signal-backup-import", ThreadUtil.PRIORITY_BACKGROUND_THREAD, 1, max(Runtime.getRuntime().availableProcessors() - 1, 1), 15)
+      val pipelinedReader = PipelinedBackupImportReader(frameReader, importExecutor, IMPORT_MAX_BYTES_IN_FLIGHT.inWholeBytes)
+      val frameStartTime = System.currentTimeMillis()
 
-          frame.chat != null -> {
-            ChatArchiveProcessor.import(frame.chat, importState)
-            eventTimer.emit("chat")
-            frameCount++
-          }
+      try {
+        for (frame in pipelinedReader) {
+          when {
+            frame.account != null -> {
+              AccountDataArchiveProcessor.import(frame.account, selfId, importState)
+              eventTimer.emit("account")
+              frameCount++
+            }
 
-          frame.adHocCall != null -> {
-            AdHocCallArchiveProcessor.import(frame.adHocCall, importState)
-            eventTimer.emit("call")
-            frameCount++
-          }
+            frame.recipient != null -> {
+              RecipientArchiveProcessor.import(frame.recipient, importState)
+              eventTimer.emit("recipient")
+              frameCount++
+            }
 
-          frame.stickerPack != null -> {
-            StickerArchiveProcessor.import(frame.stickerPack)
-            eventTimer.emit("sticker-pack")
-            frameCount++
-          }
+            frame.chat != null -> {
+              ChatArchiveProcessor.import(frame.chat, importState)
+              eventTimer.emit("chat")
+              frameCount++
+            }
 
-          frame.notificationProfile != null -> {
-            NotificationProfileArchiveProcessor.import(frame.notificationProfile, importState)
-            eventTimer.emit("notification-profile")
-            frameCount++
-          }
+            frame.adHocCall != null -> {
+              AdHocCallArchiveProcessor.import(frame.adHocCall, importState)
+              eventTimer.emit("call")
+              frameCount++
+            }
 
-          frame.chatFolder != null -> {
-            ChatFolderArchiveProcessor.import(frame.chatFolder, importState)
-            eventTimer.emit("chat-folder")
-            frameCount++
-          }
+            frame.stickerPack != null -> {
+              StickerArchiveProcessor.import(frame.stickerPack)
+              eventTimer.emit("sticker-pack")
+              frameCount++
+            }
 
-          frame.chatItem != null -> {
-            chatItemInserter.import(frame.chatItem)
-            eventTimer.emit("chatItem")
-            frameCount++
+            frame.notificationProfile != null -> {
+              NotificationProfileArchiveProcessor.import(frame.notificationProfile, importState)
+              eventTimer.emit("notification-profile")
+              frameCount++
+            }
 
-            if (frameCount % 1000 == 0) {
-              if (cancellationSignal()) {
-                return ImportResult.Failure
+            frame.chatFolder != null -> {
+              ChatFolderArchiveProcessor.import(frame.chatFolder, importState)
+              eventTimer.emit("chat-folder")
+              frameCount++
+            }
+
+            frame.chatItem != null -> {
+              chatItemInserter.import(frame.chatItem)
+              eventTimer.emit("chatItem")
+              frameCount++
+
+              if (frameCount % 1000 == 0) {
+                if (cancellationSignal()) {
+                  return ImportResult.Failure
+                }
+                Log.d(TAG, "Imported $frameCount frames so far.")
               }
-              Log.d(TAG, "Imported $frameCount frames so far.")
+              // TODO if there's stuff in the stream after chatItems, we need to flush the inserter before going to the next phase
             }
-            // TODO if there's stuff in the stream after chatItems, we need to flush the inserter before going to the next phase
+
+            else -> Log.w(TAG, "Unrecognized frame")
           }
+          EventBus.getDefault().post(RestoreV2Event(RestoreV2Event.Type.PROGRESS_RESTORE, pipelinedReader.getBytesRead().bytes, totalLength.bytes))
+        }
 
-          else -> Log.w(TAG, "Unrecognized frame")
+        if (chatItemInserter.flush()) {
+          eventTimer.emit("chatItem")
         }
-        EventBus.getDefault().post(RestoreV2Event(RestoreV2Event.Type.PROGRESS_RESTORE, frameReader.getBytesRead().bytes, totalLength.bytes))
+      } finally {
+        pipelinedReader.close()
+        importExecutor.shutdown()
       }
 
-      if (chatItemInserter.flush()) {
-        eventTimer.emit("chatItem")
-      }
+      val stageTimesMs: Map<String, Double> = pipelinedReader.stopTimer().mapValues { it.value.totalEventTime } +
+        eventTimer.stop().mapValues { it.value.totalTime } +
+        ("chatItem-insert" to chatItemInserter.flushTimeNanos.nanoseconds.toDouble(DurationUnit.MILLISECONDS))
+
+      ArchiveRestoreProgress.onDatabaseRestoreFinished(
+        ArchiveRestoreProgress.DatabaseRestoreStats(
+          frameCount = frameCount.toLong(),
+          totalBytes = totalLength,
+          durationMs = System.currentTimeMillis() - frameStartTime,
+          stageTimesMs = stageTimesMs
+        )
+      )
 
       EventBus.getDefault().post(RestoreV2Event(RestoreV2Event.Type.PROGRESS_FINALIZING, 0.bytes, 0.bytes))
 
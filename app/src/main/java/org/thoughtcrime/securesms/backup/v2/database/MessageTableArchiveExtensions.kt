@@ -20,11 +20,12 @@ import org.thoughtcrime.securesms.database.MessageTable.Companion.SCHEDULED_DATE
 import org.thoughtcrime.securesms.database.MessageTable.Companion.STORY_TYPE
 import org.thoughtcrime.securesms.database.SignalDatabase
 import org.thoughtcrime.securesms.recipients.RecipientId
+import java.util.concurrent.ExecutorService
 import kotlin.time.Duration.Companion.days
 
 private val TAG = "MessageTableArchiveExtensions"
 
-fun MessageTable.getMessagesForBackup(db: SignalDatabase, backupTime: Long, selfRecipientId: RecipientId, messageInclusionCutoffTime: Long, exportState: ExportState): ChatItemArchiveExporter {
+fun MessageTable.getMessagesForBackup(db: SignalDatabase, backupTime: Long, selfRecipientId: RecipientId, messageInclusionCutoffTime: Long, exportState: ExportState, executor: ExecutorService): ChatItemArchiveExporter {
   // We create a covering index for the query to drastically speed up perf here.
   // Remember that we're working on a temporary snapshot of the database, so we can create an index and not worry about cleaning it up.
   val startTime = System.currentTimeMillis()
@@ -121,6 +122,7 @@ fun MessageTable.getMessagesForBackup(db: SignalDatabase, backupTime: Long, self
     backupStartTime = backupTime,
     batchSize = 10_000,
     exportState = exportState,
+    executor = executor,
     cursorGenerator = { lastSeenReceivedTime, count ->
       readableDatabase
         .select(
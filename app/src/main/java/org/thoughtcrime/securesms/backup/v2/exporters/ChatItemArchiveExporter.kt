@@ -113,6 +113,7 @@ import java.io.IOException
 import java.util.LinkedList
 import java.util.Queue
 import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Future
 import kotlin.math.max
@@ -133,6 +134,9 @@ private const val MAX_POLL_OPTIONS = 10
  * attachments, etc), this will populate items in batches, doing bulk lookups to improve throughput. We keep these in a buffer
  * and only do more queries when the buffer is empty.
  *
+ * Converting records into chat items is spread across [executor], and the next batch is read from the cursor while that happens. Items still come
+ * out in cursor order.
+ *
  * All of this complexity is hidden from the user -- they just get a normal iterator interface.
  */
 class ChatItemArchiveExporter(
@@ -142,19 +146,23 @@ class ChatItemArchiveExporter(
   private val backupStartTime: Long,
   private val batchSize: Int,
   private val exportState: ExportState,
+  private val executor: ExecutorService,
   private val cursorGenerator: (Long, Int) -> Cursor
 ) : Iterator<ChatItem?>, Closeable {
 
   companion object {
     val EXPIRATION_CUTOFF = 1.days
     private val MAX_BUFFER_MEMORY_SIZE = 15.mb
+
+    /** How many records are transformed in a single task. Small enough to spread a batch across every thread, big enough to not drown in tasks. */
+    private const val TRANSFORM_CHUNK_SIZE = 250
   }
 
   /** Timer for more macro-level events, like fetching extra data vs transforming the data. */
   private val eventTimer = EventTimer()
 
   /** Timer for just the transformation process, to see what types of transformations are taking more time.  */
-  private val transformTimer = EventTimer()
+  private val transformTimer = ParallelEventTimer()
 
   /** Timer for fetching extra data. */
   private val extraDataTimer = ParallelEventTimer()
@@ -171,6 +179,9 @@ class ChatItemArchiveExporter(
 
   private var records: LinkedHashMap<Long, BackupMessageRecord> = readNextMessageRecordBatch(emptySet())
 
+  /** Extra data for [records], if we started fetching it ahead of time. */
+  private var pendingExtraData: Future<ExtraMessageData>? = null
+
   override fun hasNext(): Boolean {
     return buffer.isNotEmpty() || records.isNotEmpty()
   }
@@ -180,308 +191,334 @@ class ChatItemArchiveExporter(
       return buffer.remove()
     }
 
-    val extraData = fetchExtraMessageData(db = db, messageIds = records.keys)
+    val extraData = pendingExtraData?.await() ?: fetchExtraMessageData(db = db, messageIds = records.keys)
+    pendingExtraData = null
     eventTimer.emit("extra-data")
-    transformTimer.emit("ignore")
 
-    for ((id, record) in records) {
-      val builder = record.toBasicChatItemBuilder(selfRecipientId, extraData.groupReceiptsById[id], exportState, backupStartTime)
-      transformTimer.emit("basic")
-
-      if (builder == null || builder.authorId == exportState.releaseNoteRecipientId) {
-        continue
+    // Each record can be transformed on its own, so we spread that work across the executor while we read the next batch on this thread
+    val transformed: List<Future<List<Pair<BackupMessageRecord, ChatItem.Builder>>>> = records.values
+      .chunked(TRANSFORM_CHUNK_SIZE)
+      .map { chunk ->
+        executor.submitTyped {
+          val timer = transformTimer.newLapTimer()
+          chunk.mapNotNull { record -> transformRecord(record, extraData, timer)?.let { record to it } }
+        }
       }
 
-      when {
-        record.remoteDeleted -> {
-          builder.remoteDeletedMessage = RemoteDeletedMessage()
-          transformTimer.emit("remote-delete")
-        }
+    records = readNextMessageRecordBatch(HashSet(records.keys))
+    eventTimer.emit("messages")
 
-        MessageTypes.isJoinedType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.JOINED_SIGNAL)
-          transformTimer.emit("simple-update")
-        }
+    if (records.isNotEmpty()) {
+      val nextIds = records.keys
+      pendingExtraData = executor.submitTyped { fetchExtraMessageData(db = db, messageIds = nextIds) }
+    }
 
-        MessageTypes.isIdentityUpdate(record.type) -> {
-          if (record.fromRecipientId == selfRecipientId.toLong()) {
-            Log.w(TAG, ExportSkips.identityUpdateForSelf(record.dateSent))
-            continue
+    // Revisions are attached to the latest version of a message as we come across it, so they have to be assembled in order
+    for (future in transformed) {
+      for ((record, builder) in future.await()) {
+        if (record.latestRevisionId == null) {
+          builder.revisions = revisionMap.remove(record.id)?.repairRevisions(builder) ?: emptyList()
+          val chatItem = builder.build().validateChatItem(exportState, selfRecipientId) ?: continue
+          buffer += chatItem
+        } else {
+          var previousEdits = revisionMap[record.latestRevisionId]
+          if (previousEdits == null) {
+            previousEdits = ArrayList()
+            revisionMap[record.latestRevisionId] = previousEdits
           }
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_UPDATE)
-          transformTimer.emit("simple-update")
+          previousEdits += builder.build()
         }
+      }
+    }
+    eventTimer.emit("transform")
 
-        MessageTypes.isIdentityVerified(record.type) -> {
-          if (record.toRecipientId == selfRecipientId.toLong()) {
-            Log.w(TAG, ExportSkips.identityVerifiedForSelf(record.dateSent))
-            continue
-          }
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_VERIFIED)
-          transformTimer.emit("simple-update")
-        }
+    return if (buffer.isNotEmpty()) {
+      buffer.remove()
+    } else {
+      null
+    }
+  }
 
-        MessageTypes.isIdentityDefault(record.type) -> {
-          if (record.toRecipientId == selfRecipientId.toLong()) {
-            Log.w(TAG, ExportSkips.identityDefaultForSelf(record.dateSent))
-            continue
-          }
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_DEFAULT)
-          transformTimer.emit("simple-update")
-        }
+  override fun close() {
+    pendingExtraData?.cancel(false)
+    pendingExtraData = null
 
-        MessageTypes.isChangeNumber(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHANGE_NUMBER)
-          transformTimer.emit("simple-update")
-        }
+    Log.d(TAG, "[ChatItemArchiveExporter][batchSize = $batchSize] ${eventTimer.stop().summary}")
+    Log.d(TAG, "[ChatItemArchiveExporterTransform][batchSize = $batchSize] ${transformTimer.stop().summary}")
+    Log.d(TAG, "[ChatItemArchiveExporterExtraData][batchSize = $batchSize] ${extraDataTimer.stop().summary}")
+  }
 
-        MessageTypes.isReleaseChannelDonationRequest(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.RELEASE_CHANNEL_DONATION_REQUEST)
-          transformTimer.emit("simple-update")
-        }
+  /**
+   * Converts a single record into a [ChatItem.Builder], or returns null if it shouldn't be exported. Records are independent of each other here,
+   * so this is safe to call for many records in parallel. Anything that depends on the order of records (i.e. revisions) happens afterwards.
+   */
+  private fun transformRecord(record: BackupMessageRecord, extraData: ExtraMessageData, transformTimer: ParallelEventTimer.LapTimer): ChatItem.Builder? {
+    val id = record.id
+    val builder = record.toBasicChatItemBuilder(selfRecipientId, extraData.groupReceiptsById[id], exportState, backupStartTime)
+    transformTimer.emit("basic")
 
-        MessageTypes.isEndSessionType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.END_SESSION)
-          transformTimer.emit("simple-update")
-        }
+    if (builder == null || builder.authorId == exportState.releaseNoteRecipientId) {
+      return null
+    }
 
-        MessageTypes.isChatSessionRefresh(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHAT_SESSION_REFRESH)
-          transformTimer.emit("simple-update")
-        }
+    when {
+      record.remoteDeleted -> {
+        builder.remoteDeletedMessage = RemoteDeletedMessage()
+        transformTimer.emit("remote-delete")
+      }
 
-        MessageTypes.isBadDecryptType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BAD_DECRYPT)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isJoinedType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.JOINED_SIGNAL)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isPaymentsActivated(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.PAYMENTS_ACTIVATED)
-          transformTimer.emit("simple-update")
+      MessageTypes.isIdentityUpdate(record.type) -> {
+        if (record.fromRecipientId == selfRecipientId.toLong()) {
+          Log.w(TAG, ExportSkips.identityUpdateForSelf(record.dateSent))
+          return null
         }
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_UPDATE)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isPaymentsRequestToActivate(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.PAYMENT_ACTIVATION_REQUEST)
-          transformTimer.emit("simple-update")
+      MessageTypes.isIdentityVerified(record.type) -> {
+        if (record.toRecipientId == selfRecipientId.toLong()) {
+          Log.w(TAG, ExportSkips.identityVerifiedForSelf(record.dateSent))
+          return null
         }
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_VERIFIED)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isUnsupportedMessageType(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNSUPPORTED_PROTOCOL_MESSAGE)
-          transformTimer.emit("simple-update")
+      MessageTypes.isIdentityDefault(record.type) -> {
+        if (record.toRecipientId == selfRecipientId.toLong()) {
+          Log.w(TAG, ExportSkips.identityDefaultForSelf(record.dateSent))
+          return null
         }
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.IDENTITY_DEFAULT)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isReportedSpam(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.REPORTED_SPAM)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isChangeNumber(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHANGE_NUMBER)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isMessageRequestAccepted(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.MESSAGE_REQUEST_ACCEPTED)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isReleaseChannelDonationRequest(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.RELEASE_CHANNEL_DONATION_REQUEST)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isBlocked(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BLOCKED)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isEndSessionType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.END_SESSION)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isUnblocked(record.type) -> {
-          builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNBLOCKED)
-          transformTimer.emit("simple-update")
-        }
+      MessageTypes.isChatSessionRefresh(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.CHAT_SESSION_REFRESH)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isExpirationTimerUpdate(record.type) -> {
-          if (exportState.threadIdToRecipientId[record.threadId] in exportState.groupRecipientIds) {
-            builder.updateMessage = record.toRemoteGroupExpireTimerUpdateFromGv1(exportState) ?: continue
-          } else {
-            builder.updateMessage = ChatUpdateMessage(expirationTimerChange = ExpirationTimerChatUpdate(record.expiresIn))
-          }
+      MessageTypes.isBadDecryptType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BAD_DECRYPT)
+        transformTimer.emit("simple-update")
+      }
 
-          builder.expireStartDate = null
-          builder.expiresInMs = null
-          transformTimer.emit("expire-update")
-        }
+      MessageTypes.isPaymentsActivated(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.PAYMENTS_ACTIVATED)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isProfileChange(record.type) -> {
-          if (record.threadId == noteToSelfThreadId) {
-            Log.w(TAG, ExportSkips.profileChangeInNoteToSelf(record.dateSent))
-            continue
-          }
+      MessageTypes.isPaymentsRequestToActivate(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.PAYMENT_ACTIVATION_REQUEST)
+        transformTimer.emit("simple-update")
+      }
 
-          builder.updateMessage = record.toRemoteProfileChangeUpdate() ?: continue
-          transformTimer.emit("profile-change")
-        }
+      MessageTypes.isUnsupportedMessageType(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNSUPPORTED_PROTOCOL_MESSAGE)
+        transformTimer.emit("simple-update")
+      }
+
+      MessageTypes.isReportedSpam(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.REPORTED_SPAM)
+        transformTimer.emit("simple-update")
+      }
+
+      MessageTypes.isMessageRequestAccepted(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.MESSAGE_REQUEST_ACCEPTED)
+        transformTimer.emit("simple-update")
+      }
+
+      MessageTypes.isBlocked(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.BLOCKED)
+        transformTimer.emit("simple-update")
+      }
 
-        MessageTypes.isSessionSwitchoverType(record.type) -> {
-          builder.updateMessage = record.toRemoteSessionSwitchoverUpdate(record.dateSent) ?: continue
-          transformTimer.emit("sse")
+      MessageTypes.isUnblocked(record.type) -> {
+        builder.updateMessage = simpleUpdate(SimpleChatUpdate.Type.UNBLOCKED)
+        transformTimer.emit("simple-update")
+      }
+
+      MessageTypes.isExpirationTimerUpdate(record.type) -> {
+        if (exportState.threadIdToRecipientId[record.threadId] in exportState.groupRecipientIds) {
+          builder.updateMessage = record.toRemoteGroupExpireTimerUpdateFromGv1(exportState) ?: return null
+        } else {
+          builder.updateMessage = ChatUpdateMessage(expirationTimerChange = ExpirationTimerChatUpdate(record.expiresIn))
         }
 
-        MessageTypes.isThreadMergeType(record.type) -> {
-          builder.updateMessage = record.toRemoteThreadMergeUpdate(record.dateSent)?.takeIf { builder.authorIsAciContact(exportState) } ?: continue
-          transformTimer.emit("thread-merge")
+        builder.expireStartDate = null
+        builder.expiresInMs = null
+        transformTimer.emit("expire-update")
+      }
+
+      MessageTypes.isProfileChange(record.type) -> {
+        if (record.threadId == noteToSelfThreadId) {
+          Log.w(TAG, ExportSkips.profileChangeInNoteToSelf(record.dateSent))
+          return null
         }
 
-        MessageTypes.isGroupV2(record.type) && MessageTypes.isGroupUpdate(record.type) -> {
-          if (builder.authorId != selfRecipientId.toLong() && exportState.recipientIdToAci[builder.authorId] == null) {
-            Log.w(TAG, ExportSkips.groupUpdateHasInvalidAuthor(record.dateSent))
-            continue
-          }
+        builder.updateMessage = record.toRemoteProfileChangeUpdate() ?: return null
+        transformTimer.emit("profile-change")
+      }
 
-          val update = record.toRemoteGroupUpdate() ?: continue
-          if (update.groupChange!!.updates.isEmpty()) {
-            Log.w(TAG, ExportSkips.groupUpdateHasNoUpdates(record.dateSent))
-            continue
-          }
-          builder.updateMessage = update
-          transformTimer.emit("group-update-v2")
+      MessageTypes.isSessionSwitchoverType(record.type) -> {
+        builder.updateMessage = record.toRemoteSessionSwitchoverUpdate(record.dateSent) ?: return null
+        transformTimer.emit("sse")
+      }
+
+      MessageTypes.isThreadMergeType(record.type) -> {
+        builder.updateMessage = record.toRemoteThreadMergeUpdate(record.dateSent)?.takeIf { builder.authorIsAciContact(exportState) } ?: return null
+        transformTimer.emit("thread-merge")
+      }
+
+      MessageTypes.isGroupV2(record.type) && MessageTypes.isGroupUpdate(record.type) -> {
+        if (builder.authorId != selfRecipientId.toLong() && exportState.recipientIdToAci[builder.authorId] == null) {
+          Log.w(TAG, ExportSkips.groupUpdateHasInvalidAuthor(record.dateSent))
+          return null
         }
 
-        MessageTypes.isGroupUpdate(record.type) || MessageTypes.isGroupQuit(record.type) -> {
-          builder.updateMessage = record.toRemoteGroupUpdateFromGv1(exportState) ?: continue
-          transformTimer.emit("group-update-v1")
+        val update = record.toRemoteGroupUpdate() ?: return null
+        if (update.groupChange!!.updates.isEmpty()) {
+          Log.w(TAG, ExportSkips.groupUpdateHasNoUpdates(record.dateSent))
+          return null
         }
+        builder.updateMessage = update
+        transformTimer.emit("group-update-v2")
+      }
+
+      MessageTypes.isGroupUpdate(record.type) || MessageTypes.isGroupQuit(record.type) -> {
+        builder.updateMessage = record.toRemoteGroupUpdateFromGv1(exportState) ?: return null
+        transformTimer.emit("group-update-v1")
+      }
 
-        MessageTypes.isGroupV1MigrationEvent(record.type) -> {
-          builder.updateMessage = ChatUpdateMessage(
-            groupChange = GroupChangeChatUpdate(
-              updates = listOf(GroupChangeChatUpdate.Update(groupV2MigrationUpdate = GroupV2MigrationUpdate()))
-            )
+      MessageTypes.isGroupV1MigrationEvent(record.type) -> {
+        builder.updateMessage = ChatUpdateMessage(
+          groupChange = GroupChangeChatUpdate(
+            updates = listOf(GroupChangeChatUpdate.Update(groupV2MigrationUpdate = GroupV2MigrationUpdate()))
           )
-          transformTimer.emit("gv1-migration")
-        }
+        )
+        transformTimer.emit("gv1-migration")
+      }
 
-        MessageTypes.isCallLog(record.type) -> {
-          val call = db.callTable.getCallByMessageId(record.id)
-          builder.updateMessage = call?.toRemoteCallUpdate(exportState, record) ?: continue
-          transformTimer.emit("call-log")
-        }
+      MessageTypes.isCallLog(record.type) -> {
+        val call = db.callTable.getCallByMessageId(record.id)
+        builder.updateMessage = call?.toRemoteCallUpdate(exportState, record) ?: return null
+        transformTimer.emit("call-log")
+      }
 
-        MessageTypes.isPaymentsNotification(record.type) -> {
-          if (record.threadId == noteToSelfThreadId) {
-            Log.w(TAG, ExportSkips.paymentNotificationInNoteToSelf(record.dateSent))
-            continue
-          }
-          builder.paymentNotification = record.toRemotePaymentNotificationUpdate(db)
-          transformTimer.emit("payment")
+      MessageTypes.isPaymentsNotification(record.type) -> {
+        if (record.threadId == noteToSelfThreadId) {
+          Log.w(TAG, ExportSkips.paymentNotificationInNoteToSelf(record.dateSent))
+          return null
         }
+        builder.paymentNotification = record.toRemotePaymentNotificationUpdate(db)
+        transformTimer.emit("payment")
+      }
 
-        MessageTypes.isGiftBadge(record.type) -> {
-          builder.giftBadge = record.toRemoteGiftBadgeUpdate() ?: continue
-          transformTimer.emit("gift-badge")
-        }
+      MessageTypes.isGiftBadge(record.type) -> {
+        builder.giftBadge = record.toRemoteGiftBadgeUpdate() ?: return null
+        transformTimer.emit("gift-badge")
+      }
 
-        !record.sharedContacts.isNullOrEmpty() -> {
-          builder.contactMessage = record.toRemoteContactMessage(reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id], exportState = exportState) ?: continue
-          transformTimer.emit("contact")
-        }
+      !record.sharedContacts.isNullOrEmpty() -> {
+        builder.contactMessage = record.toRemoteContactMessage(reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id], exportState = exportState) ?: return null
+        transformTimer.emit("contact")
+      }
 
-        record.viewOnce -> {
-          builder.viewOnceMessage = record.toRemoteViewOnceMessage(exportState = exportState, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id])
-          transformTimer.emit("voice")
-        }
+      record.viewOnce -> {
+        builder.viewOnceMessage = record.toRemoteViewOnceMessage(exportState = exportState, reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[id])
+        transformTimer.emit("voice")
+      }
 
-        record.parentStoryId != 0L -> {
-          if (record.threadId == noteToSelfThreadId) {
-            Log.w(TAG, ExportSkips.directStoryReplyInNoteToSelf(record.dateSent))
-            continue
-          }
-          builder.directStoryReplyMessage = record.toRemoteDirectStoryReplyMessage(reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[record.id], exportState = exportState) ?: continue
-          transformTimer.emit("story")
+      record.parentStoryId != 0L -> {
+        if (record.threadId == noteToSelfThreadId) {
+          Log.w(TAG, ExportSkips.directStoryReplyInNoteToSelf(record.dateSent))
+          return null
         }
+        builder.directStoryReplyMessage = record.toRemoteDirectStoryReplyMessage(reactionRecords = extraData.reactionsById[id], attachments = extraData.attachmentsById[record.id], exportState = exportState) ?: return null
+        transformTimer.emit("story")
+      }
 
-        MessageTypes.isPollTerminate(record.type) -> {
-          val pollTerminateUpdate = record.toRemotePollTerminateUpdate()
-          if (pollTerminateUpdate == null) {
-            Log.w(TAG, ExportSkips.pollTerminateIsEmpty(record.dateSent))
-            continue
-          }
-          builder.updateMessage = ChatUpdateMessage(pollTerminate = pollTerminateUpdate)
-          transformTimer.emit("poll-terminate")
+      MessageTypes.isPollTerminate(record.type) -> {
+        val pollTerminateUpdate = record.toRemotePollTerminateUpdate()
+        if (pollTerminateUpdate == null) {
+          Log.w(TAG, ExportSkips.pollTerminateIsEmpty(record.dateSent))
+          return null
         }
+        builder.updateMessage = ChatUpdateMessage(pollTerminate = pollTerminateUpdate)
+        transformTimer.emit("poll-terminate")
+      }
 
-        extraData.pollsById[record.id] != null -> {
-          val poll = extraData.pollsById[record.id]!!
-          if (poll.question.isEmpty() || poll.question.length > MAX_POLL_QUESTION_CHARACTER_LENGTH) {
-            Log.w(TAG, ExportSkips.invalidPollQuestion(record.dateSent))
-            continue
-          }
-          if (poll.pollOptions.isEmpty() || poll.pollOptions.size > MAX_POLL_OPTIONS || poll.pollOptions.any { it.text.isEmpty() || it.text.length > MAX_POLL_CHARACTER_LENGTH }) {
-            Log.w(TAG, ExportSkips.invalidPollOption(record.dateSent))
-            continue
-          }
-          builder.poll = poll.toRemotePollMessage(reactionRecords = extraData.reactionsById[record.id], exportState = exportState)
-          transformTimer.emit("poll")
+      extraData.pollsById[record.id] != null -> {
+        val poll = extraData.pollsById[record.id]!!
+        if (poll.question.isEmpty() || poll.question.length > MAX_POLL_QUESTION_CHARACTER_LENGTH) {
+          Log.w(TAG, ExportSkips.invalidPollQuestion(record.dateSent))
+          return null
         }
+        if (poll.pollOptions.isEmpty() || poll.pollOptions.size > MAX_POLL_OPTIONS || poll.pollOptions.any { it.text.isEmpty() || it.text.length > MAX_POLL_CHARACTER_LENGTH }) {
+          Log.w(TAG, ExportSkips.invalidPollOption(record.dateSent))
+          return null
+        }
+        builder.poll = poll.toRemotePollMessage(reactionRecords = extraData.reactionsById[record.id], exportState = exportState)
+        transformTimer.emit("poll")
+      }
 
-        MessageTypes.isPinnedMessageUpdate(record.type) -> {
-          val pinMessageUpdate = record.toRemotePinMessageUpdate(exportState)
-          if (pinMessageUpdate == null) {
-            Log.w(TAG, ExportSkips.pinMessageIsInvalid(record.dateSent))
-            continue
-          }
-          builder.updateMessage = ChatUpdateMessage(pinMessage = pinMessageUpdate)
-          transformTimer.emit("pin-message")
+      MessageTypes.isPinnedMessageUpdate(record.type) -> {
+        val pinMessageUpdate = record.toRemotePinMessageUpdate(exportState)
+        if (pinMessageUpdate == null) {
+          Log.w(TAG, ExportSkips.pinMessageIsInvalid(record.dateSent))
+          return null
         }
+        builder.updateMessage = ChatUpdateMessage(pinMessage = pinMessageUpdate)
+        transformTimer.emit("pin-message")
+      }
 
-        else -> {
-          val attachments = extraData.attachmentsById[record.id]
-          val sticker = attachments?.firstOrNull { dbAttachment -> dbAttachment.isSticker }
+      else -> {
+        val attachments = extraData.attachmentsById[record.id]
+        val sticker = attachments?.firstOrNull { dbAttachment -> dbAttachment.isSticker }
 
-          if (sticker?.stickerLocator != null) {
-            builder.stickerMessage = sticker.toRemoteStickerMessage(sentTimestamp = record.dateSent, reactions = extraData.reactionsById[id], exportState = exportState)
-          } else {
-            val standardMessage = record.toRemoteStandardMessage(
-              exportState = exportState,
-              reactionRecords = extraData.reactionsById[id],
-              mentions = extraData.mentionsById[id],
-              attachments = extraData.attachmentsById[record.id]
-            )
-
-            if (standardMessage.text.isNullOrBlank() && standardMessage.attachments.isEmpty()) {
-              Log.w(TAG, ExportSkips.emptyStandardMessage(record.dateSent))
-              continue
-            }
+        if (sticker?.stickerLocator != null) {
+          builder.stickerMessage = sticker.toRemoteStickerMessage(sentTimestamp = record.dateSent, reactions = extraData.reactionsById[id], exportState = exportState)
+        } else {
+          val standardMessage = record.toRemoteStandardMessage(
+            exportState = exportState,
+            reactionRecords = extraData.reactionsById[id],
+            mentions = extraData.mentionsById[id],
+            attachments = extraData.attachmentsById[record.id]
+          )
 
-            builder.standardMessage = standardMessage
-            transformTimer.emit("standard")
+          if (standardMessage.text.isNullOrBlank() && standardMessage.attachments.isEmpty()) {
+            Log.w(TAG, ExportSkips.emptyStandardMessage(record.dateSent))
+            return null
           }
-        }
-      }
 
-      if (record.latestRevisionId == null) {
-        builder.revisions = revisionMap.remove(record.id)?.repairRevisions(builder) ?: emptyList()
-        val chatItem = builder.build().validateChatItem(exportState, selfRecipientId) ?: continue
-        buffer += chatItem
-      } else {
-        var previousEdits = revisionMap[record.latestRevisionId]
-        if (previousEdits == null) {
-          previousEdits = ArrayList()
-          revisionMap[record.latestRevisionId] = previousEdits
+          builder.standardMessage = standardMessage
+          transformTimer.emit("standard")
         }
-        previousEdits += builder.build()
       }
-      transformTimer.emit("revisions")
     }
-    eventTimer.emit("transform")
 
-    val recordIds = HashSet(records.keys)
-    records.clear()
-
-    records = readNextMessageRecordBatch(recordIds)
-    eventTimer.emit("messages")
-
-    return if (buffer.isNotEmpty()) {
-      buffer.remove()
-    } else {
-      null
-    }
-  }
-
-  override fun close() {
-    Log.d(TAG, "[ChatItemArchiveExporter][batchSize = $batchSize] ${eventTimer.stop().summary}")
-    Log.d(TAG, "[ChatItemArchiveExporterTransform][batchSize = $batchSize] ${transformTimer.stop().summary}")
-    Log.d(TAG, "[ChatItemArchiveExporterExtraData][batchSize = $batchSize] ${extraDataTimer.stop().summary}")
+    return builder
   }
 
   private fun readNextMessageRecordBatch(pastIds: Set<Long>): LinkedHashMap<Long, BackupMessageRecord> {
@@ -504,33 +541,33 @@ class ChatItemArchiveExporter(
   }
 
   private fun fetchExtraMessageData(db: SignalDatabase, messageIds: Set<Long>): ExtraMessageData {
-    val executor = SignalExecutors.BOUNDED
+    val extraDataExecutor = SignalExecutors.BOUNDED
 
-    val mentionsFuture = executor.submitTyped {
+    val mentionsFuture = extraDataExecutor.submitTyped {
       extraDataTimer.timeEvent("mentions") {
         db.mentionTable.getMentionsForMessages(messageIds)
       }
     }
 
-    val reactionsFuture = executor.submitTyped {
+    val reactionsFuture = extraDataExecutor.submitTyped {
       extraDataTimer.timeEvent("reactions") {
         db.reactionTable.getReactionsForMessages(messageIds)
       }
     }
 
-    val attachmentsFuture = executor.submitTyped {
+    val attachmentsFuture = extraDataExecutor.submitTyped {
       extraDataTimer.timeEvent("attachments") {
         db.attachmentTable.getAttachmentsForMessagesArchive(messageIds)
       }
     }
 
-    val groupReceiptsFuture = executor.submitTyped {
+    val groupReceiptsFuture = extraDataExecutor.submitTyped {
       extraDataTimer.timeEvent("group-receipts") {
         db.groupReceiptTable.getGroupReceiptInfoForMessages(messageIds)
       }
     }
 
-    val pollsFuture = executor.submitTyped {
+    val pollsFuture = extraDataExecutor.submitTyped {
       extraDataTimer.timeEvent("polls") {
         db.pollTable.getPollsForMessages(messageIds = messageIds, includePending = false)
       }
@@ -1652,6 +1689,17 @@ private fun <T> ExecutorService.submitTyped(callable: Callable<T>): Future<T> {
   return this.submit(callable)
 }
 
+/**
+ * Waits for the result, rethrowing whatever the task itself threw rather than wrapping it in an [ExecutionException].
+ */
+private fun <T> Future<T>.await(): T {
+  return try {
+    get()
+  } catch (e: ExecutionException) {
+    throw e.cause ?: e
+  }
+}
+
 private fun ChatItem.validateChatItem(exportState: ExportState, selfRecipientId: RecipientId): ChatItem? {
   if (this.standardMessage == null &&
     this.contactMessage == null &&
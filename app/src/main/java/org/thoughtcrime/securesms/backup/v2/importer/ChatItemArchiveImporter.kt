@@ -6,6 +6,8 @@
 package org.thoughtcrime.securesms.backup.v2.importer
 
 import android.content.ContentValues
+import android.database.SQLException
+import androidx.sqlite.db.SupportSQLiteStatement
 import androidx.core.content.contentValuesOf
 import org.signal.core.models.ServiceId
 import org.signal.core.util.Base64
@@ -13,10 +15,9 @@ import org.signal.core.util.Hex
 import org.signal.core.util.SqlUtil
 import org.signal.core.util.UuidUtil
 import org.signal.core.util.asList
-import org.signal.core.util.forEach
+import org.signal.core.util.bindValue
 import org.signal.core.util.logging.Log
 import org.signal.core.util.orNull
-import org.signal.core.util.requireLong
 import org.signal.core.util.toInt
 import org.signal.core.util.update
 import org.thoughtcrime.securesms.attachments.Attachment
@@ -44,6 +45,7 @@ import org.thoughtcrime.securesms.backup.v2.proto.ViewOnceMessage
 import org.thoughtcrime.securesms.backup.v2.util.toLocalAttachment
 import org.thoughtcrime.securesms.contactshare.Contact
 import org.thoughtcrime.securesms.database.AttachmentTable
+import org.thoughtcrime.securesms.database.BatchColumn
 import org.thoughtcrime.securesms.database.CallTable
 import org.thoughtcrime.securesms.database.GroupReceiptTable
 import org.thoughtcrime.securesms.database.MessageTable
@@ -86,7 +88,6 @@ import org.thoughtcrime.securesms.util.MessageUtil
 import org.whispersystems.signalservice.api.payments.Money
 import org.whispersystems.signalservice.internal.push.DataMessage
 import java.math.BigInteger
-import java.sql.SQLException
 import java.util.Optional
 import java.util.UUID
 import org.thoughtcrime.securesms.backup.v2.proto.GiftBadge as BackupGiftBadge
@@ -144,26 +145,29 @@ class ChatItemArchiveImporter(
       MessageTable.PINNED_AT
     )
 
-    private val REACTION_COLUMNS = arrayOf(
-      ReactionTable.MESSAGE_ID,
-      ReactionTable.AUTHOR_ID,
-      ReactionTable.EMOJI,
-      ReactionTable.DATE_SENT,
-      ReactionTable.DATE_RECEIVED
+    private val REACTION_COLUMNS = arrayOf<BatchColumn<ReactionInsert>>(
+      BatchColumn.ofLong(ReactionTable.MESSAGE_ID) { it.messageId },
+      BatchColumn.ofLong(ReactionTable.AUTHOR_ID) { it.authorId },
+      BatchColumn.ofString(ReactionTable.EMOJI) { it.emoji },
+      BatchColumn.ofLong(ReactionTable.DATE_SENT) { it.dateSent },
+      BatchColumn.ofLong(ReactionTable.DATE_RECEIVED) { it.dateReceived }
     )
 
-    private val GROUP_RECEIPT_COLUMNS = arrayOf(
-      GroupReceiptTable.MMS_ID,
-      GroupReceiptTable.RECIPIENT_ID,
-      GroupReceiptTable.STATUS,
-      GroupReceiptTable.TIMESTAMP,
-      GroupReceiptTable.UNIDENTIFIED
+    private val GROUP_RECEIPT_COLUMNS = arrayOf<BatchColumn<GroupReceiptInsert>>(
+      BatchColumn.ofLong(GroupReceiptTable.MMS_ID) { it.messageId },
+      BatchColumn.ofLong(GroupReceiptTable.RECIPIENT_ID) { it.recipientId },
+      BatchColumn.ofInt(GroupReceiptTable.STATUS) { it.status },
+      BatchColumn.ofLong(GroupReceiptTable.TIMESTAMP) { it.timestamp },
+      BatchColumn.ofBoolean(GroupReceiptTable.UNIDENTIFIED) { it.unidentified }
     )
   }
 
   private val selfId = Recipient.self().id
   private val buffer: Buffer = Buffer()
-  private var messageId: Long = SqlUtil.getNextAutoIncrementId(db, MessageTable.TABLE_NAME)
+
+  /** Total time spent writing batches to the database, so it can be told apart from the time spent converting items. */
+  var flushTimeNanos: Long = 0
+    private set
 
   /**
    * Indicate that you want to insert the [ChatItem] into the database.
@@ -193,85 +197,125 @@ class ChatItemArchiveImporter(
       Log.w(TAG, ImportSkips.chatIdRemoteRecipientNotFound(chatItem.dateSent, chatItem.chatId))
       return
     }
-    val messageInsert = chatItem.toMessageInsert(fromLocalRecipientId, chatLocalRecipientId, localThreadId)
+    val messageInsert = chatItem.toMessageInsert(fromLocalRecipientId, chatLocalRecipientId, localThreadId).copy(
+      reactions = { rowId -> chatItem.toReactionInserts(rowId) },
+      groupReceipts = { rowId -> chatItem.toGroupReceiptInserts(rowId, chatBackupRecipientId) }
+    )
+
     if (chatItem.revisions.isNotEmpty()) {
-      // Flush to avoid having revisions cross batch boundaries, which will cause a foreign key failure
+      // Each revision points at the others, so they're written together, outside of a batch, where we can see the ID each one actually got
       flush()
-      val originalId = messageId
-      val latestRevisionId = originalId + chatItem.revisions.size
       val sortedRevisions = chatItem.revisions.sortedBy { it.dateSent }.map { it.toMessageInsert(fromLocalRecipientId, chatLocalRecipientId, localThreadId) }
-      val areAnyRevisionsRead = !Environment.IS_INSTRUMENTATION && ((messageInsert.contentValues.getAsInteger(MessageTable.READ) ?: 0) > 0 || sortedRevisions.any { (it.contentValues.getAsInteger(MessageTable.READ) ?: 0) > 0 })
-      for (revision in sortedRevisions) {
-        val revisionNumber = messageId - originalId
-        if (revisionNumber > 0) {
-          revision.contentValues.put(MessageTable.ORIGINAL_MESSAGE_ID, originalId)
-        } else if (areAnyRevisionsRead) {
-          revision.contentValues.put(MessageTable.READ, 1)
-        }
-        revision.contentValues.put(MessageTable.LATEST_REVISION_ID, latestRevisionId)
-        revision.contentValues.put(MessageTable.REVISION_NUMBER, revisionNumber)
-        buffer.messages += revision
-        messageId++
-      }
-
-      messageInsert.contentValues.put(MessageTable.ORIGINAL_MESSAGE_ID, originalId)
-      messageInsert.contentValues.put(MessageTable.REVISION_NUMBER, (messageId - originalId))
+      insertRevisions(sortedRevisions + messageInsert)
+      return
     }
-    buffer.messages += messageInsert
-    buffer.reactions += chatItem.toReactionContentValues(messageId)
-    buffer.groupReceipts += chatItem.toGroupReceiptContentValues(messageId, chatBackupRecipientId)
 
-    messageId++
+    buffer.messages += messageInsert
 
     if (buffer.size >= batchSize) {
       flush()
     }
   }
 
+  /**
+   * Inserts every revision of a message, oldest first, ending with the latest one.
+   */
+  private fun insertRevisions(revisions: List<MessageInsert>) {
+    val startTime = System.nanoTime()
+    val areAnyRevisionsRead = !Environment.IS_INSTRUMENTATION && revisions.any { (it.contentValues.getAsInteger(MessageTable.READ) ?: 0) > 0 }
+    val insertedIds: MutableList<Long> = mutableListOf()
+
+    db.compileStatement(buildInsert(MessageTable.TABLE_NAME, MESSAGE_COLUMNS, onConflict = "IGNORE")).use { statement ->
+      for (revision in revisions) {
+        if (insertedIds.isEmpty()) {
+          if (areAnyRevisionsRead) {
+            revision.contentValues.put(MessageTable.READ, 1)
+          }
+        } else {
+          revision.contentValues.put(MessageTable.ORIGINAL_MESSAGE_ID, insertedIds.first())
+        }
+        revision.contentValues.put(MessageTable.REVISION_NUMBER, insertedIds.size)
+
+        val rowId = statement.insertMessage(revision)
+        if (rowId != -1L) {
+          insertedIds += rowId
+        }
+      }
+    }
+
+    if (insertedIds.size > 1) {
+      val latestId = insertedIds.last()
+      SqlUtil.buildCollectionQuery(MessageTable.ID, insertedIds.dropLast(1)).forEach { query ->
+        db.update(MessageTable.TABLE_NAME)
+          .values(MessageTable.LATEST_REVISION_ID to latestId)
+          .where(query.where, query.whereArgs)
+          .run()
+      }
+    }
+
+    flushTimeNanos += System.nanoTime() - startTime
+
+    // Writes out the reactions and receipts queued up for the revisions
+    flush()
+  }
+
   /** Returns true if something was written to the db, otherwise false. */
   fun flush(): Boolean {
     if (buffer.size == 0) {
       return false
     }
 
-    var messageInsertIndex = 0
-    try {
-      SqlUtil.buildBulkInsert(MessageTable.TABLE_NAME, MESSAGE_COLUMNS, buffer.messages.map { it.contentValues }, onConflict = "IGNORE").forEach { query ->
-        db.rawQuery("${query.where} RETURNING ${MessageTable.ID}", query.whereArgs).forEach { cursor ->
-          val finalMessageId = cursor.requireLong(MessageTable.ID)
-          val relatedInsert = buffer.messages[messageInsertIndex++]
-          relatedInsert.followUp?.invoke(finalMessageId)
-        }
+    val startTime = System.nanoTime()
+
+    // Every row in the batch reuses the same prepared statement. That's cheaper than building (and having SQLite parse) one giant multi-row
+    // insert, particularly for blobs, which a multi-row insert has to inline as hex.
+    db.compileStatement(buildInsert(MessageTable.TABLE_NAME, MESSAGE_COLUMNS, onConflict = "IGNORE")).use { statement ->
+      for (message in buffer.messages) {
+        statement.insertMessage(message)
       }
-    } catch (e: SQLException) {
-      Log.w(TAG, "Failed to bulk-insert message! Trying one at at time.", e)
-      performIndividualMessageInserts(buffer.messages)
     }
 
-    SqlUtil.buildBulkInsert(ReactionTable.TABLE_NAME, REACTION_COLUMNS, buffer.reactions).forEach {
-      db.execSQL(it.where, it.whereArgs)
-    }
+    db.insertBatch(ReactionTable.TABLE_NAME, SQLiteDatabase.CONFLICT_NONE, buffer.reactions, *REACTION_COLUMNS)
+    db.insertBatch(GroupReceiptTable.TABLE_NAME, SQLiteDatabase.CONFLICT_NONE, buffer.groupReceipts, *GROUP_RECEIPT_COLUMNS)
+
+    buffer.reset()
+
+    flushTimeNanos += System.nanoTime() - startTime
+
+    return true
+  }
 
-    SqlUtil.buildBulkInsert(GroupReceiptTable.TABLE_NAME, GROUP_RECEIPT_COLUMNS, buffer.groupReceipts).forEach {
-      db.execSQL(it.where, it.whereArgs)
+  /**
+   * Inserts the message, and queues up the rows that reference it using the ID it was actually given.
+   *
+   * @return The message's row ID, or -1 if it was skipped, e.g. as a duplicate.
+   */
+  private fun SupportSQLiteStatement.insertMessage(message: MessageInsert): Long {
+    val rowId = try {
+      bindRow(MESSAGE_COLUMNS, message.contentValues)
+      executeInsert()
+    } catch (e: SQLException) {
+      Log.w(TAG, "Failed to insert message with timestamp ${message.contentValues.get(MessageTable.DATE_SENT)}. Must skip.", e)
+      -1L
     }
 
-    messageId = SqlUtil.getNextAutoIncrementId(db, MessageTable.TABLE_NAME)
+    if (rowId != -1L) {
+      message.followUp?.invoke(rowId)
+      message.reactions?.let { buffer.reactions += it(rowId) }
+      message.groupReceipts?.let { buffer.groupReceipts += it(rowId) }
+    }
 
-    buffer.reset()
+    return rowId
+  }
 
-    return true
+  private fun buildInsert(tableName: String, columns: Array<String>, onConflict: String?): String {
+    val conflictString = onConflict?.let { " OR $it" } ?: ""
+    return "INSERT$conflictString INTO $tableName (${columns.joinToString(separator = ", ")}) VALUES (${columns.joinToString(separator = ", ") { "?" }})"
   }
 
-  private fun performIndividualMessageInserts(messageInserts: List<MessageInsert>) {
-    for (message in messageInserts) {
-      val values = message.contentValues
-      try {
-        db.insert(MessageTable.TABLE_NAME, SQLiteDatabase.CONFLICT_IGNORE, values)
-        message.followUp?.invoke(messageId - 1)
-      } catch (e: SQLException) {
-        Log.w(TAG, "Failed to insert message with timestamp ${message.contentValues.get(MessageTable.DATE_SENT)}. Must skip.", e)
-      }
+  private fun SupportSQLiteStatement.bindRow(columns: Array<String>, values: ContentValues) {
+    for ((index, column) in columns.withIndex()) {
+      this.bindValue(index + 1, values.get(column))
     }
   }
 
@@ -726,7 +770,7 @@ class ChatItemArchiveImporter(
     )
   }
 
-  private fun ChatItem.toReactionContentValues(messageId: Long): List<ContentValues> {
+  private fun ChatItem.toReactionInserts(messageId: Long): List<ReactionInsert> {
     val reactions: List<Reaction> = when {
       this.standardMessage != null -> this.standardMessage.reactions
       this.contactMessage != null -> this.contactMessage.reactions
@@ -742,12 +786,12 @@ class ChatItemArchiveImporter(
         val authorId: Long? = importState.remoteToLocalRecipientId[it.authorId]?.toLong()
 
         if (authorId != null) {
-          contentValuesOf(
-            ReactionTable.MESSAGE_ID to messageId,
-            ReactionTable.AUTHOR_ID to authorId,
-            ReactionTable.DATE_SENT to it.sentTimestamp,
-            ReactionTable.DATE_RECEIVED to it.sortOrder,
-            ReactionTable.EMOJI to it.emoji
+          ReactionInsert(
+            messageId = messageId,
+            authorId = authorId,
+            emoji = it.emoji,
+            dateSent = it.sentTimestamp,
+            dateReceived = it.sortOrder
           )
         } else {
           Log.w(TAG, "[Reaction] Could not find a local recipient for backup recipient ID ${it.authorId}! Skipping.")
@@ -756,7 +800,7 @@ class ChatItemArchiveImporter(
       }
   }
 
-  private fun ChatItem.toGroupReceiptContentValues(messageId: Long, chatBackupRecipientId: Long): List<ContentValues> {
+  private fun ChatItem.toGroupReceiptInserts(messageId: Long, chatBackupRecipientId: Long): List<GroupReceiptInsert> {
     if (this.outgoing == null) {
       return emptyList()
     }
@@ -770,12 +814,12 @@ class ChatItemArchiveImporter(
       val recipientId = importState.remoteToLocalRecipientId[sendStatus.recipientId]
 
       if (recipientId != null) {
-        contentValuesOf(
-          GroupReceiptTable.MMS_ID to messageId,
-          GroupReceiptTable.RECIPIENT_ID to recipientId.serialize(),
-          GroupReceiptTable.STATUS to sendStatus.toLocalSendStatus(),
-          GroupReceiptTable.TIMESTAMP to sendStatus.timestamp,
-          GroupReceiptTable.UNIDENTIFIED to sendStatus.sealedSender.toInt()
+        GroupReceiptInsert(
+          messageId = messageId,
+          recipientId = recipientId.toLong(),
+          status = sendStatus.toLocalSendStatus(),
+          timestamp = sendStatus.timestamp,
+          unidentified = sendStatus.sealedSender
         )
       } else {
         Log.w(TAG, "[GroupReceipts] Could not find a local recipient for backup recipient ID ${sendStatus.recipientId}! Skipping.")
@@ -1320,15 +1364,33 @@ class ChatItemArchiveImporter(
       }
   }
 
-  private class MessageInsert(
+  private data class MessageInsert(
     val contentValues: ContentValues,
-    val followUp: ((Long) -> Unit)?
+    val followUp: ((Long) -> Unit)?,
+    val reactions: ((Long) -> List<ReactionInsert>)? = null,
+    val groupReceipts: ((Long) -> List<GroupReceiptInsert>)? = null
+  )
+
+  private class ReactionInsert(
+    val messageId: Long,
+    val authorId: Long,
+    val emoji: String,
+    val dateSent: Long,
+    val dateReceived: Long
+  )
+
+  private class GroupReceiptInsert(
+    val messageId: Long,
+    val recipientId: Long,
+    val status: Int,
+    val timestamp: Long,
+    val unidentified: Boolean
   )
 
   private class Buffer(
     val messages: MutableList<MessageInsert> = mutableListOf(),
-    val reactions: MutableList<ContentValues> = mutableListOf(),
-    val groupReceipts: MutableList<ContentValues> = mutableListOf()
+    val reactions: MutableList<ReactionInsert> = mutableListOf(),
+    val groupReceipts: MutableList<GroupReceiptInsert> = mutableListOf()
   ) {
     val size: Int
       get() = listOf(messages.size, reactions.size, groupReceipts.size).max()
@@ -5,10 +5,30 @@
 
 package org.thoughtcrime.securesms.backup.v2.stream
 
+import org.signal.core.util.writeVarInt32
 import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
 import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import java.io.ByteArrayOutputStream
 
 interface BackupExportWriter : AutoCloseable {
   fun write(header: BackupInfo)
   fun write(frame: Frame)
+
+  /**
+   * Writes a frame that was already encoded with [encodeDelimited]. This lets the encoding happen on a different thread than the writing.
+   */
+  fun writeDelimited(delimitedFrame: ByteArray)
+}
+
+/**
+ * Encodes this frame the way it's written to a backup: prefixed with its length as a varint.
+ */
+fun Frame.encodeDelimited(): ByteArray {
+  val frameBytes: ByteArray = this.encode()
+  val outputStream = ByteArrayOutputStream(frameBytes.size + 5)
+
+  outputStream.writeVarInt32(frameBytes.size)
+  outputStream.write(frameBytes)
+
+  return outputStream.toByteArray()
 }
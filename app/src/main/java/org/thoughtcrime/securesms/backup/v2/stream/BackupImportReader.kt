@@ -12,4 +12,9 @@ interface BackupImportReader : Iterator<Frame>, AutoCloseable {
   fun getHeader(): BackupInfo?
   fun getBytesRead(): Long
   fun getStreamLength(): Long
+
+  /**
+   * Like [next], but returns the serialized [Frame] without parsing it, so that parsing can happen somewhere else.
+   */
+  fun nextEncoded(): ByteArray
 }
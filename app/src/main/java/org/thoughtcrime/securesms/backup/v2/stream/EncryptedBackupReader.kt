@@ -42,7 +42,7 @@ class EncryptedBackupReader private constructor(
 
   @VisibleForTesting
   val backupInfo: BackupInfo?
-  private var next: Frame? = null
+  private var next: ByteArray? = null
   private val stream: InputStream
   private val countingStream: CountingInputStream
 
@@ -183,6 +183,10 @@ class EncryptedBackupReader private constructor(
   }
 
   override fun next(): Frame {
+    return Frame.ADAPTER.decode(nextEncoded())
+  }
+
+  override fun nextEncoded(): ByteArray {
     next?.let { out ->
       next = read()
       return out
@@ -200,12 +204,10 @@ class EncryptedBackupReader private constructor(
     }
   }
 
-  private fun read(): Frame? {
+  private fun read(): ByteArray? {
     try {
       val length = stream.readVarInt32().also { if (it < 0) return null }
-      val frameBytes: ByteArray = stream.readNBytesOrThrow(length)
-
-      return Frame.ADAPTER.decode(frameBytes)
+      return stream.readNBytesOrThrow(length)
     } catch (e: EOFException) {
       return null
     }
@@ -135,6 +135,11 @@ class EncryptedBackupWriter private constructor(
     mainStream.write(frameBytes)
   }
 
+  @Throws(IOException::class)
+  override fun writeDelimited(delimitedFrame: ByteArray) {
+    mainStream.write(delimitedFrame)
+  }
+
   @Throws(IOException::class)
   override fun close() {
     // We need to close the main stream in order for the gzip and all the cipher operations to fully finish before
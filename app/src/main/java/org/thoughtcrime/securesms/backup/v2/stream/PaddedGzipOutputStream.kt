@@ -15,7 +15,15 @@ import java.util.zip.GZIPOutputStream
  * We do this to fit files into a smaller number of size buckets to avoid fingerprinting. And it turns out that bolting on zeros to the end of a GZIP stream is
  * fine, because GZIP is smart enough to ignore it. This means readers of this data don't have to do anything special.
  */
-class PaddedGzipOutputStream private constructor(private val outputStream: SizeObservingOutputStream) : GZIPOutputStream(outputStream) {
+class PaddedGzipOutputStream private constructor(private val outputStream: SizeObservingOutputStream) : GZIPOutputStream(outputStream, BUFFER_SIZE) {
+
+  companion object {
+    /**
+     * The default buffer is only 512 bytes, which means a lot of tiny writes to the cipher and mac streams underneath us. A bigger buffer doesn't
+     * change the output, just how many writes it's broken up into.
+     */
+    private const val BUFFER_SIZE = 64 * 1024
+  }
 
   constructor(outputStream: OutputStream) : this(SizeObservingOutputStream(outputStream))
 
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import java.io.IOException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Wraps a [BackupExportWriter] so that frames are encoded on [encodeExecutor] and written on a dedicated writer thread, while the caller moves
+ * on to producing the next frame. The [delegate] is only ever used from that one writer thread, and frames are written in the order they're given
+ * to us, regardless of what order they finish encoding in.
+ *
+ * The amount of data waiting to be written is bounded by [maxBytesInFlight] rather than by a number of frames, since frames vary wildly in size.
+ * If the limit is reached, [write] blocks until the writer catches up. Frames we haven't finished encoding yet are counted using an estimate.
+ *
+ * If the delegate fails, the error is rethrown from the next call to [write] or [close].
+ */
+class PipelinedBackupExportWriter(
+  private val delegate: BackupExportWriter,
+  private val encodeExecutor: ExecutorService,
+  private val maxBytesInFlight: Long
+) : BackupExportWriter {
+
+  companion object {
+    /** Used to count frames that haven't been encoded yet. Most chat items are well under this. */
+    private const val ESTIMATED_FRAME_SIZE = 1024L
+  }
+
+  private val writeExecutor: ExecutorService = Executors.newSingleThreadExecutor { Thread(it, "backup-export-writer") }
+
+  private val lock = ReentrantLock()
+  private val bytesReleased = lock.newCondition()
+  private var bytesInFlight = 0L
+
+  @Volatile
+  private var failure: Throwable? = null
+
+  override fun write(header: BackupInfo) {
+    throwIfFailed()
+    writeExecutor.execute {
+      if (failure == null) {
+        try {
+          delegate.write(header)
+        } catch (e: Throwable) {
+          failure = e
+        }
+      }
+    }
+  }
+
+  override fun write(frame: Frame) {
+    reserve(ESTIMATED_FRAME_SIZE)
+
+    val encoded: Future<ByteArray> = encodeExecutor.submit<ByteArray> {
+      frame.encodeDelimited().also { adjust(it.size - ESTIMATED_FRAME_SIZE) }
+    }
+
+    enqueueWrite { encoded.get() }
+  }
+
+  override fun writeDelimited(delimitedFrame: ByteArray) {
+    reserve(delimitedFrame.size.toLong())
+    enqueueWrite { delimitedFrame }
+  }
+
+  /**
+   * Waits for everything that's been written so far to make it to the delegate, then closes it.
+   */
+  override fun close() {
+    try {
+      writeExecutor.submit { }.get()
+      throwIfFailed()
+    } finally {
+      writeExecutor.shutdown()
+      delegate.close()
+    }
+  }
+
+  private fun enqueueWrite(encoded: () -> ByteArray) {
+    writeExecutor.execute {
+      var size = ESTIMATED_FRAME_SIZE
+      try {
+        val bytes = encoded()
+        size = bytes.size.toLong()
+
+        if (failure == null) {
+          delegate.writeDelimited(bytes)
+        }
+      } catch (e: ExecutionException) {
+        failure = failure ?: e.cause ?: e
+      } catch (e: Throwable) {
+        failure = failure ?: e
+      } finally {
+        adjust(-size)
+      }
+    }
+  }
+
+  /**
+   * Blocks until there's room for [bytes] more. A single item is always allowed through if nothing else is in flight, however large it is.
+   */
+  private fun reserve(bytes: Long) {
+    lock.withLock {
+      while (bytesInFlight > 0 && bytesInFlight + bytes > maxBytesInFlight && failure == null) {
+        bytesReleased.await()
+      }
+      bytesInFlight += bytes
+    }
+
+    throwIfFailed()
+  }
+
+  private fun adjust(delta: Long) {
+    lock.withLock {
+      bytesInFlight += delta
+      if (delta < 0) {
+        bytesReleased.signalAll()
+      }
+    }
+  }
+
+  private fun throwIfFailed() {
+    failure?.let { throw IOException("Failed to write backup frame!", it) }
+  }
+}
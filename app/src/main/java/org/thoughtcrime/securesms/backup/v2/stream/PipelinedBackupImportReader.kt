@@ -0,0 +1,180 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import org.signal.core.util.ParallelEventTimer
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Wraps a [BackupImportReader] so that frames are read ahead of the caller. Decrypting and decompressing happens on a dedicated reader thread, and
+ * parsing happens on [decodeExecutor], all while the caller is busy with the frames it already has. Frames are still returned in order.
+ *
+ * The amount of data that's been read ahead is bounded by [maxBytesInFlight] rather than by a number of frames, since frames vary wildly in size.
+ *
+ * If the delegate fails, the error is rethrown to the caller once it reaches that point in the stream, and again on every call after that.
+ *
+ * Closing this stops reading ahead, but leaves the delegate open. Whoever opened the delegate is still responsible for closing it.
+ */
+class PipelinedBackupImportReader(
+  private val delegate: BackupImportReader,
+  private val decodeExecutor: ExecutorService,
+  private val maxBytesInFlight: Long
+) : BackupImportReader {
+
+  private val queue: BlockingQueue<Entry> = LinkedBlockingQueue()
+
+  private val lock = ReentrantLock()
+  private val bytesReleased = lock.newCondition()
+  private var bytesInFlight = 0L
+
+  /** Tracks time spent in each stage: reading, waiting for the caller to catch up, parsing, and the caller waiting on us. */
+  private val timer = ParallelEventTimer()
+
+  @Volatile
+  private var closed = false
+
+  private var head: Entry? = null
+  private var bytesRead = 0L
+
+  private val readerThread = Thread({ readAhead() }, "backup-import-reader").apply { start() }
+
+  override fun getHeader(): BackupInfo? {
+    return delegate.getHeader()
+  }
+
+  /** How far into the stream the frames returned so far go. Frames that have been read ahead, but not returned, don't count. */
+  override fun getBytesRead(): Long {
+    return bytesRead
+  }
+
+  override fun getStreamLength(): Long {
+    return delegate.getStreamLength()
+  }
+
+  override fun hasNext(): Boolean {
+    return peek() is Entry.Item
+  }
+
+  override fun next(): Frame {
+    val item = peek() as? Entry.Item ?: throw NoSuchElementException()
+    head = null
+
+    val frame = try {
+      item.frame.get()
+    } catch (e: ExecutionException) {
+      throw e.cause ?: e
+    } finally {
+      release(item.size)
+    }
+
+    bytesRead = item.bytesRead
+    return frame
+  }
+
+  override fun nextEncoded(): ByteArray {
+    return next().encode()
+  }
+
+  /**
+   * Stops the timer and returns how long was spent in each stage of reading.
+   */
+  fun stopTimer(): ParallelEventTimer.EventTimerResults {
+    return timer.stop()
+  }
+
+  override fun close() {
+    if (closed) {
+      return
+    }
+
+    closed = true
+    lock.withLock { bytesReleased.signalAll() }
+
+    readerThread.join()
+  }
+
+  /**
+   * Returns the next entry without consuming it. Once the end of the stream is reached it stays the head, so every later call sees it too.
+   */
+  private fun peek(): Entry {
+    val entry = head ?: timer.timeEvent("wait") { queue.take() }
+    head = entry
+
+    if (entry is Entry.End) {
+      entry.error?.let { throw it }
+    }
+
+    return entry
+  }
+
+  private fun readAhead() {
+    val lapTimer = timer.newLapTimer()
+
+    try {
+      while (!closed && delegate.hasNext()) {
+        val bytes = delegate.nextEncoded()
+        val bytesReadSoFar = delegate.getBytesRead()
+        lapTimer.emit("read")
+
+        if (!reserve(bytes.size.toLong())) {
+          break
+        }
+        lapTimer.emit("read-blocked")
+
+        val frame = decodeExecutor.submit(
+          Callable {
+            timer.timeEvent("decode") { Frame.ADAPTER.decode(bytes) }
+          }
+        )
+
+        queue.put(Entry.Item(frame, bytes.size.toLong(), bytesReadSoFar))
+      }
+
+      queue.put(Entry.End(null))
+    } catch (e: Throwable) {
+      queue.put(Entry.End(e))
+    }
+  }
+
+  /**
+   * Blocks until there's room for [bytes] more. A single frame is always allowed through if nothing else is in flight, however large it is.
+   *
+   * @return False if we were closed while waiting.
+   */
+  private fun reserve(bytes: Long): Boolean {
+    lock.withLock {
+      while (bytesInFlight > 0 && bytesInFlight + bytes > maxBytesInFlight && !closed) {
+        bytesReleased.await()
+      }
+
+      bytesInFlight += bytes
+      return !closed
+    }
+  }
+
+  private fun release(bytes: Long) {
+    lock.withLock {
+      bytesInFlight -= bytes
+      bytesReleased.signalAll()
+    }
+  }
+
+  private sealed interface Entry {
+    class Item(val frame: Future<Frame>, val size: Long, val bytesRead: Long) : Entry
+
+    /** Marks the end of the stream. If [error] is set, the stream ended because reading it failed. */
+    class End(val error: Throwable?) : Entry
+  }
+}
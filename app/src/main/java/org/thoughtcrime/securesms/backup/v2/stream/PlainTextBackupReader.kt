@@ -19,7 +19,7 @@ import java.io.InputStream
 class PlainTextBackupReader(val dataStream: InputStream, val length: Long) : BackupImportReader {
 
   val backupInfo: BackupInfo?
-  var next: Frame? = null
+  private var next: ByteArray? = null
   val inputStream: CountingInputStream
 
   init {
@@ -41,6 +41,10 @@ class PlainTextBackupReader(val dataStream: InputStream, val length: Long) : Bac
   }
 
   override fun next(): Frame {
+    return Frame.ADAPTER.decode(nextEncoded())
+  }
+
+  override fun nextEncoded(): ByteArray {
     next?.let { out ->
       next = read()
       return out
@@ -62,12 +66,10 @@ class PlainTextBackupReader(val dataStream: InputStream, val length: Long) : Bac
     }
   }
 
-  private fun read(): Frame? {
+  private fun read(): ByteArray? {
     try {
       val length = inputStream.readVarInt32().also { if (it < 0) return null }
-      val frameBytes: ByteArray = inputStream.readNBytesOrThrow(length)
-
-      return Frame.ADAPTER.decode(frameBytes)
+      return inputStream.readNBytesOrThrow(length)
     } catch (e: EOFException) {
       return null
     }
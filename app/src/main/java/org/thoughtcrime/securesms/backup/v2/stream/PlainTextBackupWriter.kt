@@ -32,6 +32,11 @@ class PlainTextBackupWriter(private val outputStream: OutputStream) : BackupExpo
     outputStream.write(frameBytes)
   }
 
+  @Throws(IOException::class)
+  override fun writeDelimited(delimitedFrame: ByteArray) {
+    outputStream.write(delimitedFrame)
+  }
+
   override fun close() {
     outputStream.close()
   }
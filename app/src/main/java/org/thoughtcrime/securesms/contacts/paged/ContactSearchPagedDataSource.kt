@@ -20,7 +20,7 @@ import org.thoughtcrime.securesms.phonenumbers.NumberUtil
 import org.thoughtcrime.securesms.recipients.Recipient
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.search.MessageResult
-import org.thoughtcrime.securesms.search.MessageSearchResult
+import org.thoughtcrime.securesms.search.PagedMessageSearchResult
 import org.thoughtcrime.securesms.search.SearchRepository
 import org.thoughtcrime.securesms.search.ThreadSearchResult
 import org.thoughtcrime.securesms.util.UsernameUtil
@@ -96,7 +96,8 @@ class ContactSearchPagedDataSource(
           section = section,
           query = contactConfiguration.query,
           startIndex = if (index == indexOfStartSection) startIndex.offset else 0,
-          endIndex = if (index == indexOfEndSection) endIndex.offset else sizeMap[section] ?: error("Unknown section")
+          endIndex = if (index == indexOfEndSection) endIndex.offset else sizeMap[section] ?: error("Unknown section"),
+          cancellationSignal = cancellationSignal
         )
       } else {
         emptyList()
@@ -171,7 +172,7 @@ class ContactSearchPagedDataSource(
   }
 
   @WorkerThread
-  private fun getSectionData(section: ContactSearchConfiguration.Section, query: String?, startIndex: Int, endIndex: Int): List<ContactSearchData> {
+  private fun getSectionData(section: ContactSearchConfiguration.Section, query: String?, startIndex: Int, endIndex: Int, cancellationSignal: PagedDataSource.CancellationSignal): List<ContactSearchData> {
     return when (section) {
       is ContactSearchConfiguration.Section.Groups -> getGroupContactsData(section, query, startIndex, endIndex)
       is ContactSearchConfiguration.Section.Individuals -> getNonGroupContactsData(section, query, startIndex, endIndex)
@@ -180,7 +181,7 @@ class ContactSearchPagedDataSource(
       is ContactSearchConfiguration.Section.Arbitrary -> arbitraryRepository?.getData(section, query, startIndex, endIndex, searchSize) ?: error("Invalid arbitrary section.")
       is ContactSearchConfiguration.Section.GroupMembers -> getGroupMembersContactData(section, query, startIndex, endIndex)
       is ContactSearchConfiguration.Section.Chats -> getThreadContactData(section, query, startIndex, endIndex)
-      is ContactSearchConfiguration.Section.Messages -> getMessageContactData(section, query, startIndex, endIndex)
+      is ContactSearchConfiguration.Section.Messages -> getMessageContactData(section, query, startIndex, endIndex, cancellationSignal)
       is ContactSearchConfiguration.Section.GroupsWithMembers -> getGroupsWithMembersContactData(section, query, startIndex, endIndex)
       is ContactSearchConfiguration.Section.ContactsWithoutThreads -> getContactsWithoutThreadsContactData(section, query, startIndex, endIndex)
       is ContactSearchConfiguration.Section.PhoneNumber -> getPossiblePhoneNumber(section, query)
@@ -453,28 +454,43 @@ class ContactSearchPagedDataSource(
     }
   }
 
-  private fun getMessageData(query: String?): ContactSearchIterator<MessageResult> {
+  private fun getMessageSearchResult(query: String?): PagedMessageSearchResult? {
     check(searchRepository != null)
 
     if (searchCache.messageSearchResult == null && query != null) {
-      searchCache = searchCache.copy(messageSearchResult = searchRepository.queryMessagesSync(query))
+      searchCache = searchCache.copy(messageSearchResult = searchRepository.queryMessagesPagedSync(query))
     }
 
-    return if (query != null) {
-      ListSearchIterator(searchCache.messageSearchResult!!.results)
+    return if (query != null) searchCache.messageSearchResult else null
+  }
+
+  private fun getMessageData(query: String?): ContactSearchIterator<MessageResult> {
+    return getMessageSearchResult(query)?.let { PagedMessageSearchIterator(it) } ?: ListSearchIterator(emptyList())
+  }
+
+  private fun getMessageContactData(section: ContactSearchConfiguration.Section.Messages, query: String?, startIndex: Int, endIndex: Int, cancellationSignal: PagedDataSource.CancellationSignal): List<ContactSearchData> {
+    val messageSearchResult: PagedMessageSearchResult? = getMessageSearchResult(query)
+
+    // Section indices are offset by the header, so we load one extra to cover it. A canceled load is going to be thrown away, so there's no need to finish it.
+    val loadedEndIndex: Int = if (messageSearchResult != null) {
+      val loadedEnd: Int = messageSearchResult.load(maxOf(0, startIndex - 1), endIndex, cancellationSignal) ?: return emptyList()
+      minOf(endIndex, loadedEnd + if (section.includeHeader) 1 else 0)
     } else {
-      ListSearchIterator(emptyList())
+      endIndex
+    }
+
+    // If some matches were deleted since they were counted, we return what's left of the page rather than nothing
+    if (loadedEndIndex <= startIndex) {
+      return emptyList()
     }
-  }
 
-  private fun getMessageContactData(section: ContactSearchConfiguration.Section.Messages, query: String?, startIndex: Int, endIndex: Int): List<ContactSearchData> {
     return getMessageData(query).use { records ->
       readContactData(
         records = records,
         recordsPredicate = null,
         section = section,
         startIndex = startIndex,
-        endIndex = endIndex,
+        endIndex = loadedEndIndex,
         recordMapper = {
           ContactSearchData.Message(query ?: "", it)
         }
@@ -527,7 +543,7 @@ class ContactSearchPagedDataSource(
    * Caches search results of particularly intensive queries.
    */
   private data class SearchCache(
-    val messageSearchResult: MessageSearchResult? = null,
+    val messageSearchResult: PagedMessageSearchResult? = null,
     val threadSearchResult: ThreadSearchResult? = null
   )
 
@@ -550,6 +566,26 @@ class ContactSearchPagedDataSource(
     }
   }
 
+  /**
+   * Iterates over the parts of a [PagedMessageSearchResult] that have already been loaded.
+   */
+  private class PagedMessageSearchIterator(val result: PagedMessageSearchResult) : ContactSearchIterator<MessageResult> {
+
+    private var position = -1
+
+    override fun moveToPosition(n: Int) {
+      position = n
+    }
+
+    override fun getCount(): Int = result.size
+
+    override fun hasNext(): Boolean = position < result.size - 1
+
+    override fun next(): MessageResult = result[++position]
+
+    override fun close() = Unit
+  }
+
   private class ListSearchIterator<T>(val list: List<T>) : ContactSearchIterator<T> {
 
     private var position = -1
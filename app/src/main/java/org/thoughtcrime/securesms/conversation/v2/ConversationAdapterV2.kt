@@ -257,6 +257,20 @@ class ConversationAdapterV2(
     }
   }
 
+  /**
+   * The ids of the messages in [start, end) that have already been loaded. Unlike [getConversationMessage], this never asks for more data to be loaded.
+   */
+  fun getLoadedMessageIds(start: Int, end: Int): Set<Long> {
+    val items = currentList
+    val ids = HashSet<Long>()
+
+    for (i in start.coerceAtLeast(0) until end.coerceAtMost(items.size)) {
+      (items[i] as? ConversationMessageElement)?.let { ids += it.conversationMessage.messageRecord.id }
+    }
+
+    return ids
+  }
+
   override fun hasNoConversationMessages(): Boolean {
     return itemCount == 0
   }
@@ -419,6 +419,9 @@ class ConversationFragment :
     private const val SCROLL_HEADER_CLOSE_DELAY: Long = SCROLL_HEADER_ANIMATION_DURATION * 4
     private const val IS_SCROLLED_TO_BOTTOM_THRESHOLD: Int = 2
 
+    /** How many screens' worth of messages on either side of the visible ones have their attachments downloaded ahead of everything else. */
+    private const val ATTACHMENT_PREFETCH_SCREENS = 2
+
     private const val ATTACHMENT_KEYBOARD_FRAGMENT_CREATOR_ID = 1
     private const val MEDIA_KEYBOARD_FRAGMENT_CREATOR_ID = 2
   }
@@ -722,6 +725,8 @@ class ConversationFragment :
 
     groupCallViewModel.peekGroupCall()
 
+    scrollListener?.updateAttachmentTransferViewport(force = true)
+
     if (!args.conversationScreenType.isInBubble) {
       AppDependencies.messageNotifier.setVisibleThread(ConversationId.forConversation(args.threadId))
     } else {
@@ -754,6 +759,8 @@ class ConversationFragment :
 
     ConversationUtil.refreshRecipientShortcuts()
 
+    AppDependencies.attachmentTransferScheduler.clearViewport()
+
     if (!args.conversationScreenType.isInBubble) {
       AppDependencies.messageNotifier.clearVisibleThread()
     } else {
@@ -3047,6 +3054,9 @@ class ConversationFragment :
     private var wasAtBottom = true
     private val scrollDateHeaderHelper = ScrollDateHeaderHelper()
 
+    private var lastViewportFirst = RecyclerView.NO_POSITION
+    private var lastViewportLast = RecyclerView.NO_POSITION
+
     override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
       if (isScrolledToBottom()) {
         viewModel.setShowScrollButtonsForScrollPosition(showScrollButtons = false, willScrollToBottomOnNewMessage = true)
@@ -3063,6 +3073,33 @@ class ConversationFragment :
 
       val timestamp = MarkReadHelper.getLatestTimestamp(adapter, layoutManager)
       timestamp.ifPresent(markReadHelper::onViewsRevealed)
+
+      updateAttachmentTransferViewport()
+    }
+
+    /**
+     * Lets the [org.thoughtcrime.securesms.attachments.AttachmentTransferScheduler] know which messages are on screen, and which are close by.
+     */
+    fun updateAttachmentTransferViewport(force: Boolean = false) {
+      val first = layoutManager.findFirstVisibleItemPosition()
+      val last = layoutManager.findLastVisibleItemPosition()
+
+      if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+        return
+      }
+
+      if (!force && first == lastViewportFirst && last == lastViewportLast) {
+        return
+      }
+
+      lastViewportFirst = first
+      lastViewportLast = last
+
+      val prefetchDistance = (last - first + 1) * ATTACHMENT_PREFETCH_SCREENS
+      val visible = adapter.getLoadedMessageIds(first, last + 1)
+      val prefetch = adapter.getLoadedMessageIds(first - prefetchDistance, last + 1 + prefetchDistance) - visible
+
+      AppDependencies.attachmentTransferScheduler.updateViewport(visible, prefetch)
     }
 
     override fun onScrollStateChanged(recyclerView: RecyclerView, newState: Int) {
@@ -246,6 +246,7 @@ class ConversationViewModel(
       Observable.create<Unit> { emitter ->
         val controller = threadState.items.controller
         val messageUpdateObserver = DatabaseObserver.MessageObserver {
+          threadState.messageCache.invalidate(it.id)
           controller.onDataItemChanged(ConversationElementKey.forMessage(it.id))
         }
         val messageInsertObserver = DatabaseObserver.MessageObserver {
@@ -258,7 +259,7 @@ class ConversationViewModel(
 
         AppDependencies.databaseObserver.registerMessageUpdateObserver(messageUpdateObserver)
         AppDependencies.databaseObserver.registerMessageInsertObserver(threadId, messageInsertObserver)
-        AppDependencies.databaseObserver.registerConversationObserver(threadId, conversationObserver)
+        AppDependencies.databaseObserver.registerInsertAwareConversationObserver(threadId, conversationObserver, messageInsertObserver)
 
         emitter.setCancellable {
           AppDependencies.databaseObserver.unregisterObserver(messageUpdateObserver)
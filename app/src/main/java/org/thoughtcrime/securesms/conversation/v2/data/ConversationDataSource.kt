@@ -10,6 +10,7 @@ import org.signal.core.util.Stopwatch
 import org.signal.core.util.logging.Log
 import org.signal.core.util.toInt
 import org.signal.paging.PagedDataSource
+import org.signal.paging.PositionAnchors
 import org.thoughtcrime.securesms.backup.v2.ArchiveRestoreProgress
 import org.thoughtcrime.securesms.backup.v2.BackupRestoreManager
 import org.thoughtcrime.securesms.conversation.ConversationData
@@ -53,6 +54,7 @@ class ConversationDataSource(
   private val messageRequestData: ConversationData.MessageRequestData,
   private val showUniversalExpireTimerUpdate: Boolean,
   private var baseSize: Int,
+  private val messageCache: ConversationMessageCache,
   private val messageRequestRepository: MessageRequestRepository = MessageRequestRepository(localContext)
 ) : PagedDataSource<ConversationElementKey, ConversationElement> {
 
@@ -69,8 +71,14 @@ class ConversationDataSource(
     SignalDatabase.threads.getRecipientForThreadId(threadId)!!
   }
 
+  /** The last message of each page we've loaded, so the pages after it can be read without counting past every newer message. */
+  private val anchors = PositionAnchors<MessageTable.ConversationAnchor>()
+
   override fun size(): Int {
     val startTime = System.currentTimeMillis()
+    anchors.clear()
+    messageCache.onConversationInvalidated()
+
     val size: Int = getSizeInternal() +
       THREAD_HEADER_COUNT +
       messageRequestData.isHidden.toInt() +
@@ -97,7 +105,15 @@ class ConversationDataSource(
     val stopwatch = Stopwatch(title = "load($start, $length), thread $threadId", decimalPlaces = 2)
     var records: MutableList<MessageRecord> = ArrayList(length)
 
-    MessageTable.mmsReaderFor(SignalDatabase.messages.getConversation(threadId, start.toLong(), length.toLong()))
+    val anchorGeneration = anchors.generation
+    val anchor = anchors.before(start)
+    val cursor = if (anchor != null) {
+      SignalDatabase.messages.getConversation(threadId, anchor.value, (start - anchor.position - 1).toLong(), length.toLong())
+    } else {
+      SignalDatabase.messages.getConversation(threadId, start.toLong(), length.toLong())
+    }
+
+    MessageTable.mmsReaderFor(cursor)
       .use { reader ->
         reader.forEach { record ->
           if (cancellationSignal.isCanceled) {
@@ -108,6 +124,10 @@ class ConversationDataSource(
         }
       }
 
+    if (records.isNotEmpty()) {
+      anchors.put(start + records.size - 1, MessageTable.ConversationAnchor(records.last()), anchorGeneration)
+    }
+
     if (messageRequestData.isHidden && (start + length >= totalSize)) {
       records.add(RemovedContactHidden(threadId))
     }
@@ -116,9 +136,16 @@ class ConversationDataSource(
       records.add(UniversalExpireTimerUpdate(threadId))
     }
 
-    stopwatch.split("messages")
+    stopwatch.split(if (anchor != null) "messages-anchored" else "messages")
+
+    val cached = messageCache.get(records)
+    val cacheVersion = messageCache.currentVersion()
+    val (cachedRecords, uncachedRecords) = records.partition { cached.containsKey(it.id) }
+
+    val fetchedData = MessageDataFetcher.fetch(uncachedRecords)
+    messageCache.put(uncachedRecords, fetchedData, cacheVersion)
 
-    val extraData = MessageDataFetcher.fetch(records)
+    val extraData = fetchedData.plus(cached, SignalDatabase.messages.isQuoted(cachedRecords))
     stopwatch.split("extra-data")
 
     records = MessageDataFetcher.updateModelsWithData(records, extraData).toMutableList()
@@ -152,7 +179,7 @@ class ConversationDataSource(
 
     stopwatch.split("header")
     val log = stopwatch.stopAndGetLogString()
-    Log.d(TAG, "$log || ${extraData.timeLog}")
+    Log.d(TAG, "$log || ${extraData.timeLog} || ${cachedRecords.size}/${records.size} cached, ${messageCache.getHitRateLog()}")
 
     return if (threadHeaders.isNotEmpty()) messages + threadHeaders else messages
   }
@@ -186,7 +213,10 @@ class ConversationDataSource(
       if (record == null) {
         return null
       } else {
+        // Single loads are how we hear about a message changing, so always fetch fresh and refresh the cache with it
+        val cacheVersion = messageCache.currentVersion()
         extraData = MessageDataFetcher.fetch(record)
+        messageCache.put(listOf(record), extraData, cacheVersion)
         stopwatch.split("extra-data")
 
         record = MessageDataFetcher.updateModelWithData(record, extraData)
@@ -207,6 +237,10 @@ class ConversationDataSource(
     }
   }
 
+  override fun onItemsInserted(position: Int, count: Int) {
+    anchors.onItemsInserted(position, count)
+  }
+
   override fun getKey(conversationMessage: ConversationElement): ConversationElementKey {
     return when (conversationMessage) {
       is ConversationMessageElement -> MessageBackedKey(conversationMessage.conversationMessage.messageRecord.id)
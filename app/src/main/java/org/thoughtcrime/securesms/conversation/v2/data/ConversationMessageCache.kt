@@ -0,0 +1,172 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.conversation.v2.data
+
+import org.signal.core.util.LRUCache
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment
+import org.thoughtcrime.securesms.database.CallTable
+import org.thoughtcrime.securesms.database.model.InMemoryMessageRecord
+import org.thoughtcrime.securesms.database.model.Mention
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+import org.thoughtcrime.securesms.payments.Payment
+import org.thoughtcrime.securesms.polls.PollRecord
+
+/**
+ * Caches the data [MessageDataFetcher] loads for each message in a conversation, so that reloading a page only has to fetch it for the messages
+ * that actually changed.
+ *
+ * Every invalidation advances a version. Callers read [currentVersion] before they start fetching and hand it back to [put], which skips anything
+ * that was invalidated in the meantime, so a slow fetch can never overwrite a newer invalidation with older data.
+ *
+ * Whether a message is quoted isn't cached, since that changes when some *other* message is inserted.
+ */
+class ConversationMessageCache(private val maxSize: Int = DEFAULT_MAX_SIZE) {
+
+  companion object {
+    private const val DEFAULT_MAX_SIZE = 1000
+    private const val INVALIDATION_HISTORY_SIZE = 500
+  }
+
+  private val entries = LRUCache<Long, Entry>(maxSize)
+
+  /** Message ID to the version it was last invalidated at. */
+  private val invalidations = object : LinkedHashMap<Long, Long>() {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Long>): Boolean {
+      if (size > INVALIDATION_HISTORY_SIZE) {
+        forgottenBefore = eldest.value
+        return true
+      }
+      return false
+    }
+  }
+
+  private var version = 0L
+
+  /** Puts from before this version may have missed an invalidation that's since dropped out of [invalidations]. */
+  private var forgottenBefore = 0L
+
+  /** The version of the last [onConversationInvalidated]. */
+  private var conversationInvalidatedAt = 0L
+
+  private var lookups = 0L
+  private var hits = 0L
+
+  @Synchronized
+  fun currentVersion(): Long {
+    return version
+  }
+
+  /**
+   * @return The cached data for each of [records] that has any, by message ID.
+   */
+  @Synchronized
+  fun get(records: List<MessageRecord>): Map<Long, Entry> {
+    val found: MutableMap<Long, Entry> = HashMap()
+
+    for (record in records) {
+      if (!record.isCacheable()) {
+        continue
+      }
+
+      lookups++
+
+      val entry = entries[record.id]
+      if (entry != null && entry.dateSent == record.dateSent) {
+        found[record.id] = entry
+        hits++
+      }
+    }
+
+    return found
+  }
+
+  /**
+   * Caches the data fetched for [records], unless it was invalidated after [fetchVersion].
+   */
+  @Synchronized
+  fun put(records: List<MessageRecord>, data: MessageDataFetcher.ExtraMessageData, fetchVersion: Long) {
+    if (fetchVersion < forgottenBefore) {
+      return
+    }
+
+    for (record in records) {
+      if (!record.isCacheable()) {
+        continue
+      }
+
+      val invalidatedAt = invalidations[record.id]
+      if (invalidatedAt != null && invalidatedAt > fetchVersion) {
+        continue
+      }
+
+      val entry = Entry(
+        dateSent = record.dateSent,
+        mentions = data.mentionsById[record.id],
+        reactions = data.reactions[record.id],
+        attachments = data.attachments[record.id],
+        payment = data.payments[record.id],
+        call = data.calls[record.id],
+        poll = data.polls[record.id]
+      )
+
+      if (entry.changesWithConversation && conversationInvalidatedAt > fetchVersion) {
+        continue
+      }
+
+      entries[record.id] = entry
+    }
+  }
+
+  /**
+   * Drops a single message, e.g. because it got a new reaction or poll vote.
+   */
+  @Synchronized
+  fun invalidate(messageId: Long) {
+    version++
+    entries.remove(messageId)
+    invalidations[messageId] = version
+  }
+
+  /**
+   * Drops every message whose data can change with only a conversation-wide notification, like attachment transfer progress.
+   */
+  @Synchronized
+  fun onConversationInvalidated() {
+    version++
+    conversationInvalidatedAt = version
+    entries.values.removeAll { it.changesWithConversation }
+  }
+
+  /**
+   * @return A description of how often lookups have found something, for logging.
+   */
+  @Synchronized
+  fun getHitRateLog(): String {
+    val rate = if (lookups > 0) hits * 100 / lookups else 0
+    return "cache: $hits/$lookups hits ($rate%), ${entries.size} entries"
+  }
+
+  private fun MessageRecord.isCacheable(): Boolean {
+    return this !is InMemoryMessageRecord && id > 0
+  }
+
+  /**
+   * The data for a single message. The date sent guards against message IDs being reused after a delete we weren't told about.
+   */
+  class Entry(
+    val dateSent: Long,
+    val mentions: List<Mention>?,
+    val reactions: List<ReactionRecord>?,
+    val attachments: List<DatabaseAttachment>?,
+    val payment: Payment?,
+    val call: CallTable.Call?,
+    val poll: PollRecord?
+  ) {
+    val changesWithConversation: Boolean
+      get() = attachments != null || payment != null || call != null
+  }
+}
@@ -53,6 +53,10 @@ object MessageDataFetcher {
    */
   @WorkerThread
   fun fetch(messageRecords: List<MessageRecord>): ExtraMessageData {
+    if (messageRecords.isEmpty()) {
+      return ExtraMessageData.EMPTY
+    }
+
     val startTimeNanos = System.nanoTime()
     val context = AppDependencies.application
 
@@ -201,5 +205,41 @@ object MessageDataFetcher {
     val calls: Map<Long, CallTable.Call>,
     val polls: Map<Long, PollRecord>,
     val timeLog: String
-  )
+  ) {
+    /**
+     * Adds the data for messages that didn't need to be fetched because it was in a [ConversationMessageCache].
+     */
+    fun plus(cached: Map<Long, ConversationMessageCache.Entry>, cachedHasBeenQuoted: Set<Long>): ExtraMessageData {
+      if (cached.isEmpty()) {
+        return this
+      }
+
+      return copy(
+        mentionsById = mentionsById + cached.collect { it.mentions },
+        hasBeenQuoted = hasBeenQuoted + cachedHasBeenQuoted,
+        reactions = reactions + cached.collect { it.reactions },
+        attachments = attachments + cached.collect { it.attachments },
+        payments = payments + cached.collect { it.payment },
+        calls = calls + cached.collect { it.call },
+        polls = polls + cached.collect { it.poll }
+      )
+    }
+
+    private fun <T : Any> Map<Long, ConversationMessageCache.Entry>.collect(field: (ConversationMessageCache.Entry) -> T?): Map<Long, T> {
+      return this.mapNotNull { (id, entry) -> field(entry)?.let { id to it } }.toMap()
+    }
+
+    companion object {
+      val EMPTY = ExtraMessageData(
+        mentionsById = emptyMap(),
+        hasBeenQuoted = emptySet(),
+        reactions = emptyMap(),
+        attachments = emptyMap(),
+        payments = emptyMap(),
+        calls = emptyMap(),
+        polls = emptyMap(),
+        timeLog = "nothing to fetch"
+      )
+    }
+  }
 }
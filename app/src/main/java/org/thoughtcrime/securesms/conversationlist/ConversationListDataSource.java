@@ -11,6 +11,7 @@ import androidx.annotation.VisibleForTesting;
 import org.signal.core.util.Stopwatch;
 import org.signal.core.util.logging.Log;
 import org.signal.paging.PagedDataSource;
+import org.signal.paging.PositionAnchors;
 import org.thoughtcrime.securesms.components.settings.app.chats.folders.ChatFolderRecord;
 import org.thoughtcrime.securesms.conversationlist.model.Conversation;
 import org.thoughtcrime.securesms.conversationlist.model.ConversationFilter;
@@ -132,6 +133,11 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
     throw new UnsupportedOperationException("Not implemented!");
   }
 
+  @Override
+  public void onItemsInserted(int position, int count) {
+    onPositionsChanged();
+  }
+
   @Override
   public @NonNull Long getKey(@NonNull Conversation conversation) {
     return conversation.getThreadRecord().getThreadId();
@@ -140,6 +146,11 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
   protected abstract int getTotalCount();
   protected abstract Cursor getCursor(long offset, long limit);
 
+  /**
+   * Called when the list has changed shape without the total count being recomputed.
+   */
+  protected void onPositionsChanged() {}
+
   private static class ArchivedConversationListDataSource extends ConversationListDataSource {
 
     private int totalCount;
@@ -178,12 +189,17 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
     private int archivedCount;
     private int unpinnedCount;
 
+    /** The last unpinned chat of each page we've loaded, by its position among unpinned chats. */
+    private final PositionAnchors<ThreadTable.ConversationListAnchor> unpinnedAnchors = new PositionAnchors<>();
+
     UnarchivedConversationListDataSource(@NonNull ChatFolderRecord chatFolder, @NonNull ConversationFilter conversationFilter, boolean showConversationFooterTip) {
       super(chatFolder, conversationFilter, showConversationFooterTip);
     }
 
     @Override
     protected int getTotalCount() {
+      unpinnedAnchors.clear();
+
       int unarchivedCount = threadTable.getUnarchivedConversationListCount(conversationFilter, chatFolder);
 
       pinnedCount   = threadTable.getPinnedConversationListCount(conversationFilter, chatFolder);
@@ -230,7 +246,7 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
       }
 
       long   unpinnedOffset = Math.max(0, offset - pinnedCount - getHeaderOffset());
-      Cursor unpinnedCursor = threadTable.getUnarchivedConversationList(conversationFilter, false, unpinnedOffset, limit, chatFolder);
+      Cursor unpinnedCursor = getUnpinnedCursor(unpinnedOffset, limit);
       cursors.add(unpinnedCursor);
 
       boolean shouldInsertConversationFilterFooter = offset + originalLimit >= totalCount && hasConversationFilterFooter();
@@ -250,6 +266,31 @@ abstract class ConversationListDataSource implements PagedDataSource<Long, Conve
       return new MergeCursor(cursors.toArray(new Cursor[]{}));
     }
 
+    private Cursor getUnpinnedCursor(long unpinnedOffset, long limit) {
+      int                                                        generation = unpinnedAnchors.getGeneration();
+      PositionAnchors.Anchor<ThreadTable.ConversationListAnchor> anchor     = unpinnedAnchors.before((int) unpinnedOffset);
+
+      Cursor cursor;
+      if (anchor != null) {
+        cursor = threadTable.getUnpinnedConversationList(conversationFilter, anchor.getValue(), unpinnedOffset - anchor.getPosition() - 1, limit, chatFolder);
+      } else {
+        cursor = threadTable.getUnarchivedConversationList(conversationFilter, false, unpinnedOffset, limit, chatFolder);
+      }
+
+      if (cursor.moveToLast()) {
+        unpinnedAnchors.put((int) unpinnedOffset + cursor.getCount() - 1, ThreadTable.ConversationListAnchor.fromCursor(cursor), generation);
+      }
+      cursor.moveToPosition(-1);
+
+      return cursor;
+    }
+
+    @Override
+    protected void onPositionsChanged() {
+      // Chats can move between the pinned and unpinned sections, so rather than trying to follow them, start over
+      unpinnedAnchors.clear();
+    }
+
     @VisibleForTesting
     int getHeaderOffset() {
       if (RemoteConfig.getInlinePinnedChats()) {
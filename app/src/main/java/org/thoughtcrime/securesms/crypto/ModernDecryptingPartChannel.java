@@ -0,0 +1,271 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.crypto;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.Conversions;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Random access to a file written by {@link ModernEncryptingPartOutputStream}.
+ * <p>
+ * Unlike {@link ModernDecryptingPartInputStream}, which has to be re-created (re-opening the file and re-deriving the key) for every seek, this keeps
+ * the file open and reads from it positionally. Since the data is AES/CTR, moving to a new position only means re-initializing the cipher with a
+ * new counter, and sequential reads carry on with the cipher as-is.
+ * <p>
+ * This would be a SeekableByteChannel, but that's API 24.
+ */
+public final class ModernDecryptingPartChannel implements ReadableByteChannel {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileChannel   fileChannel;
+  private final SecretKeySpec key;
+  private final long          dataOffset;
+  private final long          size;
+  private final Cipher        cipher;
+  private final ByteBuffer    cipherText;
+
+  /** Where the next read happens if no position is given. */
+  private long position;
+
+  /** The plaintext position the cipher's keystream currently lines up with, or -1 if it has to be re-initialized first. */
+  private long cipherPosition = -1;
+
+  private boolean closed;
+
+  /**
+   * For files that don't include the random in a header, because it's stored elsewhere.
+   */
+  public static ModernDecryptingPartChannel createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file)
+      throws IOException
+  {
+    FileChannel fileChannel = new FileInputStream(file).getChannel();
+    return new ModernDecryptingPartChannel(fileChannel, ModernDecryptingPartInputStream.getKey(attachmentSecret, random), 0);
+  }
+
+  /**
+   * For files that start with the random, as written when the stream is created with inline = true.
+   */
+  public static ModernDecryptingPartChannel createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull File file)
+      throws IOException
+  {
+    FileChannel fileChannel = new FileInputStream(file).getChannel();
+    ByteBuffer  random      = ByteBuffer.allocate(32);
+
+    try {
+      while (random.hasRemaining()) {
+        if (fileChannel.read(random, random.position()) == -1) {
+          throw new IOException(ModernDecryptingPartInputStream.PREMATURE_END_ERROR_MESSAGE);
+        }
+      }
+    } catch (IOException e) {
+      fileChannel.close();
+      throw e;
+    }
+
+    return new ModernDecryptingPartChannel(fileChannel, ModernDecryptingPartInputStream.getKey(attachmentSecret, random.array()), random.capacity());
+  }
+
+  private ModernDecryptingPartChannel(@NonNull FileChannel fileChannel, @NonNull SecretKeySpec key, long dataOffset) throws IOException {
+    this.fileChannel = fileChannel;
+    this.key         = key;
+    this.dataOffset  = dataOffset;
+    this.size        = Math.max(0, fileChannel.size() - dataOffset);
+    this.cipherText  = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    try {
+      this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /** The length of the plaintext. */
+  public long size() {
+    return size;
+  }
+
+  public synchronized long position() {
+    return position;
+  }
+
+  public synchronized ModernDecryptingPartChannel position(long newPosition) {
+    if (newPosition < 0) {
+      throw new IllegalArgumentException("Negative position: " + newPosition);
+    }
+
+    this.position = newPosition;
+    return this;
+  }
+
+  /**
+   * Reads from the current {@link #position()}, advancing it by the number of bytes read.
+   */
+  @Override
+  public synchronized int read(@NonNull ByteBuffer dst) throws IOException {
+    int read = read(dst, position);
+
+    if (read > 0) {
+      position += read;
+    }
+
+    return read;
+  }
+
+  /**
+   * Reads starting at the given plaintext position, without changing {@link #position()}. Both heap and direct buffers are supported.
+   *
+   * @return The number of bytes read, which is only less than what's remaining in dst if the end of the data was reached, or -1 if the position is
+   *         at or past the end.
+   */
+  public synchronized int read(@NonNull ByteBuffer dst, long readPosition) throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+
+    if (readPosition < 0) {
+      throw new IllegalArgumentException("Negative position: " + readPosition);
+    }
+
+    if (readPosition >= size) {
+      return -1;
+    }
+
+    int total = 0;
+
+    while (dst.hasRemaining() && readPosition < size) {
+      if (cipherPosition != readPosition) {
+        seekCipher(readPosition);
+      }
+
+      int length = (int) Math.min(Math.min(dst.remaining(), cipherText.capacity()), size - readPosition);
+
+      cipherText.clear().limit(length);
+      while (cipherText.hasRemaining()) {
+        if (fileChannel.read(cipherText, dataOffset + readPosition + cipherText.position()) == -1) {
+          throw new IOException(ModernDecryptingPartInputStream.PREMATURE_END_ERROR_MESSAGE);
+        }
+      }
+      cipherText.flip();
+
+      int decrypted;
+      try {
+        decrypted = cipher.update(cipherText, dst);
+      } catch (GeneralSecurityException e) {
+        throw new IOException(e);
+      }
+
+      readPosition   += decrypted;
+      cipherPosition  = readPosition;
+      total          += decrypted;
+    }
+
+    return total;
+  }
+
+  /**
+   * An {@link InputStream} over this channel that starts at the given position and tracks its own position from there, so several can be used at
+   * once. Closing it does not close the channel.
+   */
+  public @NonNull InputStream newInputStream(long startPosition) {
+    return new ChannelInputStream(startPosition);
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return !closed;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    fileChannel.close();
+  }
+
+  /**
+   * Points the cipher at the block containing the position, and then discards whatever of that block comes before it.
+   */
+  private void seekCipher(long plaintextPosition) throws IOException {
+    byte[] iv        = new byte[16];
+    int    remainder = (int) (plaintextPosition % 16);
+    Conversions.longTo4ByteArray(iv, 12, plaintextPosition / 16);
+
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+
+      if (remainder > 0) {
+        cipher.update(new byte[remainder]);
+      }
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new AssertionError(e);
+    }
+
+    cipherPosition = plaintextPosition;
+  }
+
+  private final class ChannelInputStream extends InputStream {
+
+    private long streamPosition;
+
+    private ChannelInputStream(long startPosition) {
+      this.streamPosition = startPosition;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      int    read   = read(buffer, 0, 1);
+
+      return read == -1 ? -1 : buffer[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+
+      int read = ModernDecryptingPartChannel.this.read(ByteBuffer.wrap(buffer, offset, length), streamPosition);
+
+      if (read > 0) {
+        streamPosition += read;
+      }
+
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, size - streamPosition));
+      streamPosition += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.max(0, Math.min(Integer.MAX_VALUE, size - streamPosition));
+    }
+  }
+}
@@ -4,6 +4,7 @@ package org.thoughtcrime.securesms.crypto;
 import androidx.annotation.NonNull;
 
 import org.signal.core.util.Conversions;
+import org.signal.core.util.LRUCache;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -12,6 +13,8 @@ import java.io.InputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
@@ -24,6 +27,12 @@ public class ModernDecryptingPartInputStream {
 
   public static final String PREMATURE_END_ERROR_MESSAGE = "Prematurely reached end of stream!";
 
+  /**
+   * Deriving the key is an HMAC, which adds up when the same attachment is opened over and over again for random access (video seeking, the
+   * part provider, and so on), so we remember the keys of recently opened attachments.
+   */
+  private static final Map<KeyCacheEntry, SecretKeySpec> KEY_CACHE = new LRUCache<>(64);
+
   public static InputStream createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file, long offset)
       throws IOException
   {
@@ -43,16 +52,12 @@ public class ModernDecryptingPartInputStream {
 
   private static InputStream createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull InputStream inputStream, long offset) throws IOException {
     try {
-      Mac mac  = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
-
       byte[] iv        = new byte[16];
       int    remainder = (int) (offset % 16);
       Conversions.longTo4ByteArray(iv, 12, offset / 16);
 
-      byte[] key    = mac.doFinal(random);
       Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+      cipher.init(Cipher.DECRYPT_MODE, getKey(attachmentSecret, random), new IvParameterSpec(iv));
 
       long skipped = inputStream.skip(offset - remainder);
 
@@ -71,6 +76,35 @@ public class ModernDecryptingPartInputStream {
     }
   }
 
+  /**
+   * The AES key for an attachment, derived from the attachment secret and the attachment's random.
+   */
+  static SecretKeySpec getKey(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random) {
+    KeyCacheEntry cacheKey = new KeyCacheEntry(attachmentSecret.getModernKey(), random);
+
+    synchronized (KEY_CACHE) {
+      SecretKeySpec cached = KEY_CACHE.get(cacheKey);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      SecretKeySpec key = new SecretKeySpec(mac.doFinal(random), "AES");
+
+      synchronized (KEY_CACHE) {
+        KEY_CACHE.put(cacheKey, key);
+      }
+
+      return key;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   private static void readFully(InputStream in, byte[] buffer) throws IOException {
     int offset = 0;
 
@@ -83,4 +117,27 @@ public class ModernDecryptingPartInputStream {
     }
   }
 
+  private static final class KeyCacheEntry {
+    private final byte[] modernKey;
+    private final byte[] random;
+
+    private KeyCacheEntry(@NonNull byte[] modernKey, @NonNull byte[] random) {
+      this.modernKey = modernKey;
+      this.random    = random.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof KeyCacheEntry)) return false;
+
+      KeyCacheEntry other = (KeyCacheEntry) o;
+      return Arrays.equals(modernKey, other.modernKey) && Arrays.equals(random, other.random);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Arrays.hashCode(modernKey) + Arrays.hashCode(random);
+    }
+  }
 }
@@ -80,6 +80,7 @@ import org.thoughtcrime.securesms.backup.v2.exporters.ChatItemArchiveExporter
 import org.thoughtcrime.securesms.backup.v2.proto.BackupDebugInfo
 import org.thoughtcrime.securesms.crypto.AttachmentSecret
 import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartChannel
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream
 import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream
 import org.thoughtcrime.securesms.database.AttachmentTable.ArchiveTransferState.COPY_PENDING
@@ -340,6 +341,22 @@ class AttachmentTable(
     return getDataStream(attachmentId, offset) ?: throw FileNotFoundException("No stream for: $attachmentId")
   }
 
+  /**
+   * Opens the attachment's data for random access, which is much cheaper than [getAttachmentStream] when reading from lots of different offsets.
+   * Returns null if the attachment has no data, or if it's stored in the legacy format, which doesn't support random access. Callers should fall
+   * back to [getAttachmentStream] in that case.
+   */
+  @Throws(IOException::class)
+  fun openAttachmentChannel(attachmentId: AttachmentId): ModernDecryptingPartChannel? {
+    val dataInfo = getDataFileInfo(attachmentId) ?: return null
+
+    return if (dataInfo.random.size == 32) {
+      ModernDecryptingPartChannel.createFor(attachmentSecret, dataInfo.random, dataInfo.file)
+    } else {
+      null
+    }
+  }
+
   @Throws(IOException::class)
   fun getAttachmentStream(localArchivableAttachment: LocalArchivableAttachment): InputStream {
     return try {
@@ -0,0 +1,112 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.zetetic.database.sqlcipher.SQLiteStatement;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * A column in a batch write (see {@link SQLiteDatabase#insertBatch}), along with how to read its value from a row. Values are bound straight onto
+ * the compiled statement with their real type, so there's no {@link android.content.ContentValues} to build and box for every row.
+ */
+public final class BatchColumn<T> {
+
+  private final String    name;
+  private final Binder<T> binder;
+
+  private BatchColumn(@NonNull String name, @NonNull Binder<T> binder) {
+    this.name   = name;
+    this.binder = binder;
+  }
+
+  public static <T> BatchColumn<T> ofLong(@NonNull String name, @NonNull ToLongFunction<T> getter) {
+    return new BatchColumn<>(name, (statement, index, row) -> statement.bindLong(index, getter.applyAsLong(row)));
+  }
+
+  public static <T> BatchColumn<T> ofInt(@NonNull String name, @NonNull ToIntFunction<T> getter) {
+    return new BatchColumn<>(name, (statement, index, row) -> statement.bindLong(index, getter.applyAsInt(row)));
+  }
+
+  public static <T> BatchColumn<T> ofBoolean(@NonNull String name, @NonNull Predicate<T> getter) {
+    return new BatchColumn<>(name, (statement, index, row) -> statement.bindLong(index, getter.test(row) ? 1 : 0));
+  }
+
+  public static <T> BatchColumn<T> ofDouble(@NonNull String name, @NonNull ToDoubleFunction<T> getter) {
+    return new BatchColumn<>(name, (statement, index, row) -> statement.bindDouble(index, getter.applyAsDouble(row)));
+  }
+
+  public static <T> BatchColumn<T> ofNullableLong(@NonNull String name, @NonNull Function<T, Long> getter) {
+    return new BatchColumn<>(name, (statement, index, row) -> {
+      Long value = getter.apply(row);
+      if (value == null) {
+        statement.bindNull(index);
+      } else {
+        statement.bindLong(index, value);
+      }
+    });
+  }
+
+  public static <T> BatchColumn<T> ofString(@NonNull String name, @NonNull Function<T, String> getter) {
+    return new BatchColumn<>(name, (statement, index, row) -> {
+      String value = getter.apply(row);
+      if (value == null) {
+        statement.bindNull(index);
+      } else {
+        statement.bindString(index, value);
+      }
+    });
+  }
+
+  public static <T> BatchColumn<T> ofBlob(@NonNull String name, @NonNull Function<T, byte[]> getter) {
+    return new BatchColumn<>(name, (statement, index, row) -> {
+      byte[] value = getter.apply(row);
+      if (value == null) {
+        statement.bindNull(index);
+      } else {
+        statement.bindBlob(index, value);
+      }
+    });
+  }
+
+  /**
+   * For rows whose values are only known as objects (e.g. ones that started life as {@link android.content.ContentValues}). Prefer one of the
+   * typed columns where you can.
+   */
+  public static <T> BatchColumn<T> ofValue(@NonNull String name, @NonNull Function<T, Object> getter) {
+    return new BatchColumn<>(name, (statement, index, row) -> bindValue(statement, index, getter.apply(row)));
+  }
+
+  @NonNull String getName() {
+    return name;
+  }
+
+  void bind(@NonNull SQLiteStatement statement, int index, @NonNull T row) {
+    binder.bind(statement, index, row);
+  }
+
+  private static void bindValue(@NonNull SQLiteStatement statement, int index, @Nullable Object value) {
+    if (value == null) {
+      statement.bindNull(index);
+    } else if (value instanceof byte[]) {
+      statement.bindBlob(index, (byte[]) value);
+    } else if (value instanceof Float || value instanceof Double) {
+      statement.bindDouble(index, ((Number) value).doubleValue());
+    } else if (value instanceof Number) {
+      statement.bindLong(index, ((Number) value).longValue());
+    } else if (value instanceof Boolean) {
+      statement.bindLong(index, (Boolean) value ? 1 : 0);
+    } else {
+      statement.bindString(index, value.toString());
+    }
+  }
+
+  private interface Binder<T> {
+    void bind(@NonNull SQLiteStatement statement, int index, @NonNull T row);
+  }
+}
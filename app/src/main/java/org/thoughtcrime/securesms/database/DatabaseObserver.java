@@ -28,6 +28,7 @@ import java.util.concurrent.Executor;
 public class DatabaseObserver {
 
   private static final String KEY_CONVERSATION          = "Conversation:";
+  private static final String KEY_CONVERSATION_INSERT   = "ConversationInsert:";
   private static final String KEY_VERBOSE_CONVERSATION  = "VerboseConversation:";
   private static final String KEY_CONVERSATION_LIST     = "ConversationList";
   private static final String KEY_PAYMENT               = "Payment:";
@@ -53,6 +54,7 @@ public class DatabaseObserver {
 
   private final Set<Observer>                      conversationListObservers;
   private final Map<Long, Set<Observer>>           conversationObservers;
+  private final Map<Observer, MessageObserver>     insertAwareObservers;
   private final Map<Long, Set<Observer>>           verboseConversationObservers;
   private final Map<Long, Set<Observer>>           conversationDeleteObservers;
   private final Map<UUID, Set<Observer>>           paymentObservers;
@@ -76,6 +78,7 @@ public class DatabaseObserver {
     this.executor                     = new SerialExecutor(SignalExecutors.BOUNDED);
     this.conversationListObservers    = new HashSet<>();
     this.conversationObservers        = new HashMap<>();
+    this.insertAwareObservers         = new HashMap<>();
     this.verboseConversationObservers = new HashMap<>();
     this.conversationDeleteObservers  = new HashMap<>();
     this.paymentObservers             = new HashMap<>();
@@ -108,6 +111,18 @@ public class DatabaseObserver {
     });
   }
 
+  /**
+   * Like {@link #registerConversationObserver(long, Observer)}, except that new messages announced via
+   * {@link #notifyConversationInsertListeners(long, MessageId)} are passed to {@code insertListener} instead of {@code listener}.
+   * Use this when you can apply an insert in place, and would otherwise have to throw away your state for each new message.
+   */
+  public void registerInsertAwareConversationObserver(long threadId, @NonNull Observer listener, @NonNull MessageObserver insertListener) {
+    executor.execute(() -> {
+      registerMapped(conversationObservers, threadId, listener);
+      insertAwareObservers.put(listener, insertListener);
+    });
+  }
+
   public void registerVerboseConversationObserver(long threadId, @NonNull Observer listener) {
     executor.execute(() -> {
       registerMapped(verboseConversationObservers, threadId, listener);
@@ -217,6 +232,7 @@ public class DatabaseObserver {
     executor.execute(() -> {
       conversationListObservers.remove(listener);
       unregisterMapped(conversationObservers, listener);
+      insertAwareObservers.remove(listener);
       unregisterMapped(verboseConversationObservers, listener);
       unregisterMapped(paymentObservers, listener);
       chatColorsObservers.remove(listener);
@@ -260,6 +276,31 @@ public class DatabaseObserver {
     });
   }
 
+  /**
+   * Announces a message that was simply added to the head of a conversation. Conversation observers are notified as usual, except for
+   * the ones registered with {@link #registerInsertAwareConversationObserver(long, Observer, MessageObserver)}, which are told about the
+   * new message instead.
+   */
+  public void notifyConversationInsertListeners(long threadId, @NonNull MessageId messageId) {
+    runPostSuccessfulTransaction(KEY_CONVERSATION_INSERT + messageId, () -> {
+      Set<Observer> listeners = conversationObservers.get(threadId);
+
+      if (listeners != null) {
+        for (Observer listener : listeners) {
+          MessageObserver insertListener = insertAwareObservers.get(listener);
+
+          if (insertListener != null) {
+            insertListener.onMessageChanged(messageId);
+          } else {
+            listener.onChanged();
+          }
+        }
+      }
+
+      notifyMapped(verboseConversationObservers, threadId);
+    });
+  }
+
   public void notifyVerboseConversationListeners(Set<Long> threadIds) {
     for (long threadId : threadIds) {
       runPostSuccessfulTransaction(KEY_VERBOSE_CONVERSATION + threadId, () -> {
@@ -0,0 +1,284 @@
+package org.thoughtcrime.securesms.database
+
+import java.util.PriorityQueue
+import kotlin.math.max
+
+/**
+ * An in-memory version of [EmojiSearchTable], so that searching as the user types doesn't mean scanning every label with a leading-wildcard LIKE.
+ *
+ * Every trigram of every label maps to the (rank-ordered) entries that contain it. Labels are padded at the end so that every shorter
+ * substring is the start of some trigram, which means only trigrams need postings. The trigrams are kept sorted, so a one or two character
+ * query merges the postings of the trigrams it prefixes, a three character query is a single lookup, and longer ones walk the rarest of their
+ * trigrams and only check those labels for the full query.
+ *
+ * Results match what the old SQL query produced: labels match case-insensitively for ASCII (like LIKE), the best-ranked [CANDIDATE_LIMIT]
+ * matches are considered, and those are ordered by how similar they are to the query.
+ */
+class EmojiSearchIndex private constructor(
+  private val labels: Array<String>,
+  private val emoji: Array<String>,
+  private val ranks: IntArray,
+  private val gramKeys: Array<String>,
+  private val gramPostings: Array<IntArray>,
+  private val byEmoji: Map<String, IntArray>,
+  private val maxRank: Int
+) {
+
+  companion object {
+    private const val CANDIDATE_LIMIT = 200
+    private const val GRAM_LENGTH = 3
+
+    /** Pads the end of labels, so that every one or two character substring is the start of a trigram. */
+    private const val PADDING = '\u0000'
+
+    private val EMPTY = IntArray(0)
+
+    /**
+     * Builds an index over the given rows. Unranked entries should have a rank of [Int.MAX_VALUE], as they do in the table.
+     */
+    @JvmStatic
+    fun build(entries: List<Entry>): EmojiSearchIndex {
+      val sorted = entries
+        .map { it.copy(label = it.label.foldCase()) }
+        .sortedWith(compareBy<Entry> { it.rank }.thenBy { it.label }.thenBy { it.emoji })
+
+      val grams: MutableMap<String, IntList> = HashMap()
+      val byEmoji: MutableMap<String, IntList> = HashMap()
+      val seen: MutableSet<String> = HashSet()
+
+      sorted.forEachIndexed { index, entry ->
+        seen.clear()
+
+        val padded = entry.label + PADDING.toString().repeat(GRAM_LENGTH - 1)
+        for (start in 0 until entry.label.length) {
+          val gram = padded.substring(start, start + GRAM_LENGTH)
+          if (seen.add(gram)) {
+            grams.getOrPut(gram) { IntList() }.add(index)
+          }
+        }
+
+        byEmoji.getOrPut(entry.emoji) { IntList() }.add(index)
+      }
+
+      val gramKeys: Array<String> = grams.keys.sorted().toTypedArray()
+
+      return EmojiSearchIndex(
+        labels = Array(sorted.size) { sorted[it].label },
+        emoji = Array(sorted.size) { sorted[it].emoji },
+        ranks = IntArray(sorted.size) { sorted[it].rank },
+        gramKeys = gramKeys,
+        gramPostings = Array(gramKeys.size) { grams.getValue(gramKeys[it]).toArray() },
+        byEmoji = byEmoji.mapValues { it.value.toArray() },
+        maxRank = sorted.filter { it.rank != Int.MAX_VALUE }.maxOfOrNull { it.rank } ?: 0
+      )
+    }
+
+    /** SQLite's LIKE only ignores case for ASCII, so we do the same. */
+    private fun String.foldCase(): String {
+      if (none { it in 'A'..'Z' }) {
+        return this
+      }
+
+      val chars = toCharArray()
+      for (i in chars.indices) {
+        if (chars[i] in 'A'..'Z') {
+          chars[i] = chars[i] + ('a' - 'A')
+        }
+      }
+      return String(chars)
+    }
+  }
+
+  val size: Int
+    get() = labels.size
+
+  /**
+   * @param originalQuery A search query. Doesn't need any special formatting -- it'll be sanitized.
+   * @return A list of emoji that are related to the search term, ordered by relevance.
+   */
+  fun query(originalQuery: String, originalLimit: Int): List<String> {
+    val query: String = originalQuery.trim()
+
+    if (query.isEmpty()) {
+      return emptyList()
+    }
+
+    val limit: Int = max(originalLimit, CANDIDATE_LIMIT)
+    val folded: String = query.foldCase()
+
+    val labelMatches = findLabelMatches(folded, limit)
+    val emojiMatches = byEmoji[query] ?: EMPTY
+
+    val candidates: IntArray = if (emojiMatches.isEmpty()) {
+      labelMatches
+    } else {
+      (labelMatches + emojiMatches).distinct().sorted().take(limit).toIntArray()
+    }
+
+    return candidates
+      .sortedBy { similarityScore(query, folded, it) }
+      .map { emoji[it] }
+      .distinct()
+      .take(originalLimit)
+  }
+
+  /**
+   * @return The indices of the first [limit] entries whose label contains [folded], which are also the best ranked.
+   */
+  private fun findLabelMatches(folded: String, limit: Int): IntArray {
+    if (folded.contains(PADDING)) {
+      return EMPTY
+    }
+
+    if (folded.length < GRAM_LENGTH) {
+      return findPrefixedGramMatches(folded, limit)
+    }
+
+    if (folded.length == GRAM_LENGTH) {
+      val postings = postingsOf(folded) ?: return EMPTY
+      return if (postings.size <= limit) postings else postings.copyOf(limit)
+    }
+
+    var rarest: IntArray? = null
+    for (start in 0..folded.length - GRAM_LENGTH) {
+      val postings = postingsOf(folded.substring(start, start + GRAM_LENGTH)) ?: return EMPTY
+      if (rarest == null || postings.size < rarest.size) {
+        rarest = postings
+      }
+    }
+
+    val matches = IntList()
+    for (index in rarest!!) {
+      if (labels[index].contains(folded)) {
+        matches.add(index)
+        if (matches.size == limit) {
+          break
+        }
+      }
+    }
+
+    return matches.toArray()
+  }
+
+  /**
+   * A label contains a query shorter than a trigram exactly when one of its (padded) trigrams starts with it, so this merges the postings of
+   * every such trigram, in index order, stopping once there are [limit] entries.
+   */
+  private fun findPrefixedGramMatches(folded: String, limit: Int): IntArray {
+    var first = gramKeys.binarySearch(folded)
+    if (first < 0) {
+      first = -first - 1
+    }
+
+    var last = first
+    while (last < gramKeys.size && gramKeys[last].startsWith(folded)) {
+      last++
+    }
+
+    if (first == last) {
+      return EMPTY
+    }
+
+    if (last - first == 1) {
+      val postings = gramPostings[first]
+      return if (postings.size <= limit) postings else postings.copyOf(limit)
+    }
+
+    // Each element is a (gram, position) cursor into that gram's postings, ordered by the entry it points at
+    val cursors = PriorityQueue<IntArray>(last - first, compareBy<IntArray> { gramPostings[it[0]][it[1]] })
+    for (gram in first until last) {
+      cursors.add(intArrayOf(gram, 0))
+    }
+
+    val matches = IntList()
+    while (cursors.isNotEmpty() && matches.size < limit) {
+      val cursor = cursors.poll()!!
+      val postings = gramPostings[cursor[0]]
+      val index = postings[cursor[1]]
+
+      // A label is in the postings of every gram it has with this prefix, but we only want it once
+      if (matches.size == 0 || matches.last() != index) {
+        matches.add(index)
+      }
+
+      cursor[1]++
+      if (cursor[1] < postings.size) {
+        cursors.add(cursor)
+      }
+    }
+
+    return matches.toArray()
+  }
+
+  private fun postingsOf(gram: String): IntArray? {
+    val position = gramKeys.binarySearch(gram)
+    return if (position >= 0) gramPostings[position] else null
+  }
+
+  /**
+   * Ranks how "similar" a match is to the original search term.
+   * A lower score means more similar, with 0 being a perfect match.
+   *
+   * We know that the `searchTerm` must be a substring of the `match`.
+   * We determine similarity by how many letters appear before or after the `searchTerm` in the `match`.
+   * We give letters that come before the term a bigger weight than those that come after as a way to prefer matches that are prefixed by the `searchTerm`.
+   */
+  private fun similarityScore(query: String, searchTerm: String, index: Int): Float {
+    val match: String = labels[index]
+
+    if (query == emoji[index] || searchTerm == match) {
+      return scaledRank(index)
+    }
+
+    val startIndex = match.indexOf(searchTerm)
+
+    val prefixCount = startIndex
+    val suffixCount = match.length - (startIndex + searchTerm.length)
+
+    val prefixRankWeight = 1.75f
+    val suffixRankWeight = 0.75f
+    val notExactMatchPenalty = 2f
+
+    return notExactMatchPenalty +
+      (prefixCount * prefixRankWeight) +
+      (suffixCount * suffixRankWeight) +
+      scaledRank(index)
+  }
+
+  private fun scaledRank(index: Int): Float {
+    val unranked = 2f
+    val scaleFactor: Float = unranked / maxRank
+    return if (ranks[index] == Int.MAX_VALUE) {
+      unranked
+    } else {
+      ranks[index] * scaleFactor
+    }
+  }
+
+  data class Entry(val label: String, val emoji: String, val rank: Int)
+
+  /**
+   * A growable list of ints, so building postings doesn't box every index.
+   */
+  private class IntList {
+    private var values = IntArray(4)
+
+    var size = 0
+      private set
+
+    fun add(value: Int) {
+      if (size == values.size) {
+        values = values.copyOf(size * 2)
+      }
+      values[size++] = value
+    }
+
+    fun last(): Int {
+      return values[size - 1]
+    }
+
+    fun toArray(): IntArray {
+      return values.copyOf(size)
+    }
+  }
+}
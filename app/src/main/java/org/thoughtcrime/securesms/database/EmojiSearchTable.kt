@@ -1,16 +1,14 @@
 package org.thoughtcrime.securesms.database
 
 import android.content.Context
-import android.text.TextUtils
 import androidx.core.content.contentValuesOf
 import org.signal.core.util.exists
-import org.signal.core.util.readToSingleInt
+import org.signal.core.util.readToList
 import org.signal.core.util.requireInt
 import org.signal.core.util.requireNonNullString
 import org.signal.core.util.select
 import org.signal.core.util.withinTransaction
 import org.thoughtcrime.securesms.database.model.EmojiSearchData
-import kotlin.math.max
 
 /**
  * Contains all info necessary for full-text search of emoji tags.
@@ -39,56 +37,16 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
     )
   }
 
+  /** Built from the table the first time it's searched, since that's the only time we need it. */
+  @Volatile
+  private var searchIndex: EmojiSearchIndex? = null
+
   /**
    * @param query A search query. Doesn't need any special formatted -- it'll be sanitized.
    * @return A list of emoji that are related to the search term, ordered by relevance.
    */
   fun query(originalQuery: String, originalLimit: Int): List<String> {
-    val query: String = originalQuery.trim()
-
-    if (TextUtils.isEmpty(query)) {
-      return emptyList()
-    }
-
-    val limit: Int = max(originalLimit, 200)
-    val entries = mutableListOf<Entry>()
-
-    val maxRank = readableDatabase
-      .select("MAX($RANK) AS max")
-      .from(TABLE_NAME)
-      .where("$RANK != ${Int.MAX_VALUE}")
-      .run()
-      .readToSingleInt()
-
-    readableDatabase
-      .select(LABEL, EMOJI, RANK)
-      .from(TABLE_NAME)
-      .where("$LABEL LIKE ? OR $EMOJI = ?", "%$query%", query)
-      .orderBy("$RANK ASC")
-      .limit(limit)
-      .run()
-      .use { cursor ->
-        while (cursor.moveToNext()) {
-          entries += Entry(
-            label = cursor.requireNonNullString(LABEL),
-            emoji = cursor.requireNonNullString(EMOJI),
-            rank = cursor.requireInt(RANK)
-          )
-        }
-      }
-
-    return entries
-      .sortedWith { lhs, rhs ->
-        val result = similarityScore(query, lhs, maxRank) - similarityScore(query, rhs, maxRank)
-        when {
-          result < 0 -> -1
-          result > 0 -> 1
-          else -> 0
-        }
-      }
-      .distinctBy { it.emoji }
-      .take(originalLimit)
-      .map { it.emoji }
+    return getSearchIndex().query(originalQuery, originalLimit)
   }
 
   /**
@@ -98,10 +56,15 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
     localizedSearchIndex: List<EmojiSearchData>,
     englishSearchIndex: List<EmojiSearchData>
   ) {
-    databaseHelper.signalReadableDatabase.withinTransaction { db ->
-      db.delete(TABLE_NAME, null, null)
-      db.insert(localizedSearchIndex)
-      db.insert(englishSearchIndex)
+    synchronized(this) {
+      databaseHelper.signalReadableDatabase.withinTransaction { db ->
+        db.delete(TABLE_NAME, null, null)
+        db.insert(localizedSearchIndex)
+        db.insert(englishSearchIndex)
+      }
+
+      // Rebuilt from the table by the next search, so we don't hold a second copy of the data until someone actually searches
+      searchIndex = null
     }
   }
 
@@ -109,57 +72,48 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
     return readableDatabase.exists(TABLE_NAME).run()
   }
 
-  private fun SQLiteDatabase.insert(searchIndex: List<EmojiSearchData>) {
-    for (searchData in searchIndex) {
-      for (label in searchData.tags) {
-        val values = contentValuesOf(
-          LABEL to label,
-          EMOJI to searchData.emoji,
-          RANK to if (searchData.rank == 0) Int.MAX_VALUE else searchData.rank
-        )
-        insert(TABLE_NAME, null, values)
-      }
-    }
-  }
+  private fun getSearchIndex(): EmojiSearchIndex {
+    searchIndex?.let { return it }
 
-  /**
-   * Ranks how "similar" a match is to the original search term.
-   * A lower score means more similar, with 0 being a perfect match.
-   *
-   * We know that the `searchTerm` must be a substring of the `match`.
-   * We determine similarity by how many letters appear before or after the `searchTerm` in the `match`.
-   * We give letters that come before the term a bigger weight than those that come after as a way to prefer matches that are prefixed by the `searchTerm`.
-   */
-  private fun similarityScore(searchTerm: String, entry: Entry, maxRank: Int): Float {
-    val match: String = entry.label
+    synchronized(this) {
+      searchIndex?.let { return it }
 
-    if (searchTerm == entry.emoji || searchTerm == match) {
-      return entry.scaledRank(maxRank)
-    }
+      val entries: List<EmojiSearchIndex.Entry> = readableDatabase
+        .select(LABEL, EMOJI, RANK)
+        .from(TABLE_NAME)
+        .run()
+        .readToList { cursor ->
+          EmojiSearchIndex.Entry(
+            label = cursor.requireNonNullString(LABEL),
+            emoji = cursor.requireNonNullString(EMOJI),
+            rank = cursor.requireInt(RANK)
+          )
+        }
 
-    val startIndex = match.indexOf(searchTerm)
+      val index = EmojiSearchIndex.build(entries)
 
-    val prefixCount = startIndex
-    val suffixCount = match.length - (startIndex + searchTerm.length)
+      // If there's nothing there yet, it's likely being downloaded, so check again next time rather than holding on to an empty index
+      if (index.size > 0) {
+        searchIndex = index
+      }
 
-    val prefixRankWeight = 1.75f
-    val suffixRankWeight = 0.75f
-    val notExactMatchPenalty = 2f
+      return index
+    }
+  }
 
-    return notExactMatchPenalty +
-      (prefixCount * prefixRankWeight) +
-      (suffixCount * suffixRankWeight) +
-      entry.scaledRank(maxRank)
+  private fun Int.toTableRank(): Int {
+    return if (this == 0) Int.MAX_VALUE else this
   }
 
-  private data class Entry(val label: String, val emoji: String, val rank: Int) {
-    fun scaledRank(maxRank: Int): Float {
-      val unranked = 2f
-      val scaleFactor: Float = unranked / maxRank
-      return if (rank == Int.MAX_VALUE) {
-        unranked
-      } else {
-        rank * scaleFactor
+  private fun SQLiteDatabase.insert(searchIndex: List<EmojiSearchData>) {
+    for (searchData in searchIndex) {
+      for (label in searchData.tags) {
+        val values = contentValuesOf(
+          LABEL to label,
+          EMOJI to searchData.emoji,
+          RANK to searchData.rank.toTableRank()
+        )
+        insert(TABLE_NAME, null, values)
       }
     }
   }
@@ -1,9 +1,7 @@
 package org.thoughtcrime.securesms.database
 
-import android.content.ContentValues
 import android.content.Context
 import android.database.Cursor
-import androidx.core.content.contentValuesOf
 import org.signal.core.util.SqlUtil
 import org.signal.core.util.delete
 import org.signal.core.util.deleteAll
@@ -55,29 +53,45 @@ class GroupReceiptTable(context: Context?, databaseHelper: SignalDatabase?) : Da
   }
 
   fun insert(recipientIds: Collection<RecipientId>, mmsId: Long, status: Int, timestamp: Long) {
-    val contentValues: List<ContentValues> = recipientIds.map { recipientId ->
-      contentValuesOf(
-        MMS_ID to mmsId,
-        RECIPIENT_ID to recipientId.serialize(),
+    writableDatabase.insertBatch<RecipientId>(
+      TABLE_NAME,
+      SQLiteDatabase.CONFLICT_NONE,
+      recipientIds,
+      BatchColumn.ofLong(MMS_ID) { mmsId },
+      BatchColumn.ofLong(RECIPIENT_ID) { it.toLong() },
+      BatchColumn.ofInt(STATUS) { status },
+      BatchColumn.ofLong(TIMESTAMP) { timestamp }
+    )
+  }
+
+  fun update(recipientId: RecipientId, mmsId: Long, status: Int, timestamp: Long) {
+    writableDatabase
+      .update(TABLE_NAME)
+      .values(
         STATUS to status,
         TIMESTAMP to timestamp
       )
-    }
+      .where("$MMS_ID = ? AND $RECIPIENT_ID = ? AND $STATUS < ?", mmsId.toString(), recipientId.serialize(), status.toString())
+      .run()
+  }
 
-    val statements = SqlUtil.buildBulkInsert(TABLE_NAME, arrayOf(MMS_ID, RECIPIENT_ID, STATUS, TIMESTAMP), contentValues)
-    writableDatabase.withinTransaction { db ->
-      statements.forEach { db.execSQL(it.where, it.whereArgs) }
+  /**
+   * Same as [update], but for many messages at once.
+   */
+  fun update(recipientId: RecipientId, mmsIds: Collection<Long>, status: Int, timestamp: Long) {
+    if (mmsIds.isEmpty()) {
+      return
     }
-  }
 
-  fun update(recipientId: RecipientId, mmsId: Long, status: Int, timestamp: Long) {
+    val query = SqlUtil.buildFastCollectionQuery(MMS_ID, mmsIds)
+
     writableDatabase
       .update(TABLE_NAME)
       .values(
         STATUS to status,
         TIMESTAMP to timestamp
       )
-      .where("$MMS_ID = ? AND $RECIPIENT_ID = ? AND $STATUS < ?", mmsId.toString(), recipientId.serialize(), status.toString())
+      .where("$RECIPIENT_ID = ? AND $STATUS < ? AND ${query.where}", SqlUtil.buildArgs(recipientId, status) + query.whereArgs)
       .run()
   }
 
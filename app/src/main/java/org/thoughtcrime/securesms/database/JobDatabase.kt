@@ -7,10 +7,8 @@ import android.database.Cursor
 import androidx.core.content.contentValuesOf
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import net.zetetic.database.sqlcipher.SQLiteOpenHelper
-import org.signal.core.util.SqlUtil
 import org.signal.core.util.delete
 import org.signal.core.util.forEach
-import org.signal.core.util.insertInto
 import org.signal.core.util.logging.Log
 import org.signal.core.util.readToList
 import org.signal.core.util.readToSingleObject
@@ -32,6 +30,7 @@ import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec
 import org.thoughtcrime.securesms.jobs.MinimalJobSpec
 import java.util.function.Predicate
+import org.thoughtcrime.securesms.database.SQLiteDatabase as SignalSQLiteDatabase
 
 class JobDatabase(
   application: Application,
@@ -160,6 +159,14 @@ class JobDatabase(
     db.setForeignKeyConstraintsEnabled(true)
   }
 
+  /**
+   * Performs every write made within [block] as part of a single transaction.
+   */
+  @Synchronized
+  fun runInTransaction(block: () -> Unit) {
+    writableDatabase.withinTransaction { block() }
+  }
+
   @Synchronized
   fun insertJobs(fullSpecs: List<FullSpec>) {
     if (fullSpecs.all { it.jobSpec.isMemoryOnly }) {
@@ -167,11 +174,11 @@ class JobDatabase(
     }
 
     writableDatabase.withinTransaction { db ->
-      for ((jobSpec, constraintSpecs, dependencySpecs) in fullSpecs) {
-        insertJobSpec(db, jobSpec)
-        insertConstraintSpecs(db, constraintSpecs)
-        insertDependencySpecs(db, dependencySpecs)
-      }
+      // Going table by table lets every row share one compiled statement
+      val batchDb = SignalSQLiteDatabase(db)
+      insertJobSpecs(batchDb, fullSpecs.map { it.jobSpec })
+      insertConstraintSpecs(batchDb, fullSpecs.flatMap { it.constraintSpecs })
+      insertDependencySpecs(batchDb, fullSpecs.flatMap { it.dependencySpecs })
     }
   }
 
@@ -374,21 +381,13 @@ class JobDatabase(
       .readToList { it.toConstraintSpec() }
   }
 
-  fun getConstraintSpecsForJobs(jobIds: Collection<String>): List<ConstraintSpec> {
-    val output: MutableList<ConstraintSpec> = mutableListOf()
-
-    for (query in SqlUtil.buildCollectionQuery(Constraints.JOB_SPEC_ID, jobIds)) {
-      readableDatabase
-        .select()
-        .from(Constraints.TABLE_NAME)
-        .where(query.where, query.whereArgs)
-        .run()
-        .forEach {
-          output += it.toConstraintSpec()
-        }
-    }
-
-    return output
+  @Synchronized
+  fun getAllConstraintSpecs(): List<ConstraintSpec> {
+    return readableDatabase
+      .select()
+      .from(Constraints.TABLE_NAME)
+      .run()
+      .readToList { it.toConstraintSpec() }
   }
 
   @Synchronized
@@ -400,46 +399,53 @@ class JobDatabase(
       .readToList { it.toDependencySpec() }
   }
 
-  private fun insertJobSpec(db: SQLiteDatabase, job: JobSpec) {
-    if (job.isMemoryOnly) {
-      return
-    }
-
+  private fun insertJobSpecs(db: SignalSQLiteDatabase, jobs: List<JobSpec>) {
     check(db.inTransaction())
 
-    db.insertInto(Jobs.TABLE_NAME)
-      .values(job.toContentValues())
-      .run(SQLiteDatabase.CONFLICT_IGNORE)
+    db.insertBatch<JobSpec>(
+      Jobs.TABLE_NAME,
+      SQLiteDatabase.CONFLICT_IGNORE,
+      jobs.filterNot { it.isMemoryOnly },
+      BatchColumn.ofString(Jobs.JOB_SPEC_ID) { it.id },
+      BatchColumn.ofString(Jobs.FACTORY_KEY) { it.factoryKey },
+      BatchColumn.ofString(Jobs.QUEUE_KEY) { it.queueKey },
+      BatchColumn.ofLong(Jobs.CREATE_TIME) { it.createTime },
+      BatchColumn.ofLong(Jobs.LAST_RUN_ATTEMPT_TIME) { it.lastRunAttemptTime },
+      BatchColumn.ofLong(Jobs.NEXT_BACKOFF_INTERVAL) { it.nextBackoffInterval },
+      BatchColumn.ofInt(Jobs.RUN_ATTEMPT) { it.runAttempt },
+      BatchColumn.ofInt(Jobs.MAX_ATTEMPTS) { it.maxAttempts },
+      BatchColumn.ofLong(Jobs.LIFESPAN) { it.lifespan },
+      BatchColumn.ofBlob(Jobs.SERIALIZED_DATA) { it.serializedData },
+      BatchColumn.ofBlob(Jobs.SERIALIZED_INPUT_DATA) { it.serializedInputData },
+      BatchColumn.ofBoolean(Jobs.IS_RUNNING) { it.isRunning },
+      BatchColumn.ofInt(Jobs.GLOBAL_PRIORITY) { it.globalPriority },
+      BatchColumn.ofInt(Jobs.QUEUE_PRIORITY) { it.queuePriority },
+      BatchColumn.ofLong(Jobs.INITIAL_DELAY) { it.initialDelay }
+    )
   }
 
-  private fun insertConstraintSpecs(db: SQLiteDatabase, constraints: List<ConstraintSpec>) {
+  private fun insertConstraintSpecs(db: SignalSQLiteDatabase, constraints: List<ConstraintSpec>) {
     check(db.inTransaction())
 
-    constraints
-      .filterNot { it.isMemoryOnly }
-      .forEach { constraint ->
-        db.insertInto(Constraints.TABLE_NAME)
-          .values(
-            Constraints.JOB_SPEC_ID to constraint.jobSpecId,
-            Constraints.FACTORY_KEY to constraint.factoryKey
-          )
-          .run(SQLiteDatabase.CONFLICT_IGNORE)
-      }
+    db.insertBatch<ConstraintSpec>(
+      Constraints.TABLE_NAME,
+      SQLiteDatabase.CONFLICT_IGNORE,
+      constraints.filterNot { it.isMemoryOnly },
+      BatchColumn.ofString(Constraints.JOB_SPEC_ID) { it.jobSpecId },
+      BatchColumn.ofString(Constraints.FACTORY_KEY) { it.factoryKey }
+    )
   }
 
-  private fun insertDependencySpecs(db: SQLiteDatabase, dependencies: List<DependencySpec>) {
+  private fun insertDependencySpecs(db: SignalSQLiteDatabase, dependencies: List<DependencySpec>) {
     check(db.inTransaction())
 
-    dependencies
-      .filterNot { it.isMemoryOnly }
-      .forEach { dependency ->
-        db.insertInto(Dependencies.TABLE_NAME)
-          .values(
-            Dependencies.JOB_SPEC_ID to dependency.jobId,
-            Dependencies.DEPENDS_ON_JOB_SPEC_ID to dependency.dependsOnJobId
-          )
-          .run(SQLiteDatabase.CONFLICT_IGNORE)
-      }
+    db.insertBatch<DependencySpec>(
+      Dependencies.TABLE_NAME,
+      SQLiteDatabase.CONFLICT_IGNORE,
+      dependencies.filterNot { it.isMemoryOnly },
+      BatchColumn.ofString(Dependencies.JOB_SPEC_ID) { it.jobId },
+      BatchColumn.ofString(Dependencies.DEPENDS_ON_JOB_SPEC_ID) { it.dependsOnJobId }
+    )
   }
 
   private fun Cursor.toJobSpec(): JobSpec {
@@ -2,7 +2,7 @@ package org.thoughtcrime.securesms.database
 
 import android.annotation.SuppressLint
 import android.app.Application
-import android.database.Cursor
+import android.content.Context
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import net.zetetic.database.sqlcipher.SQLiteOpenHelper
 import org.signal.core.util.SqlUtil
@@ -15,8 +15,6 @@ import org.signal.core.util.insertInto
 import org.signal.core.util.logging.Log
 import org.signal.core.util.mebiBytes
 import org.signal.core.util.readToList
-import org.signal.core.util.readToSingleInt
-import org.signal.core.util.readToSingleLong
 import org.signal.core.util.requireBoolean
 import org.signal.core.util.requireLong
 import org.signal.core.util.requireNonNullString
@@ -24,25 +22,29 @@ import org.signal.core.util.requireString
 import org.signal.core.util.select
 import org.signal.core.util.update
 import org.signal.core.util.withinTransaction
+import org.thoughtcrime.securesms.BuildConfig
 import org.thoughtcrime.securesms.crash.CrashConfig
 import org.thoughtcrime.securesms.crypto.DatabaseSecret
 import org.thoughtcrime.securesms.crypto.DatabaseSecretProvider
 import org.thoughtcrime.securesms.database.model.LogEntry
+import org.thoughtcrime.securesms.logging.SegmentedLogStore
 import java.io.Closeable
-import kotlin.math.abs
 import kotlin.time.Duration.Companion.days
 
 /**
  * Stores logs.
  *
+ * Regular log lines are kept in a [SegmentedLogStore] rather than in a table, which is only around to migrate lines left over from older versions.
+ * Crashes and ANRs are still kept in tables here.
+ *
  * Logs are very performance critical. Even though this database is written to on a low-priority background thread, we want to keep throughput high and ensure
  * that we aren't creating excess garbage.
  *
  * This is it's own separate physical database, so it cannot do joins or queries with any other tables.
  */
 class LogDatabase private constructor(
-  application: Application,
-  databaseSecret: DatabaseSecret
+  private val application: Application,
+  private val databaseSecret: DatabaseSecret
 ) :
   SQLiteOpenHelper(
     application,
@@ -62,6 +64,7 @@ class LogDatabase private constructor(
 
     private const val DATABASE_VERSION = 4
     private const val DATABASE_NAME = "signal-logs.db"
+    private const val LOG_DIRECTORY = "logs"
 
     @SuppressLint("StaticFieldLeak") // We hold an Application context, not a view context
     @Volatile
@@ -82,7 +85,15 @@ class LogDatabase private constructor(
   }
 
   @get:JvmName("logs")
-  val logs: LogTable by lazy { LogTable(this) }
+  val logs: LogTable by lazy {
+    LogTable(this) {
+      SegmentedLogStore(
+        directory = application.getDir(LOG_DIRECTORY, Context.MODE_PRIVATE),
+        secret = databaseSecret.asBytes(),
+        appVersion = BuildConfig.VERSION_NAME
+      )
+    }
+  }
 
   @get:JvmName("crashes")
   val crashes: CrashTable by lazy { CrashTable(this) }
@@ -130,7 +141,7 @@ class LogDatabase private constructor(
     return writableDatabase
   }
 
-  class LogTable(private val openHelper: LogDatabase) {
+  class LogTable(private val openHelper: LogDatabase, private val storeFactory: () -> SegmentedLogStore) {
     companion object {
       const val TABLE_NAME = "log"
       const val ID = "_id"
@@ -161,164 +172,99 @@ class LogDatabase private constructor(
       val DEFAULT_LIFESPAN = 3.days.inWholeMilliseconds
       val LONGER_LIFESPAN = 21.days.inWholeMilliseconds
       val KEEP_LONGER_MARKER = "\u200B"
+
+      private const val MIGRATION_BATCH_SIZE = 500
     }
 
     private val readableDatabase: SQLiteDatabase get() = openHelper.readableDatabase
     private val writableDatabase: SQLiteDatabase get() = openHelper.writableDatabase
 
-    fun insert(logs: Sequence<LogEntry>, currentTime: Long) {
-      writableDatabase.withinTransaction { db ->
-        logs.forEach { log ->
-          db.insertInto(TABLE_NAME)
-            .values(
-              CREATED_AT to log.createdAt,
-              KEEP_LONGER to if (log.keepLonger) 1 else 0,
-              BODY to log.body,
-              SIZE to log.body.length
-            )
-            .run()
-        }
-
-        db.delete("$TABLE_NAME INDEXED BY $CREATED_AT_KEEP_LONGER_INDEX")
-          .where("($CREATED_AT < ${currentTime - DEFAULT_LIFESPAN} AND $KEEP_LONGER <= 0) OR ($CREATED_AT < ${currentTime - LONGER_LIFESPAN} AND $KEEP_LONGER >= 1)")
-          .run()
-      }
+    private val store: SegmentedLogStore by lazy {
+      storeFactory().also { migrateToStore(it) }
     }
 
-    fun getAllBeforeTime(time: Long): Reader {
-      return readableDatabase
-        .select(BODY, KEEP_LONGER)
-        .from("$TABLE_NAME INDEXED BY $CREATED_AT_KEEP_LONGER_INDEX")
-        .where("$CREATED_AT < $time")
-        .run()
-        .toReader()
+    fun insert(logs: List<LogEntry>) {
+      store.append(logs)
     }
 
-    fun getRangeBeforeTime(start: Int, length: Int, time: Long): List<String> {
-      return readableDatabase
-        .select(BODY)
-        .from("$TABLE_NAME INDEXED BY $CREATED_AT_KEEP_LONGER_INDEX")
-        .where("$CREATED_AT < $time")
-        .limit(limit = length, offset = start)
-        .run()
-        .readToList { it.requireNonNullString(BODY) }
+    fun getAllBeforeTime(time: Long): Reader {
+      return store.read(time)
     }
 
+    /**
+     * Segments are capped in size and count, so the store never grows past [MAX_FILE_SIZE]. All that's left to do is drop expired segments.
+     */
     fun trimToSize() {
-      val currentTime = System.currentTimeMillis()
       val stopwatch = Stopwatch("trim")
-
-      val sizeOfKeepLongerLogs: Long = getSize("$KEEP_LONGER = ?", arrayOf("1"), KEEP_LONGER_INDEX)
-      val remainingSizeAfterKeepLonger = MAX_FILE_SIZE - sizeOfKeepLongerLogs
-
-      stopwatch.split("keepers-size")
-
-      // If we can't even fit our keep_longer logs within the size limit
-      if (remainingSizeAfterKeepLonger <= 0) {
-        if (abs(remainingSizeAfterKeepLonger) > MAX_FILE_SIZE / 2) {
-          // Not only are KEEP_LONGER logs putting us over the storage limit, it's doing it by a lot! Delete half.
-          val logCount = readableDatabase.getTableRowCount(TABLE_NAME)
-          writableDatabase.execSQL("DELETE FROM $TABLE_NAME WHERE $ID < (SELECT MAX($ID) FROM (SELECT $ID FROM $TABLE_NAME LIMIT ${logCount / 2}))")
-        } else {
-          writableDatabase
-            .delete("$TABLE_NAME INDEXED BY $KEEP_LONGER_INDEX")
-            .where("$KEEP_LONGER = 0")
-            .run()
-        }
-        return
-      }
-
-      val sizeDiffThreshold = MAX_FILE_SIZE * 0.01
-
-      var lhs: Long = currentTime - DEFAULT_LIFESPAN
-      var rhs: Long = currentTime
-      var mid: Long = 0
-      var sizeOfChunk: Long
-
-      while (lhs < rhs - 2) {
-        mid = (lhs + rhs) / 2
-        sizeOfChunk = getSize("$CREATED_AT > ? AND $CREATED_AT < ? AND $KEEP_LONGER <= ?", SqlUtil.buildArgs(mid, currentTime, 0), CREATED_AT_KEEP_LONGER_INDEX)
-
-        if (sizeOfChunk > remainingSizeAfterKeepLonger) {
-          lhs = mid
-        } else if (sizeOfChunk < remainingSizeAfterKeepLonger) {
-          if (remainingSizeAfterKeepLonger - sizeOfChunk < sizeDiffThreshold) {
-            break
-          } else {
-            rhs = mid
-          }
-        } else {
-          break
-        }
-      }
-
-      stopwatch.split("binary-search")
-
-      writableDatabase
-        .delete("$TABLE_NAME INDEXED BY $CREATED_AT_KEEP_LONGER_INDEX")
-        .where("$CREATED_AT < $mid AND $KEEP_LONGER <= 0")
-        .run()
-
-      stopwatch.split("delete")
+      store.trim()
+      stopwatch.split("expired")
       stopwatch.stop(TAG)
     }
 
-    fun getLogCountBeforeTime(time: Long): Int {
-      return readableDatabase
-        .select("COUNT(*)")
-        .from("$TABLE_NAME INDEXED BY $CREATED_AT_KEEP_LONGER_INDEX")
-        .where("$CREATED_AT < $time")
-        .run()
-        .readToSingleInt()
-    }
-
     fun clearKeepLonger() {
-      writableDatabase
-        .delete("$TABLE_NAME INDEXED BY $KEEP_LONGER_INDEX")
-        .where("$KEEP_LONGER = 1")
-        .run()
+      store.clearKeepLonger()
     }
 
     fun clearAll() {
+      store.clearAll()
       writableDatabase.deleteAll(TABLE_NAME)
     }
 
-    private fun getSize(query: String, args: Array<String>, index: String): Long {
-      return readableDatabase
-        .select("SUM($SIZE)")
-        .from("$TABLE_NAME INDEXED BY $index")
-        .where(query, args)
-        .run()
-        .readToSingleLong(0)
-    }
+    /**
+     * Moves any lines left over in the table from before we used [SegmentedLogStore] into the store. They've already been formatted, so they're
+     * carried over as-is.
+     *
+     * Each batch is deleted from the table as soon as it's in the store, so if we're killed partway through, the next launch picks up where
+     * this one left off rather than copying everything again. At worst, the one batch we were in the middle of is copied twice.
+     */
+    private fun migrateToStore(store: SegmentedLogStore) {
+      if (readableDatabase.getTableRowCount(TABLE_NAME) == 0) {
+        return
+      }
 
-    private fun Cursor.toReader(): CursorReader {
-      return CursorReader(this)
-    }
+      val stopwatch = Stopwatch("migrate")
+      var migrated = 0
 
-    interface Reader : Iterator<String>, Closeable
+      while (true) {
+        val ids = ArrayList<Long>(MIGRATION_BATCH_SIZE)
 
-    class CursorReader(private val cursor: Cursor) : Reader {
-      override fun hasNext(): Boolean {
-        return !cursor.isLast && cursor.count > 0
-      }
+        val batch: List<LogEntry> = readableDatabase
+          .select(ID, CREATED_AT, KEEP_LONGER, BODY)
+          .from("$TABLE_NAME INDEXED BY $CREATED_AT_KEEP_LONGER_INDEX")
+          .limit(MIGRATION_BATCH_SIZE)
+          .run()
+          .readToList { cursor ->
+            ids += cursor.requireLong(ID)
+
+            LogEntry(
+              createdAt = cursor.requireLong(CREATED_AT),
+              keepLonger = cursor.requireBoolean(KEEP_LONGER),
+              level = SegmentedLogStore.LEVEL_PREFORMATTED,
+              threadString = "",
+              tag = "",
+              message = cursor.requireString(BODY)
+            )
+          }
 
-      override fun next(): String {
-        cursor.moveToNext()
-        val body = cursor.requireString(BODY) ?: ""
-        val keepLonger = cursor.requireBoolean(KEEP_LONGER)
+        if (batch.isEmpty()) {
+          break
+        }
+
+        store.append(batch)
 
-        return if (keepLonger) {
-          "$KEEP_LONGER_MARKER$body"
-        } else {
-          body
+        writableDatabase.withinTransaction { db ->
+          SqlUtil.buildCollectionQuery(ID, ids).forEach { db.delete(TABLE_NAME, it.where, it.whereArgs) }
         }
-      }
 
-      override fun close() {
-        cursor.close()
+        migrated += batch.size
       }
+
+      stopwatch.split("migrate")
+      stopwatch.stop(TAG)
+      Log.i(TAG, "Migrated $migrated log lines to the store.")
     }
+
+    interface Reader : Iterator<String>, Closeable
   }
 
   class CrashTable(private val openHelper: LogDatabase) {
@@ -5,14 +5,12 @@ import android.database.Cursor
 import org.signal.core.util.SqlUtil
 import org.signal.core.util.delete
 import org.signal.core.util.deleteAll
-import org.signal.core.util.insertInto
 import org.signal.core.util.logging.Log
 import org.signal.core.util.readToList
 import org.signal.core.util.requireInt
 import org.signal.core.util.requireLong
 import org.signal.core.util.select
 import org.signal.core.util.update
-import org.signal.core.util.withinTransaction
 import org.thoughtcrime.securesms.database.model.Mention
 import org.thoughtcrime.securesms.recipients.RecipientId
 
@@ -50,19 +48,16 @@ class MentionTable(context: Context, databaseHelper: SignalDatabase) : DatabaseT
   }
 
   fun insert(threadId: Long, messageId: Long, mentions: Collection<Mention>) {
-    writableDatabase.withinTransaction { db ->
-      for (mention in mentions) {
-        db.insertInto(TABLE_NAME)
-          .values(
-            THREAD_ID to threadId,
-            MESSAGE_ID to messageId,
-            RECIPIENT_ID to mention.recipientId.toLong(),
-            RANGE_START to mention.start,
-            RANGE_LENGTH to mention.length
-          )
-          .run()
-      }
-    }
+    writableDatabase.insertBatch<Mention>(
+      TABLE_NAME,
+      SQLiteDatabase.CONFLICT_NONE,
+      mentions,
+      BatchColumn.ofLong(THREAD_ID) { threadId },
+      BatchColumn.ofLong(MESSAGE_ID) { messageId },
+      BatchColumn.ofLong(RECIPIENT_ID) { it.recipientId.toLong() },
+      BatchColumn.ofInt(RANGE_START) { it.start },
+      BatchColumn.ofInt(RANGE_LENGTH) { it.length }
+    )
   }
 
   fun getMentionsForMessage(messageId: Long): List<Mention> {
@@ -300,6 +300,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     private const val INDEX_DATE_SENT_FROM_TO_THREAD = "message_date_sent_from_to_thread_index"
     private const val INDEX_THREAD_COUNT = "message_thread_count_index"
     private const val INDEX_THREAD_UNREAD_COUNT = "message_thread_unread_count_index"
+    private const val INDEX_THREAD_CONVERSATION = "message_thread_conversation_index"
 
     @JvmField
     val CREATE_INDEXS = arrayOf(
@@ -323,6 +324,8 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_COUNT ON $TABLE_NAME ($THREAD_ID) WHERE $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL",
       // This index is created specifically for getting the number of unread messages in a thread and therefore needs to be kept in sync with that query
       "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_UNREAD_COUNT ON $TABLE_NAME ($THREAD_ID) WHERE $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $ORIGINAL_MESSAGE_ID IS NULL AND $READ = 0",
+      // This index is created specifically for reading a page of a conversation (in date and then id order, so there's no sort) and therefore needs to be kept in sync with those queries
+      "CREATE INDEX IF NOT EXISTS $INDEX_THREAD_CONVERSATION ON $TABLE_NAME ($THREAD_ID, $DATE_RECEIVED, $ID) WHERE $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL",
       "CREATE INDEX IF NOT EXISTS message_votes_unread_index ON $TABLE_NAME ($VOTES_UNREAD)",
       "CREATE INDEX IF NOT EXISTS message_pinned_until_index ON $TABLE_NAME ($PINNED_UNTIL)",
       "CREATE INDEX IF NOT EXISTS message_pinned_at_index ON $TABLE_NAME ($PINNED_AT)"
@@ -430,16 +433,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     private const val IS_STORY_CLAUSE = "$STORY_TYPE > 0 AND $REMOTE_DELETED = 0"
     private const val RAW_ID_WHERE = "$TABLE_NAME.$ID = ?"
 
-    private val SNIPPET_QUERY =
+    /** Which messages can be a thread's snippet. See [SNIPPET_QUERY]. */
+    private val SNIPPET_CLAUSE =
       """
-        SELECT 
-          $ID,
-          $TYPE,
-          $DATE_RECEIVED
-        FROM 
-          $TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID
-        WHERE 
-          $THREAD_ID = ? AND 
           $TYPE & ${MessageTypes.GROUP_V2_LEAVE_BITS} != ${MessageTypes.GROUP_V2_LEAVE_BITS} AND 
           $STORY_TYPE = 0 AND 
           $PARENT_STORY_ID <= 0 AND
@@ -458,7 +454,20 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
             ${MessageTypes.RELEASE_CHANNEL_DONATION_REQUEST_TYPE},
             ${MessageTypes.SMS_EXPORT_TYPE}
            )
-          ORDER BY $DATE_RECEIVED DESC LIMIT 1
+       """
+
+    private val SNIPPET_QUERY =
+      """
+        SELECT 
+          $ID,
+          $TYPE,
+          $DATE_RECEIVED
+        FROM 
+          $TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID
+        WHERE 
+          $THREAD_ID = ? AND 
+          $SNIPPET_CLAUSE
+        ORDER BY $DATE_RECEIVED DESC LIMIT 1
        """
 
     const val IS_CALL_TYPE_CLAUSE = """(
@@ -730,7 +739,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .run()
 
     val threadId = getThreadIdForMessage(id)
-    threads.update(threadId, false)
+    threads.scheduleUpdate(threadId, false)
     notifyConversationListeners(threadId)
   }
 
@@ -766,7 +775,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     )
 
     val threadId = getThreadIdForMessage(messageId)
-    threads.update(threadId, true)
+    threads.scheduleUpdate(threadId, true)
     notifyConversationListeners(threadId)
 
     return InsertResult(
@@ -898,7 +907,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     val messageId = writableDatabase.insert(TABLE_NAME, null, values)
 
-    threads.update(threadId, true)
+    threads.scheduleUpdate(threadId, true)
 
     notifyConversationListeners(threadId)
     TrimThreadJob.enqueueAsync(threadId)
@@ -922,7 +931,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     val threadId = getThreadIdForMessage(messageId)
 
-    threads.update(threadId, true)
+    threads.scheduleUpdate(threadId, true)
 
     notifyConversationListeners(threadId)
     AppDependencies.databaseObserver.notifyMessageUpdateObservers(MessageId(messageId))
@@ -966,7 +975,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
       val messageId = MessageId(db.insert(TABLE_NAME, null, values))
       threads.incrementUnread(threadId, 1, 0)
-      threads.update(threadId, true)
+      threads.scheduleUpdate(threadId, true, unreadCountsApplied = !markRead)
 
       messageId
     }
@@ -1279,7 +1288,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
           )
 
           db.insert(TABLE_NAME, null, values)
-          threads.update(threadId, true)
+          threads.scheduleUpdate(threadId, true)
 
           TrimThreadJob.enqueueAsync(threadId)
           notifyConversationListeners(threadId)
@@ -1965,6 +1974,13 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
    * processing receipts.
    */
   fun getReceiptStatusIfItsTheMostRecentMeaningfulMessage(messageId: Long, threadId: Long): MessageReceiptStatus? {
+    return getReceiptStatusIfOneIsTheMostRecentMeaningfulMessage(setOf(messageId), threadId)
+  }
+
+  /**
+   * Same as [getReceiptStatusIfItsTheMostRecentMeaningfulMessage], but checks against several messages from the same thread with a single query.
+   */
+  fun getReceiptStatusIfOneIsTheMostRecentMeaningfulMessage(messageIds: Set<Long>, threadId: Long): MessageReceiptStatus? {
     val query = buildMeaningfulMessagesQuery(threadId)
 
     return readableDatabase
@@ -1976,7 +1992,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .run()
       .use { cursor ->
         if (cursor.moveToFirst()) {
-          if (cursor.requireLong(ID) != messageId) {
+          if (cursor.requireLong(ID) !in messageIds) {
             return null
           }
 
@@ -2275,7 +2291,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       disassociatePinnedMessage(messageId)
 
       val threadId = getThreadIdForMessage(messageId)
-      threads.update(threadId, false)
+      threads.scheduleUpdate(threadId, false)
       notifyConversationListeners(threadId)
     }
 
@@ -2888,6 +2904,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     val updateThread = retrieved.storyType === StoryType.NONE && !silent
 
+    // Same as what getUnreadCount() counts, so the thread's stored counts can be kept up to date rather than recounted
+    val countsAsUnread = !read && retrieved.storyType === StoryType.NONE && retrieved.parentStoryId == null && editedMessage == null && !MessageTypes.isPinnedMessageUpdate(type)
+
     val (messageId, insertedAttachments) = insertMediaMessage(
       threadId = threadId,
       receivedTime = retrieved.receivedTimeMillis,
@@ -2904,7 +2923,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       unarchive = true,
       poll = retrieved.poll,
       pollTerminate = retrieved.messageExtras?.pollTerminate,
-      pinnedMessage = retrieved.messageExtras?.pinnedMessage
+      pinnedMessage = retrieved.messageExtras?.pinnedMessage,
+      unreadCountsApplied = true,
+      incrementUnread = updateThread && countsAsUnread
     )
 
     if (messageId < 0) {
@@ -2957,7 +2978,11 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     }
 
     if (notifyObservers) {
-      notifyConversationListeners(threadId)
+      if (editedMessage == null && !retrieved.storyType.isStory && retrieved.parentStoryId == null) {
+        AppDependencies.databaseObserver.notifyConversationInsertListeners(threadId, MessageId(messageId))
+      } else {
+        notifyConversationListeners(threadId)
+      }
     }
 
     if (retrieved.storyType.isStory) {
@@ -2999,7 +3024,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .run()
 
     threads.incrementUnread(threadId, 1, 0)
-    threads.update(threadId, true)
+    threads.scheduleUpdate(threadId, true, unreadCountsApplied = true)
 
     notifyConversationListeners(threadId)
     TrimThreadJob.enqueueAsync(threadId)
@@ -3028,7 +3053,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .run()
 
     threads.incrementUnread(threadId, 1, 0)
-    threads.update(threadId, true)
+    threads.scheduleUpdate(threadId, true, unreadCountsApplied = true)
 
     notifyConversationListeners(threadId)
     TrimThreadJob.enqueueAsync(threadId)
@@ -3472,7 +3497,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     unarchive: Boolean,
     poll: Poll? = null,
     pollTerminate: PollTerminate? = null,
-    pinnedMessage: PinnedMessage?
+    pinnedMessage: PinnedMessage?,
+    unreadCountsApplied: Boolean = false,
+    incrementUnread: Boolean = false
   ): kotlin.Pair<Long, Map<Attachment, AttachmentId>?> {
     val mentionsSelf = mentions.any { Recipient.resolved(it.recipientId).isSelf }
     val allAttachments: MutableList<Attachment> = mutableListOf()
@@ -3497,6 +3524,10 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       threads.markAsActiveEarly(threadId)
       SignalDatabase.mentions.insert(threadId, messageId, mentions)
 
+      if (incrementUnread) {
+        threads.incrementUnread(threadId, 1, if (mentionsSelf) 1 else 0)
+      }
+
       val insertedAttachments = SignalDatabase.attachments.insertAttachmentsForMessage(messageId, allAttachments, quoteAttachments)
       val serializedContacts = getSerializedSharedContacts(insertedAttachments, sharedContacts)
       val serializedPreviews = getSerializedLinkPreviews(insertedAttachments, linkPreviews)
@@ -3576,7 +3607,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     if (updateThread) {
       threads.setLastScrolled(contentValuesThreadId, 0)
-      threads.update(threadId, unarchive)
+      threads.scheduleUpdate(threadId, unarchive, unreadCountsApplied = unreadCountsApplied, insertedMessageId = messageId)
     }
 
     if (pinnedMessage != null && pinnedMessage.pinDurationInSeconds != PIN_FOREVER) {
@@ -4747,6 +4778,33 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       } ?: throw NoSuchMessageException("no message")
   }
 
+  /**
+   * Picks the snippet out of [candidateIds] the same way [getConversationSnippet] picks it out of the whole thread, looking only at those rows. This is
+   * only right when the snippet can't be anything else, e.g. when the candidates are the current snippet and every message inserted since.
+   *
+   * @return The snippet, or null if none of the candidates can be one.
+   */
+  fun getConversationSnippetAmong(threadId: Long, candidateIds: Collection<Long>): MessageRecord? {
+    if (candidateIds.isEmpty()) {
+      return null
+    }
+
+    return readableDatabase
+      .rawQuery(
+        """
+        SELECT $ID
+        FROM $TABLE_NAME
+        WHERE 
+          $ID IN (${candidateIds.joinToString(",")}) AND
+          $THREAD_ID = ? AND 
+          $SNIPPET_CLAUSE
+        ORDER BY $DATE_RECEIVED DESC LIMIT 1
+        """,
+        buildArgs(threadId)
+      )
+      .readToSingleObject { cursor -> getMessageRecord(cursor.requireLong(ID)) }
+  }
+
   @VisibleForTesting
   fun getConversationSnippetCursor(threadId: Long): Cursor {
     val db = databaseHelper.signalReadableDatabase
@@ -4953,35 +5011,86 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   /**
    * Wraps multiple receipt updates in a transaction and triggers the proper updates.
    *
+   * Rather than handling each timestamp on its own, this resolves every target message with one query, marks them all with one update, and then
+   * only touches each affected thread once. A read sync or a busy group can carry hundreds of timestamps, so this keeps it to a handful of
+   * statements no matter the size.
+   *
    * @return All of the target timestamps that couldn't be found in the table.
    */
   private fun incrementReceiptCounts(targetTimestamps: List<Long>, receiptAuthor: RecipientId, receiptSentTimestamp: Long, receiptType: ReceiptType, messageQualifier: MessageQualifier = MessageQualifier.ALL, stopwatch: Stopwatch? = null): Set<Long> {
+    if (targetTimestamps.isEmpty()) {
+      return emptySet()
+    }
+
     val messageUpdates: MutableSet<MessageReceiptUpdate> = HashSet()
     val missingTargetTimestamps: MutableSet<Long> = HashSet()
 
     writableDatabase.withinTransaction {
+      val receiptsByTimestamp: Map<Long, ReceiptData> = getReceiptData(targetTimestamps.toSet(), receiptAuthor, receiptType, messageQualifier)
+      stopwatch?.split("receipt-query")
+
       for (targetTimestamp in targetTimestamps) {
-        val updates: Set<MessageReceiptUpdate> = incrementReceiptCountInternal(targetTimestamp, receiptAuthor, receiptSentTimestamp, receiptType, messageQualifier, stopwatch)
-        if (updates.isNotEmpty()) {
-          messageUpdates += updates
-        } else {
+        if (targetTimestamp !in receiptsByTimestamp) {
           missingTargetTimestamps += targetTimestamp
+
+          if (receiptType == ReceiptType.DELIVERY) {
+            earlyDeliveryReceiptCache.increment(targetTimestamp, receiptAuthor, receiptSentTimestamp)
+          }
         }
       }
 
-      for (update in messageUpdates) {
-        if (update.shouldUpdateSnippet) {
-          threads.updateReceiptStatus(update.messageId.id, update.threadId, stopwatch)
+      val unmarkedMessageIds = receiptsByTimestamp.values.filterNot { it.marked }.map { it.messageId }
+      if (unmarkedMessageIds.isNotEmpty()) {
+        val query = SqlUtil.buildFastCollectionQuery(ID, unmarkedMessageIds)
+
+        // See incrementReceiptCountInternal for why the receipt timestamp is a MAX
+        writableDatabase.execSQL(
+          """
+          UPDATE $TABLE_NAME
+          SET
+            ${receiptType.columnName} = 1,
+            $RECEIPT_TIMESTAMP = MAX($RECEIPT_TIMESTAMP, $receiptSentTimestamp)
+          WHERE
+            ${query.where}
+          """,
+          query.whereArgs
+        )
+      }
+      stopwatch?.split("receipt-update")
+
+      groupReceipts.update(receiptAuthor, receiptsByTimestamp.values.filterNot { it.forIndividualChat }.map { it.messageId }, receiptType.groupStatus, receiptSentTimestamp)
+      stopwatch?.split("group-receipt")
+
+      for ((targetTimestamp, receiptData) in receiptsByTimestamp) {
+        if (receiptData.storyType != StoryType.NONE) {
+          val storyMessageIds = storySends.getStoryMessagesFor(receiptAuthor, targetTimestamp)
+          groupReceipts.update(receiptAuthor, storyMessageIds.map { it.id }, receiptType.groupStatus, receiptSentTimestamp)
+          messageUpdates += storyMessageIds.map { messageId -> MessageReceiptUpdate(-1, messageId, false) }
+        } else {
+          messageUpdates += MessageReceiptUpdate(receiptData.threadId, MessageId(receiptData.messageId), shouldUpdateSnippet = receiptType != ReceiptType.VIEWED && !receiptData.marked)
         }
       }
+      stopwatch?.split("stories")
+
+      messageUpdates
+        .filter { it.shouldUpdateSnippet }
+        .groupBy { it.threadId }
+        .forEach { (threadId, updates) -> threads.updateReceiptStatus(updates.map { it.messageId.id }.toSet(), threadId, stopwatch) }
     }
 
+    val updatedThreadIds: Set<Long> = messageUpdates.map { it.threadId }.toSet()
+
     for (update in messageUpdates) {
       AppDependencies.databaseObserver.notifyMessageUpdateObservers(update.messageId)
-      AppDependencies.databaseObserver.notifyVerboseConversationListeners(setOf(update.threadId))
+    }
 
-      if (messageQualifier == MessageQualifier.STORY) {
-        AppDependencies.databaseObserver.notifyStoryObservers(threads.getRecipientIdForThreadId(update.threadId)!!)
+    if (updatedThreadIds.isNotEmpty()) {
+      AppDependencies.databaseObserver.notifyVerboseConversationListeners(updatedThreadIds)
+    }
+
+    if (messageQualifier == MessageQualifier.STORY) {
+      for (threadId in updatedThreadIds) {
+        AppDependencies.databaseObserver.notifyStoryObservers(threads.getRecipientIdForThreadId(threadId)!!)
       }
     }
 
@@ -4994,6 +5103,58 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return missingTargetTimestamps
   }
 
+  /**
+   * Finds the message each receipt is for, keyed by target timestamp. Matches [incrementReceiptCountInternal] in picking at most one message per
+   * timestamp.
+   */
+  private fun getReceiptData(targetTimestamps: Set<Long>, receiptAuthor: RecipientId, receiptType: ReceiptType, messageQualifier: MessageQualifier): Map<Long, ReceiptData> {
+    val qualifierWhere: String = when (messageQualifier) {
+      MessageQualifier.NORMAL -> " AND NOT ($IS_STORY_CLAUSE)"
+      MessageQualifier.STORY -> " AND $IS_STORY_CLAUSE"
+      MessageQualifier.ALL -> ""
+    }
+
+    val timestampQuery = SqlUtil.buildFastCollectionQuery(DATE_SENT, targetTimestamps)
+    val receiptsByTimestamp: MutableMap<Long, ReceiptData> = HashMap()
+
+    readableDatabase
+      .select(ID, THREAD_ID, STORY_TYPE, receiptType.columnName, TO_RECIPIENT_ID, DATE_SENT)
+      .from(TABLE_NAME)
+      .where(
+        """
+        ${timestampQuery.where} AND
+        $FROM_RECIPIENT_ID = ? AND
+        (
+          $TO_RECIPIENT_ID = ? OR 
+          EXISTS (
+            SELECT 1 
+            FROM ${RecipientTable.TABLE_NAME} 
+            WHERE 
+              ${RecipientTable.TABLE_NAME}.${RecipientTable.ID} = $TO_RECIPIENT_ID AND 
+              ${RecipientTable.TABLE_NAME}.${RecipientTable.TYPE} != ${RecipientTable.RecipientType.INDIVIDUAL.id}
+          )
+        )
+        $qualifierWhere
+        """,
+        timestampQuery.whereArgs + SqlUtil.buildArgs(Recipient.self().id, receiptAuthor)
+      )
+      .run()
+      .forEach { cursor ->
+        val dateSent = cursor.requireLong(DATE_SENT)
+        if (dateSent !in receiptsByTimestamp) {
+          receiptsByTimestamp[dateSent] = ReceiptData(
+            messageId = cursor.requireLong(ID),
+            threadId = cursor.requireLong(THREAD_ID),
+            storyType = StoryType.fromCode(cursor.requireInt(STORY_TYPE)),
+            marked = cursor.requireBoolean(receiptType.columnName),
+            forIndividualChat = cursor.requireLong(TO_RECIPIENT_ID) == receiptAuthor.toLong()
+          )
+        }
+      }
+
+    return receiptsByTimestamp
+  }
+
   private fun incrementReceiptCountInternal(targetTimestamp: Long, receiptAuthor: RecipientId, receiptSentTimestamp: Long, receiptType: ReceiptType, messageQualifier: MessageQualifier, stopwatch: Stopwatch? = null): Set<MessageReceiptUpdate> {
     val qualifierWhere: String = when (messageQualifier) {
       MessageQualifier.NORMAL -> " AND NOT ($IS_STORY_CLAUSE)"
@@ -5214,13 +5375,32 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     return readableDatabase
       .select(*MMS_PROJECTION)
-      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
-      .where("$THREAD_ID = ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL", threadId, 0, 0, -1)
-      .orderBy("$DATE_RECEIVED DESC")
+      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_CONVERSATION")
+      .where("$THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL", threadId)
+      .orderBy("$DATE_RECEIVED DESC, $ID DESC")
       .limit(limitStr)
       .run()
   }
 
+  /**
+   * Same as [getConversation], but starts [offset] messages past [anchor] rather than at the newest message. Finding the anchor is a seek on the
+   * conversation index, so unlike a plain offset, this doesn't get slower the further back in the conversation you go.
+   */
+  fun getConversation(threadId: Long, anchor: ConversationAnchor, offset: Long, limit: Long): Cursor {
+    return readableDatabase
+      .select(*MMS_PROJECTION)
+      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_CONVERSATION")
+      .where(
+        "$THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND ($DATE_RECEIVED, $ID) < (?, ?)",
+        threadId,
+        anchor.dateReceived,
+        anchor.id
+      )
+      .orderBy("$DATE_RECEIVED DESC, $ID DESC")
+      .limit(limit.toInt(), offset.toInt())
+      .run()
+  }
+
   /**
    * Returns messages ordered for display in a reverse list (newest first).
    */
@@ -6095,6 +6275,16 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     val shouldUpdateSnippet: Boolean
   )
 
+  /**
+   * A message's place in the order of [getConversation], which can be used to pick up reading the conversation from that message.
+   */
+  data class ConversationAnchor(
+    val dateReceived: Long,
+    val id: Long
+  ) {
+    constructor(record: MessageRecord) : this(record.dateReceived, record.id)
+  }
+
   data class ReportSpamData(
     val recipientId: RecipientId,
     val serverGuid: String,
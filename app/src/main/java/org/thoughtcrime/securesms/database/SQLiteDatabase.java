@@ -8,23 +8,30 @@ import android.os.CancellationSignal;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.sqlite.db.SupportSQLiteQuery;
 
 import net.zetetic.database.sqlcipher.SQLiteStatement;
 import net.zetetic.database.sqlcipher.SQLiteTransactionListener;
 
+import org.signal.core.util.logging.Log;
 import org.signal.core.util.tracing.Tracer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * This is a wrapper around {@link net.zetetic.database.sqlcipher.SQLiteDatabase}. There's difficulties
@@ -33,6 +40,8 @@ import java.util.Set;
  */
 public class SQLiteDatabase implements SupportSQLiteDatabase {
 
+  private static final String TAG = Log.tag(SQLiteDatabase.class);
+
   public static final int CONFLICT_ROLLBACK = 1;
   public static final int CONFLICT_ABORT    = 2;
   public static final int CONFLICT_FAIL     = 3;
@@ -40,6 +49,8 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
   public static final int CONFLICT_REPLACE  = 5;
   public static final int CONFLICT_NONE     = 0;
 
+  private static final String[] CONFLICT_VALUES = new String[] { "", " OR ROLLBACK", " OR ABORT", " OR FAIL", " OR IGNORE", " OR REPLACE" };
+
   private static final String KEY_QUERY  = "query";
   private static final String KEY_TABLE  = "table";
   private static final String KEY_THREAD = "thread";
@@ -51,9 +62,13 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
   private static final ThreadLocal<Set<Runnable>> PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS;
   private static final ThreadLocal<Set<Runnable>> POST_SUCCESSFUL_TRANSACTION_TASKS;
 
+  /** Keyed by database, since a thread can have transactions open on more than one at a time. */
+  private static final ThreadLocal<Map<net.zetetic.database.sqlcipher.SQLiteDatabase, PreCommitTasks>> PRE_COMMIT_TASKS;
+
   static {
     PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS = new ThreadLocal<>();
     POST_SUCCESSFUL_TRANSACTION_TASKS         = new ThreadLocal<>();
+    PRE_COMMIT_TASKS                          = new ThreadLocal<>();
 
     PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS.set(new LinkedHashSet<>());
   }
@@ -152,6 +167,83 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     }
   }
 
+  /**
+   * Returns the task registered under the given key to run just before the current transaction commits, registering one from the factory if there
+   * isn't one yet. Tasks run when the outermost transaction is marked successful, while it's still open, so whatever they write commits or rolls
+   * back with it. This lets callers collect work over the course of a transaction and only do it once, at the end.
+   *
+   * @return The task, or null if there's no transaction it can be deferred to. In that case the caller should just do the work now.
+   */
+  @SuppressWarnings("unchecked")
+  public @Nullable <T extends Runnable> T getPreCommitTask(@NonNull String key, @NonNull Supplier<T> factory) {
+    PreCommitTasks preCommitTasks = getPreCommitTasksByDatabase().get(wrapped);
+
+    // Transactions that weren't started through this wrapper have nothing to run the tasks
+    if (preCommitTasks == null || !wrapped.inTransaction()) {
+      return null;
+    }
+
+    Runnable task = preCommitTasks.tasks.get(key);
+    if (task == null) {
+      task = factory.get();
+      preCommitTasks.tasks.put(key, task);
+    }
+
+    return (T) task;
+  }
+
+  /**
+   * Same as {@link #getPreCommitTask(String, Supplier)}, except that it never registers a task.
+   *
+   * @return The task registered under the given key in the current transaction, or null if there isn't one.
+   */
+  @SuppressWarnings("unchecked")
+  public @Nullable <T extends Runnable> T getPreCommitTask(@NonNull String key) {
+    PreCommitTasks preCommitTasks = getPreCommitTasksByDatabase().get(wrapped);
+
+    if (preCommitTasks == null || !wrapped.inTransaction()) {
+      return null;
+    }
+
+    return (T) preCommitTasks.tasks.get(key);
+  }
+
+  private void runPreCommitTasks(@NonNull PreCommitTasks preCommitTasks) {
+    Map<String, Runnable> tasks = preCommitTasks.tasks;
+
+    // Tasks can register more tasks while they run, so keep going until there's nothing left
+    while (!tasks.isEmpty()) {
+      List<Runnable> batch = new ArrayList<>(tasks.values());
+      tasks.clear();
+
+      for (Runnable task : batch) {
+        task.run();
+      }
+    }
+  }
+
+  /**
+   * Nested transactions begun through the wrapper need to be counted, so that {@link #setTransactionSuccessful()} can tell when it's marking the
+   * outermost one.
+   */
+  private void onNestedTransactionBegin() {
+    PreCommitTasks preCommitTasks = getPreCommitTasksByDatabase().get(wrapped);
+    if (preCommitTasks != null) {
+      preCommitTasks.depth++;
+    }
+  }
+
+  private static @NonNull Map<net.zetetic.database.sqlcipher.SQLiteDatabase, PreCommitTasks> getPreCommitTasksByDatabase() {
+    Map<net.zetetic.database.sqlcipher.SQLiteDatabase, PreCommitTasks> tasks = PRE_COMMIT_TASKS.get();
+
+    if (tasks == null) {
+      tasks = new IdentityHashMap<>();
+      PRE_COMMIT_TASKS.set(tasks);
+    }
+
+    return tasks;
+  }
+
   private @NonNull Set<Runnable> getPendingPostSuccessfulTransactionTasks() {
     Set<Runnable> tasks = PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS.get();
 
@@ -290,7 +382,10 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
 
     if (wrapped.inTransaction()) {
       trace("beginTransaction()", wrapped::beginTransaction);
+      onNestedTransactionBegin();
     } else {
+      getPreCommitTasksByDatabase().put(wrapped, new PreCommitTasks());
+
       trace("beginTransaction()", () -> {
         wrapped.beginTransactionWithListener(new SQLiteTransactionListener() {
           @Override
@@ -298,6 +393,12 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
 
           @Override
           public void onCommit() {
+            // Too late to run them here, since the transaction has already been marked successful and they can't open nested transactions
+            PreCommitTasks preCommitTasks = getPreCommitTasksByDatabase().remove(wrapped);
+            if (preCommitTasks != null && !preCommitTasks.tasks.isEmpty()) {
+              Log.w(TAG, "Committed without running " + preCommitTasks.tasks.size() + " pre-commit task(s)! The transaction wasn't marked successful through the wrapper.");
+            }
+
             Set<Runnable> pendingTasks = getPendingPostSuccessfulTransactionTasks();
             Set<Runnable> tasks        = getPostSuccessfulTransactionTasks();
             tasks.clear();
@@ -307,6 +408,7 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
 
           @Override
           public void onRollback() {
+            getPreCommitTasksByDatabase().remove(wrapped);
             getPendingPostSuccessfulTransactionTasks().clear();
           }
         });
@@ -315,6 +417,11 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
   }
 
   public void endTransaction() {
+    PreCommitTasks preCommitTasks = getPreCommitTasksByDatabase().get(wrapped);
+    if (preCommitTasks != null) {
+      preCommitTasks.depth--;
+    }
+
     trace("endTransaction()", wrapped::endTransaction);
     traceLockEnd();
     Set<Runnable> tasks = getPostSuccessfulTransactionTasks();
@@ -325,6 +432,11 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
   }
 
   public void setTransactionSuccessful() {
+    PreCommitTasks preCommitTasks = getPreCommitTasksByDatabase().get(wrapped);
+    if (preCommitTasks != null && preCommitTasks.depth == 1) {
+      runPreCommitTasks(preCommitTasks);
+    }
+
     trace("setTransactionSuccessful()", wrapped::setTransactionSuccessful);
   }
 
@@ -388,6 +500,104 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     return traceSql("insertWithOnConflict()", table, null, true, () -> wrapped.insertWithOnConflict(table, nullColumnHack, initialValues, conflictAlgorithm));
   }
 
+  /**
+   * Inserts every row using a single compiled statement, which is cached for the next batch with the same table, columns, and conflict algorithm.
+   * Runs in a transaction, joining the current one if there is one.
+   *
+   * @return The number of rows actually inserted.
+   */
+  @SafeVarargs
+  public final <T> int insertBatch(@NonNull String table, int conflictAlgorithm, @NonNull Iterable<T> rows, @NonNull BatchColumn<T>... columns) {
+    return executeBatch("insertBatch()", table, buildBatchInsert(table, conflictAlgorithm, columns), rows, columns);
+  }
+
+  /**
+   * Like {@link #insertBatch}, but rows that conflict on {@code conflictColumns} have their other columns updated in place instead, keeping their
+   * row id.
+   *
+   * @return The number of rows inserted or updated.
+   */
+  @SafeVarargs
+  public final <T> int upsertBatch(@NonNull String table, @NonNull String[] conflictColumns, @NonNull Iterable<T> rows, @NonNull BatchColumn<T>... columns) {
+    return executeBatch("upsertBatch()", table, buildBatchUpsert(table, conflictColumns, columns), rows, columns);
+  }
+
+  private <T> int executeBatch(@NonNull String methodName, @NonNull String table, @NonNull String sql, @NonNull Iterable<T> rows, @NonNull BatchColumn<T>[] columns) {
+    if (!rows.iterator().hasNext()) {
+      return 0;
+    }
+
+    DatabaseMonitor.onSql(sql, null);
+    return traceSql(methodName, table, null, false, () -> {
+      int changed = 0;
+
+      beginTransaction();
+      try {
+        StatementCache  cache     = StatementCache.forDatabase(wrapped);
+        SQLiteStatement statement = cache.get(sql);
+
+        try {
+          for (T row : rows) {
+            for (int i = 0; i < columns.length; i++) {
+              columns[i].bind(statement, i + 1, row);
+            }
+            changed += statement.executeUpdateDelete();
+          }
+        } finally {
+          cache.release(statement);
+        }
+
+        setTransactionSuccessful();
+      } finally {
+        endTransaction();
+      }
+
+      return changed;
+    });
+  }
+
+  private static @NonNull String buildBatchInsert(@NonNull String table, int conflictAlgorithm, @NonNull BatchColumn<?>[] columns) {
+    StringBuilder sql = new StringBuilder("INSERT").append(CONFLICT_VALUES[conflictAlgorithm]).append(" INTO ").append(table).append(" (");
+    appendColumnNames(sql, columns);
+    sql.append(") VALUES (");
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i == 0 ? "?" : ", ?");
+    }
+    return sql.append(")").toString();
+  }
+
+  private static @NonNull String buildBatchUpsert(@NonNull String table, @NonNull String[] conflictColumns, @NonNull BatchColumn<?>[] columns) {
+    Set<String>   conflicts = new HashSet<>(Arrays.asList(conflictColumns));
+    StringBuilder sql       = new StringBuilder(buildBatchInsert(table, CONFLICT_NONE, columns));
+
+    sql.append(" ON CONFLICT (").append(String.join(", ", conflictColumns)).append(")");
+
+    boolean first = true;
+    for (BatchColumn<?> column : columns) {
+      if (conflicts.contains(column.getName())) {
+        continue;
+      }
+
+      sql.append(first ? " DO UPDATE SET " : ", ").append(column.getName()).append(" = excluded.").append(column.getName());
+      first = false;
+    }
+
+    if (first) {
+      sql.append(" DO NOTHING");
+    }
+
+    return sql.toString();
+  }
+
+  private static void appendColumnNames(@NonNull StringBuilder sql, @NonNull BatchColumn<?>[] columns) {
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append(columns[i].getName());
+    }
+  }
+
   public int delete(String table, String whereClause, String[] whereArgs) {
     DatabaseMonitor.onDelete(table, whereClause, whereArgs);
     return traceSql("delete()", table, whereClause, true, () -> wrapped.delete(table, whereClause, whereArgs));
@@ -440,15 +650,27 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
   }
 
   public void beginTransactionWithListener(SQLiteTransactionListener transactionListener) {
+    boolean nested = wrapped.inTransaction();
     wrapped.beginTransactionWithListener(transactionListener);
+    if (nested) {
+      onNestedTransactionBegin();
+    }
   }
 
   public void beginTransactionNonExclusive() {
+    boolean nested = wrapped.inTransaction();
     wrapped.beginTransactionNonExclusive();
+    if (nested) {
+      onNestedTransactionBegin();
+    }
   }
 
   public void beginTransactionWithListenerNonExclusive(SQLiteTransactionListener transactionListener) {
+    boolean nested = wrapped.inTransaction();
     wrapped.beginTransactionWithListenerNonExclusive(transactionListener);
+    if (nested) {
+      onNestedTransactionBegin();
+    }
   }
 
   public boolean inTransaction() {
@@ -519,6 +741,14 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     wrapped.setLocale(locale);
   }
 
+  /**
+   * The pre-commit tasks for a transaction, and how deeply nested it currently is.
+   */
+  private static final class PreCommitTasks {
+    private final Map<String, Runnable> tasks = new LinkedHashMap<>();
+    private int depth = 1;
+  }
+
   private static class ConvertedTransactionListener implements SQLiteTransactionListener {
 
     private final android.database.sqlite.SQLiteTransactionListener listener;
@@ -12,10 +12,15 @@ import org.intellij.lang.annotations.Language
 import org.signal.core.util.SqlUtil
 import org.signal.core.util.ThreadUtil
 import org.signal.core.util.logging.Log
+import org.signal.core.util.readToSet
+import org.signal.core.util.requireLong
+import org.signal.core.util.select
 import org.signal.core.util.withinTransaction
 import org.thoughtcrime.securesms.dependencies.AppDependencies
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencyProvider
 import org.thoughtcrime.securesms.jobs.RebuildMessageSearchIndexJob
+import kotlin.math.min
+import kotlin.time.Duration.Companion.days
 
 /**
  * Contains all databases necessary for full-text search (FTS).
@@ -41,9 +46,27 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       // We've taken the default of tokenize value of "unicode61 categories 'L* N* Co'" and added the Sc (currency) and So (emoji) categories to allow searching for those characters.
       // https://www.sqlite.org/fts5.html#tokenizers
       // https://www.compart.com/en/unicode/category
-      """CREATE VIRTUAL TABLE $FTS_TABLE_NAME USING fts5($BODY, $THREAD_ID UNINDEXED, content=${MessageTable.TABLE_NAME}, content_rowid=${MessageTable.ID}, tokenize = "unicode61 categories 'L* N* Co Sc So'")"""
+      //
+      // The prefix indexes let the 2- and 3-character prefix queries we generate while the user is typing be answered from the index, rather than
+      // by scanning every term that starts with them.
+      // https://www.sqlite.org/fts5.html#prefix_indexes
+      """CREATE VIRTUAL TABLE $FTS_TABLE_NAME USING fts5($BODY, $THREAD_ID UNINDEXED, content=${MessageTable.TABLE_NAME}, content_rowid=${MessageTable.ID}, tokenize = "unicode61 categories 'L* N* Co Sc So'", prefix = '2 3')""",
+      // Segments are merged in the background by MergeMessageSearchIndexJob, so we let more of them pile up before inserts have to merge them inline.
+      // https://www.sqlite.org/fts5.html#the_automerge_configuration_option
+      """INSERT INTO $FTS_TABLE_NAME($FTS_TABLE_NAME, rank) VALUES ('automerge', $AUTOMERGE)"""
     )
 
+    /** The maximum number of messages that will be returned for a global search. */
+    const val MAX_MESSAGE_RESULTS = 500
+
+    private const val AUTOMERGE = 8
+
+    /**
+     * Search results are ranked by relevance (bm25), scaled down as they get older. A message this old counts half as much as an otherwise
+     * equally-relevant message from right now.
+     */
+    private val RECENCY_HALF_LIFE = 30.days.inWholeMilliseconds
+
     private const val TRIGGER_AFTER_INSERT = "message_ai"
     private const val TRIGGER_AFTER_DELETE = "message_ad"
     private const val TRIGGER_AFTER_UPDATE = "message_au"
@@ -70,7 +93,19 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     )
 
     @Language("sql")
-    private const val MESSAGES_QUERY = """
+    private const val MESSAGES_FILTER = """
+      ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.GROUP_V2_BIT} = 0 AND 
+      ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
+      ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
+      ${MessageTable.TABLE_NAME}.${MessageTable.LATEST_REVISION_ID} IS NULL
+    """
+
+    /**
+     * bm25() is negative, with more relevant results being more negative, so scaling it towards zero by age and sorting ascending puts the most
+     * relevant, most recent results first.
+     */
+    @Language("sql")
+    private val MESSAGES_QUERY = """
       SELECT 
         ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} AS $CONVERSATION_RECIPIENT, 
         ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT, 
@@ -86,12 +121,27 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
           INNER JOIN ${ThreadTable.TABLE_NAME} ON $FTS_TABLE_NAME.$THREAD_ID = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} 
       WHERE 
         $FTS_TABLE_NAME MATCH ? AND 
-        ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.GROUP_V2_BIT} = 0 AND 
-        ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
-        ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
-        ${MessageTable.TABLE_NAME}.${MessageTable.LATEST_REVISION_ID} IS NULL
-      ORDER BY ${MessageTable.DATE_RECEIVED} DESC 
-      LIMIT 500
+        $MESSAGES_FILTER
+      ORDER BY 
+        bm25($FTS_TABLE_NAME) * $RECENCY_HALF_LIFE / ($RECENCY_HALF_LIFE + MAX(0, ? - ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED})), 
+        ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED} DESC 
+      LIMIT ? 
+      OFFSET ?
+    """
+
+    @Language("sql")
+    private const val MESSAGES_COUNT_QUERY = """
+      SELECT COUNT(*) FROM (
+        SELECT 
+          ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
+        FROM 
+          ${MessageTable.TABLE_NAME} 
+            INNER JOIN $FTS_TABLE_NAME ON $FTS_TABLE_NAME.$ID = ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
+        WHERE 
+          $FTS_TABLE_NAME MATCH ? AND 
+          $MESSAGES_FILTER
+        LIMIT $MAX_MESSAGE_RESULTS
+      )
     """
 
     @Language("sql")
@@ -121,15 +171,55 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     """
   }
 
-  fun queryMessages(query: String): Cursor? {
+  /**
+   * Searches all chats, returning results ordered by a mix of relevance and recency. Results can be fetched a page at a time with [limit] and
+   * [offset], up to a total of [MAX_MESSAGE_RESULTS]. Recency is relative to [now], so pass the same value for every page of the same search.
+   */
+  @JvmOverloads
+  fun queryMessages(query: String, limit: Int = MAX_MESSAGE_RESULTS, offset: Int = 0, now: Long = System.currentTimeMillis()): Cursor? {
     val fullTextSearchQuery = createFullTextSearchQuery(query)
-    return if (fullTextSearchQuery.isEmpty()) {
+    val cappedLimit = min(limit, MAX_MESSAGE_RESULTS - offset)
+
+    return if (fullTextSearchQuery.isEmpty() || cappedLimit <= 0) {
       null
     } else {
-      readableDatabase.rawQuery(MESSAGES_QUERY, SqlUtil.buildArgs(fullTextSearchQuery))
+      readableDatabase.rawQuery(MESSAGES_QUERY, SqlUtil.buildArgs(fullTextSearchQuery, now, cappedLimit, offset))
     }
   }
 
+  /**
+   * @return The number of results [queryMessages] would return across every page, up to [MAX_MESSAGE_RESULTS].
+   */
+  fun getMessageMatchCount(query: String): Int {
+    val fullTextSearchQuery = createFullTextSearchQuery(query)
+    if (fullTextSearchQuery.isEmpty()) {
+      return 0
+    }
+
+    return readableDatabase.rawQuery(MESSAGES_COUNT_QUERY, SqlUtil.buildArgs(fullTextSearchQuery)).use { cursor ->
+      if (cursor.moveToFirst()) cursor.getInt(0) else 0
+    }
+  }
+
+  /**
+   * @return The subset of [messageIds] that [queryMessages] would include in its results, regardless of what page they'd be on.
+   */
+  fun getMatchingMessageIds(query: String, messageIds: Collection<Long>): Set<Long> {
+    val fullTextSearchQuery = createFullTextSearchQuery(query)
+    if (fullTextSearchQuery.isEmpty() || messageIds.isEmpty()) {
+      return emptySet()
+    }
+
+    val idQuery = SqlUtil.buildFastCollectionQuery("${MessageTable.TABLE_NAME}.${MessageTable.ID}", messageIds)
+
+    return readableDatabase
+      .select("${MessageTable.TABLE_NAME}.${MessageTable.ID}")
+      .from("${MessageTable.TABLE_NAME} INNER JOIN $FTS_TABLE_NAME ON $FTS_TABLE_NAME.$ID = ${MessageTable.TABLE_NAME}.${MessageTable.ID}")
+      .where("$FTS_TABLE_NAME MATCH ? AND $MESSAGES_FILTER AND ${idQuery.where}", arrayOf(fullTextSearchQuery) + idQuery.whereArgs)
+      .run()
+      .readToSet { it.requireLong(MessageTable.ID) }
+  }
+
   fun queryMessages(query: String, threadId: Long): Cursor? {
     val fullTextSearchQuery = createFullTextSearchQuery(query)
     return if (TextUtils.isEmpty(fullTextSearchQuery)) {
@@ -259,6 +349,63 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     return true
   }
 
+  /**
+   * Incrementally merges index segments, stopping once there's nothing left worth merging or we've spent [timeBudget] ms working on it.
+   *
+   * Unlike [optimizeIndex], which merges everything into a single segment, this uses a positive `merge` page count, which only merges levels
+   * of the index that have built up enough segments to be worth it (see the sqlite docs on the `merge` and `usermerge` commands). That keeps each
+   * run cheap enough to do regularly, and it picks up the work that a higher `automerge` setting defers away from message inserts.
+   * https://www.sqlite.org/fts5.html#the_merge_command
+   *
+   * Same as [optimizeIndex], we need to be within a transaction for [SqlUtil.getTotalChanges] to be accurate.
+   *
+   * @return True if the index has been fully merged, or false if we ran out of time first.
+   */
+  fun mergeIndex(timeBudget: Long): Boolean {
+    val pageSize = 64
+    val batchSize = 10
+    val noChangeThreshold = 2
+
+    val startTime = System.currentTimeMillis()
+    var totalIterations = 0
+    var finished = false
+
+    while (!finished) {
+      writableDatabase.withinTransaction { db ->
+        val statement = db.compileStatement("INSERT INTO $FTS_TABLE_NAME ($FTS_TABLE_NAME, rank) values ('merge', $pageSize)")
+        var batchIterations = 0
+        var previousCount = SqlUtil.getTotalChanges(db)
+
+        statement.execute()
+        var count = SqlUtil.getTotalChanges(db)
+
+        while (batchIterations < batchSize && count - previousCount >= noChangeThreshold) {
+          previousCount = count
+          statement.execute()
+
+          count = SqlUtil.getTotalChanges(db)
+          batchIterations++
+        }
+
+        totalIterations += batchIterations
+        finished = count - previousCount < noChangeThreshold
+      }
+
+      if (!finished && System.currentTimeMillis() - startTime >= timeBudget) {
+        Log.d(TAG, "Ran out of time during merge after $totalIterations iterations and ${System.currentTimeMillis() - startTime} ms.")
+        return false
+      }
+
+      if (!finished) {
+        // Give other db operations a chance to run between batches
+        ThreadUtil.sleep(50)
+      }
+    }
+
+    Log.d(TAG, "Took ${System.currentTimeMillis() - startTime} ms and $totalIterations iterations to merge.")
+    return true
+  }
+
   /**
    * Rebuilds the FTS index.
    * Warning: This could be very expensive! (often seconds)
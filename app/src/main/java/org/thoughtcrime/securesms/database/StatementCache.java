@@ -0,0 +1,85 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import net.zetetic.database.sqlcipher.SQLiteStatement;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Compiled statements for batch writes, kept per underlying database so they outlive the short-lived {@link SQLiteDatabase} wrappers we hand out.
+ *
+ * A {@link SQLiteStatement} holds its bind arguments, so it can't be shared between threads. Statements must only be taken and used while holding
+ * a write transaction, which already guarantees that only one thread at a time is touching them, and handed back with {@link #release} when done.
+ */
+final class StatementCache {
+
+  private static final int MAX_SIZE = 32;
+
+  private static final Map<net.zetetic.database.sqlcipher.SQLiteDatabase, StatementCache> CACHES = new WeakHashMap<>();
+
+  private final net.zetetic.database.sqlcipher.SQLiteDatabase database;
+
+  private final LinkedHashMap<String, SQLiteStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+      if (size() > MAX_SIZE) {
+        eldest.getValue().close();
+        return true;
+      }
+      return false;
+    }
+  };
+
+  private StatementCache(@NonNull net.zetetic.database.sqlcipher.SQLiteDatabase database) {
+    this.database = database;
+  }
+
+  static synchronized @NonNull StatementCache forDatabase(@NonNull net.zetetic.database.sqlcipher.SQLiteDatabase database) {
+    // Statements keep their database alive, so the weak keys alone won't let closed databases go
+    Iterator<Map.Entry<net.zetetic.database.sqlcipher.SQLiteDatabase, StatementCache>> iterator = CACHES.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<net.zetetic.database.sqlcipher.SQLiteDatabase, StatementCache> entry = iterator.next();
+      if (!entry.getKey().isOpen()) {
+        entry.getValue().clear();
+        iterator.remove();
+      }
+    }
+
+    StatementCache cache = CACHES.get(database);
+    if (cache == null) {
+      cache = new StatementCache(database);
+      CACHES.put(database, cache);
+    }
+
+    return cache;
+  }
+
+  synchronized @NonNull SQLiteStatement get(@NonNull String sql) {
+    SQLiteStatement statement = statements.get(sql);
+    if (statement == null) {
+      statement = database.compileStatement(sql);
+      statements.put(sql, statement);
+    }
+
+    return statement;
+  }
+
+  /**
+   * Hands a statement taken with {@link #get} back to the cache. Clears its bind arguments so that the values of the last row (which may be large
+   * blobs) aren't held on to until the statement is next used.
+   */
+  void release(@NonNull SQLiteStatement statement) {
+    statement.clearBindings();
+  }
+
+  private synchronized void clear() {
+    for (SQLiteStatement statement : statements.values()) {
+      statement.close();
+    }
+    statements.clear();
+  }
+}
@@ -24,6 +24,7 @@ import org.signal.core.util.readToSingleBoolean
 import org.signal.core.util.readToSingleInt
 import org.signal.core.util.readToSingleIntOrNull
 import org.signal.core.util.readToSingleLong
+import org.signal.core.util.readToSingleObject
 import org.signal.core.util.requireBoolean
 import org.signal.core.util.requireInt
 import org.signal.core.util.requireLong
@@ -93,6 +94,8 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
   companion object {
     private val TAG = Log.tag(ThreadTable::class.java)
 
+    private const val PENDING_UPDATES_KEY = "ThreadTable.pendingUpdates"
+
     const val TABLE_NAME = "thread"
     const val ID = "_id"
     const val DATE = "date"
@@ -155,13 +158,16 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       )
     """
 
+    private const val INDEX_UNPINNED_LIST = "thread_unpinned_list_index"
+
     @JvmField
     val CREATE_INDEXS = arrayOf(
       "CREATE INDEX IF NOT EXISTS thread_recipient_id_index ON $TABLE_NAME ($RECIPIENT_ID, $ACTIVE);",
       "CREATE INDEX IF NOT EXISTS archived_count_index ON $TABLE_NAME ($ACTIVE, $ARCHIVED, $MEANINGFUL_MESSAGES, $PINNED_ORDER);",
       "CREATE INDEX IF NOT EXISTS thread_pinned_index ON $TABLE_NAME ($PINNED_ORDER);",
       "CREATE INDEX IF NOT EXISTS thread_read ON $TABLE_NAME ($READ);",
-      "CREATE INDEX IF NOT EXISTS thread_active ON $TABLE_NAME ($ACTIVE);"
+      "CREATE INDEX IF NOT EXISTS thread_active ON $TABLE_NAME ($ACTIVE);",
+      "CREATE INDEX IF NOT EXISTS $INDEX_UNPINNED_LIST ON $TABLE_NAME ($DATE DESC, $ID DESC) WHERE $ACTIVE = 1 AND $ARCHIVED = 0 AND $PINNED_ORDER IS NULL AND $MEANINGFUL_MESSAGES != 0;"
     )
 
     private val THREAD_PROJECTION = arrayOf(
@@ -737,6 +743,8 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
    * Returns the number of unread messages in a given thread.
    */
   fun getUnreadMessageCount(threadId: Long): Long {
+    runScheduledUpdate(threadId)
+
     return readableDatabase
       .select(UNREAD_COUNT)
       .from(TABLE_NAME)
@@ -1047,6 +1055,29 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     return readableDatabase.rawQuery(query, null)
   }
 
+  /**
+   * Same as the unpinned half of [getUnarchivedConversationList], but starts [offset] chats past [anchor] rather than at the most recent chat, so
+   * the rows before the anchor never have to be read.
+   */
+  fun getUnpinnedConversationList(conversationFilter: ConversationFilter, anchor: ConversationListAnchor, offset: Long, limit: Long, chatFolder: ChatFolderRecord): Cursor {
+    val folderQuery = chatFolder.toQuery()
+    val filterQuery = conversationFilter.toQuery()
+    val anchorQuery = "$TABLE_NAME.$DATE <= ${anchor.date} AND ($TABLE_NAME.$DATE < ${anchor.date} OR $TABLE_NAME.$ID < ${anchor.threadId})"
+    val where = "$ARCHIVED = 0 AND $PINNED_ORDER IS NULL AND $MEANINGFUL_MESSAGES != 0 AND $anchorQuery $filterQuery $folderQuery"
+
+    // The filter on the partial index is spelled out above, so a page is read in order from the anchor instead of being sorted
+    return readableDatabase.rawQuery(
+      createQuery(
+        where = where,
+        orderBy = "$TABLE_NAME.$DATE DESC, $TABLE_NAME.$ID DESC",
+        offset = offset,
+        limit = limit,
+        from = "$TABLE_NAME INDEXED BY $INDEX_UNPINNED_LIST"
+      ),
+      null
+    )
+  }
+
   fun getArchivedConversationListCount(conversationFilter: ConversationFilter): Int {
     val filterQuery = conversationFilter.toQuery()
     return readableDatabase
@@ -1271,6 +1302,8 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
   }
 
   fun getConversationMetadata(threadId: Long): ConversationMetadata {
+    runScheduledUpdate(threadId)
+
     return readableDatabase
       .select(UNREAD_COUNT, LAST_SEEN, HAS_SENT, LAST_SCROLLED)
       .from(TABLE_NAME)
@@ -1316,6 +1349,8 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
 
   fun deleteConversations(selectedConversations: Set<Long>, syncThreadDeletes: Boolean = true) {
     Log.d(TAG, "[deleteConversations] Deleting ${selectedConversations.size} chats syncThreadDeletes: $syncThreadDeletes")
+    writableDatabase.getPreCommitTask<PendingUpdates>(PENDING_UPDATES_KEY)?.remove(selectedConversations)
+
     val recipientIds = getRecipientIdsForThreadIds(selectedConversations)
 
     val addressableMessages = mutableListOf<ThreadDeleteSyncInfo>()
@@ -1716,13 +1751,62 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     )
   }
 
+  /**
+   * Runs [block] in a transaction in which [scheduleUpdate] puts thread updates off until just before the outermost transaction commits. Meant for
+   * work that touches the same threads over and over, like processing a batch of envelopes.
+   *
+   * Until then, thread rows aren't up to date with the messages written in the transaction. [getThreadRecord], [getConversationMetadata] and
+   * [getUnreadMessageCount] run a thread's scheduled update before reading it, but anything else that reads thread rows in [block] will see them
+   * as they were before.
+   */
+  fun <T> withDeferredUpdates(block: () -> T): T {
+    return writableDatabase.withinTransaction {
+      writableDatabase.getPreCommitTask(PENDING_UPDATES_KEY) { PendingUpdates() }
+      block()
+    }
+  }
+
+  /**
+   * Same as [update], except that within [withDeferredUpdates] the update is put off until just before the transaction commits. However many
+   * times a thread is scheduled in there, it's only recomputed once. Anywhere else, this updates right away.
+   *
+   * @param unreadCountsApplied True if the caller has already applied its change to the thread's unread counts (e.g. with [incrementUnread]). If
+   *                            that's true of everything that touched the thread in the transaction, the stored counts are used instead of
+   *                            recounting.
+   * @param insertedMessageId Set if the change was inserting this message. If every change to the thread in the transaction was an insert, the
+   *                          snippet is picked from the inserted messages and the current snippet rather than searched for in the whole thread.
+   */
+  @JvmOverloads
+  fun scheduleUpdate(threadId: Long, unarchive: Boolean, unreadCountsApplied: Boolean = false, insertedMessageId: Long = -1) {
+    if (threadId == -1L) {
+      return
+    }
+
+    val pending: PendingUpdates? = writableDatabase.getPreCommitTask(PENDING_UPDATES_KEY)
+    val insertedMessageIds: Set<Long>? = if (insertedMessageId > 0) setOf(insertedMessageId) else null
+
+    if (pending != null) {
+      pending.add(threadId, unarchive, unreadCountsApplied, insertedMessageIds)
+    } else {
+      update(threadId = threadId, unarchive = unarchive, allowDeletion = true, notifyListeners = true, syncThreadDelete = true, recountUnread = !unreadCountsApplied, insertedMessageIds = insertedMessageIds)
+    }
+  }
+
   /**
    * Updates the thread with the receipt status of the message provided, but only if that message is the most recent meaningful message.
    * The idea here is that if it _is_ the most meaningful message, we can set the new status. If it's not, there's no need to update
    * the thread at all.
    */
   fun updateReceiptStatus(messageId: Long, threadId: Long, stopwatch: Stopwatch? = null) {
-    val status = messages.getReceiptStatusIfItsTheMostRecentMeaningfulMessage(messageId, threadId)
+    updateReceiptStatus(setOf(messageId), threadId, stopwatch)
+  }
+
+  /**
+   * Updates the thread's receipt status if any of the given messages is the one it's showing. Only one of them can be, so this lets a batch of
+   * receipts in the same thread share a single check.
+   */
+  fun updateReceiptStatus(messageIds: Set<Long>, threadId: Long, stopwatch: Stopwatch? = null) {
+    val status = messages.getReceiptStatusIfOneIsTheMostRecentMeaningfulMessage(messageIds, threadId)
     stopwatch?.split("thread-query")
 
     if (status != null) {
@@ -1747,7 +1831,26 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     stopwatch?.split("thread-update")
   }
 
-  private fun update(threadId: Long, unarchive: Boolean, allowDeletion: Boolean, notifyListeners: Boolean, syncThreadDelete: Boolean): Boolean {
+  /**
+   * Runs the update [scheduleUpdate] put off for the thread, if there is one, so that it can be read.
+   */
+  private fun runScheduledUpdate(threadId: Long) {
+    writableDatabase.getPreCommitTask<PendingUpdates>(PENDING_UPDATES_KEY)?.run(threadId)
+  }
+
+  /**
+   * @param insertedMessageIds If set, these are the only messages that have been added to the thread since it was last updated, and nothing else about
+   *                           it has changed, so the snippet is either one of them or the current one.
+   */
+  private fun update(
+    threadId: Long,
+    unarchive: Boolean,
+    allowDeletion: Boolean,
+    notifyListeners: Boolean,
+    syncThreadDelete: Boolean,
+    recountUnread: Boolean = true,
+    insertedMessageIds: Set<Long>? = null
+  ): Boolean {
     if (threadId == -1L) {
       Log.d(TAG, "Skipping update for threadId -1")
       return false
@@ -1769,7 +1872,7 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
         }
       }
 
-      val record: MessageRecord? = try {
+      val record: MessageRecord? = insertedMessageIds?.let { messages.getConversationSnippetAmong(threadId, it + getSnippetMessageId(threadId)) } ?: try {
         messages.getConversationSnippet(threadId)
       } catch (e: NoSuchMessageException) {
         val scheduledMessage: MessageRecord? = messages.getScheduledMessagesInThread(threadId).lastOrNull()
@@ -1813,8 +1916,11 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       }
 
       val threadBody: ThreadBody = ThreadBodyUtil.getFormattedBodyFor(context, record)
-      val unreadCount: Int = messages.getUnreadCount(threadId)
-      val unreadMentionCount: Int = messages.getUnreadMentionCount(threadId)
+      val (unreadCount: Int, unreadMentionCount: Int) = if (recountUnread) {
+        messages.getUnreadCount(threadId) to messages.getUnreadMentionCount(threadId)
+      } else {
+        getStoredUnreadCounts(threadId)
+      }
 
       updateThread(
         threadId = threadId,
@@ -1843,6 +1949,24 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     }
   }
 
+  private fun getSnippetMessageId(threadId: Long): Long {
+    return readableDatabase
+      .select(SNIPPET_MESSAGE_ID)
+      .from(TABLE_NAME)
+      .where("$ID = ?", threadId)
+      .run()
+      .readToSingleLong(0)
+  }
+
+  private fun getStoredUnreadCounts(threadId: Long): Pair<Int, Int> {
+    return readableDatabase
+      .select(UNREAD_COUNT, UNREAD_SELF_MENTION_COUNT)
+      .from(TABLE_NAME)
+      .where("$ID = ?", threadId)
+      .run()
+      .readToSingleObject { it.requireInt(UNREAD_COUNT) to it.requireInt(UNREAD_SELF_MENTION_COUNT) } ?: (0 to 0)
+  }
+
   private fun hasMoreRecentDraft(threadId: Long, timestamp: Long): Boolean {
     val drafts: DraftTable.Drafts = SignalDatabase.drafts.getDrafts(threadId)
     if (drafts.isNotEmpty()) {
@@ -1966,6 +2090,8 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       return null
     }
 
+    runScheduledUpdate(threadId)
+
     val query = createQuery("$TABLE_NAME.$ID = ?", 1)
 
     return readableDatabase.rawQuery(query, SqlUtil.buildArgs(threadId)).use { cursor ->
@@ -2131,7 +2257,7 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     val orderBy = if (preferPinned) {
       "$TABLE_NAME.$PINNED_ORDER DESC, $TABLE_NAME.$DATE DESC"
     } else {
-      "$TABLE_NAME.$DATE DESC"
+      "$TABLE_NAME.$DATE DESC, $TABLE_NAME.$ID DESC"
     }
 
     return createQuery(
@@ -2146,13 +2272,13 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     threadIdCache.clear()
   }
 
-  private fun createQuery(where: String, orderBy: String, offset: Long, limit: Long): String {
+  private fun createQuery(where: String, orderBy: String, offset: Long, limit: Long, from: String = TABLE_NAME): String {
     val projection = COMBINED_THREAD_RECIPIENT_GROUP_PROJECTION.joinToString(separator = ",")
 
     //language=sql
     var query = """
       SELECT $projection, ${GroupTable.MEMBER_GROUP_CONCAT}
-      FROM $TABLE_NAME 
+      FROM $from 
         LEFT OUTER JOIN ${RecipientTable.TABLE_NAME} ON $TABLE_NAME.$RECIPIENT_ID = ${RecipientTable.TABLE_NAME}.${RecipientTable.ID} 
         LEFT OUTER JOIN ${GroupTable.TABLE_NAME} ON $TABLE_NAME.$RECIPIENT_ID = ${GroupTable.TABLE_NAME}.${GroupTable.RECIPIENT_ID}
         LEFT OUTER JOIN (
@@ -2461,6 +2587,19 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     val unreadCount: Int
   )
 
+  /**
+   * A chat's place in the order of the unpinned chat list, which can be used to pick up reading the list from that chat.
+   */
+  data class ConversationListAnchor(val date: Long, val threadId: Long) {
+    companion object {
+      /** Reads the anchor of the thread the cursor is on. */
+      @JvmStatic
+      fun fromCursor(cursor: Cursor): ConversationListAnchor {
+        return ConversationListAnchor(cursor.requireLong(DATE), cursor.requireLong(ID))
+      }
+    }
+  }
+
   data class MergeResult(val threadId: Long, val previousThreadId: Long, val neededMerge: Boolean)
 
   data class ThreadIdResult(
@@ -2469,4 +2608,53 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
   )
 
   data class ThreadDeleteSyncInfo(val threadId: Long, val addressableMessages: Set<MessageRecord>, val nonExpiringAddressableMessages: Set<MessageRecord>)
+
+  /**
+   * The threads scheduled with [scheduleUpdate] within [withDeferredUpdates], updated once each when the transaction commits.
+   */
+  private inner class PendingUpdates : Runnable {
+    private val updates: MutableMap<Long, PendingUpdate> = LinkedHashMap()
+
+    fun add(threadId: Long, unarchive: Boolean, unreadCountsApplied: Boolean, insertedMessageIds: Set<Long>?) {
+      val existing = updates[threadId]
+
+      updates[threadId] = if (existing == null) {
+        PendingUpdate(unarchive, unreadCountsApplied, insertedMessageIds)
+      } else {
+        PendingUpdate(
+          unarchive = existing.unarchive || unarchive,
+          unreadCountsApplied = existing.unreadCountsApplied && unreadCountsApplied,
+          insertedMessageIds = if (existing.insertedMessageIds != null && insertedMessageIds != null) existing.insertedMessageIds + insertedMessageIds else null
+        )
+      }
+    }
+
+    fun remove(threadIds: Collection<Long>) {
+      updates.keys.removeAll(threadIds.toSet())
+    }
+
+    fun run(threadId: Long) {
+      val pending = updates.remove(threadId) ?: return
+      update(
+        threadId = threadId,
+        unarchive = pending.unarchive,
+        allowDeletion = true,
+        notifyListeners = true,
+        syncThreadDelete = true,
+        recountUnread = !pending.unreadCountsApplied,
+        insertedMessageIds = pending.insertedMessageIds
+      )
+    }
+
+    override fun run() {
+      while (updates.isNotEmpty()) {
+        run(updates.keys.first())
+      }
+    }
+  }
+
+  /**
+   * @param insertedMessageIds The messages inserted into the thread, or null if anything else changed it.
+   */
+  private data class PendingUpdate(val unarchive: Boolean, val unreadCountsApplied: Boolean, val insertedMessageIds: Set<Long>?)
 }
@@ -0,0 +1,87 @@
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import org.signal.core.util.SqlUtil
+import org.signal.core.util.Stopwatch
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.SQLiteDatabase
+
+/**
+ * Recreates the message FTS table with prefix indexes, so that the short prefix queries we make while someone is typing don't have to scan every
+ * matching term. Also raises the automerge setting, since segments are now merged in the background.
+ *
+ * FTS5 options can't be changed on an existing table, so we have to tear it down and rebuild it.
+ */
+@Suppress("ClassName")
+object V301_MessageFullTextSearchPrefixIndexes : SignalDatabaseMigration {
+
+  private val TAG = Log.tag(V301_MessageFullTextSearchPrefixIndexes::class)
+
+  private const val FTS_TABLE_NAME = "message_fts"
+
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    val stopwatch = Stopwatch("migration")
+
+    try {
+      db.execSQL("DROP TABLE IF EXISTS $FTS_TABLE_NAME")
+    } catch (e: Throwable) {
+      Log.w(TAG, "Failed to drop the message_fts table! Trying a different way.")
+      db.safeDropFtsTable()
+    }
+
+    db.execSQL("DROP TRIGGER IF EXISTS message_ai")
+    db.execSQL("DROP TRIGGER IF EXISTS message_ad")
+    db.execSQL("DROP TRIGGER IF EXISTS message_au")
+    stopwatch.split("drop")
+
+    db.execSQL("""CREATE VIRTUAL TABLE $FTS_TABLE_NAME USING fts5(body, thread_id UNINDEXED, content=message, content_rowid=_id, tokenize = "unicode61 categories 'L* N* Co Sc So'", prefix = '2 3')""")
+    db.execSQL("INSERT INTO $FTS_TABLE_NAME($FTS_TABLE_NAME, rank) VALUES ('automerge', 8)")
+
+    db.execSQL("INSERT INTO $FTS_TABLE_NAME($FTS_TABLE_NAME) VALUES ('rebuild')")
+
+    db.execSQL(
+      """
+      CREATE TRIGGER message_ai AFTER INSERT ON message BEGIN
+        INSERT INTO message_fts(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);
+      END;
+    """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER message_ad AFTER DELETE ON message BEGIN
+        INSERT INTO message_fts(message_fts, rowid, body, thread_id) VALUES ('delete', old._id, old.body, old.thread_id);
+      END;
+    """
+    )
+
+    db.execSQL(
+      """
+      CREATE TRIGGER message_au AFTER UPDATE ON message BEGIN
+        INSERT INTO message_fts(message_fts, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);
+        INSERT INTO message_fts(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);
+      END;
+    """
+    )
+
+    stopwatch.split("rebuild")
+    stopwatch.stop(TAG)
+  }
+
+  /**
+   * Same "safe drop" as [V265_FixFtsTriggers], for tables that are too corrupt to drop normally.
+   */
+  private fun SQLiteDatabase.safeDropFtsTable() {
+    if (SqlUtil.tableExists(this, FTS_TABLE_NAME)) {
+      val dataExists = SqlUtil.tableExists(this, "${FTS_TABLE_NAME}_data")
+      val configExists = SqlUtil.tableExists(this, "${FTS_TABLE_NAME}_config")
+
+      if (dataExists) this.execSQL("DELETE FROM ${FTS_TABLE_NAME}_data")
+      if (configExists) this.execSQL("DELETE FROM ${FTS_TABLE_NAME}_config")
+      if (dataExists) this.execSQL("INSERT INTO ${FTS_TABLE_NAME}_data VALUES(10, X'0000000000')")
+      if (configExists) this.execSQL("INSERT INTO ${FTS_TABLE_NAME}_config VALUES('version', 4)")
+
+      this.execSQL("DROP TABLE $FTS_TABLE_NAME")
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import org.thoughtcrime.securesms.database.SQLiteDatabase
+
+/**
+ * Adds an index for reading pages of a conversation. Its rows are in (date_received, _id) order, so a page is read without sorting ties on the
+ * message id in a temp B-tree, which the old thread/date index couldn't avoid.
+ */
+@Suppress("ClassName")
+object V302_AddMessageThreadConversationIndex : SignalDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("CREATE INDEX IF NOT EXISTS message_thread_conversation_index ON message (thread_id, date_received, _id) WHERE story_type = 0 AND parent_story_id <= 0 AND scheduled_date = -1 AND latest_revision_id IS NULL")
+  }
+}
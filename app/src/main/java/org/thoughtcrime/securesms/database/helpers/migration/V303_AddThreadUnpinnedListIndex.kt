@@ -0,0 +1,15 @@
+package org.thoughtcrime.securesms.database.helpers.migration
+
+import android.app.Application
+import org.thoughtcrime.securesms.database.SQLiteDatabase
+
+/**
+ * Adds an index for reading pages of the unpinned chat list. It only holds the threads that list can show, in (date, _id) order, so a page is read
+ * from the anchor without sorting the whole list in a temp B-tree.
+ */
+@Suppress("ClassName")
+object V303_AddThreadUnpinnedListIndex : SignalDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL("CREATE INDEX IF NOT EXISTS thread_unpinned_list_index ON thread (date DESC, _id DESC) WHERE active = 1 AND archived = 0 AND pinned_order IS NULL AND meaningful_messages != 0")
+  }
+}
@@ -1,7 +1,14 @@
 package org.thoughtcrime.securesms.database.model
 
+/**
+ * A single log call, as it's handed to the log store. Nothing is formatted until the logs are read back.
+ */
 data class LogEntry(
   val createdAt: Long,
   val keepLonger: Boolean,
-  val body: String
+  val level: Char,
+  val threadString: String,
+  val tag: String,
+  val message: String?,
+  val stackTrace: String? = null
 )
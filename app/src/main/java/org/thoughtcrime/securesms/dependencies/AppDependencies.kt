@@ -13,6 +13,7 @@ import org.signal.glide.SignalGlideDependencies
 import org.signal.libsignal.net.Network
 import org.signal.libsignal.zkgroup.profiles.ClientZkProfileOperations
 import org.signal.libsignal.zkgroup.receipts.ClientZkReceiptOperations
+import org.thoughtcrime.securesms.attachments.AttachmentTransferScheduler
 import org.thoughtcrime.securesms.components.TypingStatusRepository
 import org.thoughtcrime.securesms.components.TypingStatusSender
 import org.thoughtcrime.securesms.crypto.storage.SignalServiceDataStoreImpl
@@ -223,6 +224,11 @@ object AppDependencies {
     provider.providePinnedMessageManager()
   }
 
+  @JvmStatic
+  val attachmentTransferScheduler: AttachmentTransferScheduler by lazy {
+    provider.provideAttachmentTransferScheduler()
+  }
+
   @JvmStatic
   val androidCallAudioManager: AudioManagerCompat by lazy {
     provider.provideAndroidCallAudioManager()
@@ -443,6 +449,7 @@ object AppDependencies {
     fun provideClientZkReceiptOperations(signalServiceConfiguration: SignalServiceConfiguration): ClientZkReceiptOperations
     fun provideScheduledMessageManager(): ScheduledMessageManager
     fun providePinnedMessageManager(): PinnedMessageManager
+    fun provideAttachmentTransferScheduler(): AttachmentTransferScheduler
     fun provideLibsignalNetwork(config: SignalServiceConfiguration): Network
     fun provideBillingApi(): BillingApi
     fun provideArchiveApi(authWebSocket: SignalWebSocket.AuthenticatedWebSocket, unauthWebSocket: SignalWebSocket.UnauthenticatedWebSocket, pushServiceSocket: PushServiceSocket): ArchiveApi
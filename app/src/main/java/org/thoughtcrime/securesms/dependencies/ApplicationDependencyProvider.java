@@ -18,6 +18,7 @@ import org.signal.libsignal.net.Network;
 import org.signal.libsignal.zkgroup.profiles.ClientZkProfileOperations;
 import org.signal.libsignal.zkgroup.receipts.ClientZkReceiptOperations;
 import org.thoughtcrime.securesms.BuildConfig;
+import org.thoughtcrime.securesms.attachments.AttachmentTransferScheduler;
 import org.thoughtcrime.securesms.components.TypingStatusRepository;
 import org.thoughtcrime.securesms.components.TypingStatusSender;
 import org.thoughtcrime.securesms.crypto.ReentrantSessionLock;
@@ -41,6 +42,7 @@ import org.thoughtcrime.securesms.jobs.FastJobStorage;
 import org.thoughtcrime.securesms.jobs.GroupCallUpdateSendJob;
 import org.thoughtcrime.securesms.jobs.IndividualSendJob;
 import org.thoughtcrime.securesms.jobs.JobManagerFactories;
+import org.thoughtcrime.securesms.jobs.JobWriteJournal;
 import org.thoughtcrime.securesms.jobs.MarkerJob;
 import org.thoughtcrime.securesms.jobs.PreKeysSyncJob;
 import org.thoughtcrime.securesms.jobs.PushGroupSendJob;
@@ -83,6 +85,7 @@ import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.video.exo.GiphyMp4Cache;
 import org.thoughtcrime.securesms.video.exo.SimpleExoPlayerPool;
 import org.thoughtcrime.securesms.webrtc.audio.AudioManagerCompat;
+import org.whispersystems.signalservice.api.MessageSendFanOut;
 import org.whispersystems.signalservice.api.SignalServiceAccountManager;
 import org.whispersystems.signalservice.api.SignalServiceDataStore;
 import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
@@ -147,7 +150,8 @@ public class ApplicationDependencyProvider implements AppDependencies.Provider {
     return new PushServiceSocket(signalServiceConfiguration,
                                  new DynamicCredentialsProvider(),
                                  BuildConfig.SIGNAL_AGENT,
-                                 RemoteConfig.okHttpAutomaticRetry());
+                                 RemoteConfig.okHttpAutomaticRetry(),
+                                 RemoteConfig.attachmentDownloadParallelRanges());
   }
 
   @Override
@@ -174,12 +178,23 @@ public class ApplicationDependencyProvider implements AppDependencies.Provider {
                                             keysApi,
                                             Optional.of(new SecurityEventListener(context)),
                                             SignalExecutors.newCachedBoundedExecutor("signal-messages", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD, 1, 16, 30),
+                                            provideMessageSendFanOut(),
                                             RemoteConfig.maxEnvelopeSizeBytes(),
                                             RemoteConfig::useMessageSendRestFallback,
                                             RemoteConfig.useBinaryId(),
                                             BuildConfig.USE_STRING_ID);
   }
 
+  private static @NonNull MessageSendFanOut provideMessageSendFanOut() {
+    int maxInFlight = RemoteConfig.messageSendMaxInFlight();
+
+    if (maxInFlight < 1) {
+      return MessageSendFanOut.UNBOUNDED;
+    }
+
+    return MessageSendFanOut.bounded(maxInFlight, Runtime.getRuntime().availableProcessors(), Math.max(1, RemoteConfig.messageSendMaxRestInFlight()));
+  }
+
   @Override
   public @NonNull SignalServiceMessageReceiver provideSignalServiceMessageReceiver(@NonNull PushServiceSocket pushServiceSocket) {
     return new SignalServiceMessageReceiver(pushServiceSocket);
@@ -197,12 +212,28 @@ public class ApplicationDependencyProvider implements AppDependencies.Provider {
 
   @Override
   public @NonNull JobManager provideJobManager() {
+    JobDatabase     jobDatabase = JobDatabase.getInstance(context);
+    JobWriteJournal journal     = RemoteConfig.jobWriteBehind() ? new JobWriteJournal(jobDatabase) : null;
+
+    if (journal != null) {
+      AppForegroundObserver.addListener(new AppForegroundObserver.Listener() {
+        @Override
+        public void onForeground() {}
+
+        @Override
+        public void onBackground() {
+          SignalExecutors.BOUNDED.execute(journal::flush);
+        }
+      });
+    }
+
     JobManager.Configuration config = new JobManager.Configuration.Builder()
                                                                   .setJobFactories(JobManagerFactories.getJobFactories(context))
                                                                   .setConstraintFactories(JobManagerFactories.getConstraintFactories(context))
                                                                   .setConstraintObservers(JobManagerFactories.getConstraintObservers(context))
-                                                                  .setJobStorage(new FastJobStorage(JobDatabase.getInstance(context)))
+                                                                  .setJobStorage(new FastJobStorage(jobDatabase, journal))
                                                                   .setJobMigrator(new JobMigrator(TextSecurePreferences.getJobManagerVersion(context), JobManager.CURRENT_VERSION, JobManagerFactories.getJobMigrations(context)))
+                                                                  .setRunnerMode(RemoteConfig.adaptiveJobRunners() ? JobManager.Configuration.RunnerMode.ADAPTIVE : JobManager.Configuration.RunnerMode.DEMAND)
                                                                   .addReservedJobRunner(new FactoryJobPredicate(PushProcessMessageJob.KEY, MarkerJob.KEY))
                                                                   .addReservedJobRunner(new FactoryJobPredicate(AttachmentUploadJob.KEY, AttachmentCompressionJob.KEY))
                                                                   .addReservedJobRunner(new FactoryJobPredicate(
@@ -277,6 +308,11 @@ public class ApplicationDependencyProvider implements AppDependencies.Provider {
     return new PinnedMessageManager(context);
   }
 
+  @Override
+  public @NonNull AttachmentTransferScheduler provideAttachmentTransferScheduler() {
+    return new AttachmentTransferScheduler();
+  }
+
   @Override
   public @NonNull Network provideLibsignalNetwork(@NonNull SignalServiceConfiguration config) {
     Network network = new Network(BuildConfig.LIBSIGNAL_NET_ENV, StandardUserAgentInterceptor.USER_AGENT);
@@ -8,25 +8,86 @@ package org.thoughtcrime.securesms.glide
 import android.net.Uri
 import org.signal.core.util.logging.Log
 import org.signal.glide.common.io.InputStreamFactory
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartChannel
 import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.mms.PartAuthority
+import org.thoughtcrime.securesms.util.MediaUtil
+import java.io.Closeable
+import java.io.IOException
 import java.io.InputStream
 
 /**
  * A factory that creates a new [InputStream] for the given [Uri] each time [create] is called.
+ *
+ * Glide calls [create] several times per load (sniffing the type, reading the orientation, decoding), so for attachments we open a
+ * [ModernDecryptingPartChannel] after the first stream has been created, and hand out streams from that for the rest, rather than opening and
+ * decrypting the file from scratch each time. The channel is released by [close].
  */
 class DecryptableStreamFactory(
   private val uri: Uri
-) : InputStreamFactory {
+) : InputStreamFactory, Closeable {
   companion object {
     private val TAG = Log.tag(DecryptableStreamFactory::class)
   }
 
+  private var channel: ModernDecryptingPartChannel? = null
+  private var channelChecked = false
+  private var closed = false
+
   override fun create(): InputStream {
-    return try {
+    synchronized(this) {
+      channel?.let { return it.newInputStream(0) }
+    }
+
+    val inputStream = try {
       DecryptableStreamLocalUriFetcher(AppDependencies.application, uri).loadResource(uri, AppDependencies.application.contentResolver)
     } catch (e: Exception) {
       Log.w(TAG, "Error creating input stream for URI.", e)
       throw e
     }
+
+    openChannelIfPossible()
+
+    return inputStream
+  }
+
+  override fun close() {
+    synchronized(this) {
+      closed = true
+      channel?.close()
+      channel = null
+    }
+  }
+
+  /**
+   * Only done after the first stream has been created, so the fetcher has already had its chance to reject the uri. Videos are left alone,
+   * since the fetcher gives back a thumbnail for them rather than the attachment itself.
+   */
+  private fun openChannelIfPossible() {
+    synchronized(this) {
+      if (channelChecked || closed) {
+        return
+      }
+      channelChecked = true
+    }
+
+    if (MediaUtil.hasVideoThumbnail(AppDependencies.application, uri)) {
+      return
+    }
+
+    val opened = try {
+      PartAuthority.openAttachmentChannel(uri)
+    } catch (e: IOException) {
+      Log.w(TAG, "Unable to open channel for URI, falling back to streams.", e)
+      null
+    } ?: return
+
+    synchronized(this) {
+      if (closed) {
+        opened.close()
+      } else {
+        channel = opened
+      }
+    }
   }
 }
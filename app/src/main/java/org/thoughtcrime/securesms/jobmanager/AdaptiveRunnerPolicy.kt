@@ -0,0 +1,134 @@
+package org.thoughtcrime.securesms.jobmanager
+
+import org.thoughtcrime.securesms.jobs.MinimalJobSpec
+
+/**
+ * Decisions the [JobController] defers to when running in [JobManager.Configuration.RunnerMode.ADAPTIVE] mode.
+ *
+ * - **Scaling.** We keep a moving average of how long jobs wait between becoming runnable and actually running. While that's above
+ *   [targetWaitMs], new runners are spawned to cover all of the waiting work. Otherwise the runners we have are keeping up, so we only add one at a
+ *   time, and idle runners are let go sooner.
+ * - **Workload.** Jobs declare whether they're CPU- or IO-bound (see [Job.getWorkload]). No more than [maxCpuBoundJobs] CPU-bound jobs run at once,
+ *   since past that point they only slow each other down. IO-bound jobs are only limited by the number of runners.
+ * - **Fairness.** Within a priority, runnable jobs are ordered by how much runner time their factory has had recently, relative to its weight, so
+ *   one factory with a deep backlog can't starve the rest. This is start-time fair queueing: each factory is charged for the time its jobs run,
+ *   divided by its weight, and a factory that's been idle starts back at the current virtual time rather than with credit saved up.
+ */
+class AdaptiveRunnerPolicy @JvmOverloads constructor(
+  private val factoryWeights: Map<String, Int> = emptyMap(),
+  private val maxCpuBoundJobs: Int = maxOf(1, Runtime.getRuntime().availableProcessors() - 1),
+  private val targetWaitMs: Long = 500
+) {
+
+  companion object {
+    /** How much the latest sample counts towards a moving average. */
+    private const val SMOOTHING = 0.2
+
+    /** What we assume a job from a factory we haven't seen finish yet will cost. */
+    private const val DEFAULT_RUNTIME_ESTIMATE_MS = 100.0
+
+    /** How much shorter idle runners live while we're keeping up. */
+    private const val RELAXED_IDLE_TIMEOUT_DIVISOR = 4
+  }
+
+  private val workloadsByFactory: MutableMap<String, Job.Workload> = HashMap()
+  private val passByFactory: MutableMap<String, Double> = HashMap()
+  private val runtimeEstimateByFactory: MutableMap<String, Double> = HashMap()
+
+  private var virtualTime = 0.0
+  private var runningCpuBoundJobs = 0
+  private var averageWaitMs = 0.0
+
+  val averageWait: Long
+    @Synchronized get() = averageWaitMs.toLong()
+
+  /**
+   * Whether a job from this factory may start right now. We only learn a factory's workload once one of its jobs has been created, so the first
+   * one is always let through.
+   */
+  @Synchronized
+  fun canStart(factoryKey: String): Boolean {
+    return workloadsByFactory[factoryKey] != Job.Workload.CPU || runningCpuBoundJobs < maxCpuBoundJobs
+  }
+
+  /**
+   * The order runnable jobs should be considered in. It's a snapshot, so it's safe to use without holding any locks.
+   */
+  @Synchronized
+  fun order(): Comparator<MinimalJobSpec> {
+    val now = virtualTime
+    val passes = HashMap(passByFactory)
+
+    return compareByDescending<MinimalJobSpec> { it.globalPriority }
+      .thenBy { maxOf(passes[it.factoryKey] ?: now, now) }
+  }
+
+  @Synchronized
+  fun onJobStarted(job: Job, waitMs: Long) {
+    val factoryKey = job.factoryKey
+    val workload = job.workload
+
+    workloadsByFactory[factoryKey] = workload
+    if (workload == Job.Workload.CPU) {
+      runningCpuBoundJobs++
+    }
+
+    averageWaitMs += (waitMs.coerceAtLeast(0) - averageWaitMs) * SMOOTHING
+
+    // Charge up front with an estimate, so a factory can't grab every runner before any of its jobs finish. It's corrected in onJobFinished.
+    val start = maxOf(passByFactory[factoryKey] ?: virtualTime, virtualTime)
+    virtualTime = start
+    passByFactory[factoryKey] = start + estimateFor(factoryKey) / weightOf(factoryKey)
+  }
+
+  @Synchronized
+  fun onJobFinished(job: Job, runtimeMs: Long) {
+    val factoryKey = job.factoryKey
+
+    if (job.workload == Job.Workload.CPU) {
+      runningCpuBoundJobs = (runningCpuBoundJobs - 1).coerceAtLeast(0)
+    }
+
+    val estimate = estimateFor(factoryKey)
+    val actual = runtimeMs.coerceAtLeast(0).toDouble()
+
+    passByFactory[factoryKey] = (passByFactory[factoryKey] ?: virtualTime) + (actual - estimate) / weightOf(factoryKey)
+    runtimeEstimateByFactory[factoryKey] = estimate + (actual - estimate) * SMOOTHING
+  }
+
+  /**
+   * @return How many general runners to add, given the current state of the pool.
+   */
+  @Synchronized
+  fun getRunnersToSpawn(activeRunners: Int, idleRunners: Int, eligibleJobCount: Int, maxRunners: Int): Int {
+    val uncovered = eligibleJobCount - idleRunners
+    val room = maxRunners - activeRunners
+
+    if (uncovered <= 0 || room <= 0) {
+      return 0
+    }
+
+    val wanted = if (averageWaitMs > targetWaitMs) uncovered else 1
+    return minOf(wanted, room)
+  }
+
+  /**
+   * @return How long a temporary runner should wait for work before terminating, given the timeout it was configured with.
+   */
+  @Synchronized
+  fun getIdleTimeout(configuredTimeoutMs: Long): Long {
+    return if (averageWaitMs > targetWaitMs) {
+      configuredTimeoutMs
+    } else {
+      configuredTimeoutMs / RELAXED_IDLE_TIMEOUT_DIVISOR
+    }
+  }
+
+  private fun estimateFor(factoryKey: String): Double {
+    return runtimeEstimateByFactory[factoryKey] ?: DEFAULT_RUNTIME_ESTIMATE_MS
+  }
+
+  private fun weightOf(factoryKey: String): Double {
+    return (factoryWeights[factoryKey] ?: 1).coerceAtLeast(1).toDouble()
+  }
+}
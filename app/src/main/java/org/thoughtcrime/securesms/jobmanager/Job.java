@@ -153,6 +153,14 @@ public abstract class Job {
   public void onRetry() {
   }
 
+  /**
+   * Whether this job spends most of its time keeping a CPU busy, rather than waiting on the network or disk. When runners are adaptive (see
+   * {@link AdaptiveRunnerPolicy}), only a few CPU-bound jobs are allowed to run at once. Should be the same for every job from a given factory.
+   */
+  public @NonNull Workload getWorkload() {
+    return Workload.IO;
+  }
+
   /**
    * Serialize your job state so that it can be recreated in the future.
    */
@@ -175,6 +183,10 @@ public abstract class Job {
   @WorkerThread
   public abstract void onFailure();
 
+  public enum Workload {
+    IO, CPU
+  }
+
   public interface Factory<T extends Job> {
     @NonNull T create(@NonNull Parameters parameters, @Nullable byte[] serializedData);
   }
@@ -300,6 +312,7 @@ public abstract class Job {
     private final int          globalPriority;
     private final int          queuePriority;
     private final long         initialDelay;
+    private final boolean      durableCritical;
 
     private Parameters(@NonNull String id,
                        long createTime,
@@ -313,7 +326,8 @@ public abstract class Job {
                        boolean memoryOnly,
                        int globalPriority,
                        int queuePriority,
-                       long initialDelay)
+                       long initialDelay,
+                       boolean durableCritical)
     {
       this.id                     = id;
       this.createTime             = createTime;
@@ -328,6 +342,7 @@ public abstract class Job {
       this.globalPriority         = globalPriority;
       this.queuePriority          = queuePriority;
       this.initialDelay           = initialDelay;
+      this.durableCritical        = durableCritical;
     }
 
     @NonNull String getId() {
@@ -382,8 +397,12 @@ public abstract class Job {
       return initialDelay;
     }
 
+    boolean isDurableCritical() {
+      return durableCritical;
+    }
+
     public Builder toBuilder() {
-      return new Builder(id, createTime, lifespan, maxAttempts, maxInstancesForFactory, maxInstancesForQueue, queue, constraintKeys, inputData, memoryOnly, globalPriority, queuePriority, initialDelay);
+      return new Builder(id, createTime, lifespan, maxAttempts, maxInstancesForFactory, maxInstancesForQueue, queue, constraintKeys, inputData, memoryOnly, globalPriority, queuePriority, initialDelay, durableCritical);
     }
 
 
@@ -401,13 +420,14 @@ public abstract class Job {
       private int          globalPriority;
       private int          queuePriority;
       private long         initialDelay;
+      private boolean      durableCritical;
 
       public Builder() {
         this(UUID.randomUUID().toString());
       }
 
       Builder(@NonNull String id) {
-        this(id, System.currentTimeMillis(), IMMORTAL, 1, UNLIMITED, UNLIMITED, null, new LinkedList<>(), null, false, Parameters.PRIORITY_DEFAULT, Parameters.PRIORITY_DEFAULT, 0);
+        this(id, System.currentTimeMillis(), IMMORTAL, 1, UNLIMITED, UNLIMITED, null, new LinkedList<>(), null, false, Parameters.PRIORITY_DEFAULT, Parameters.PRIORITY_DEFAULT, 0, false);
       }
 
       private Builder(@NonNull String id,
@@ -422,7 +442,8 @@ public abstract class Job {
                       boolean memoryOnly,
                       int globalPriority,
                       int queuePriority,
-                      long initialDelay)
+                      long initialDelay,
+                      boolean durableCritical)
       {
         this.id                     = id;
         this.createTime             = createTime;
@@ -437,6 +458,7 @@ public abstract class Job {
         this.globalPriority         = globalPriority;
         this.queuePriority          = queuePriority;
         this.initialDelay           = initialDelay;
+        this.durableCritical        = durableCritical;
       }
 
       /** Should only be invoked by {@link JobController} */
@@ -584,8 +606,22 @@ public abstract class Job {
         return this;
       }
 
+      /**
+       * Specify whether or not this job must be written to disk as soon as it's submitted. Only
+       * matters when job writes are being deferred (see {@link org.thoughtcrime.securesms.jobs.JobWriteJournal}),
+       * in which case a job that isn't critical could be lost if the app dies within a moment of it
+       * being submitted. Use this for jobs that represent something the user did, like sending a
+       * message.
+       *
+       * Defaults to false.
+       */
+      public @NonNull Builder setDurableCritical(boolean durableCritical) {
+        this.durableCritical = durableCritical;
+        return this;
+      }
+
       public @NonNull Parameters build() {
-        return new Parameters(id, createTime, lifespan, maxAttempts, maxInstancesForFactory, maxInstancesForQueue, queue, constraintKeys, inputData, memoryOnly, globalPriority, queuePriority, initialDelay);
+        return new Parameters(id, createTime, lifespan, maxAttempts, maxInstancesForFactory, maxInstancesForQueue, queue, constraintKeys, inputData, memoryOnly, globalPriority, queuePriority, initialDelay, durableCritical);
       }
     }
   }
@@ -22,13 +22,13 @@ import org.thoughtcrime.securesms.util.Debouncer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -38,6 +38,17 @@ import java.util.function.Predicate;
 /**
  * Manages the queue of jobs. This is the only class that should write to {@link JobStorage} to
  * ensure consistency.
+ *
+ * Runners search for their next job without holding this class's lock, and only take it briefly to
+ * claim the job they found. Each runner waits on its own {@link RunnerSignal} rather than on this
+ * object, and only as many runners are woken as there are jobs ready to run, so waking runners up
+ * doesn't make them all fight over one monitor. Constraints are read from {@link JobStorage}
+ * without its lock as well, so searching never waits on a write.
+ *
+ * Everything that changes job state (submitting, claiming, finishing, retrying, cancelling) is still
+ * done while holding this class's lock, since those need to see each other's writes to
+ * {@link JobStorage} and {@link #runningJobs} atomically. What's gone is holding it across the search
+ * and the wait, which is where runners used to queue up behind each other.
  */
 class JobController {
 
@@ -54,12 +65,14 @@ class JobController {
   private final Debouncer                  debouncer;
   private final Callback                   callback;
   private final Map<String, ActiveJobInfo> runningJobs;
+  private final Map<Thread, RunnerSignal>  runnerSignals;
 
   private final int                             minGeneralRunners;
   private final int                             maxGeneralRunners;
   private final long                            generalRunnerIdleTimeout;
   private final AtomicInteger                   nextRunnerId;
   private final List<Predicate<MinimalJobSpec>> reservedRunnerPredicates;
+  private final AdaptiveRunnerPolicy            adaptivePolicy;
 
   @VisibleForTesting
   final AtomicBoolean runnersStarted = new AtomicBoolean(false);
@@ -78,7 +91,8 @@ class JobController {
                 int minGeneralRunners,
                 int maxGeneralRunners,
                 long generalRunnerIdleTimeout,
-                @NonNull List<Predicate<MinimalJobSpec>> reservedRunnerPredicates)
+                @NonNull List<Predicate<MinimalJobSpec>> reservedRunnerPredicates,
+                @Nullable AdaptiveRunnerPolicy adaptivePolicy)
   {
     this.application              = application;
     this.jobStorage               = jobStorage;
@@ -88,23 +102,25 @@ class JobController {
     this.scheduler                = scheduler;
     this.debouncer                = debouncer;
     this.callback                 = callback;
-    this.runningJobs              = new HashMap<>();
+    this.runningJobs              = new ConcurrentHashMap<>();
+    this.runnerSignals            = new ConcurrentHashMap<>();
     this.minGeneralRunners        = minGeneralRunners;
     this.maxGeneralRunners        = maxGeneralRunners;
     this.generalRunnerIdleTimeout = generalRunnerIdleTimeout;
     this.nextRunnerId             = new AtomicInteger(0);
     this.activeGeneralRunners     = new CopyOnWriteArrayList<>();
     this.reservedRunnerPredicates = new ArrayList<>(reservedRunnerPredicates);
+    this.adaptivePolicy           = adaptivePolicy;
   }
 
   @WorkerThread
   synchronized void init() {
     jobStorage.updateAllJobsToBePending();
-    notifyAll();
+    signalRunners();
   }
 
   synchronized void wakeUp() {
-    notifyAll();
+    signalRunners();
     maybeScaleUpRunners(() -> jobStorage.getEligibleJobCount(System.currentTimeMillis()));
   }
 
@@ -146,7 +162,7 @@ class JobController {
     triggerOnSubmit(chain);
 
     synchronized (this) {
-      notifyAll();
+      signalRunners();
       maybeScaleUpRunners(() -> jobStorage.getEligibleJobCount(System.currentTimeMillis()));
     }
   }
@@ -198,7 +214,7 @@ class JobController {
     triggerOnSubmit(chain);
 
     synchronized (this) {
-      notifyAll();
+      signalRunners();
       maybeScaleUpRunners(() -> jobStorage.getEligibleJobCount(System.currentTimeMillis()));
     }
   }
@@ -234,7 +250,7 @@ class JobController {
     }
 
     synchronized (this) {
-      notifyAll();
+      signalRunners();
       maybeScaleUpRunners(() -> jobStorage.getEligibleJobCount(System.currentTimeMillis()));
     }
   }
@@ -288,7 +304,23 @@ class JobController {
   @WorkerThread
   synchronized void update(@NonNull JobUpdater updater) {
     jobStorage.transformJobs(updater::update);
-    notifyAll();
+    signalRunners();
+  }
+
+  /**
+   * Lets a job that's waiting out its backoff run as soon as a runner is free. Does nothing if the
+   * job is running or no longer exists.
+   */
+  @WorkerThread
+  synchronized void retryNow(@NonNull String id) {
+    JobSpec jobSpec = jobStorage.getJobSpec(id);
+
+    if (jobSpec == null || jobSpec.isRunning() || runningJobs.containsKey(id) || jobSpec.getNextBackoffInterval() == 0) {
+      return;
+    }
+
+    jobStorage.updateJobAfterRetry(id, jobSpec.getLastRunAttemptTime(), jobSpec.getRunAttempt(), 0, jobSpec.getSerializedData());
+    signalRunners();
   }
 
   @WorkerThread
@@ -317,11 +349,17 @@ class JobController {
     Log.i(TAG, JobLogger.format(job, "Scheduling a retry in " + backoffInterval + " ms."));
     scheduler.schedule(backoffInterval, constraints);
 
-    notifyAll();
+    signalRunners();
   }
 
   synchronized void onJobFinished(@NonNull Job job) {
-    runningJobs.remove(job.getId());
+    ActiveJobInfo activeJobInfo = runningJobs.remove(job.getId());
+
+    if (adaptivePolicy != null && activeJobInfo != null) {
+      adaptivePolicy.onJobFinished(job, System.currentTimeMillis() - activeJobInfo.startTime());
+      // A CPU-bound slot may have opened up
+      signalRunners();
+    }
   }
 
   @WorkerThread
@@ -338,7 +376,7 @@ class JobController {
 
     jobStorage.deleteJob(job.getId());
     jobTracker.onStateChange(job, JobTracker.JobState.SUCCESS);
-    notifyAll();
+    signalRunners();
   }
 
   /**
@@ -371,17 +409,35 @@ class JobController {
    *  - Has no dependencies
    *  - Has no unmet constraints
    *
+   * The search happens without holding this class's lock. The lock is only held to confirm and claim
+   * the job that was found, so runners don't have to wait on each other while searching.
+   *
    * @param predicate Filter for jobs to consider
    * @param timeoutMs Maximum time to wait for a job. If 0, waits indefinitely.
    * @return Job to execute, or null if the timeout is hit
    */
   @WorkerThread
-  synchronized @Nullable Job pullNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate, String runnerName, long timeoutMs) {
+  @Nullable Job pullNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate, String runnerName, long timeoutMs) {
+    RunnerSignal signal    = runnerSignals.computeIfAbsent(Thread.currentThread(), t -> new RunnerSignal(predicate));
+    long         startTime = System.currentTimeMillis();
+
+    if (adaptivePolicy != null && timeoutMs > 0) {
+      timeoutMs = Math.max(1, adaptivePolicy.getIdleTimeout(timeoutMs));
+    }
+
+    signal.setIdle(true);
+
     try {
-      Job job;
-      long startTime = System.currentTimeMillis();
+      while (true) {
+        // Anything that happens after this point will leave the signal set, so we can't miss a wake up between searching and waiting
+        signal.clear();
+
+        Job job = claimNextEligibleJobForExecution(predicate, runnerName, timeoutMs == 0);
+        if (job != null) {
+          signal.setIdle(false);
+          return job;
+        }
 
-      while ((job = getNextEligibleJobForExecution(predicate)) == null) {
         if (runningJobs.isEmpty()) {
           debouncer.publish(callback::onEmpty);
         }
@@ -389,19 +445,14 @@ class JobController {
         if (timeoutMs > 0) {
           long remainingTime = timeoutMs - (System.currentTimeMillis() - startTime);
           if (remainingTime <= 0) {
+            signal.setIdle(false);
             return null;
           }
-          wait(remainingTime);
+          signal.await(remainingTime);
         } else {
-          wait();
+          signal.await(0);
         }
       }
-
-      jobStorage.markJobAsRunning(job.getId(), System.currentTimeMillis());
-      runningJobs.put(job.getId(), new ActiveJobInfo(job, runnerName, timeoutMs == 0));
-      jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
-
-      return job;
     } catch (InterruptedException e) {
       Log.e(TAG, "Interrupted.");
       throw new AssertionError(e);
@@ -456,7 +507,8 @@ class JobController {
     info.append("\n-- Additional Details\n");
     info.append("Runners started: ").append(runnersStarted.get()).append('\n');
     info.append("General runner count: ").append(activeGeneralRunners.size()).append('\n');
-    info.append("Reserved runner count: ").append(reservedRunnerPredicates.size()).append("\n\n");
+    info.append("Reserved runner count: ").append(reservedRunnerPredicates.size()).append('\n');
+    info.append("Runner mode: ").append(adaptivePolicy != null ? "Adaptive (average wait " + adaptivePolicy.getAverageWait() + " ms)" : "Demand").append("\n\n");
 
     if (additional != null) {
       info.append(additional).append('\n');
@@ -464,6 +516,18 @@ class JobController {
       info.append("No job storage info.\n");
     }
 
+    info.append("\n-- Queue Wait Times\n");
+    Map<String, LatencyHistogram> latencies = jobTracker.getQueueLatencies();
+    if (!latencies.isEmpty()) {
+      latencies.entrySet()
+               .stream()
+               .sorted((a, b) -> Long.compare(b.getValue().percentile(90), a.getValue().percentile(90)))
+               .limit(50)
+               .forEach(e -> info.append(e.getKey()).append(": ").append(e.getValue()).append('\n'));
+    } else {
+      info.append("None\n");
+    }
+
     return info.toString();
   }
 
@@ -497,11 +561,17 @@ class JobController {
 
     maybeScaleUpRunners(() -> jobStorage.getEligibleJobCount(System.currentTimeMillis()));
 
-    notifyAll();
+    signalRunners();
   }
 
   /**
    * Scales up the number of {@link JobRunner}s to satisfy the number of eligible jobs, if needed.
+   *
+   * Since {@link JobStorage} only considers the head of each queue eligible, the eligible job count
+   * is really the number of queues that have work ready to go. By default we spawn runners until
+   * there are as many as there are queues with work, between the configured min and max. The
+   * {@link AdaptiveRunnerPolicy} instead counts only idle runners against that work, since busy ones
+   * can't pick any of it up, and leans on its wait-time average to avoid spawning too eagerly.
    */
   @VisibleForTesting
   synchronized void maybeScaleUpRunners(IntSupplier eligibleJobCountSupplier) {
@@ -511,12 +581,14 @@ class JobController {
 
     int eligibleJobCount            = eligibleJobCountSupplier.getAsInt();
     int activeRunners              = this.activeGeneralRunners.size();
+    int idleRunners                = getIdleGeneralRunnerCount();
     int maxPossibleRunnersToSpawn  = maxGeneralRunners - activeRunners;
     int runnersToCoverEligibleJobs = eligibleJobCount - activeRunners;
-    int actualRunnersToSpawn       = Math.min(runnersToCoverEligibleJobs, maxPossibleRunnersToSpawn);
+    int actualRunnersToSpawn       = adaptivePolicy != null ? adaptivePolicy.getRunnersToSpawn(activeRunners, idleRunners, eligibleJobCount, maxGeneralRunners)
+                                                            : Math.min(runnersToCoverEligibleJobs, maxPossibleRunnersToSpawn);
 
     if (actualRunnersToSpawn > 0) {
-      Log.i(TAG, "Spawning " + actualRunnersToSpawn + " new JobRunner(s) to meet demand. (CurrentActive: " + activeRunners + ", EligibleJobs: " + eligibleJobCount + ", MaxAllowed: " + maxGeneralRunners + ")");
+      Log.i(TAG, "Spawning " + actualRunnersToSpawn + " new JobRunner(s) to meet demand. (CurrentActive: " + activeRunners + ", Idle: " + idleRunners + ", EligibleJobs: " + eligibleJobCount + ", MaxAllowed: " + maxGeneralRunners + ")");
 
       for (int i = 0; i < actualRunnersToSpawn; i++) {
         spawnGeneralRunner(nextRunnerId.incrementAndGet(), generalRunnerIdleTimeout);
@@ -535,6 +607,7 @@ class JobController {
   @VisibleForTesting
   synchronized void onRunnerTerminated(@NonNull JobRunner runner) {
     activeGeneralRunners.remove(runner);
+    runnerSignals.remove(runner);
     Log.i(TAG, runner.getName() + " terminated. (CurrentActive: " + activeGeneralRunners.size() + ")");
   }
 
@@ -635,7 +708,7 @@ class JobController {
                                                  })
                                                  .toList();
 
-    return new FullSpec(jobSpec, constraintSpecs, dependencySpecs);
+    return new FullSpec(jobSpec, constraintSpecs, dependencySpecs, job.getParameters().isDurableCritical());
   }
 
   @WorkerThread
@@ -651,28 +724,129 @@ class JobController {
     }
   }
 
+  private int getIdleGeneralRunnerCount() {
+    int idle = 0;
+    for (JobRunner runner : activeGeneralRunners) {
+      // A runner without a signal hasn't started looking for work yet, so it's about to be idle
+      RunnerSignal signal = runnerSignals.get(runner);
+      if (signal == null || signal.isIdle()) {
+        idle++;
+      }
+    }
+    return idle;
+  }
+
+  /**
+   * Wakes up one idle runner for each job that's ready to run, rather than every runner. Each job
+   * goes to a reserved runner that will take it if there is one, and otherwise to a general runner.
+   * Jobs are only ever the next one in their queue, so this is at most one runner per queue.
+   *
+   * Runners that are still searching count as idle. Their signal is sticky, so they'll search once
+   * more rather than miss a job that showed up after they looked.
+   */
+  private void signalRunners() {
+    List<RunnerSignal> idle = new ArrayList<>();
+    for (RunnerSignal signal : runnerSignals.values()) {
+      if (signal.isIdle()) {
+        idle.add(signal);
+      }
+    }
+
+    if (idle.isEmpty()) {
+      return;
+    }
+
+    // Reserved runners only take some jobs, so they get first pick of the ones they can take
+    idle.sort((lhs, rhs) -> Boolean.compare(lhs.isGeneral(), rhs.isGeneral()));
+
+    for (MinimalJobSpec job : jobStorage.getEligibleJobs(System.currentTimeMillis())) {
+      for (int i = 0; i < idle.size(); i++) {
+        RunnerSignal signal = idle.get(i);
+        if (signal.accepts(job)) {
+          signal.signal();
+          idle.remove(i);
+          break;
+        }
+      }
+
+      if (idle.isEmpty()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Finds the next eligible job without holding the lock, then confirms and claims it while holding
+   * the lock. If another runner got to it first, or it otherwise became ineligible in the meantime,
+   * we search again.
+   *
+   * @return The claimed job, or null if there are no eligible jobs.
+   */
   @WorkerThread
-  private @Nullable Job getNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate) {
-    JobSpec jobSpec = jobStorage.getNextEligibleJob(System.currentTimeMillis(), minimalJobSpec -> {
-      if (!predicate.test(minimalJobSpec)) {
-        return false;
+  private @Nullable Job claimNextEligibleJobForExecution(@NonNull Predicate<MinimalJobSpec> predicate, @NonNull String runnerName, boolean coreRunner) {
+    while (true) {
+      JobSpec jobSpec = getNextEligibleJobSpec(predicate);
+
+      if (jobSpec == null) {
+        return null;
+      }
+
+      synchronized (this) {
+        long now = System.currentTimeMillis();
+
+        if (runningJobs.containsKey(jobSpec.getId()) || !jobStorage.isJobEligible(jobSpec.getId(), now)) {
+          continue;
+        }
+
+        if (adaptivePolicy != null && !adaptivePolicy.canStart(jobSpec.getFactoryKey())) {
+          continue;
+        }
+
+        Job  job    = createJob(jobSpec, jobStorage.getConstraintSpecs(jobSpec.getId()));
+        long waitMs = now - getRunnableSince(jobSpec);
+
+        jobStorage.markJobAsRunning(job.getId(), now);
+        runningJobs.put(job.getId(), new ActiveJobInfo(job, runnerName, coreRunner, now));
+        jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
+        jobTracker.onJobWaited(job, waitMs);
+
+        if (adaptivePolicy != null) {
+          adaptivePolicy.onJobStarted(job, waitMs);
+        }
+
+        return job;
       }
+    }
+  }
 
-      List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(minimalJobSpec.getId());
-      List<Constraint>     constraints     = Stream.of(constraintSpecs)
-                                                   .map(ConstraintSpec::getFactoryKey)
-                                                   .map(constraintInstantiator::instantiate)
-                                                   .toList();
+  /**
+   * When a job could first have run, ignoring anything ahead of it in its queue, its dependencies, and its constraints.
+   */
+  private static long getRunnableSince(@NonNull JobSpec jobSpec) {
+    return Math.max(jobSpec.getCreateTime() + jobSpec.getInitialDelay(), jobSpec.getLastRunAttemptTime() + jobSpec.getNextBackoffInterval());
+  }
 
-      return Stream.of(constraints).allMatch(Constraint::isMet);
-    });
+  @WorkerThread
+  private @Nullable JobSpec getNextEligibleJobSpec(@NonNull Predicate<MinimalJobSpec> predicate) {
+    if (adaptivePolicy != null) {
+      return jobStorage.getNextEligibleJob(System.currentTimeMillis(), minimalJobSpec -> adaptivePolicy.canStart(minimalJobSpec.getFactoryKey()) && isRunnable(predicate, minimalJobSpec), adaptivePolicy.order());
+    } else {
+      return jobStorage.getNextEligibleJob(System.currentTimeMillis(), minimalJobSpec -> isRunnable(predicate, minimalJobSpec));
+    }
+  }
 
-    if (jobSpec == null) {
-      return null;
+  private boolean isRunnable(@NonNull Predicate<MinimalJobSpec> predicate, @NonNull MinimalJobSpec minimalJobSpec) {
+    if (!predicate.test(minimalJobSpec)) {
+      return false;
     }
 
-    List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobSpec.getId());
-    return createJob(jobSpec, constraintSpecs);
+    List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(minimalJobSpec.getId());
+    List<Constraint>     constraints     = Stream.of(constraintSpecs)
+                                                 .map(ConstraintSpec::getFactoryKey)
+                                                 .map(constraintInstantiator::instantiate)
+                                                 .toList();
+
+    return Stream.of(constraints).allMatch(Constraint::isMet);
   }
 
   private @NonNull Job createJob(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs) {
@@ -737,9 +911,60 @@ class JobController {
     void onEmpty();
   }
 
+  /**
+   * What a single runner waits on while it has nothing to do. Signals are sticky until cleared, so
+   * a signal that arrives while the runner is still searching isn't lost.
+   */
+  private static final class RunnerSignal {
+    private final Predicate<MinimalJobSpec> predicate;
+
+    private boolean signaled;
+    private boolean idle;
+
+    RunnerSignal(@NonNull Predicate<MinimalJobSpec> predicate) {
+      this.predicate = predicate;
+    }
+
+    boolean isGeneral() {
+      return predicate == NO_PREDICATE;
+    }
+
+    boolean accepts(@NonNull MinimalJobSpec job) {
+      return predicate.test(job);
+    }
+
+    /**
+     * A runner is idle from when it starts looking for a job until it claims one, whether it's
+     * searching or waiting.
+     */
+    synchronized void setIdle(boolean idle) {
+      this.idle = idle;
+    }
+
+    synchronized boolean isIdle() {
+      return idle;
+    }
+
+    synchronized void signal() {
+      signaled = true;
+      notify();
+    }
+
+    synchronized void clear() {
+      signaled = false;
+    }
+
+    synchronized void await(long timeoutMs) throws InterruptedException {
+      if (!signaled) {
+        wait(timeoutMs);
+      }
+    }
+  }
+
   record ActiveJobInfo(
     @NonNull Job job,
     String runnerName,
-    boolean coreRunner
+    boolean coreRunner,
+    long startTime
   ) {}
 }
@@ -78,7 +78,9 @@ public class JobManager implements ConstraintObserver.Notifier {
                                            configuration.getMinGeneralRunners(),
                                            configuration.getMaxGeneralRunners(),
                                            configuration.getGeneralRunnerIdleTimeout(),
-                                           configuration.getReservedJobRunners());
+                                           configuration.getReservedJobRunners(),
+                                           configuration.getRunnerMode() == Configuration.RunnerMode.ADAPTIVE ? new AdaptiveRunnerPolicy(configuration.getFactoryWeights())
+                                                                                                               : null);
 
     executor.execute(() -> {
       synchronized (this) {
@@ -288,6 +290,15 @@ public class JobManager implements ConstraintObserver.Notifier {
     runOnExecutor(() -> jobController.update(updater));
   }
 
+  /**
+   * Runs a job that's waiting out a backoff as soon as a runner is free, rather than once the
+   * backoff ends. For jobs that were waiting on something that has since become available. Has no
+   * effect on a job that's currently running.
+   */
+  public void retryNow(@NonNull String id) {
+    runOnExecutor(() -> jobController.retryNow(id));
+  }
+
   /**
    * Search through the list of pending jobs and find all that match a given predicate. Note that there will always be races here, and the result you get back
    * may not be valid anymore by the time you get it. Use with caution.
@@ -612,6 +623,8 @@ public class JobManager implements ConstraintObserver.Notifier {
     private final JobMigrator                     jobMigrator;
     private final JobTracker                      jobTracker;
     private final List<Predicate<MinimalJobSpec>> reservedJobRunners;
+    private final RunnerMode                      runnerMode;
+    private final Map<String, Integer>            factoryWeights;
 
     private Configuration(int minGeneralRunners,
                           int maxGeneralRunners,
@@ -623,7 +636,9 @@ public class JobManager implements ConstraintObserver.Notifier {
                           @NonNull JobStorage jobStorage,
                           @NonNull JobMigrator jobMigrator,
                           @NonNull JobTracker jobTracker,
-                          @NonNull List<Predicate<MinimalJobSpec>> reservedJobRunners)
+                          @NonNull List<Predicate<MinimalJobSpec>> reservedJobRunners,
+                          @NonNull RunnerMode runnerMode,
+                          @NonNull Map<String, Integer> factoryWeights)
     {
       this.executorFactory          = executorFactory;
       this.minGeneralRunners        = minGeneralRunners;
@@ -636,6 +651,8 @@ public class JobManager implements ConstraintObserver.Notifier {
       this.jobMigrator              = jobMigrator;
       this.jobTracker               = jobTracker;
       this.reservedJobRunners       = new ArrayList<>(reservedJobRunners);
+      this.runnerMode               = runnerMode;
+      this.factoryWeights           = new HashMap<>(factoryWeights);
     }
 
     int getMinGeneralRunners() {
@@ -683,6 +700,22 @@ public class JobManager implements ConstraintObserver.Notifier {
       return reservedJobRunners;
     }
 
+    @NonNull RunnerMode getRunnerMode() {
+      return runnerMode;
+    }
+
+    @NonNull Map<String, Integer> getFactoryWeights() {
+      return factoryWeights;
+    }
+
+    public enum RunnerMode {
+      /** General runners are added whenever there are more eligible jobs than idle runners, and only go away after sitting idle. */
+      DEMAND,
+
+      /** Runners scale with how long jobs are waiting, CPU-bound jobs are limited, and factories share runners fairly. See {@link AdaptiveRunnerPolicy}. */
+      ADAPTIVE
+    }
+
     public static class Builder {
 
       private ExecutorFactory                 executorFactory          = new DefaultExecutorFactory();
@@ -696,6 +729,8 @@ public class JobManager implements ConstraintObserver.Notifier {
       private JobMigrator                     jobMigrator              = null;
       private JobTracker                      jobTracker               = new JobTracker();
       private List<Predicate<MinimalJobSpec>> reservedJobRunners       = new ArrayList<>();
+      private RunnerMode                      runnerMode               = RunnerMode.DEMAND;
+      private Map<String, Integer>            factoryWeights           = new HashMap<>();
 
       public @NonNull Builder setMinGeneralRunners(int minGeneralRunners) {
         this.minGeneralRunners = minGeneralRunners;
@@ -717,6 +752,20 @@ public class JobManager implements ConstraintObserver.Notifier {
         return this;
       }
 
+      public @NonNull Builder setRunnerMode(@NonNull RunnerMode runnerMode) {
+        this.runnerMode = runnerMode;
+        return this;
+      }
+
+      /**
+       * How large a share of the runners jobs from this factory get, relative to other factories, when there's contention. Defaults to 1. Only used
+       * in {@link RunnerMode#ADAPTIVE} mode.
+       */
+      public @NonNull Builder setFactoryWeight(@NonNull String factoryKey, int weight) {
+        this.factoryWeights.put(factoryKey, weight);
+        return this;
+      }
+
       public @NonNull Builder setExecutorFactory(@NonNull ExecutorFactory executorFactory) {
         this.executorFactory = executorFactory;
         return this;
@@ -758,7 +807,9 @@ public class JobManager implements ConstraintObserver.Notifier {
                                  jobStorage,
                                  jobMigrator,
                                  jobTracker,
-                                 reservedJobRunners);
+                                 reservedJobRunners,
+                                 runnerMode,
+                                 factoryWeights);
       }
     }
   }
@@ -11,6 +11,7 @@ import org.signal.core.util.LRUCache;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -21,14 +22,16 @@ import java.util.concurrent.Executor;
  */
 public class JobTracker {
 
-  private final Map<String, JobInfo> jobInfos;
-  private final List<ListenerInfo>   jobListeners;
-  private final Executor             listenerExecutor;
+  private final Map<String, JobInfo>          jobInfos;
+  private final List<ListenerInfo>            jobListeners;
+  private final Executor                      listenerExecutor;
+  private final Map<String, LatencyHistogram> queueLatencies;
 
   JobTracker() {
     this.jobInfos         = new LRUCache<>(1000);
     this.jobListeners     = new ArrayList<>();
     this.listenerExecutor = SignalExecutors.BOUNDED;
+    this.queueLatencies   = new LRUCache<>(500);
   }
 
   /**
@@ -96,6 +99,40 @@ public class JobTracker {
     return false;
   }
 
+  /**
+   * Records how long a job waited between becoming runnable and being picked up by a runner. Kept per queue, or per factory for jobs without a queue.
+   */
+  synchronized void onJobWaited(@NonNull Job job, long waitMs) {
+    String key = getLatencyKey(job);
+
+    LatencyHistogram histogram = queueLatencies.get(key);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      queueLatencies.put(key, histogram);
+    }
+
+    histogram.record(waitMs);
+  }
+
+  /**
+   * A snapshot of how long jobs have waited to run, keyed by queue (or "factory:" and the factory key for jobs without a queue). Only the most
+   * recently used queues are kept.
+   */
+  public synchronized @NonNull Map<String, LatencyHistogram> getQueueLatencies() {
+    Map<String, LatencyHistogram> snapshot = new HashMap<>(queueLatencies.size());
+
+    for (Map.Entry<String, LatencyHistogram> entry : queueLatencies.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().copy());
+    }
+
+    return snapshot;
+  }
+
+  private static @NonNull String getLatencyKey(@NonNull Job job) {
+    String queue = job.getParameters().getQueue();
+    return queue != null ? queue : "factory:" + job.getFactoryKey();
+  }
+
   private @NonNull JobInfo getOrCreateJobInfo(@NonNull Job job) {
     JobInfo jobInfo = jobInfos.get(job.getId());
 
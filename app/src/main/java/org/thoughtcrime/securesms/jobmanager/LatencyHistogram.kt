@@ -0,0 +1,65 @@
+package org.thoughtcrime.securesms.jobmanager
+
+/**
+ * A fixed-bucket histogram of latencies, in milliseconds. Cheap enough to update on every job run. Not thread safe.
+ */
+class LatencyHistogram private constructor(
+  private val counts: LongArray,
+  count: Long,
+  maxMs: Long
+) {
+
+  companion object {
+    /** Upper bounds (inclusive) of each bucket. Anything larger lands in a final overflow bucket. */
+    private val BUCKET_BOUNDS_MS = longArrayOf(10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000, 60_000)
+  }
+
+  constructor() : this(LongArray(BUCKET_BOUNDS_MS.size + 1), 0, 0)
+
+  var count: Long = count
+    private set
+
+  var maxMs: Long = maxMs
+    private set
+
+  fun record(latencyMs: Long) {
+    val value = latencyMs.coerceAtLeast(0)
+    var bucket = BUCKET_BOUNDS_MS.binarySearch(value)
+    if (bucket < 0) {
+      bucket = -bucket - 1
+    }
+
+    counts[bucket]++
+    count++
+    maxMs = maxOf(maxMs, value)
+  }
+
+  /**
+   * @return An upper bound on the given percentile (0-100), i.e. the top of the bucket it falls in. Overflow is reported as [maxMs].
+   */
+  fun percentile(percentile: Double): Long {
+    if (count == 0L) {
+      return 0
+    }
+
+    val target = Math.ceil(count * percentile / 100).toLong().coerceIn(1, count)
+    var seen = 0L
+
+    for (i in counts.indices) {
+      seen += counts[i]
+      if (seen >= target) {
+        return if (i < BUCKET_BOUNDS_MS.size) minOf(BUCKET_BOUNDS_MS[i], maxMs) else maxMs
+      }
+    }
+
+    return maxMs
+  }
+
+  fun copy(): LatencyHistogram {
+    return LatencyHistogram(counts.copyOf(), count, maxMs)
+  }
+
+  override fun toString(): String {
+    return "count: $count, p50: ${percentile(50.0)} ms, p90: ${percentile(90.0)} ms, p99: ${percentile(99.0)} ms, max: $maxMs ms"
+  }
+}
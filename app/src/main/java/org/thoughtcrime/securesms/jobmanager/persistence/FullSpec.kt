@@ -1,9 +1,14 @@
 package org.thoughtcrime.securesms.jobmanager.persistence
 
-data class FullSpec(
+/**
+ * @param isDurableCritical If true, the job must be written to disk before it's submitted, even when writes would otherwise be deferred.
+ *                          Not persisted, since it only matters at insert time.
+ */
+data class FullSpec @JvmOverloads constructor(
   val jobSpec: JobSpec,
   val constraintSpecs: List<ConstraintSpec>,
-  val dependencySpecs: List<DependencySpec>
+  val dependencySpecs: List<DependencySpec>,
+  val isDurableCritical: Boolean = false
 ) {
   val isMemoryOnly: Boolean
     get() = jobSpec.isMemoryOnly
@@ -20,9 +20,28 @@ interface JobStorage {
   @WorkerThread
   fun getNextEligibleJob(currentTime: Long, filter: (MinimalJobSpec) -> Boolean): JobSpec?
 
+  /**
+   * Like [getNextEligibleJob], but considers eligible jobs in the given [order] rather than the storage's own. Ties keep the storage's order.
+   */
+  @WorkerThread
+  fun getNextEligibleJob(currentTime: Long, filter: (MinimalJobSpec) -> Boolean, order: Comparator<MinimalJobSpec>): JobSpec?
+
+  /**
+   * Whether the job is still the next one eligible to run in its queue. [getNextEligibleJob] is allowed to return slightly stale results,
+   * so this should be checked before actually running a job.
+   */
+  @WorkerThread
+  fun isJobEligible(id: String, currentTime: Long): Boolean
+
   @WorkerThread
   fun getEligibleJobCount(currentTime: Long): Int
 
+  /**
+   * The jobs that are ready to run, not counting their constraints. Like [getEligibleJobCount], this only includes the next job of each queue.
+   */
+  @WorkerThread
+  fun getEligibleJobs(currentTime: Long): List<MinimalJobSpec>
+
   @WorkerThread
   fun getJobsInQueue(queue: String): List<JobSpec>
 
@@ -119,6 +119,11 @@ public final class AttachmentCompressionJob extends BaseJob {
     return KEY;
   }
 
+  @Override
+  public @NonNull Workload getWorkload() {
+    return Workload.CPU;
+  }
+
   @Override
   protected boolean shouldTrace() {
     return true;
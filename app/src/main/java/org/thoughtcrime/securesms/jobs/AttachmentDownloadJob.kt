@@ -15,6 +15,7 @@ import org.signal.libsignal.protocol.InvalidMacException
 import org.signal.libsignal.protocol.InvalidMessageException
 import org.thoughtcrime.securesms.attachments.Attachment
 import org.thoughtcrime.securesms.attachments.AttachmentId
+import org.thoughtcrime.securesms.attachments.AttachmentTransferScheduler
 import org.thoughtcrime.securesms.attachments.Cdn
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment
 import org.thoughtcrime.securesms.attachments.InvalidAttachmentException
@@ -46,6 +47,7 @@ import org.whispersystems.signalservice.api.push.exceptions.MissingConfiguration
 import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
 import org.whispersystems.signalservice.api.push.exceptions.RangeException
+import org.whispersystems.signalservice.internal.push.ChunkedCdnDownloader
 import java.io.File
 import java.io.IOException
 import java.util.Optional
@@ -69,6 +71,9 @@ class AttachmentDownloadJob private constructor(
     private const val KEY_ATTACHMENT_ID = "part_row_id"
     private const val KEY_FORCE_DOWNLOAD = "part_manual"
 
+    /** How long to wait for a download permit before checking again, in case we somehow miss being told it was granted. */
+    private val PERMIT_WAIT_FALLBACK = TimeUnit.MINUTES.toMillis(1)
+
     @JvmStatic
     fun constructQueueString(attachmentId: AttachmentId): String {
       return "AttachmentDownloadJob-" + attachmentId.id
@@ -214,12 +219,26 @@ class AttachmentDownloadJob private constructor(
       return
     }
 
+    // Waiting here would tie up a job runner, so if it isn't our turn yet we keep our place in line, and the scheduler wakes us when it is. This
+    // happens before anything is written, since every write to the attachment refreshes the conversation it's in.
+    val permit = if (attachment.cdn != Cdn.S3) {
+      val scheduler = AppDependencies.attachmentTransferScheduler
+      val jobId = id
+      scheduler.tryAcquire(attachmentId, messageId, attachment.cdn.name) { AppDependencies.jobManager.retryNow(jobId) }
+        ?: throw RetryLaterException(PERMIT_WAIT_FALLBACK)
+    } else {
+      null
+    }
+
     Log.i(TAG, "Downloading push part $attachmentId")
-    SignalDatabase.attachments.setTransferState(messageId, attachmentId, AttachmentTable.TRANSFER_PROGRESS_STARTED)
+    if (attachment.transferState != AttachmentTable.TRANSFER_PROGRESS_STARTED) {
+      SignalDatabase.attachments.setTransferState(messageId, attachmentId, AttachmentTable.TRANSFER_PROGRESS_STARTED)
+    }
 
-    when (attachment.cdn) {
-      Cdn.S3 -> retrieveAttachmentForReleaseChannel(messageId, attachmentId, attachment)
-      else -> retrieveAttachment(messageId, attachmentId, attachment)
+    if (permit != null) {
+      retrieveAttachment(messageId, attachmentId, attachment, permit)
+    } else {
+      retrieveAttachmentForReleaseChannel(messageId, attachmentId, attachment)
     }
 
     if (SignalStore.backup.backsUpMedia) {
@@ -261,14 +280,30 @@ class AttachmentDownloadJob private constructor(
   override fun onFailure() {
     Log.w(TAG, format(this, "onFailure() messageId: $messageId  attachmentId: $attachmentId  manual: $forceDownload"))
 
+    AppDependencies.attachmentTransferScheduler.release(attachmentId)
     markFailed(messageId, attachmentId)
   }
 
+  override fun onRetry() {
+    // We may have been granted a permit while we were still finishing up the run that asked for it, which is too early to be woken up
+    if (AppDependencies.attachmentTransferScheduler.isGranted(attachmentId)) {
+      AppDependencies.jobManager.retryNow(id)
+    }
+  }
+
   override fun onShouldRetry(exception: Exception): Boolean {
     return exception is PushNetworkException ||
       exception is RetryLaterException
   }
 
+  override fun getNextRunAttemptBackoff(pastAttemptCount: Int, exception: Exception): Long {
+    if (exception is RetryLaterException && exception.backoff >= 0) {
+      return exception.backoff
+    }
+
+    return super.getNextRunAttemptBackoff(pastAttemptCount, exception)
+  }
+
   /**
    * @return True if the digest changed as part of downloading, otherwise false.
    */
@@ -276,7 +311,8 @@ class AttachmentDownloadJob private constructor(
   private fun retrieveAttachment(
     messageId: Long,
     attachmentId: AttachmentId,
-    attachment: DatabaseAttachment
+    attachment: DatabaseAttachment,
+    permit: AttachmentTransferScheduler.Permit
   ) {
     val maxReceiveSize: Long = RemoteConfig.maxAttachmentReceiveSizeBytes
     val attachmentFile: File = SignalDatabase.attachments.getOrCreateTransferFile(attachmentId)
@@ -303,22 +339,26 @@ class AttachmentDownloadJob private constructor(
         throw InvalidAttachmentException("Attachment has no integrity check!")
       }
 
-      val decryptingStream = AppDependencies
-        .signalServiceMessageReceiver
-        .retrieveAttachment(
-          pointer,
-          attachmentFile,
-          maxReceiveSize,
-          IntegrityCheck.forEncryptedDigestAndPlaintextHash(attachment.remoteDigest, attachment.dataHash),
-          progressListener
-        )
+      val resumedFrom = attachmentFile.length()
+      val decryptingStream = permit.use {
+        AppDependencies
+          .signalServiceMessageReceiver
+          .retrieveAttachment(
+            pointer,
+            attachmentFile,
+            maxReceiveSize,
+            IntegrityCheck.forEncryptedDigestAndPlaintextHash(attachment.remoteDigest, attachment.dataHash),
+            progressListener
+          )
+          .also { permit.bytesTransferred = attachmentFile.length() - resumedFrom }
+      }
 
       decryptingStream.use { input ->
         SignalDatabase.attachments.finalizeAttachmentAfterDownload(messageId, attachmentId, input)
       }
     } catch (e: RangeException) {
       Log.w(TAG, "[$attachmentId] Range exception, file size " + attachmentFile.length(), e)
-      if (attachmentFile.delete()) {
+      if (ChunkedCdnDownloader.delete(attachmentFile)) {
         Log.i(TAG, "[$attachmentId] Deleted temp download file to recover")
         throw RetryLaterException(e)
       } else {
@@ -354,9 +394,12 @@ class AttachmentDownloadJob private constructor(
       Log.w(TAG, "[$attachmentId] Detected an invalid incremental mac. Clearing and marking as a temporary failure, requiring the user to manually try again.")
       SignalDatabase.attachments.clearIncrementalMacsForAttachmentAndAnyDuplicates(attachmentId, attachment.remoteKey, attachment.dataHash)
       markFailed(messageId, attachmentId)
+    } finally {
+      // In case we failed before getting as far as the network
+      permit.close()
     }
 
-    attachmentFile.delete()
+    ChunkedCdnDownloader.delete(attachmentFile)
   }
 
   @Throws(InvalidAttachmentException::class)
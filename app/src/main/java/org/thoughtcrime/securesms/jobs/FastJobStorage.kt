@@ -12,11 +12,27 @@ import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec
 import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec
 import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage
-import java.util.TreeSet
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentSkipListSet
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.function.Predicate
 
-class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
+/**
+ * An in-memory layer over [JobDatabase].
+ *
+ * All writes are synchronized, but [getNextEligibleJob] and [getEligibleJobCount] only take the lock for as long as it takes to turn
+ * the chosen job into a full [JobSpec]. Everything they read while searching is kept in concurrent collections, so many runners can
+ * search at once. The result may therefore be slightly stale, which is why callers should confirm a job with [isJobEligible] (under
+ * their own lock) before running it.
+ *
+ * If a [journal] is provided, writes are deferred and batched by it rather than written to [jobDatabase] immediately. Anything that
+ * reads from [jobDatabase] flushes the journal first, so reads always see our own writes.
+ */
+class FastJobStorage @JvmOverloads constructor(
+  private val jobDatabase: JobDatabase,
+  private val journal: JobWriteJournal? = null
+) : JobStorage {
 
   companion object {
     private val TAG = Log.tag(FastJobStorage::class)
@@ -34,23 +50,28 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   private val jobSpecCache: JobSpecCache = JobSpecCache(JOB_CACHE_LIMIT)
 
   /**
-   * We keep a set of constraints in memory, seeded by the same jobs in the [jobSpecCache]. It doesn't need to necessarily stay in sync with that cache, though.
-   * The most important property to maintain is that if there's an entry in the map for a given jobId, we need to ensure we have _all_ of the constraints for
-   * that job. Important for [getConstraintSpecs].
+   * We keep every constraint in memory, for the same reason as dependencies. Every candidate that [getNextEligibleJob] considers needs its
+   * constraints checked, so they're read without the lock, and a job with no entry has no constraints.
    */
-  private val constraintsByJobId: LRUCache<String, MutableList<ConstraintSpec>> = LRUCache(JOB_CACHE_LIMIT)
+  private val constraintsByJobId: MutableMap<String, List<ConstraintSpec>> = ConcurrentHashMap()
 
-  /** We keep every dependency in memory, since there aren't that many, and managing a limited subset would be very complicated. */
-  private val dependenciesByJobId: MutableMap<String, MutableList<DependencySpec>> = hashMapOf()
+  /**
+   * We keep every dependency in memory, since there aren't that many, and managing a limited subset would be very complicated.
+   * Read without the lock by [getNextEligibleJob], so the lists are copy-on-write.
+   */
+  private val dependenciesByJobId: MutableMap<String, MutableList<DependencySpec>> = ConcurrentHashMap()
 
-  /** The list of jobs eligible to be returned from [getNextEligibleJob], kept sorted in the appropriate order. */
-  private val eligibleJobs: TreeSet<MinimalJobSpec> = TreeSet(EligibleMinJobComparator)
+  /**
+   * The list of jobs eligible to be returned from [getNextEligibleJob], kept sorted in the appropriate order. This only ever holds the
+   * most eligible job of each queue (plus any jobs without a queue), so it's effectively an index sharded by queue. Read without the lock.
+   */
+  private val eligibleJobs: ConcurrentSkipListSet<MinimalJobSpec> = ConcurrentSkipListSet(EligibleMinJobComparator)
 
-  /** All migration-related jobs, kept in the appropriate order. */
-  private val migrationJobs: TreeSet<MinimalJobSpec> = TreeSet(compareBy { it.createTime })
+  /** All migration-related jobs, kept in the appropriate order. Read without the lock. */
+  private val migrationJobs: ConcurrentSkipListSet<MinimalJobSpec> = ConcurrentSkipListSet(compareBy { it.createTime })
 
   /** We need a fast way to know what the "most eligible job" is for a given queue. This serves as a lookup table that speeds up the maintenance of [eligibleJobs]. */
-  private val mostEligibleJobForQueue: MutableMap<String, MinimalJobSpec> = hashMapOf()
+  private val mostEligibleJobForQueue: MutableMap<String, MinimalJobSpec> = ConcurrentHashMap()
 
   /** Quick lookup of job counts per factory for all jobs */
   private val factoryCountIndex: MutableMap<String, AtomicInteger> = hashMapOf()
@@ -76,14 +97,13 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     }
     stopwatch.split("fetch-full-jobs")
 
-    for (constraintSpec in jobDatabase.getConstraintSpecsForJobs(jobSpecCache.keys)) {
-      val jobConstraints: MutableList<ConstraintSpec> = constraintsByJobId.getOrPut(constraintSpec.jobSpecId) { mutableListOf() }
-      jobConstraints += constraintSpec
+    for ((jobId, constraintSpecs) in jobDatabase.getAllConstraintSpecs().groupBy { it.jobSpecId }) {
+      constraintsByJobId[jobId] = constraintSpecs
     }
     stopwatch.split("fetch-constraints")
 
     for (dependencySpec in jobDatabase.getAllDependencySpecs().filterNot { it.hasCircularDependency() }) {
-      val jobDependencies: MutableList<DependencySpec> = dependenciesByJobId.getOrPut(dependencySpec.jobId) { mutableListOf() }
+      val jobDependencies: MutableList<DependencySpec> = dependenciesByJobId.getOrPut(dependencySpec.jobId) { CopyOnWriteArrayList() }
       jobDependencies += dependencySpec
     }
     stopwatch.split("fetch-dependencies")
@@ -97,7 +117,11 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     val durable: List<FullSpec> = fullSpecs.filterNot { it.isMemoryOnly }
 
     if (durable.isNotEmpty()) {
-      jobDatabase.insertJobs(durable)
+      if (journal != null) {
+        journal.insertJobs(durable)
+      } else {
+        jobDatabase.insertJobs(durable)
+      }
     }
     stopwatch?.split("db")
 
@@ -113,9 +137,11 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       }
       factoryCountIndex.getOrPut(minimalJobSpec.factoryKey) { AtomicInteger(0) }.incrementAndGet()
 
-      constraintsByJobId[fullSpec.jobSpec.id] = fullSpec.constraintSpecs.toMutableList()
+      if (fullSpec.constraintSpecs.isNotEmpty()) {
+        constraintsByJobId[fullSpec.jobSpec.id] = fullSpec.constraintSpecs.toList()
+      }
       if (fullSpec.dependencySpecs.isNotEmpty()) {
-        dependenciesByJobId[fullSpec.jobSpec.id] = fullSpec.dependencySpecs.toMutableList()
+        dependenciesByJobId[fullSpec.jobSpec.id] = CopyOnWriteArrayList(fullSpec.dependencySpecs)
       }
     }
     stopwatch?.split("cache")
@@ -129,42 +155,77 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun getAllMatchingFilter(predicate: Predicate<JobSpec>): List<JobSpec> {
+    journal?.flush()
     return jobDatabase.getAllMatchingFilter(predicate)
   }
 
-  @Synchronized
+  /**
+   * Searches for the next job without holding the lock. The lock is only taken to convert the chosen job into a full [JobSpec], at
+   * which point we make sure it hasn't been removed in the meantime, and search again if it has.
+   */
   override fun getNextEligibleJob(currentTime: Long, filter: (MinimalJobSpec) -> Boolean): JobSpec? {
+    return getNextEligibleJobInOrder(currentTime, filter, null)
+  }
+
+  override fun getNextEligibleJob(currentTime: Long, filter: (MinimalJobSpec) -> Boolean, order: Comparator<MinimalJobSpec>): JobSpec? {
+    return getNextEligibleJobInOrder(currentTime, filter, order)
+  }
+
+  private fun getNextEligibleJobInOrder(currentTime: Long, filter: (MinimalJobSpec) -> Boolean, order: Comparator<MinimalJobSpec>?): JobSpec? {
     val stopwatch = debugStopwatch("get-pending")
-    val migrationJob: MinimalJobSpec? = migrationJobs.firstOrNull()
 
-    return if (migrationJob != null && !migrationJob.isRunning && migrationJob.hasEligibleRunTime(currentTime)) {
-      migrationJob.toJobSpec()
-    } else if (migrationJob != null) {
-      null
-    } else {
-      eligibleJobs
-        .asSequence()
-        .filter { job ->
-          // Filter out all jobs with unmet dependencies
-          dependenciesByJobId[job.id].isNullOrEmpty()
+    while (true) {
+      val candidate: MinimalJobSpec = findNextEligibleJob(currentTime, filter, order) ?: break
+
+      synchronized(this) {
+        if (eligibleJobs.contains(candidate) || migrationJobs.firstOrNull()?.id == candidate.id) {
+          stopwatch?.stop(TAG)
+          return candidate.toJobSpec()
         }
-        .filterNot { it.isRunning }
-        .filter { job -> job.hasEligibleRunTime(currentTime) }
-        .firstOrNull(filter)
-        ?.toJobSpec()
-    }.also {
-      stopwatch?.stop(TAG)
+      }
     }
+
+    stopwatch?.stop(TAG)
+    return null
   }
 
   @Synchronized
+  override fun isJobEligible(id: String, currentTime: Long): Boolean {
+    val migrationJob: MinimalJobSpec? = migrationJobs.firstOrNull()
+
+    return if (migrationJob != null) {
+      migrationJob.id == id && !migrationJob.isRunning && migrationJob.hasEligibleRunTime(currentTime)
+    } else {
+      val job: MinimalJobSpec = eligibleJobs.firstOrNull { it.id == id } ?: return false
+      dependenciesByJobId[job.id].isNullOrEmpty() && !job.isRunning && job.hasEligibleRunTime(currentTime)
+    }
+  }
+
+  /**
+   * Like [getNextEligibleJob], this doesn't take the lock, so it's an estimate. Since [eligibleJobs] only holds the head of each queue,
+   * this is effectively the number of queues (plus queue-less jobs) that have work ready to run.
+   */
   override fun getEligibleJobCount(currentTime: Long): Int {
+    return eligibleCandidates(currentTime).count()
+  }
+
+  /**
+   * Like [getEligibleJobCount], this doesn't take the lock, so it's an estimate.
+   */
+  override fun getEligibleJobs(currentTime: Long): List<MinimalJobSpec> {
+    return eligibleCandidates(currentTime).toList()
+  }
+
+  /**
+   * The jobs that are ready to run, not counting constraints, in [eligibleJobs] order. If there's a migration job, nothing else is eligible.
+   */
+  private fun eligibleCandidates(currentTime: Long): Sequence<MinimalJobSpec> {
     val migrationJob: MinimalJobSpec? = migrationJobs.firstOrNull()
 
     return if (migrationJob != null && !migrationJob.isRunning && migrationJob.hasEligibleRunTime(currentTime)) {
-      1
+      sequenceOf(migrationJob)
     } else if (migrationJob != null) {
-      0
+      emptySequence()
     } else {
       eligibleJobs
         .asSequence()
@@ -174,7 +235,22 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
         }
         .filterNot { it.isRunning }
         .filter { job -> job.hasEligibleRunTime(currentTime) }
-        .count()
+    }
+  }
+
+  private fun findNextEligibleJob(currentTime: Long, filter: (MinimalJobSpec) -> Boolean, order: Comparator<MinimalJobSpec>?): MinimalJobSpec? {
+    if (migrationJobs.isNotEmpty()) {
+      // Migration jobs run before anything else, whichever runner asks
+      return eligibleCandidates(currentTime).firstOrNull()
+    }
+
+    val candidates = eligibleCandidates(currentTime)
+
+    // The filter is the expensive part, so order first and stop at the first job that passes it. The sort is stable, so ties keep storage order.
+    return if (order != null) {
+      candidates.sortedWith(order).firstOrNull(filter)
+    } else {
+      candidates.firstOrNull(filter)
     }
   }
 
@@ -211,7 +287,11 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   override fun markJobAsRunning(id: String, currentTime: Long) {
     val job: JobSpec? = getJobSpec(id)
     if (job == null || !job.isMemoryOnly) {
-      jobDatabase.markJobAsRunning(id, currentTime)
+      if (journal != null) {
+        journal.markJobAsRunning(id, currentTime)
+      } else {
+        jobDatabase.markJobAsRunning(id, currentTime)
+      }
       // Don't need to update jobSpecCache because all changed fields are in the min spec
     }
 
@@ -231,7 +311,11 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   override fun updateJobAfterRetry(id: String, currentTime: Long, runAttempt: Int, nextBackoffInterval: Long, serializedData: ByteArray?) {
     val job = getJobSpec(id)
     if (job == null || !job.isMemoryOnly) {
-      jobDatabase.updateJobAfterRetry(id, currentTime, runAttempt, nextBackoffInterval, serializedData)
+      if (journal != null) {
+        journal.updateJobAfterRetry(id, currentTime, runAttempt, nextBackoffInterval, serializedData)
+      } else {
+        jobDatabase.updateJobAfterRetry(id, currentTime, runAttempt, nextBackoffInterval, serializedData)
+      }
 
       // Note: Serialized data and run attempt are the only JobSpec-specific fields that need to be updated -- the rest are in MinimalJobSpec and will be
       //       updated below.
@@ -259,6 +343,7 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun updateAllJobsToBePending() {
+    journal?.flush()
     jobDatabase.updateAllJobsToBePending()
     // Don't need to update jobSpecCache because all changed fields are in the min spec
 
@@ -281,7 +366,11 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       }
 
     if (durable.isNotEmpty()) {
-      jobDatabase.updateJobs(durable)
+      if (journal != null) {
+        journal.updateJobs(durable)
+      } else {
+        jobDatabase.updateJobs(durable)
+      }
     }
 
     val updatesById: Map<String, MinimalJobSpec> = jobSpecs
@@ -300,6 +389,7 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun transformJobs(transformer: (JobSpec) -> JobSpec) {
+    journal?.flush()
     val updated = jobDatabase.transformJobs(transformer)
     for (update in updated) {
       jobSpecCache[update.id] = update
@@ -344,7 +434,11 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     val affectedQueues: Set<String> = jobsToDelete.mapNotNull { it.queueKey }.toSet()
 
     if (durableJobIdsToDelete.isNotEmpty()) {
-      jobDatabase.deleteJobs(durableJobIdsToDelete)
+      if (journal != null) {
+        journal.deleteJobs(durableJobIdsToDelete)
+      } else {
+        jobDatabase.deleteJobs(durableJobIdsToDelete)
+      }
     }
 
     val deleteIds: Set<String> = ids.toSet()
@@ -371,13 +465,7 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       dependenciesByJobId.remove(jobId)
 
       for (dependencyList in dependenciesByJobId.values) {
-        val iter = dependencyList.iterator()
-
-        while (iter.hasNext()) {
-          if (iter.next().dependsOnJobId == jobId) {
-            iter.remove()
-          }
-        }
+        dependencyList.removeIf { it.dependsOnJobId == jobId }
       }
     }
 
@@ -388,11 +476,8 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     }
   }
 
-  @Synchronized
   override fun getConstraintSpecs(jobId: String): List<ConstraintSpec> {
-    return constraintsByJobId.getOrPut(jobId) {
-      jobDatabase.getConstraintSpecsForJobs(listOf(jobId)).toMutableList()
-    }
+    return constraintsByJobId[jobId] ?: emptyList()
   }
 
   @Synchronized
@@ -414,11 +499,13 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
   @Synchronized
   override fun debugGetJobSpecs(limit: Int): List<JobSpec> {
+    journal?.flush()
     return jobDatabase.getJobSpecs(limit)
   }
 
   @Synchronized
   override fun debugGetConstraintSpecs(limit: Int): List<ConstraintSpec> {
+    journal?.flush()
     return jobDatabase.getConstraintSpecs(limit)
   }
 
@@ -607,6 +694,7 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       return cachedJob
     }
 
+    journal?.flush()
     val dbJob = jobDatabase.getJobSpec(this.id)
     if (dbJob != null) {
       jobSpecCache[dbJob.id] = dbJob
@@ -47,6 +47,8 @@ class GenerateAudioWaveFormJob private constructor(private val attachmentId: Att
 
   override fun getFactoryKey(): String = KEY
 
+  override fun getWorkload(): Workload = Workload.CPU
+
   override fun onRun() {
     val attachment: DatabaseAttachment? = SignalDatabase.attachments.getAttachment(attachmentId)
 
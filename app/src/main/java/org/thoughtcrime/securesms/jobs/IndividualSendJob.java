@@ -79,6 +79,7 @@ public class IndividualSendJob extends PushSendJob {
              .addConstraint(NetworkConstraint.KEY)
              .setLifespan(TimeUnit.DAYS.toMillis(1))
              .setMaxAttempts(Parameters.UNLIMITED)
+             .setDurableCritical(true)
              .build(),
          messageId);
   }
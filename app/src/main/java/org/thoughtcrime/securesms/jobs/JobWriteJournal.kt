@@ -0,0 +1,261 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.jobs
+
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.JobDatabase
+import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * A write-behind layer between [FastJobStorage] and [JobDatabase].
+ *
+ * Rather than hitting the database for every state change, changes are appended to an in-memory journal and written together in a
+ * single transaction. The journal is flushed:
+ * - Shortly after the first change that follows a flush (see [flushDelay]).
+ * - Whenever a [FullSpec.isDurableCritical] job is inserted, marked as running or deleted, before the call returns. The same goes for jobs the
+ *   journal didn't insert itself (e.g. ones loaded from a previous process), since it can't know whether they're safe to run twice.
+ * - Whenever [flush] is called, e.g. when the app is backgrounded, or before [FastJobStorage] needs to read from the database.
+ *
+ * Changes are coalesced where possible. Most importantly, changes to a job that hasn't been written yet are folded into its pending
+ * insert, and a job that's deleted before it was ever written is simply dropped, which means short-lived jobs never touch the disk.
+ *
+ * If the app dies with changes still in the journal, those changes are lost, and the database reflects the state as of the last flush.
+ * That means non-critical jobs submitted since the last flush are gone, and ones that finished since the last flush will be run again.
+ *
+ * If a flush fails, the journal keeps everything it was trying to write and tries again later.
+ */
+class JobWriteJournal @JvmOverloads constructor(
+  private val jobDatabase: JobDatabase,
+  private val flushDelay: Duration = DEFAULT_FLUSH_DELAY,
+  private val executor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { Thread(it, "signal-job-journal") }
+) {
+
+  companion object {
+    private val TAG = Log.tag(JobWriteJournal::class)
+
+    private val DEFAULT_FLUSH_DELAY = 1.seconds
+  }
+
+  private val entries: MutableList<Entry> = mutableListOf()
+
+  /** Lookup for the pending [Entry.Insert] of each job that hasn't been written yet. */
+  private val pendingInserts: MutableMap<String, Entry.Insert> = hashMapOf()
+
+  /** Jobs inserted through the journal that weren't [FullSpec.isDurableCritical], and so can be re-run if a change to them is lost. */
+  private val deferrableIds: MutableSet<String> = hashSetOf()
+
+  private var flushScheduled = false
+
+  /** The number of changes waiting to be written. */
+  val pendingCount: Int
+    @Synchronized get() = entries.sumOf { it.size }
+
+  @Synchronized
+  fun insertJobs(fullSpecs: List<FullSpec>) {
+    val insert = Entry.Insert(fullSpecs.associateByTo(LinkedHashMap()) { it.jobSpec.id })
+    entries += insert
+    fullSpecs.forEach { pendingInserts[it.jobSpec.id] = insert }
+    fullSpecs.filterNot { it.isDurableCritical }.forEach { deferrableIds += it.jobSpec.id }
+
+    if (fullSpecs.any { it.isDurableCritical }) {
+      flush()
+    } else {
+      scheduleFlush()
+    }
+  }
+
+  @Synchronized
+  fun markJobAsRunning(id: String, currentTime: Long) {
+    val foldedIntoInsert = updatePendingInsert(id) { it.copy(isRunning = true, lastRunAttemptTime = currentTime) }
+
+    if (!foldedIntoInsert) {
+      entries += Entry.MarkRunning(id, currentTime)
+    }
+
+    if (id !in deferrableIds) {
+      flush()
+    } else if (!foldedIntoInsert) {
+      scheduleFlush()
+    }
+  }
+
+  @Synchronized
+  fun updateJobAfterRetry(id: String, currentTime: Long, runAttempt: Int, nextBackoffInterval: Long, serializedData: ByteArray?) {
+    val foldedIntoInsert = updatePendingInsert(id) {
+      it.copy(
+        isRunning = false,
+        runAttempt = runAttempt,
+        lastRunAttemptTime = currentTime,
+        nextBackoffInterval = nextBackoffInterval,
+        serializedData = serializedData
+      )
+    }
+
+    if (!foldedIntoInsert) {
+      entries += Entry.UpdateAfterRetry(id, currentTime, runAttempt, nextBackoffInterval, serializedData)
+      scheduleFlush()
+    }
+  }
+
+  @Synchronized
+  fun updateJobs(jobSpecs: List<JobSpec>) {
+    val persisted: List<JobSpec> = jobSpecs.filterNot { jobSpec -> updatePendingInsert(jobSpec.id) { jobSpec } }
+
+    if (persisted.isNotEmpty()) {
+      entries += Entry.Update(persisted.toMutableList())
+      scheduleFlush()
+    }
+  }
+
+  @Synchronized
+  fun deleteJobs(ids: List<String>) {
+    val neverWritten: Set<String> = ids.filter { pendingInserts.containsKey(it) }.toSet()
+    val written: List<String> = ids.filterNot { neverWritten.contains(it) }
+    val deleted: Set<String> = ids.toSet()
+    val critical: Boolean = written.any { it !in deferrableIds }
+
+    deferrableIds -= deleted
+
+    for (id in neverWritten) {
+      pendingInserts.remove(id)?.fullSpecs?.remove(id)
+    }
+
+    // Anything we were going to write about these jobs is moot now
+    val iterator = entries.iterator()
+    while (iterator.hasNext()) {
+      val entry = iterator.next()
+
+      when (entry) {
+        is Entry.Insert -> {
+          // The database would have removed these dependencies along with the jobs they depend on, so we need to as well
+          entry.fullSpecs.replaceAll { _, fullSpec ->
+            if (fullSpec.dependencySpecs.any { deleted.contains(it.dependsOnJobId) }) {
+              fullSpec.copy(dependencySpecs = fullSpec.dependencySpecs.filterNot { deleted.contains(it.dependsOnJobId) })
+            } else {
+              fullSpec
+            }
+          }
+        }
+        is Entry.MarkRunning -> if (deleted.contains(entry.id)) iterator.remove()
+        is Entry.UpdateAfterRetry -> if (deleted.contains(entry.id)) iterator.remove()
+        is Entry.Update -> entry.jobSpecs.removeIf { deleted.contains(it.id) }
+        is Entry.Delete -> Unit
+      }
+
+      if (entry.size == 0) {
+        iterator.remove()
+      }
+    }
+
+    if (written.isNotEmpty()) {
+      entries += Entry.Delete(written)
+
+      if (critical) {
+        flush()
+      } else {
+        scheduleFlush()
+      }
+    }
+  }
+
+  /**
+   * Writes everything in the journal to the database in a single transaction. Safe to call at any time from any thread. If the transaction
+   * fails, the journal is left as it was and the exception is rethrown.
+   */
+  @Synchronized
+  fun flush() {
+    if (entries.isEmpty()) {
+      return
+    }
+
+    val pending: List<Entry> = entries.toList()
+    val startTime = System.currentTimeMillis()
+
+    jobDatabase.runInTransaction {
+      for (entry in pending) {
+        when (entry) {
+          is Entry.Insert -> jobDatabase.insertJobs(entry.fullSpecs.values.toList())
+          is Entry.MarkRunning -> jobDatabase.markJobAsRunning(entry.id, entry.currentTime)
+          is Entry.UpdateAfterRetry -> jobDatabase.updateJobAfterRetry(entry.id, entry.currentTime, entry.runAttempt, entry.nextBackoffInterval, entry.serializedData)
+          is Entry.Update -> jobDatabase.updateJobs(entry.jobSpecs)
+          is Entry.Delete -> jobDatabase.deleteJobs(entry.ids)
+        }
+      }
+    }
+
+    entries.clear()
+    pendingInserts.clear()
+
+    Log.d(TAG, "Flushed ${pending.size} entries in ${System.currentTimeMillis() - startTime} ms.")
+  }
+
+  /**
+   * Applies [transform] to the pending insert for the job, if it hasn't been written yet.
+   *
+   * @return True if the job had a pending insert, otherwise false.
+   */
+  private fun updatePendingInsert(id: String, transform: (JobSpec) -> JobSpec): Boolean {
+    val insert = pendingInserts[id] ?: return false
+    val fullSpec = insert.fullSpecs[id] ?: return false
+
+    insert.fullSpecs[id] = fullSpec.copy(jobSpec = transform(fullSpec.jobSpec))
+    return true
+  }
+
+  private fun scheduleFlush() {
+    if (flushScheduled) {
+      return
+    }
+
+    flushScheduled = true
+    executor.schedule(
+      Runnable {
+        synchronized(this) {
+          flushScheduled = false
+          try {
+            flush()
+          } catch (e: Exception) {
+            Log.w(TAG, "Failed to flush ${entries.size} entries. Trying again later.", e)
+            scheduleFlush()
+          }
+        }
+      },
+      flushDelay.inWholeMilliseconds,
+      TimeUnit.MILLISECONDS
+    )
+  }
+
+  private sealed interface Entry {
+    /** How many changes this entry represents. An entry with nothing left to write can be dropped. */
+    val size: Int
+
+    class Insert(val fullSpecs: LinkedHashMap<String, FullSpec>) : Entry {
+      override val size: Int get() = fullSpecs.size
+    }
+
+    class MarkRunning(val id: String, val currentTime: Long) : Entry {
+      override val size: Int = 1
+    }
+
+    class UpdateAfterRetry(val id: String, val currentTime: Long, val runAttempt: Int, val nextBackoffInterval: Long, val serializedData: ByteArray?) : Entry {
+      override val size: Int = 1
+    }
+
+    class Update(val jobSpecs: MutableList<JobSpec>) : Entry {
+      override val size: Int get() = jobSpecs.size
+    }
+
+    class Delete(val ids: List<String>) : Entry {
+      override val size: Int get() = ids.size
+    }
+  }
+}
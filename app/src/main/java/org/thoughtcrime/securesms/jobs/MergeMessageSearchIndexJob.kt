@@ -0,0 +1,72 @@
+package org.thoughtcrime.securesms.jobs
+
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.SignalDatabase
+import org.thoughtcrime.securesms.dependencies.AppDependencies
+import org.thoughtcrime.securesms.jobmanager.Job
+import org.thoughtcrime.securesms.jobmanager.impl.DataRestoreConstraint
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import org.thoughtcrime.securesms.transport.RetryLaterException
+import java.lang.Exception
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Incrementally merges the segments of the message search index, a little at a time. Each run is given a small time budget, and if there's
+ * still work left when it runs out, the job retries later to pick up where it left off.
+ *
+ * This only needs to run to completion once, after the index is rebuilt with prefix indexes. From then on, FTS automerge keeps up with new
+ * messages, so it isn't enqueued again once it's finished.
+ */
+class MergeMessageSearchIndexJob private constructor(parameters: Parameters) : BaseJob(parameters) {
+
+  companion object {
+    const val KEY = "MergeMessageSearchIndexJob"
+
+    private val TAG = Log.tag(MergeMessageSearchIndexJob::class.java)
+
+    private val TIME_BUDGET = 500.milliseconds
+
+    @JvmStatic
+    fun enqueueIfNecessary() {
+      if (!SignalStore.misc.hasMergedMessageSearchIndex) {
+        AppDependencies.jobManager.add(MergeMessageSearchIndexJob())
+      }
+    }
+  }
+
+  private constructor() : this(
+    Parameters.Builder()
+      .setQueue("MergeMessageSearchIndexJob")
+      .addConstraint(DataRestoreConstraint.KEY)
+      .setMaxAttempts(20)
+      .setMaxInstancesForQueue(1)
+      .build()
+  )
+
+  override fun serialize(): ByteArray? = null
+  override fun getFactoryKey() = KEY
+  override fun onFailure() = Unit
+  override fun onShouldRetry(e: Exception) = e is RetryLaterException
+  override fun getNextRunAttemptBackoff(pastAttemptCount: Int, exception: Exception): Long = 5.seconds.inWholeMilliseconds
+
+  override fun onRun() {
+    if (!SignalStore.registration.isRegistrationComplete || SignalStore.account.aci == null) {
+      Log.w(TAG, "Registration not finished yet! Skipping.")
+      return
+    }
+
+    val finished = SignalDatabase.messageSearch.mergeIndex(TIME_BUDGET.inWholeMilliseconds)
+
+    if (!finished) {
+      throw RetryLaterException()
+    }
+
+    Log.i(TAG, "Finished merging the search index.")
+    SignalStore.misc.hasMergedMessageSearchIndex = true
+  }
+
+  class Factory : Job.Factory<MergeMessageSearchIndexJob> {
+    override fun create(parameters: Parameters, serializedData: ByteArray?) = MergeMessageSearchIndexJob(parameters)
+  }
+}
@@ -97,6 +97,7 @@ public final class PushGroupSendJob extends PushSendJob {
              .addConstraint(NetworkConstraint.KEY)
              .setLifespan(TimeUnit.DAYS.toMillis(1))
              .setMaxAttempts(Parameters.UNLIMITED)
+             .setDurableCritical(true)
              .build(),
          messageId, filterRecipients);
 
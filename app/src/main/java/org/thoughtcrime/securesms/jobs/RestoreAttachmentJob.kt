@@ -59,6 +59,7 @@ import org.whispersystems.signalservice.api.push.exceptions.MissingConfiguration
 import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
 import org.whispersystems.signalservice.api.push.exceptions.RangeException
+import org.whispersystems.signalservice.internal.push.ChunkedCdnDownloader
 import java.io.File
 import java.io.IOException
 import java.util.concurrent.TimeUnit
@@ -424,7 +425,7 @@ class RestoreAttachmentJob private constructor(
       ArchiveRestoreProgress.onWriteToDiskEnd(attachmentId)
     } catch (e: RangeException) {
       Log.w(TAG, "[$attachmentId] Range exception, file size " + attachmentFile.length(), e)
-      if (attachmentFile.delete()) {
+      if (ChunkedCdnDownloader.delete(attachmentFile)) {
         Log.i(TAG, "Deleted temp download file to recover")
         throw RetryLaterException(e)
       } else {
@@ -493,7 +494,7 @@ class RestoreAttachmentJob private constructor(
       markFailed(attachmentId)
     }
 
-    attachmentFile.delete()
+    ChunkedCdnDownloader.delete(attachmentFile)
   }
 
   private fun markFailed(attachmentId: AttachmentId) {
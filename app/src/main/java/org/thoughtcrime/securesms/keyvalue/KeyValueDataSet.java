@@ -9,8 +9,27 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class KeyValueDataSet implements KeyValueReader {
-  private final Map<String, Object> values = new HashMap<>();
-  private final Map<String, Class>  types  = new HashMap<>();
+  private final Map<String, Object> values;
+  private final Map<String, Class>  types;
+
+  public KeyValueDataSet() {
+    this.values = new HashMap<>();
+    this.types  = new HashMap<>();
+  }
+
+  /**
+   * Creates a copy of the provided data set, sized so that it won't need to grow for a handful of
+   * additional entries.
+   */
+  KeyValueDataSet(@NonNull KeyValueDataSet other) {
+    int capacity = (int) ((other.values.size() + 16) / 0.75f) + 1;
+
+    this.values = new HashMap<>(capacity);
+    this.types  = new HashMap<>(capacity);
+
+    values.putAll(other.values);
+    types.putAll(other.types);
+  }
 
   public void putBlob(@NonNull String key, byte[] value) {
     values.put(key, value);
@@ -22,6 +22,10 @@ import java.util.concurrent.ExecutorService;
  *
  * Implemented as a write-through cache that is safe to read and write to on the main thread.
  *
+ * Reads never take a lock. The cache is an immutable {@link KeyValueDataSet} snapshot published
+ * through a volatile field, and writes build a new snapshot (copy-on-write) and swap it in. Writes
+ * are rare compared to reads, so paying for a copy there is worth keeping reads contention-free.
+ *
  * Writes are enqueued on a separate executor, but writes are finished up in
  * {@link SignalUncaughtExceptionHandler}, meaning all write should finish barring a native crash
  * or the system killing us unexpectedly (i.e. a force-stop).
@@ -33,7 +37,7 @@ public final class KeyValueStore implements KeyValueReader {
   private final ExecutorService           executor;
   private final KeyValuePersistentStorage storage;
 
-  private KeyValueDataSet dataSet;
+  private volatile KeyValueDataSet dataSet;
 
   public KeyValueStore(@NonNull KeyValuePersistentStorage storage) {
     this.executor = SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore", ThreadUtil.PRIORITY_BACKGROUND_THREAD);
@@ -42,51 +46,44 @@ public final class KeyValueStore implements KeyValueReader {
 
   @AnyThread
   @Override
-  public synchronized byte[] getBlob(@NonNull String key, byte[] defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBlob(key, defaultValue);
+  public byte[] getBlob(@NonNull String key, byte[] defaultValue) {
+    return snapshot().getBlob(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean getBoolean(@NonNull String key, boolean defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBoolean(key, defaultValue);
+  public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+    return snapshot().getBoolean(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized float getFloat(@NonNull String key, float defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getFloat(key, defaultValue);
+  public float getFloat(@NonNull String key, float defaultValue) {
+    return snapshot().getFloat(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized int getInteger(@NonNull String key, int defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getInteger(key, defaultValue);
+  public int getInteger(@NonNull String key, int defaultValue) {
+    return snapshot().getInteger(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized long getLong(@NonNull String key, long defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getLong(key, defaultValue);
+  public long getLong(@NonNull String key, long defaultValue) {
+    return snapshot().getLong(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized String getString(@NonNull String key, String defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getString(key, defaultValue);
+  public String getString(@NonNull String key, String defaultValue) {
+    return snapshot().getString(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean containsKey(@NonNull String key) {
-    initializeIfNecessary();
-    return dataSet.containsKey(key);
+  public boolean containsKey(@NonNull String key) {
+    return snapshot().containsKey(key);
   }
 
   /**
@@ -104,13 +101,8 @@ public final class KeyValueStore implements KeyValueReader {
    *         efficient to use the various get* methods instead.
    */
   @AnyThread
-  synchronized @NonNull KeyValueReader beginRead() {
-    initializeIfNecessary();
-
-    KeyValueDataSet copy = new KeyValueDataSet();
-    copy.putAll(dataSet);
-
-    return copy;
+  @NonNull KeyValueReader beginRead() {
+    return snapshot();
   }
 
   /**
@@ -140,13 +132,33 @@ public final class KeyValueStore implements KeyValueReader {
   private synchronized void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
     initializeIfNecessary();
 
-    dataSet.putAll(newDataSet);
-    dataSet.removeAll(removes);
+    KeyValueDataSet updated = new KeyValueDataSet(dataSet);
+    updated.putAll(newDataSet);
+    updated.removeAll(removes);
+
+    dataSet = updated;
 
     executor.execute(() -> storage.writeDataSet(newDataSet, removes));
   }
 
-  private void initializeIfNecessary() {
+  /**
+   * @return The current snapshot of the store. It must never be modified, since it's shared with
+   *         every other reader.
+   */
+  private @NonNull KeyValueDataSet snapshot() {
+    KeyValueDataSet snapshot = dataSet;
+
+    if (snapshot == null) {
+      synchronized (this) {
+        initializeIfNecessary();
+        snapshot = dataSet;
+      }
+    }
+
+    return snapshot;
+  }
+
+  private synchronized void initializeIfNecessary() {
     if (dataSet != null) return;
     this.dataSet = storage.getDataSet();
   }
@@ -46,6 +46,7 @@ class MiscellaneousValues internal constructor(store: KeyValueStore) : SignalSto
     private const val LAST_KEY_TRANSPARENCY_TIME = "misc.last_key_transparency_time"
     private const val HAS_KEY_TRANSPARENCY_FAILURE = "misc.has_key_transparency_failure"
     private const val HAS_SEEN_KEY_TRANSPARENCY_FAILURE = "misc.has_seen_key_transparency_failure"
+    private const val MESSAGE_SEARCH_INDEX_MERGED = "misc.message_search_index_merged"
   }
 
   public override fun onFirstEverAppLaunch() {
@@ -309,4 +310,9 @@ class MiscellaneousValues internal constructor(store: KeyValueStore) : SignalSto
    * Whether you have seen the dialog on key transparency failure
    */
   var hasSeenKeyTransparencyFailure: Boolean by booleanValue(HAS_SEEN_KEY_TRANSPARENCY_FAILURE, false)
+
+  /**
+   * Whether the message search index has been fully merged since it was rebuilt with prefix indexes.
+   */
+  var hasMergedMessageSearchIndex: Boolean by booleanValue(MESSAGE_SEARCH_INDEX_MERGED, false)
 }
@@ -4,35 +4,31 @@ import android.app.Application
 import android.os.Looper
 import org.signal.core.util.logging.Log
 import org.signal.core.util.logging.Scrubber
-import org.thoughtcrime.securesms.BuildConfig
 import org.thoughtcrime.securesms.database.LogDatabase
 import org.thoughtcrime.securesms.database.model.LogEntry
 import org.thoughtcrime.securesms.logging.PersistentLogger.LogRequest
 import org.thoughtcrime.securesms.logging.PersistentLogger.WriteThread
 import java.io.ByteArrayOutputStream
 import java.io.PrintStream
-import java.text.SimpleDateFormat
-import java.util.Date
-import java.util.Locale
 
 /**
- * A logger that will persist log entries in [LogDatabase].
+ * A logger that will persist log entries in [LogDatabase], which keeps them in a [SegmentedLogStore].
  *
  * We log everywhere, and we never want it to slow down the app, so performance is critical here.
  * This class takes special care to do as little as possible on the main thread, instead letting the background thread do the work.
  *
  * The process looks something like:
  * - Main thread creates a [LogRequest] object and puts it in a queue
- * - The [WriteThread] constantly pulls from that queue, formats the logs, and writes them to the database.
+ * - The [WriteThread] constantly pulls from that queue, scrubs the entries, and appends them to the store. They're only formatted when they're read back.
  */
 class PersistentLogger private constructor(application: Application) : Log.Logger() {
 
   companion object {
-    private const val LOG_V = "V"
-    private const val LOG_D = "D"
-    private const val LOG_I = "I"
-    private const val LOG_W = "W"
-    private const val LOG_E = "E"
+    private const val LOG_V = 'V'
+    private const val LOG_D = 'D'
+    private const val LOG_I = 'I'
+    private const val LOG_W = 'W'
+    private const val LOG_E = 'E'
 
     @Volatile
     private var instance: PersistentLogger? = null
@@ -85,7 +81,7 @@ class PersistentLogger private constructor(application: Application) : Log.Logge
     logEntries.blockForFlushed()
   }
 
-  private fun write(level: String, tag: String?, message: String?, t: Throwable?, keepLonger: Boolean) {
+  private fun write(level: Char, tag: String?, message: String?, t: Throwable?, keepLonger: Boolean) {
     logEntries.add(LogRequest(level, tag ?: "null", message, System.currentTimeMillis(), getThreadString(), t, keepLonger))
   }
 
@@ -106,7 +102,7 @@ class PersistentLogger private constructor(application: Application) : Log.Logge
   }
 
   private data class LogRequest(
-    val level: String,
+    val level: Char,
     val tag: String,
     val message: String?,
     val createTime: Long,
@@ -120,54 +116,39 @@ class PersistentLogger private constructor(application: Application) : Log.Logge
     private val db: LogDatabase
   ) : Thread("signal-logger") {
 
-    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
-
     override fun run() {
       var buffer = mutableListOf<LogRequest>()
+      val entries = mutableListOf<LogEntry>()
       while (true) {
         buffer = requests.blockForRequests(buffer)
-        db.logs.insert(buffer.asSequence().flatMap { requestToEntries(it) }, System.currentTimeMillis())
+        buffer.mapTo(entries) { requestToEntry(it) }
+        db.logs.insert(entries)
+        entries.clear()
         buffer.clear()
         requests.notifyFlushed()
       }
     }
 
-    fun requestToEntries(request: LogRequest): List<LogEntry> {
-      val out = mutableListOf<LogEntry>()
-
-      val createDate = Date(request.createTime)
-
-      out.add(
-        LogEntry(
-          createdAt = request.createTime,
-          keepLonger = request.keepLonger,
-          body = formatBody(request.threadString, createDate, request.level, request.tag, request.message)
-        )
-      )
-
-      if (request.throwable != null) {
+    /**
+     * Entries are scrubbed here, so nothing sensitive ever reaches disk. The rest of the formatting (dates, prefixes, etc.) is left for when the
+     * logs are read back, which is far less often than they're written.
+     */
+    fun requestToEntry(request: LogRequest): LogEntry {
+      val stackTrace = request.throwable?.let { throwable ->
         val outputStream = ByteArrayOutputStream()
-        request.throwable.printStackTrace(PrintStream(outputStream))
-
-        val trace = String(outputStream.toByteArray())
-        val lines = trace.split("\\n".toRegex()).toTypedArray()
-
-        val entries = lines.map { line ->
-          LogEntry(
-            createdAt = request.createTime,
-            keepLonger = request.keepLonger,
-            body = formatBody(request.threadString, createDate, request.level, request.tag, line)
-          )
-        }
-
-        out.addAll(entries)
+        throwable.printStackTrace(PrintStream(outputStream))
+        String(outputStream.toByteArray()).split("\n").joinToString("\n") { Scrubber.scrub(it) }
       }
 
-      return out
-    }
-
-    fun formatBody(threadString: String, date: Date, level: String, tag: String, message: String?): String {
-      return "[${BuildConfig.VERSION_NAME}] [$threadString] ${dateFormat.format(date)} $level $tag: ${Scrubber.scrub(message ?: "")}"
+      return LogEntry(
+        createdAt = request.createTime,
+        keepLonger = request.keepLonger,
+        level = request.level,
+        threadString = request.threadString,
+        tag = request.tag,
+        message = request.message?.let { Scrubber.scrub(it).toString() },
+        stackTrace = stackTrace
+      )
     }
   }
 
@@ -0,0 +1,599 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.logging
+
+import org.signal.core.util.Conversions
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.database.LogDatabase
+import org.thoughtcrime.securesms.database.model.LogEntry
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.CodingErrorAction
+import java.security.SecureRandom
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import javax.crypto.Cipher
+import javax.crypto.Mac
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * An append-only store for log lines, kept in two rings of fixed-size, memory-mapped segment files: one for regular logs and one for logs that
+ * should be kept longer.
+ *
+ * Compared to a row per line in a database:
+ * - Entries are written as compact binary records, and only formatted (date, prefix, etc.) when they're read back for a debug log. They're
+ *   expected to already be scrubbed by the time they're appended.
+ * - Appending is a copy into a mapped buffer, with no transaction.
+ * - Making room is done by deleting the oldest segment file of a ring, rather than searching for and deleting rows.
+ *
+ * Each segment starts with a plaintext header, followed by records that are encrypted with AES/CTR. Every segment has its own random, and
+ * its key is derived from that and the [secret], the same way attachment keys are.
+ */
+class SegmentedLogStore(
+  private val directory: File,
+  secret: ByteArray,
+  private val appVersion: String,
+  private val segmentSize: Int = DEFAULT_SEGMENT_SIZE,
+  defaultSegmentCount: Int = DEFAULT_SEGMENT_COUNT,
+  keepLongerSegmentCount: Int = KEEP_LONGER_SEGMENT_COUNT,
+  defaultLifespan: Long = LogDatabase.LogTable.DEFAULT_LIFESPAN,
+  keepLongerLifespan: Long = LogDatabase.LogTable.LONGER_LIFESPAN
+) {
+
+  companion object {
+    private val TAG = Log.tag(SegmentedLogStore::class.java)
+
+    const val DEFAULT_SEGMENT_SIZE = 1024 * 1024
+
+    /** Together these add up to [LogDatabase.LogTable.MAX_FILE_SIZE] with the default segment size. */
+    const val DEFAULT_SEGMENT_COUNT = 16
+    const val KEEP_LONGER_SEGMENT_COUNT = 4
+
+    /** Used as the level of entries that were already formatted before being stored, such as the ones we migrated out of the database. */
+    const val LEVEL_PREFORMATTED = '\u0000'
+
+    private const val SEGMENT_SUFFIX = ".seg"
+
+    private const val MAGIC = 0x534C4F47 // SLOG
+    private const val FORMAT_VERSION: Byte = 1
+
+    private const val HEADER_SIZE = 128
+    private const val RANDOM_SIZE = 32
+    private const val OFFSET_MAGIC = 0
+    private const val OFFSET_FORMAT_VERSION = 4
+    private const val OFFSET_RANDOM = 8
+    private const val OFFSET_DATA_END = 40
+    private const val OFFSET_FIRST_TIMESTAMP = 44
+    private const val OFFSET_LAST_TIMESTAMP = 52
+    private const val OFFSET_APP_VERSION = 60
+    private const val MAX_APP_VERSION_BYTES = 64
+
+    /** createdAt + level + the length prefixes of thread, tag, message and stack trace. */
+    private const val RECORD_FIXED_SIZE = 8 + 1 + 2 + 2 + 4 + 4
+    private const val MAX_SHORT_FIELD_CHARS = 1024
+  }
+
+  private val masterKey: ByteArray = hmac(secret, "SegmentedLogStore".toByteArray())
+  private val regularRing = Ring("log", defaultSegmentCount, defaultLifespan)
+  private val keepLongerRing = Ring("keep", keepLongerSegmentCount, keepLongerLifespan)
+
+  /** The most a single message or stack trace can take up, chosen so that a record always fits in an empty segment. */
+  private val maxLongFieldChars = (segmentSize - HEADER_SIZE - 4 - RECORD_FIXED_SIZE - 3 * 2 * MAX_SHORT_FIELD_CHARS) / 3 / 2
+
+  private val encoder = Charsets.UTF_8.newEncoder()
+    .onMalformedInput(CodingErrorAction.REPLACE)
+    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+
+  private var scratch: ByteBuffer = ByteBuffer.allocate(16 * 1024)
+
+  init {
+    require(maxLongFieldChars > 0) { "Segments are too small!" }
+    directory.mkdirs()
+  }
+
+  /**
+   * Appends the entries, which are expected to be in the order they were logged.
+   */
+  @Synchronized
+  fun append(entries: Iterable<LogEntry>) {
+    for (entry in entries) {
+      val record = encode(entry)
+      val ring = if (entry.keepLonger) keepLongerRing else regularRing
+
+      try {
+        ring.write(record, entry.createdAt)
+      } catch (e: IOException) {
+        // There's nowhere to log this to, but there's also no reason to crash the logger. Drop the segment and start over.
+        ring.reset()
+      }
+    }
+  }
+
+  /**
+   * Reads every line logged before [time], oldest first, formatted the same way they were when logs were kept in the database. Lines that
+   * should be kept longer are prefixed with [LogDatabase.LogTable.KEEP_LONGER_MARKER].
+   */
+  fun read(time: Long, currentTime: Long = System.currentTimeMillis()): LogDatabase.LogTable.Reader {
+    val segments: Pair<List<File>, List<File>> = synchronized(this) {
+      regularRing.files() to keepLongerRing.files()
+    }
+
+    return MergingReader(
+      RingIterator(segments.first, minTime = currentTime - regularRing.lifespan, beforeTime = time, keepLonger = false),
+      RingIterator(segments.second, minTime = currentTime - keepLongerRing.lifespan, beforeTime = time, keepLonger = true)
+    )
+  }
+
+  /**
+   * Deletes segments whose newest entry has outlived its ring's lifespan. Space is otherwise reclaimed as we go, so there's nothing else to do.
+   */
+  @Synchronized
+  fun trim(currentTime: Long = System.currentTimeMillis()) {
+    regularRing.deleteExpired(currentTime)
+    keepLongerRing.deleteExpired(currentTime)
+  }
+
+  @Synchronized
+  fun clearKeepLonger() {
+    keepLongerRing.deleteAll()
+  }
+
+  @Synchronized
+  fun clearAll() {
+    regularRing.deleteAll()
+    keepLongerRing.deleteAll()
+  }
+
+  private fun encode(entry: LogEntry): ByteBuffer {
+    val thread = entry.threadString.truncate(MAX_SHORT_FIELD_CHARS)
+    val tag = entry.tag.truncate(MAX_SHORT_FIELD_CHARS)
+    val message = entry.message.orEmpty().truncate(maxLongFieldChars)
+    val stackTrace = entry.stackTrace.orEmpty().truncate(maxLongFieldChars)
+
+    val worstCase = 4 + RECORD_FIXED_SIZE + 3 * (thread.length + tag.length + message.length + stackTrace.length)
+    if (scratch.capacity() < worstCase) {
+      scratch = ByteBuffer.allocate(Integer.highestOneBit(worstCase) shl 1)
+    }
+
+    scratch.clear()
+    scratch.position(4)
+    scratch.putLong(entry.createdAt)
+    scratch.put(entry.level.code.toByte())
+    putString(thread, lengthBytes = 2)
+    putString(tag, lengthBytes = 2)
+    putString(message, lengthBytes = 4)
+    putString(stackTrace, lengthBytes = 4)
+    scratch.putInt(0, scratch.position() - 4)
+    scratch.flip()
+
+    return scratch
+  }
+
+  private fun putString(value: String, lengthBytes: Int) {
+    val lengthPosition = scratch.position()
+    scratch.position(lengthPosition + lengthBytes)
+
+    if (value.isNotEmpty()) {
+      encoder.reset()
+      encoder.encode(CharBuffer.wrap(value), scratch, true)
+      encoder.flush(scratch)
+    }
+
+    val length = scratch.position() - lengthPosition - lengthBytes
+    if (lengthBytes == 2) {
+      scratch.putShort(lengthPosition, length.toShort())
+    } else {
+      scratch.putInt(lengthPosition, length)
+    }
+  }
+
+  private fun String.truncate(maxChars: Int): String {
+    return if (length > maxChars) substring(0, maxChars) else this
+  }
+
+  private fun segmentKey(random: ByteArray): SecretKeySpec {
+    return SecretKeySpec(hmac(masterKey, random), "AES")
+  }
+
+  /**
+   * A cipher positioned at [dataOffset] bytes into a segment's data.
+   */
+  private fun segmentCipher(mode: Int, random: ByteArray, dataOffset: Int): Cipher {
+    val iv = ByteArray(16)
+    Conversions.longTo4ByteArray(iv, 12, dataOffset / 16L)
+
+    val cipher = Cipher.getInstance("AES/CTR/NoPadding")
+    cipher.init(mode, segmentKey(random), IvParameterSpec(iv))
+
+    val remainder = dataOffset % 16
+    if (remainder > 0) {
+      cipher.update(ByteArray(remainder))
+    }
+
+    return cipher
+  }
+
+  private fun hmac(key: ByteArray, data: ByteArray): ByteArray {
+    val mac = Mac.getInstance("HmacSHA256")
+    mac.init(SecretKeySpec(key, "HmacSHA256"))
+    return mac.doFinal(data)
+  }
+
+  /**
+   * One ring of segments. Files are named by prefix and an increasing sequence number, so their names sort oldest first.
+   */
+  private inner class Ring(
+    private val prefix: String,
+    private val maxSegments: Int,
+    val lifespan: Long
+  ) {
+    private var active: ActiveSegment? = null
+    private var nextSequence = -1L
+
+    fun files(): List<File> {
+      return directory
+        .listFiles { file -> file.name.startsWith("$prefix-") && file.name.endsWith(SEGMENT_SUFFIX) }
+        .orEmpty()
+        .sortedBy { it.sequence() }
+    }
+
+    fun write(record: ByteBuffer, createdAt: Long) {
+      var segment = active ?: openLatestOrCreate()
+
+      if (segment.remaining() < record.remaining()) {
+        segment.close()
+        segment = createSegment()
+      }
+
+      segment.append(record, createdAt)
+    }
+
+    fun deleteExpired(currentTime: Long) {
+      val cutoff = currentTime - lifespan
+
+      for (file in files()) {
+        if (file == active?.file) {
+          break
+        }
+
+        if (readHeader(file)?.let { it.lastTimestamp < cutoff } != false) {
+          file.delete()
+        } else {
+          break
+        }
+      }
+    }
+
+    fun deleteAll() {
+      active?.close()
+      active = null
+      files().forEach { it.delete() }
+    }
+
+    fun reset() {
+      active?.let {
+        it.close()
+        it.file.delete()
+      }
+      active = null
+    }
+
+    /**
+     * Picks up where we left off in the newest segment, as long as it was written by this version of the app.
+     */
+    private fun openLatestOrCreate(): ActiveSegment {
+      val latest = files().lastOrNull()
+      val header = latest?.let { readHeader(it) }
+
+      if (latest != null && header != null && header.appVersion == appVersion && latest.length() == segmentSize.toLong()) {
+        try {
+          return ActiveSegment(latest, header.random, header.dataEnd, header.firstTimestamp).also { active = it }
+        } catch (e: IOException) {
+          Log.w(TAG, "Failed to reopen ${latest.name}, starting a new segment.", e)
+        }
+      }
+
+      return createSegment()
+    }
+
+    private fun createSegment(): ActiveSegment {
+      if (nextSequence < 0) {
+        nextSequence = (files().lastOrNull()?.sequence() ?: 0L) + 1
+      }
+
+      val file = File(directory, "$prefix-${nextSequence.toString().padStart(10, '0')}$SEGMENT_SUFFIX")
+      nextSequence++
+
+      val random = ByteArray(RANDOM_SIZE).also { SecureRandom().nextBytes(it) }
+      val segment = ActiveSegment(file, random, HEADER_SIZE, 0L, isNew = true)
+      active = segment
+
+      val existing = files()
+      if (existing.size > maxSegments) {
+        existing.take(existing.size - maxSegments).forEach { it.delete() }
+      }
+
+      return segment
+    }
+
+    private fun File.sequence(): Long {
+      return name.substring(prefix.length + 1, name.length - SEGMENT_SUFFIX.length).toLongOrNull() ?: 0L
+    }
+  }
+
+  /**
+   * The segment currently being written to, mapped into memory in its entirety.
+   */
+  private inner class ActiveSegment(
+    val file: File,
+    random: ByteArray,
+    private var dataEnd: Int,
+    private var firstTimestamp: Long,
+    isNew: Boolean = false
+  ) {
+    private val channel: FileChannel
+    private val buffer: MappedByteBuffer
+    private val cipher: Cipher
+
+    init {
+      val randomAccessFile = RandomAccessFile(file, "rw")
+      try {
+        randomAccessFile.setLength(segmentSize.toLong())
+        channel = randomAccessFile.channel
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize.toLong())
+      } catch (e: IOException) {
+        randomAccessFile.close()
+        throw e
+      }
+
+      if (isNew) {
+        val version = appVersion.toByteArray().let { it.copyOf(minOf(it.size, MAX_APP_VERSION_BYTES)) }
+
+        buffer.putInt(OFFSET_MAGIC, MAGIC)
+        buffer.put(OFFSET_FORMAT_VERSION, FORMAT_VERSION)
+        buffer.position(OFFSET_RANDOM)
+        buffer.put(random)
+        buffer.putLong(OFFSET_FIRST_TIMESTAMP, 0)
+        buffer.putLong(OFFSET_LAST_TIMESTAMP, 0)
+        buffer.put(OFFSET_APP_VERSION, version.size.toByte())
+        buffer.position(OFFSET_APP_VERSION + 1)
+        buffer.put(version)
+        buffer.putInt(OFFSET_DATA_END, dataEnd)
+      }
+
+      cipher = segmentCipher(Cipher.ENCRYPT_MODE, random, dataEnd - HEADER_SIZE)
+    }
+
+    fun remaining(): Int = segmentSize - dataEnd
+
+    fun append(record: ByteBuffer, createdAt: Long) {
+      buffer.limit(dataEnd + record.remaining())
+      buffer.position(dataEnd)
+      cipher.update(record, buffer)
+      buffer.limit(buffer.capacity())
+
+      dataEnd = buffer.position()
+
+      if (firstTimestamp == 0L) {
+        firstTimestamp = createdAt
+        buffer.putLong(OFFSET_FIRST_TIMESTAMP, createdAt)
+      }
+      buffer.putLong(OFFSET_LAST_TIMESTAMP, createdAt)
+
+      // Only published once the record is completely written, so readers never see part of one
+      buffer.putInt(OFFSET_DATA_END, dataEnd)
+    }
+
+    fun close() {
+      try {
+        buffer.force()
+        channel.close()
+      } catch (e: IOException) {
+        Log.w(TAG, "Failed to close ${file.name}", e)
+      }
+    }
+  }
+
+  private class SegmentHeader(
+    val random: ByteArray,
+    val dataEnd: Int,
+    val firstTimestamp: Long,
+    val lastTimestamp: Long,
+    val appVersion: String
+  )
+
+  private fun readHeader(file: File): SegmentHeader? {
+    return try {
+      RandomAccessFile(file, "r").use { randomAccessFile ->
+        if (randomAccessFile.length() < HEADER_SIZE) {
+          return null
+        }
+
+        val header = ByteArray(HEADER_SIZE)
+        randomAccessFile.readFully(header)
+
+        val buffer = ByteBuffer.wrap(header)
+        if (buffer.getInt(OFFSET_MAGIC) != MAGIC || buffer.get(OFFSET_FORMAT_VERSION) != FORMAT_VERSION) {
+          return null
+        }
+
+        val appVersionLength = (buffer.get(OFFSET_APP_VERSION).toInt() and 0xFF).coerceAtMost(MAX_APP_VERSION_BYTES)
+
+        SegmentHeader(
+          random = header.copyOfRange(OFFSET_RANDOM, OFFSET_RANDOM + RANDOM_SIZE),
+          dataEnd = buffer.getInt(OFFSET_DATA_END).coerceIn(HEADER_SIZE, randomAccessFile.length().toInt()),
+          firstTimestamp = buffer.getLong(OFFSET_FIRST_TIMESTAMP),
+          lastTimestamp = buffer.getLong(OFFSET_LAST_TIMESTAMP),
+          appVersion = String(header, OFFSET_APP_VERSION + 1, appVersionLength)
+        )
+      }
+    } catch (e: IOException) {
+      null
+    }
+  }
+
+  /**
+   * A decoded record. Nothing is formatted until [lines] is called.
+   */
+  private class Record(
+    val createdAt: Long,
+    val level: Char,
+    val thread: String,
+    val tag: String,
+    val message: String,
+    val stackTrace: String,
+    val appVersion: String,
+    val keepLonger: Boolean
+  ) {
+    fun lines(dateFormat: SimpleDateFormat): List<String> {
+      val marker = if (keepLonger) LogDatabase.LogTable.KEEP_LONGER_MARKER else ""
+
+      if (level == LEVEL_PREFORMATTED) {
+        return listOf(marker + message)
+      }
+
+      val prefix = "$marker[$appVersion] [$thread] ${dateFormat.format(Date(createdAt))} $level $tag: "
+      val lines = mutableListOf(prefix + message)
+
+      if (stackTrace.isNotEmpty()) {
+        stackTrace.split("\n").mapTo(lines) { prefix + it }
+      }
+
+      return lines
+    }
+  }
+
+  /**
+   * Walks the records of one ring, oldest first, decrypting one segment at a time.
+   */
+  private inner class RingIterator(
+    files: List<File>,
+    private val minTime: Long,
+    private val beforeTime: Long,
+    private val keepLonger: Boolean
+  ) {
+    private val remainingFiles = ArrayDeque(files)
+    private var data: ByteBuffer? = null
+    private var appVersion = ""
+    private var next: Record? = null
+
+    fun peek(): Record? {
+      while (next == null) {
+        val record = readRecord() ?: return null
+        if (record.createdAt >= minTime && record.createdAt < beforeTime) {
+          next = record
+        }
+      }
+      return next
+    }
+
+    fun take(): Record? {
+      return peek().also { next = null }
+    }
+
+    private fun readRecord(): Record? {
+      while (true) {
+        val buffer = data
+        if (buffer != null && buffer.remaining() >= 4) {
+          val length = buffer.int
+          if (length >= RECORD_FIXED_SIZE && length <= buffer.remaining()) {
+            val end = buffer.position() + length
+            val record = Record(
+              createdAt = buffer.long,
+              level = (buffer.get().toInt() and 0xFF).toChar(),
+              thread = buffer.getString(buffer.short.toInt() and 0xFFFF),
+              tag = buffer.getString(buffer.short.toInt() and 0xFFFF),
+              message = buffer.getString(buffer.int),
+              stackTrace = buffer.getString(buffer.int),
+              appVersion = appVersion,
+              keepLonger = keepLonger
+            )
+            buffer.position(end)
+            return record
+          }
+        }
+
+        val file = remainingFiles.removeFirstOrNull() ?: return null
+        data = readSegment(file)
+      }
+    }
+
+    private fun readSegment(file: File): ByteBuffer? {
+      val header = readHeader(file) ?: return null
+
+      return try {
+        val encrypted = ByteArray(header.dataEnd - HEADER_SIZE)
+        RandomAccessFile(file, "r").use {
+          it.seek(HEADER_SIZE.toLong())
+          it.readFully(encrypted)
+        }
+
+        appVersion = header.appVersion
+        ByteBuffer.wrap(segmentCipher(Cipher.DECRYPT_MODE, header.random, 0).update(encrypted) ?: ByteArray(0))
+      } catch (e: IOException) {
+        // Most likely rotated out from under us
+        null
+      }
+    }
+
+    private fun ByteBuffer.getString(length: Int): String {
+      if (length <= 0) {
+        return ""
+      }
+
+      val value = String(array(), arrayOffset() + position(), length, Charsets.UTF_8)
+      position(position() + length)
+      return value
+    }
+  }
+
+  /**
+   * Interleaves the two rings by time, and expands each record into its formatted lines.
+   */
+  private class MergingReader(
+    private val regular: RingIterator,
+    private val keepLonger: RingIterator
+  ) : LogDatabase.LogTable.Reader {
+
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
+    private val pending = ArrayDeque<String>()
+
+    override fun hasNext(): Boolean {
+      while (pending.isEmpty()) {
+        val a = regular.peek()
+        val b = keepLonger.peek()
+
+        val record = when {
+          a == null && b == null -> return false
+          b == null -> regular.take()
+          a == null -> keepLonger.take()
+          a.createdAt <= b.createdAt -> regular.take()
+          else -> keepLonger.take()
+        }
+
+        pending.addAll(record!!.lines(dateFormat))
+      }
+
+      return true
+    }
+
+    override fun next(): String {
+      if (!hasNext()) {
+        throw NoSuchElementException()
+      }
+      return pending.removeFirst()
+    }
+
+    override fun close() = Unit
+  }
+}
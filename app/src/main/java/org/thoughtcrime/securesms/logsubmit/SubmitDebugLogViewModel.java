@@ -70,7 +70,7 @@ public class SubmitDebugLogViewModel extends ViewModel {
 
             List<String> currentChunk = new ArrayList<>();
 
-            try (LogDatabase.LogTable.CursorReader logReader = (LogDatabase.LogTable.CursorReader) LogDatabase.getInstance(AppDependencies.getApplication()).logs().getAllBeforeTime(firstViewTime)) {
+            try (LogDatabase.LogTable.Reader logReader = LogDatabase.getInstance(AppDependencies.getApplication()).logs().getAllBeforeTime(firstViewTime)) {
               stopwatch.split("initial-query");
 
               int count = 0;
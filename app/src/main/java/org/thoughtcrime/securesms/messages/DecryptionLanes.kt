@@ -0,0 +1,181 @@
+package org.thoughtcrime.securesms.messages
+
+import org.signal.core.models.ServiceId
+import org.signal.core.models.ServiceId.ACI
+import org.signal.core.util.ThreadUtil
+import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.logging.Log
+import org.signal.libsignal.protocol.SignalProtocolAddress
+import org.thoughtcrime.securesms.keyvalue.SignalStore
+import org.thoughtcrime.securesms.messages.protocol.BufferedProtocolStore
+import org.thoughtcrime.securesms.util.SignalLocalMetrics
+import org.whispersystems.signalservice.api.SignalSessionLock
+import org.whispersystems.signalservice.api.crypto.SignalServiceCipherResult
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+import org.whispersystems.signalservice.internal.push.Envelope
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Decrypts the envelopes in a batch that only touch their sender's session across multiple threads, ahead of the regular,
+ * serial processing of the batch.
+ *
+ * Only identified 1:1 envelopes ([Envelope.Type.CIPHERTEXT] with a visible sender) are eligible, since decrypting them touches
+ * nothing but that sender's session and identity. Everything else, including sealed sender, sender key and prekey messages,
+ * which can touch shared state like one-time prekeys and sender keys, is left to be decrypted serially as normal.
+ *
+ * We can't tell who sent a sealed sender envelope until it's been unsealed, so it could be from anyone, including a sender whose
+ * identified envelopes are in a lane. The serial path is effectively the single, ordered lane for all of them, so any envelope
+ * that comes after the first one whose sender we can't see is left to the serial path as well. Otherwise a lane could advance
+ * a session ahead of an earlier sealed sender envelope on that same session.
+ *
+ * Eligible envelopes are hashed by their sender address into one of [laneCount] lanes. Each lane has its own session lock and
+ * its own [BufferedProtocolStore], and decrypts its envelopes in the order they were received, so ordering for any given sender
+ * is preserved. If an envelope fails to decrypt, nothing more from that sender is decrypted ahead of time, and all of that
+ * sender's remaining envelopes are left for the serial path, which will also handle the failure as it normally would.
+ *
+ * Once every lane is done, anything the lanes buffered is moved into the caller's store, so that the serial path sees the
+ * updated sessions. Nothing is written to disk here. That only happens when the caller flushes its store, which keeps the
+ * whole batch atomic.
+ */
+class DecryptionLanes(private val laneCount: Int) {
+
+  companion object {
+    private val TAG = Log.tag(DecryptionLanes::class.java)
+  }
+
+  private val executor: ExecutorService = SignalExecutors.newCachedBoundedExecutor("signal-decrypt-lane", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD, 0, laneCount, 30)
+
+  private val lanes: List<Lane> = List(laneCount) { Lane(it) }
+
+  /**
+   * Decrypts every eligible envelope in the batch. Any buffered protocol state is moved into [bufferedProtocolStore].
+   *
+   * The caller must hold the global session lock for the duration of the batch, so that nothing outside of the lanes can
+   * modify sessions while they're decrypting.
+   *
+   * @return The decrypted results for any envelopes that were successfully decrypted, to be passed to [MessageDecryptor.decrypt].
+   */
+  fun decrypt(batch: List<EnvelopeResponse>, bufferedProtocolStore: BufferedProtocolStore): Map<EnvelopeResponse, SignalServiceCipherResult> {
+    val selfAci: ACI = SignalStore.account.requireAci()
+    val addressesWithIneligibleEnvelopes: Set<SignalProtocolAddress> = batch
+      .filter { it.envelope.type != Envelope.Type.CIPHERTEXT }
+      .mapNotNull { it.envelope.sourceAddress() }
+      .toSet()
+
+    val firstHiddenSender: Int = batch.indexOfFirst { it.envelope.sourceAddress() == null }
+    val beforeHiddenSenders: List<EnvelopeResponse> = if (firstHiddenSender >= 0) batch.subList(0, firstHiddenSender) else batch
+
+    val envelopesByLane: Map<Int, List<EnvelopeResponse>> = beforeHiddenSenders
+      .filter { it.isEligible(selfAci, addressesWithIneligibleEnvelopes) }
+      .groupBy { it.envelope.sourceAddress()!!.laneIndex() }
+
+    if (envelopesByLane.isEmpty()) {
+      return emptyMap()
+    }
+
+    val startTime = System.currentTimeMillis()
+    val futures: List<Pair<Lane, Future<LaneResult>>> = envelopesByLane.map { (laneIndex, envelopes) ->
+      val lane = lanes[laneIndex]
+      val laneStore = BufferedProtocolStore.create()
+      lane to executor.submit<LaneResult> { lane.decrypt(laneStore, envelopes) }
+    }
+
+    val results: MutableMap<EnvelopeResponse, SignalServiceCipherResult> = mutableMapOf()
+    var busyTime = 0L
+
+    for ((lane, future) in futures) {
+      val laneResult: LaneResult = try {
+        future.get()
+      } catch (e: ExecutionException) {
+        Log.w(TAG, "Lane ${lane.index} failed! Leaving its envelopes to be decrypted serially.", e)
+        continue
+      }
+
+      laneResult.store.flushTo(bufferedProtocolStore)
+      results += laneResult.results
+      busyTime += laneResult.duration
+    }
+
+    val duration = System.currentTimeMillis() - startTime
+    val eligibleCount = envelopesByLane.values.sumOf { it.size }
+    Log.d(TAG, "Decrypted ${results.size}/$eligibleCount eligible envelopes (out of ${batch.size}) across ${envelopesByLane.size}/$laneCount lanes in $duration ms.")
+    SignalLocalMetrics.DecryptionLanes.onBatchDecrypted(laneCount, envelopesByLane.size, busyTime, duration, results.size, batch.size - results.size)
+
+    return results
+  }
+
+  private fun EnvelopeResponse.isEligible(selfAci: ACI, addressesWithIneligibleEnvelopes: Set<SignalProtocolAddress>): Boolean {
+    if (envelope.type != Envelope.Type.CIPHERTEXT || envelope.content == null) {
+      return false
+    }
+
+    if (ServiceId.parseOrNull(envelope.destinationServiceId, envelope.destinationServiceIdBinary) != selfAci) {
+      return false
+    }
+
+    val address = envelope.sourceAddress() ?: return false
+    return address !in addressesWithIneligibleEnvelopes
+  }
+
+  private fun Envelope.sourceAddress(): SignalProtocolAddress? {
+    val source = ServiceId.parseOrNull(sourceServiceId, sourceServiceIdBinary)
+    return if (source is ACI && sourceDevice != null) {
+      SignalProtocolAddress(source.toString(), sourceDevice!!)
+    } else {
+      null
+    }
+  }
+
+  private fun SignalProtocolAddress.laneIndex(): Int {
+    return (hashCode() and Int.MAX_VALUE) % laneCount
+  }
+
+  private class LaneResult(
+    val store: BufferedProtocolStore,
+    val results: Map<EnvelopeResponse, SignalServiceCipherResult>,
+    val duration: Long
+  )
+
+  private class Lane(val index: Int) {
+    private val lock = ReentrantLock()
+
+    /** A stripe of the session lock that only covers the senders in this lane. */
+    private val sessionLock = SignalSessionLock {
+      lock.lock()
+      SignalSessionLock.Lock { lock.unlock() }
+    }
+
+    fun decrypt(store: BufferedProtocolStore, envelopes: List<EnvelopeResponse>): LaneResult {
+      val startTime = System.currentTimeMillis()
+      val results: MutableMap<EnvelopeResponse, SignalServiceCipherResult> = mutableMapOf()
+      val failedSenders: MutableSet<String> = mutableSetOf()
+
+      lock.withLock {
+        for (response in envelopes) {
+          val sender = "${response.envelope.sourceServiceId}.${response.envelope.sourceDevice}"
+          if (sender in failedSenders) {
+            continue
+          }
+
+          try {
+            val result = MessageDecryptor.decryptCiphertext(store, sessionLock, response.envelope, response.serverDeliveredTimestamp)
+            if (result != null) {
+              results[response] = result
+            } else {
+              failedSenders += sender
+            }
+          } catch (e: Exception) {
+            Log.w(TAG, "[Lane $index] Failed to decrypt envelope ${response.envelope.timestamp} ahead of time. Leaving it and the rest of this sender's envelopes to be decrypted serially.", e)
+            failedSenders += sender
+          }
+        }
+      }
+
+      return LaneResult(store, results, System.currentTimeMillis() - startTime)
+    }
+  }
+}
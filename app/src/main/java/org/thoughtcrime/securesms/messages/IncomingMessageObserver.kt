@@ -13,6 +13,7 @@ import io.reactivex.rxjava3.kotlin.subscribeBy
 import io.reactivex.rxjava3.schedulers.Schedulers
 import org.signal.core.models.ServiceId
 import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.kibiBytes
 import org.signal.core.util.logging.Log
 import org.thoughtcrime.securesms.R
 import org.thoughtcrime.securesms.crypto.ReentrantSessionLock
@@ -34,11 +35,15 @@ import org.thoughtcrime.securesms.notifications.NotificationChannels
 import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.util.AlarmSleepTimer
 import org.thoughtcrime.securesms.util.AppForegroundObserver
+import org.thoughtcrime.securesms.util.RemoteConfig
 import org.thoughtcrime.securesms.util.SignalLocalMetrics
 import org.thoughtcrime.securesms.util.asChain
+import org.whispersystems.signalservice.api.crypto.SignalServiceCipherResult
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
 import org.whispersystems.signalservice.api.util.SleepTimer
 import org.whispersystems.signalservice.api.util.UptimeSleepTimer
 import org.whispersystems.signalservice.api.websocket.SignalWebSocket
+import org.whispersystems.signalservice.api.websocket.SignalWebSocket.AuthenticatedWebSocket.MessageReceivedCallback
 import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState
 import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableException
 import org.whispersystems.signalservice.internal.push.Envelope
@@ -82,6 +87,15 @@ class IncomingMessageObserver(
 
     const val FOREGROUND_ID = 313399
 
+    /** The most envelopes we'll read off of the websocket at once. */
+    private const val MESSAGE_BATCH_SIZE = 30
+
+    /** The most envelope content we'll put in a single group-commit transaction. */
+    private val GROUP_COMMIT_MAX_BYTES = 512.kibiBytes.inWholeBytes
+
+    /** The longest we'll keep adding envelopes to a single group-commit transaction, in milliseconds. */
+    private val GROUP_COMMIT_MAX_DURATION = 2.seconds.inWholeMilliseconds
+
     private val censored: Boolean
       get() = AppDependencies.signalServiceNetworkAccess.isCensored()
   }
@@ -119,6 +133,8 @@ class IncomingMessageObserver(
 
   private val messageContentProcessor = MessageContentProcessor(context)
 
+  private val decryptionLanes: DecryptionLanes? = RemoteConfig.messageDecryptionLanes.takeIf { it > 1 }?.let { DecryptionLanes(it) }
+
   private var appVisible = false
   private var lastInteractionTime: Long = System.currentTimeMillis()
   private var webSocketStateDisposable = Disposable.disposed()
@@ -275,7 +291,7 @@ class IncomingMessageObserver(
   }
 
   @VisibleForTesting
-  fun processEnvelope(bufferedProtocolStore: BufferedProtocolStore, envelope: Envelope, serverDeliveredTimestamp: Long): List<FollowUpOperation>? {
+  fun processEnvelope(bufferedProtocolStore: BufferedProtocolStore, envelope: Envelope, serverDeliveredTimestamp: Long, preDecrypted: SignalServiceCipherResult? = null): List<FollowUpOperation>? {
     return when (envelope.type) {
       Envelope.Type.SERVER_DELIVERY_RECEIPT -> {
         processReceipt(envelope)
@@ -286,7 +302,7 @@ class IncomingMessageObserver(
       Envelope.Type.CIPHERTEXT,
       Envelope.Type.UNIDENTIFIED_SENDER,
       Envelope.Type.PLAINTEXT_CONTENT -> {
-        processMessage(bufferedProtocolStore, envelope, serverDeliveredTimestamp)
+        processMessage(bufferedProtocolStore, envelope, serverDeliveredTimestamp, preDecrypted)
       }
 
       else -> {
@@ -296,9 +312,133 @@ class IncomingMessageObserver(
     }
   }
 
-  private fun processMessage(bufferedProtocolStore: BufferedProtocolStore, envelope: Envelope, serverDeliveredTimestamp: Long): List<FollowUpOperation> {
+  /**
+   * Processes each envelope in its own transaction, acking it as soon as that transaction has been committed.
+   */
+  private fun processBatchIndividually(bufferedStore: BufferedProtocolStore, batch: List<EnvelopeResponse>, ack: (EnvelopeResponse) -> Unit) {
+    batch.forEach { response ->
+      Log.d(TAG, "Beginning database transaction...")
+      val followUpOperations = SignalDatabase.runInTransaction { db ->
+        val followUps: List<FollowUpOperation>? = processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp)
+        bufferedStore.flushToDisk()
+        followUps
+      }
+      Log.d(TAG, "Ended database transaction.")
+
+      if (followUpOperations != null) {
+        Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
+        val jobs = followUpOperations.mapNotNull { it.run() }
+        AppDependencies.jobManager.addAllChains(jobs)
+      }
+
+      ack(response)
+    }
+  }
+
+  /**
+   * Processes the batch in windows, where every envelope in a window shares a single transaction and a single flush of the
+   * [BufferedProtocolStore]. A window ends when the batch runs out, or when it has grown past [GROUP_COMMIT_MAX_BYTES] or
+   * [GROUP_COMMIT_MAX_DURATION]. Acks for a window are only sent after its transaction has been committed.
+   *
+   * If anything in a window fails, the whole window is rolled back and re-processed one envelope at a time with a fresh
+   * store, so that a single bad envelope behaves exactly as it would have without group commit.
+   */
+  private fun processBatchWithGroupCommit(batch: List<EnvelopeResponse>, ack: (EnvelopeResponse) -> Unit) {
+    var windowStart = 0
+
+    while (windowStart < batch.size) {
+      val metric = SignalLocalMetrics.MessageGroupCommit.start()
+      val bufferedStore = BufferedProtocolStore.create()
+      val followUpOperations: MutableList<FollowUpOperation> = mutableListOf()
+      val startTime = System.currentTimeMillis()
+      var windowEnd = windowStart
+      var windowBytes = 0L
+
+      try {
+        Log.d(TAG, "[GroupCommit] Beginning database transaction...")
+        SignalDatabase.threads.withDeferredUpdates {
+          do {
+            val response = batch[windowEnd]
+            processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp)?.let { followUpOperations += it }
+            windowBytes += response.envelope.content?.size ?: 0
+            windowEnd++
+          } while (windowEnd < batch.size && windowBytes < GROUP_COMMIT_MAX_BYTES && System.currentTimeMillis() - startTime < GROUP_COMMIT_MAX_DURATION)
+
+          metric.onProcessed()
+          bufferedStore.flushToDisk()
+        }
+        Log.d(TAG, "[GroupCommit] Ended database transaction.")
+      } catch (e: Exception) {
+        Log.w(TAG, "[GroupCommit] Failed to process window starting at envelope $windowStart. Falling back to processing it one envelope at a time.", e)
+        metric.cancel()
+
+        val failedWindowEnd = (windowEnd + 1).coerceAtMost(batch.size)
+        processBatchIndividually(BufferedProtocolStore.create(), batch.subList(windowStart, failedWindowEnd), ack)
+        windowStart = failedWindowEnd
+        continue
+      }
+      metric.onCommitted()
+
+      if (followUpOperations.isNotEmpty()) {
+        Log.d(TAG, "[GroupCommit] Running ${followUpOperations.size} follow-up operations...")
+        val jobs = followUpOperations.mapNotNull { it.run() }
+        AppDependencies.jobManager.addAllChains(jobs)
+      }
+      metric.onFollowUpsEnqueued()
+
+      for (i in windowStart until windowEnd) {
+        ack(batch[i])
+      }
+
+      val envelopeCount = windowEnd - windowStart
+      val duration = System.currentTimeMillis() - startTime
+      metric.onAcked(envelopeCount)
+      Log.d(TAG, "[GroupCommit] Committed $envelopeCount envelopes ($windowBytes bytes) in $duration ms (~${envelopeCount * 1000 / duration.coerceAtLeast(1)} envelopes/sec)")
+
+      windowStart = windowEnd
+    }
+  }
+
+  /**
+   * Decrypts what it can of the batch in parallel using [lanes], and then processes the whole batch in a single transaction.
+   * Because the lanes may have decrypted envelopes from anywhere in the batch, the batch can't be split into smaller windows
+   * like [processBatchWithGroupCommit] does, since that could commit session state for envelopes that haven't been committed yet.
+   *
+   * If anything fails, the whole batch is rolled back and re-processed one envelope at a time, without any parallel decryption.
+   */
+  private fun processBatchWithDecryptionLanes(lanes: DecryptionLanes, batch: List<EnvelopeResponse>, ack: (EnvelopeResponse) -> Unit) {
+    val bufferedStore = BufferedProtocolStore.create()
+    val followUpOperations: MutableList<FollowUpOperation> = mutableListOf()
+
+    try {
+      val preDecrypted: Map<EnvelopeResponse, SignalServiceCipherResult> = lanes.decrypt(batch, bufferedStore)
+
+      Log.d(TAG, "[Lanes] Beginning database transaction...")
+      SignalDatabase.threads.withDeferredUpdates {
+        for (response in batch) {
+          processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp, preDecrypted[response])?.let { followUpOperations += it }
+        }
+        bufferedStore.flushToDisk()
+      }
+      Log.d(TAG, "[Lanes] Ended database transaction.")
+    } catch (e: Exception) {
+      Log.w(TAG, "[Lanes] Failed to process batch. Falling back to processing it one envelope at a time.", e)
+      processBatchIndividually(BufferedProtocolStore.create(), batch, ack)
+      return
+    }
+
+    if (followUpOperations.isNotEmpty()) {
+      Log.d(TAG, "[Lanes] Running ${followUpOperations.size} follow-up operations...")
+      val jobs = followUpOperations.mapNotNull { it.run() }
+      AppDependencies.jobManager.addAllChains(jobs)
+    }
+
+    batch.forEach(ack)
+  }
+
+  private fun processMessage(bufferedProtocolStore: BufferedProtocolStore, envelope: Envelope, serverDeliveredTimestamp: Long, preDecrypted: SignalServiceCipherResult?): List<FollowUpOperation> {
     val localReceiveMetric = SignalLocalMetrics.MessageReceive.start()
-    val result = MessageDecryptor.decrypt(context, bufferedProtocolStore, envelope, serverDeliveredTimestamp)
+    val result = MessageDecryptor.decrypt(context, bufferedProtocolStore, envelope, serverDeliveredTimestamp, preDecrypted)
     localReceiveMetric.onEnvelopeDecrypted()
 
     SignalLocalMetrics.MessageLatency.onMessageReceived(envelope.serverTimestamp!!, serverDeliveredTimestamp, envelope.urgent!!)
@@ -403,6 +543,12 @@ class IncomingMessageObserver(
           }
         }
 
+        val pipeline: MessageDrainPipeline? = if (canProcessMessages && RemoteConfig.pipelinedMessageDrain) {
+          MessageDrainPipeline(authWebSocket, websocketReadTimeout, MESSAGE_BATCH_SIZE)
+        } else {
+          null
+        }
+
         try {
           authWebSocket.connect()
           var isConnectionNecessary = false
@@ -417,29 +563,24 @@ class IncomingMessageObserver(
               if (canProcessMessages) {
                 Log.d(TAG, "Reading message...")
 
-                val hasMore = authWebSocket.readMessageBatch(websocketReadTimeout, 30) { batch ->
+                val batchAcks = pipeline == null && RemoteConfig.batchedWebsocketAcks
+                val ack: (EnvelopeResponse) -> Unit = when {
+                  pipeline != null -> pipeline::ack
+                  batchAcks -> authWebSocket::queueAck
+                  else -> authWebSocket::sendAck
+                }
+                val processBatch = MessageReceivedCallback { batch ->
                   Log.i(TAG, "Retrieved ${batch.size} envelopes!")
-                  val bufferedStore = BufferedProtocolStore.create()
 
                   val startTime = System.currentTimeMillis()
                   GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
                     ReentrantSessionLock.INSTANCE.acquire().use {
-                      batch.forEach { response ->
-                        Log.d(TAG, "Beginning database transaction...")
-                        val followUpOperations = SignalDatabase.runInTransaction { db ->
-                          val followUps: List<FollowUpOperation>? = processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp)
-                          bufferedStore.flushToDisk()
-                          followUps
-                        }
-                        Log.d(TAG, "Ended database transaction.")
-
-                        if (followUpOperations != null) {
-                          Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
-                          val jobs = followUpOperations.mapNotNull { it.run() }
-                          AppDependencies.jobManager.addAllChains(jobs)
-                        }
-
-                        authWebSocket.sendAck(response)
+                      if (decryptionLanes != null) {
+                        processBatchWithDecryptionLanes(decryptionLanes, batch, ack)
+                      } else if (RemoteConfig.groupCommitMessageProcessing) {
+                        processBatchWithGroupCommit(batch, ack)
+                      } else {
+                        processBatchIndividually(BufferedProtocolStore.create(), batch, ack)
                       }
                     }
                   }
@@ -447,6 +588,12 @@ class IncomingMessageObserver(
                   val timePerMessage: Float = duration / batch.size.toFloat()
                   Log.d(TAG, "Decrypted ${batch.size} envelopes in $duration ms (~${round(timePerMessage * 100) / 100} ms per message)")
                 }
+
+                val hasMore = pipeline?.readMessageBatch(processBatch) ?: authWebSocket.readMessageBatch(websocketReadTimeout, MESSAGE_BATCH_SIZE, processBatch)
+
+                if (batchAcks) {
+                  authWebSocket.flushAcks()
+                }
                 attempts = 0
                 SignalLocalMetrics.PushWebsocketFetch.onProcessedBatch()
 
@@ -462,7 +609,7 @@ class IncomingMessageObserver(
                 }
               } else {
                 Log.d(TAG, "Reading and dropping message...")
-                authWebSocket.readMessageBatch(websocketReadTimeout, 30) { batch ->
+                authWebSocket.readMessageBatch(websocketReadTimeout, MESSAGE_BATCH_SIZE) { batch ->
                   Log.w(TAG, "Retrieved ${batch.size} envelopes but dropping until we can finish backup restore.")
                 }
                 attempts = 0
@@ -483,6 +630,7 @@ class IncomingMessageObserver(
           attempts++
           Log.w(TAG, e)
         } finally {
+          pipeline?.stop()
           Log.w(TAG, "Disconnecting auth websocket")
           authWebSocket.disconnect()
           webSocketDisposable.dispose()
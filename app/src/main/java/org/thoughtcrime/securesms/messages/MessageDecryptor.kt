@@ -61,6 +61,7 @@ import org.thoughtcrime.securesms.recipients.RecipientId
 import org.thoughtcrime.securesms.util.RemoteConfig
 import org.thoughtcrime.securesms.util.asChain
 import org.whispersystems.signalservice.api.InvalidMessageStructureException
+import org.whispersystems.signalservice.api.SignalSessionLock
 import org.whispersystems.signalservice.api.crypto.ContentHint
 import org.whispersystems.signalservice.api.crypto.EnvelopeMetadata
 import org.whispersystems.signalservice.api.crypto.SignalGroupSessionBuilder
@@ -92,12 +93,16 @@ object MessageDecryptor {
    * That means that this operation should be atomic when performed within a transaction.
    * To keep that property, there may be [Result.followUpOperations] you have to perform after your transaction is committed.
    * These can vary from enqueueing jobs to inserting items into the [org.thoughtcrime.securesms.database.PendingRetryReceiptCache].
+   *
+   * If the ciphertext has already been decrypted by [decryptCiphertext], pass that in as [preDecrypted] and it will be used
+   * instead of decrypting again.
    */
   fun decrypt(
     context: Context,
     bufferedProtocolStore: BufferedProtocolStore,
     envelope: Envelope,
-    serverDeliveredTimestamp: Long
+    serverDeliveredTimestamp: Long,
+    preDecrypted: SignalServiceCipherResult? = null
   ): Result {
     val selfAci: ACI = SignalStore.account.requireAci()
     val selfPni: PNI = SignalStore.account.requirePni()
@@ -153,7 +158,7 @@ object MessageDecryptor {
 
     return try {
       val startTimeNanos = System.nanoTime()
-      val cipherResult: SignalServiceCipherResult? = cipher.decrypt(envelope, serverDeliveredTimestamp)
+      val cipherResult: SignalServiceCipherResult? = preDecrypted ?: cipher.decrypt(envelope, serverDeliveredTimestamp)
       val endTimeNanos = System.nanoTime()
 
       val envelope = if (cipherResult?.metadata?.sourceServiceId != null) {
@@ -293,6 +298,29 @@ object MessageDecryptor {
     }
   }
 
+  /**
+   * Decrypts only the ciphertext of an envelope, using the provided store and lock, with none of the other side effects of [decrypt].
+   * Any failure is simply thrown, and the envelope should then be handed to [decrypt] as normal, which will handle it properly.
+   *
+   * This is meant for decrypting envelopes ahead of time and in parallel (see [DecryptionLanes]). It's only safe for envelopes
+   * whose decryption touches nothing but their sender's session and identity, so callers are responsible for making sure that
+   * no other thread is using the same session at the same time.
+   */
+  @Throws(Exception::class)
+  fun decryptCiphertext(
+    bufferedProtocolStore: BufferedProtocolStore,
+    sessionLock: SignalSessionLock,
+    envelope: Envelope,
+    serverDeliveredTimestamp: Long
+  ): SignalServiceCipherResult? {
+    val destination: ServiceId = ServiceId.parseOrNull(envelope.destinationServiceId, envelope.destinationServiceIdBinary) ?: throw IllegalArgumentException("Missing destination!")
+    val bufferedStore = bufferedProtocolStore.get(destination)
+    val localAddress = SignalServiceAddress(destination, SignalStore.account.e164)
+    val cipher = SignalServiceCipher(localAddress, SignalStore.account.deviceId, bufferedStore, sessionLock, SealedSenderAccessUtil.getCertificateValidator())
+
+    return cipher.decrypt(envelope, serverDeliveredTimestamp)
+  }
+
   private fun buildResultForDecryptionError(
     context: Context,
     envelope: Envelope,
@@ -0,0 +1,232 @@
+package org.thoughtcrime.securesms.messages
+
+import org.signal.core.util.logging.Log
+import org.thoughtcrime.securesms.util.SignalLocalMetrics
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+import org.whispersystems.signalservice.api.websocket.SignalWebSocket
+import org.whispersystems.signalservice.api.websocket.SignalWebSocket.AuthenticatedWebSocket.MessageReceivedCallback
+import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableException
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Splits draining the websocket into three stages that run on their own threads, connected by bounded queues:
+ *
+ * 1. Read: A reader thread pulls batches off of the websocket (including parsing the envelopes) ahead of time.
+ * 2. Decrypt + persist: The caller of [readMessageBatch] (the message retrieval thread) decrypts and stores each batch.
+ *    These remain a single stage because decrypted session state has to be committed in the same transaction as the content
+ *    it produced.
+ * 3. Ack: An ack thread sends acks for envelopes that have been handed to [ack], which must only happen after they've been
+ *    committed.
+ *
+ * Each queue is bounded, so a slow stage will block the stage in front of it rather than letting work pile up in memory.
+ * Every stage is strictly FIFO and there is only one thread per stage, so envelopes are processed and acked in the exact order
+ * they came off the wire, which also means they are always processed in order for any given sender.
+ *
+ * A pipeline is only meant to be used for a single websocket connection. Call [stop] before disconnecting.
+ */
+class MessageDrainPipeline(
+  private val authWebSocket: SignalWebSocket.AuthenticatedWebSocket,
+  private val readTimeout: Long,
+  private val batchSize: Int,
+  readQueueCapacity: Int = DEFAULT_READ_QUEUE_CAPACITY,
+  ackQueueCapacity: Int = DEFAULT_ACK_QUEUE_CAPACITY
+) {
+
+  companion object {
+    private val TAG = Log.tag(MessageDrainPipeline::class.java)
+
+    /** Number of batches the reader is allowed to get ahead of the processing stage. */
+    private const val DEFAULT_READ_QUEUE_CAPACITY = 4
+
+    /** Number of committed envelopes that can be waiting to be acked. */
+    private const val DEFAULT_ACK_QUEUE_CAPACITY = 256
+  }
+
+  private val readQueue: BlockingQueue<ReadResult> = ArrayBlockingQueue(readQueueCapacity)
+  private val ackQueue: BlockingQueue<EnvelopeResponse> = ArrayBlockingQueue(ackQueueCapacity)
+
+  /** Total time the reader has spent blocked on a full [readQueue] since the last batch was taken. */
+  private val readerBlockedTime = AtomicLong(0)
+
+  private var readerThread: ReaderThread? = null
+  private val ackThread = AckThread()
+
+  @Volatile
+  private var stopped = false
+
+  init {
+    ackThread.start()
+  }
+
+  val readQueueDepth: Int
+    get() = readQueue.size
+
+  val ackQueueDepth: Int
+    get() = ackQueue.size
+
+  /**
+   * Mirrors [SignalWebSocket.AuthenticatedWebSocket.readMessageBatch], except that the batch has likely already been read
+   * off of the websocket while the previous batch was being processed. Failures hit by the reader are rethrown here, so
+   * callers can handle them exactly as they would have when reading directly. The [TimeoutException] is our own, thrown if
+   * nothing was read within the read timeout of this call, so a timeout can never carry over from one call to the next.
+   *
+   * Unlike reading directly, the callback is *not* responsible for sending acks itself. Instead, hand each committed
+   * envelope to [ack].
+   */
+  @Throws(TimeoutException::class, WebSocketUnavailableException::class, IOException::class)
+  fun readMessageBatch(callback: MessageReceivedCallback): Boolean {
+    check(!stopped) { "Pipeline has been stopped!" }
+    ensureReaderRunning()
+
+    val waitStart = System.currentTimeMillis()
+    val result: ReadResult = readQueue.poll(readTimeout, TimeUnit.MILLISECONDS) ?: throw TimeoutException("Reader did not produce a batch in time")
+    val readWait = System.currentTimeMillis() - waitStart
+
+    SignalLocalMetrics.MessageDrainPipeline.onBatchTaken(readWait, readerBlockedTime.getAndSet(0), readQueue.size, ackQueue.size)
+
+    return when (result) {
+      is ReadResult.Batch -> {
+        Log.d(TAG, "Took batch of ${result.envelopes.size} envelopes after waiting $readWait ms. Read queue: ${readQueue.size}, Ack queue: ${ackQueue.size}")
+        if (result.envelopes.isNotEmpty()) {
+          callback.onMessageBatch(result.envelopes)
+        }
+        result.hasMore
+      }
+      is ReadResult.Failure -> {
+        throw result.error
+      }
+    }
+  }
+
+  /**
+   * Queues an ack for an envelope. Only call this once the envelope's transaction has been committed. Will block if the ack
+   * stage has fallen too far behind.
+   */
+  fun ack(response: EnvelopeResponse) {
+    ackQueue.put(response)
+  }
+
+  /**
+   * Stops reading ahead and sends any acks that are still queued. Anything that was read ahead but never processed will not
+   * be acked, and will therefore be re-delivered by the server on the next connection.
+   */
+  fun stop() {
+    if (stopped) {
+      return
+    }
+
+    stopped = true
+    readerThread?.let { reader ->
+      reader.interrupt()
+      try {
+        // A read that doesn't respond to the interrupt will still give up once it times out
+        reader.join(readTimeout)
+      } catch (e: InterruptedException) {
+        Log.w(TAG, "Interrupted while waiting for the reader to finish.", e)
+      }
+
+      if (reader.isAlive) {
+        Log.w(TAG, "Reader is still running after ${readTimeout}ms.")
+      }
+    }
+    readQueue.clear()
+
+    ackThread.interrupt()
+    try {
+      ackThread.join()
+    } catch (e: InterruptedException) {
+      Log.w(TAG, "Interrupted while waiting for the ack thread to finish.", e)
+    }
+
+    val remaining: MutableList<EnvelopeResponse> = mutableListOf()
+    ackQueue.drainTo(remaining)
+    if (remaining.isNotEmpty()) {
+      Log.i(TAG, "Flushing ${remaining.size} remaining acks.")
+      sendAcks(remaining)
+    }
+  }
+
+  private fun ensureReaderRunning() {
+    if (readerThread?.isAlive != true) {
+      readerThread = ReaderThread().also { it.start() }
+    }
+  }
+
+  private fun sendAcks(responses: List<EnvelopeResponse>) {
+    try {
+      authWebSocket.sendAcks(responses)
+    } catch (e: IOException) {
+      Log.w(TAG, "Failed to send ${responses.size} acks. The envelopes will be re-delivered.", e)
+    }
+  }
+
+  private sealed interface ReadResult {
+    class Batch(val envelopes: List<EnvelopeResponse>, val hasMore: Boolean) : ReadResult
+    class Failure(val error: Exception) : ReadResult
+  }
+
+  /**
+   * Keeps reading batches until it's stopped or hits a failure other than a timeout. Failures are passed along to the
+   * processing stage, which decides how to recover (i.e. by reconnecting), after which a new reader will be started.
+   *
+   * Timeouts aren't passed along. A timeout queued here could sit behind a batch, or outlive the call that was waiting for it,
+   * and end a later call early. [readMessageBatch] times out on its own instead.
+   */
+  private inner class ReaderThread : Thread("MessageDrainPipeline-Reader") {
+    override fun run() {
+      try {
+        while (!stopped) {
+          try {
+            var batch: List<EnvelopeResponse> = emptyList()
+            val hasMore = authWebSocket.readMessageBatch(readTimeout, batchSize) { batch = it }
+            enqueue(ReadResult.Batch(batch, hasMore))
+          } catch (e: TimeoutException) {
+            continue
+          } catch (e: WebSocketUnavailableException) {
+            enqueue(ReadResult.Failure(e))
+            return
+          } catch (e: IOException) {
+            enqueue(ReadResult.Failure(e))
+            return
+          }
+        }
+      } catch (e: InterruptedException) {
+        Log.d(TAG, "Reader interrupted.")
+      } catch (e: Throwable) {
+        if (!stopped) {
+          Log.w(TAG, "Reader failed!", e)
+          readQueue.offer(ReadResult.Failure(IOException(e)))
+        }
+      }
+    }
+
+    private fun enqueue(result: ReadResult) {
+      val start = System.currentTimeMillis()
+      readQueue.put(result)
+      readerBlockedTime.addAndGet(System.currentTimeMillis() - start)
+    }
+  }
+
+  /**
+   * Sends acks for committed envelopes, in order, until the pipeline is stopped.
+   */
+  private inner class AckThread : Thread("MessageDrainPipeline-Ack") {
+    override fun run() {
+      try {
+        while (!stopped) {
+          val first = ackQueue.take()
+          val responses: MutableList<EnvelopeResponse> = mutableListOf(first)
+          ackQueue.drainTo(responses)
+          sendAcks(responses)
+        }
+      } catch (e: InterruptedException) {
+        Log.d(TAG, "Ack thread interrupted.")
+      }
+    }
+  }
+}
@@ -36,6 +36,15 @@ class BufferedProtocolStore private constructor(
     pniStore.second.flushToDisk(AppDependencies.protocolStore.pni())
   }
 
+  /**
+   * Moves any buffered data into another buffered store rather than to disk, so that the other store will see it without it
+   * having to be committed first. Afterwards, this store will no longer have anything buffered.
+   */
+  fun flushTo(other: BufferedProtocolStore) {
+    aciStore.second.flushToDisk(other.aciStore.second)
+    pniStore.second.flushToDisk(other.pniStore.second)
+  }
+
   companion object {
     fun create(): BufferedProtocolStore {
       val aci = SignalStore.account.requireAci()
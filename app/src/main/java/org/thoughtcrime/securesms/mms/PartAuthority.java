@@ -17,6 +17,7 @@ import org.thoughtcrime.securesms.attachments.Attachment;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.avatar.AvatarPickerStorage;
 import org.signal.core.models.media.TransformProperties;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartChannel;
 import org.thoughtcrime.securesms.database.SignalDatabase;
 import org.thoughtcrime.securesms.emoji.EmojiFiles;
 import org.thoughtcrime.securesms.providers.BlobProvider;
@@ -91,6 +92,17 @@ public class PartAuthority {
     }
   }
 
+  /**
+   * Opens the data behind a part uri for random access. Returns null for any other kind of uri, or if the attachment can only be read as a stream.
+   */
+  public static @Nullable ModernDecryptingPartChannel openAttachmentChannel(@NonNull Uri uri) throws IOException {
+    if (uriMatcher.match(uri) != PART_ROW) {
+      return null;
+    }
+
+    return SignalDatabase.attachments().openAttachmentChannel(new PartUriParser(uri).getPartId());
+  }
+
   public static @Nullable String getAttachmentFileName(@NonNull Context context, @NonNull Uri uri) {
     int match = uriMatcher.match(uri);
 
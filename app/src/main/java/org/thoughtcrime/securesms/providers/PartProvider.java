@@ -42,6 +42,7 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.BuildConfig;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartChannel;
 import org.thoughtcrime.securesms.database.AttachmentTable;
 import org.thoughtcrime.securesms.database.SignalDatabase;
 import org.thoughtcrime.securesms.mms.PartUriParser;
@@ -53,6 +54,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public final class PartProvider extends BaseContentProvider {
@@ -223,6 +225,10 @@ public final class PartProvider extends BaseContentProvider {
     private AttachmentId    attachmentId;
     private HandlerThread   handlerThread;
 
+    /** Opened on the first read, and kept open for the rest, so each read doesn't have to re-open and re-seek the file. */
+    private ModernDecryptingPartChannel channel;
+    private boolean                     channelUnsupported;
+
     public ProxyCallback(@NonNull AttachmentTable attachments, @NonNull AttachmentId attachmentId, @NonNull HandlerThread handlerThread) {
       this.attachments   = attachments;
       this.attachmentId  = attachmentId;
@@ -244,6 +250,11 @@ public final class PartProvider extends BaseContentProvider {
     @Override
     public int onRead(long offset, int size, byte[] data) throws ErrnoException {
       try {
+        ModernDecryptingPartChannel channel = getChannel();
+        if (channel != null) {
+          return Math.max(0, channel.read(ByteBuffer.wrap(data, 0, size), offset));
+        }
+
         DatabaseAttachment attachment = attachments.getAttachment(attachmentId);
         if (attachment == null || attachment.size <= 0) {
           Log.w(TAG, attachmentId + ":onRead:attachment is null or size is 0");
@@ -273,6 +284,11 @@ public final class PartProvider extends BaseContentProvider {
     public void onRelease() {
       Log.i(TAG, attachmentId + ":onRelease");
 
+      if (channel != null) {
+        StreamUtil.close(channel);
+        channel = null;
+      }
+
       attachments  = null;
       attachmentId = null;
       if (handlerThread != null) {
@@ -280,5 +296,24 @@ public final class PartProvider extends BaseContentProvider {
         handlerThread = null;
       }
     }
+
+    /**
+     * @return The channel to read from, or null if the attachment is in a format that can only be read as a stream.
+     */
+    private @Nullable ModernDecryptingPartChannel getChannel() throws IOException, ErrnoException {
+      if (channel == null && !channelUnsupported) {
+        DatabaseAttachment attachment = attachments.getAttachment(attachmentId);
+        if (attachment == null || attachment.size <= 0) {
+          Log.w(TAG, attachmentId + ":onRead:attachment is null or size is 0");
+          throw new ErrnoException("Attachment is invalid", OsConstants.ENOENT);
+        }
+
+        channel            = attachments.openAttachmentChannel(attachmentId);
+        channelUnsupported = channel == null;
+        Log.i(TAG, attachmentId + ":openChannel:" + (channel != null));
+      }
+
+      return channel;
+    }
   }
 }
@@ -0,0 +1,62 @@
+package org.thoughtcrime.securesms.search
+
+import androidx.annotation.WorkerThread
+import org.signal.paging.PagedDataSource
+
+/**
+ * The results of searching all chats for a [query]. Full-text matches come first, in ranked order, and are only loaded a page at a time as
+ * they're needed. Messages that only matched by mention come after them, newest first.
+ */
+class PagedMessageSearchResult(
+  val query: String,
+  private val matchCount: Int,
+  private val mentionResults: List<MessageResult>,
+  private val pageLoader: PageLoader
+) {
+
+  private val loaded: MutableMap<Int, MessageResult> = HashMap()
+
+  val size: Int
+    get() = matchCount + mentionResults.size
+
+  /**
+   * Loads as much of [start, end) as still exists, so that it can be read with [get].
+   *
+   * @return The end of what was loaded, which is [end] unless fewer matches came back than were counted (e.g. because some were deleted since).
+   * In that case, everything from [start] up to the returned position can still be read. Returns null if the load was canceled.
+   */
+  @WorkerThread
+  fun load(start: Int, end: Int, cancellationSignal: PagedDataSource.CancellationSignal): Int? {
+    val missing = (start until minOf(end, matchCount)).filterNot { loaded.containsKey(it) }
+    if (missing.isEmpty()) {
+      return end
+    }
+
+    val offset = missing.first()
+    val limit = missing.last() - offset + 1
+    val page: List<MessageResult> = pageLoader.load(offset, limit, cancellationSignal) ?: return null
+
+    page.forEachIndexed { i, result -> loaded[offset + i] = result }
+
+    return if (page.size == limit) end else offset + page.size
+  }
+
+  /**
+   * Must be preceded by a [load] that covers [position].
+   */
+  operator fun get(position: Int): MessageResult {
+    return if (position < matchCount) {
+      loaded[position] ?: error("Position $position has not been loaded!")
+    } else {
+      mentionResults[position - matchCount]
+    }
+  }
+
+  fun interface PageLoader {
+    /**
+     * @return The requested page of full-text matches, or null if the load was canceled.
+     */
+    @WorkerThread
+    fun load(offset: Int, limit: Int, cancellationSignal: PagedDataSource.CancellationSignal): List<MessageResult>?
+  }
+}
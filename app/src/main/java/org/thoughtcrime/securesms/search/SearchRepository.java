@@ -15,6 +15,7 @@ import org.signal.core.util.CursorUtil;
 import org.signal.core.util.StringUtil;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
+import org.signal.paging.PagedDataSource;
 import org.thoughtcrime.securesms.contacts.ContactRepository;
 import org.thoughtcrime.securesms.conversation.MessageStyler;
 import org.thoughtcrime.securesms.database.BodyAdjustment;
@@ -93,17 +94,35 @@ public class SearchRepository {
     return new ThreadSearchResult(result, query);
   }
 
+  /**
+   * Searches all chats. Only the counting is done up front; full-text matches are loaded a page at a time as the result is read.
+   */
   @WorkerThread
-  public @NonNull MessageSearchResult queryMessagesSync(@NonNull String query) {
+  public @NonNull PagedMessageSearchResult queryMessagesPagedSync(@NonNull String query) {
     long start = System.currentTimeMillis();
 
-    List<MessageResult> messages        = queryMessages(query);
-    List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query));
-    List<MessageResult> combined        = mergeMessagesAndMentions(messages, mentionMessages);
+    long                now             = System.currentTimeMillis();
+    int                 matchCount      = searchDatabase.getMessageMatchCount(query);
+    List<MessageResult> mentionMessages = queryMentionOnlyMessages(query);
 
     Log.d(TAG, "[messages] Search took " + (System.currentTimeMillis() - start) + " ms");
 
-    return new MessageSearchResult(combined, query);
+    return new PagedMessageSearchResult(query, matchCount, mentionMessages, (offset, limit, cancellationSignal) -> queryMessagePageSync(query, offset, limit, now, cancellationSignal));
+  }
+
+  /**
+   * @param now The time that results are ranked relative to. Should be the same for every page of a search, so that the order doesn't shift between them.
+   * @return A page of the ranked full-text matches for the query, or null if the search was canceled before it finished.
+   */
+  @WorkerThread
+  public @Nullable List<MessageResult> queryMessagePageSync(@NonNull String query, int offset, int limit, long now, @NonNull PagedDataSource.CancellationSignal cancellationSignal) {
+    long start = System.currentTimeMillis();
+
+    List<MessageResult> messages = queryMessages(query, offset, limit, now, cancellationSignal);
+
+    Log.d(TAG, "[messages] Loading " + limit + " results at " + offset + " took " + (System.currentTimeMillis() - start) + " ms" + (messages == null ? " (canceled)" : ""));
+
+    return messages;
   }
 
   public void query(@NonNull String query, long threadId, @NonNull Callback<List<MessageResult>> callback) {
@@ -164,14 +183,22 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query) {
+  private @Nullable List<MessageResult> queryMessages(@NonNull String query, int offset, int limit, long now, @NonNull PagedDataSource.CancellationSignal cancellationSignal) {
     if (Util.isEmpty(query)) {
       return Collections.emptyList();
     }
 
+    if (cancellationSignal.isCanceled()) {
+      return null;
+    }
+
     List<MessageResult> results;
-    try (Cursor cursor = searchDatabase.queryMessages(query)) {
-      results = readToList(cursor, new MessageModelBuilder());
+    try (Cursor cursor = searchDatabase.queryMessages(query, limit, offset, now)) {
+      results = readToList(cursor, new MessageModelBuilder(), cancellationSignal);
+    }
+
+    if (results == null || cancellationSignal.isCanceled()) {
+      return null;
     }
 
     List<Long> messageIds = new LinkedList<>();
@@ -299,6 +326,34 @@ public class SearchRepository {
     }
   }
 
+  /**
+   * @return Messages that match the query by mention, but that aren't already full-text matches, newest first.
+   */
+  private @NonNull List<MessageResult> queryMentionOnlyMessages(@NonNull String query) {
+    List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query));
+    if (mentionMessages.isEmpty()) {
+      return mentionMessages;
+    }
+
+    Set<Long> mentionMessageIds = new HashSet<>();
+    for (MessageResult result : mentionMessages) {
+      mentionMessageIds.add(result.getMessageId());
+    }
+
+    Set<Long>           fullTextMatches = searchDatabase.getMatchingMessageIds(query, mentionMessageIds);
+    List<MessageResult> mentionOnly     = new ArrayList<>(mentionMessages.size());
+
+    for (MessageResult result : mentionMessages) {
+      if (!fullTextMatches.contains(result.getMessageId())) {
+        mentionOnly.add(result);
+      }
+    }
+
+    Collections.sort(mentionOnly, Collections.reverseOrder((left, right) -> Long.compare(left.getReceivedTimestampMs(), right.getReceivedTimestampMs())));
+
+    return mentionOnly;
+  }
+
   private @NonNull List<MessageResult> queryMentions(@NonNull List<String> cleanQueries) {
     Set<RecipientId> recipientIds = new HashSet<>();
     for (String cleanQuery : cleanQueries) {
@@ -389,6 +444,27 @@ public class SearchRepository {
     return readToList(cursor, builder, -1);
   }
 
+  /**
+   * @return Everything in the cursor, or null if the signal was canceled partway through.
+   */
+  private @Nullable <T> List<T> readToList(@Nullable Cursor cursor, @NonNull ModelBuilder<T> builder, @NonNull PagedDataSource.CancellationSignal cancellationSignal) {
+    if (cursor == null) {
+      return Collections.emptyList();
+    }
+
+    List<T> list = new ArrayList<>(cursor.getCount());
+
+    while (cursor.moveToNext()) {
+      if (cancellationSignal.isCanceled()) {
+        return null;
+      }
+
+      list.add(builder.build(cursor));
+    }
+
+    return list;
+  }
+
   private @NonNull <T> List<T> readToList(@Nullable Cursor cursor, @NonNull ModelBuilder<T> builder, int limit) {
     if (cursor == null) {
       return Collections.emptyList();
@@ -1078,6 +1078,98 @@ object RemoteConfig {
     hotSwappable = true
   )
 
+  /** Whether or not the websocket drain should process a window of envelopes in a single transaction rather than one transaction per envelope. */
+  @JvmStatic
+  val groupCommitMessageProcessing: Boolean by remoteBoolean(
+    key = "android.messageProcessor.groupCommit",
+    defaultValue = false,
+    hotSwappable = true
+  )
+
+  /** Whether or not the websocket drain should read ahead and send acks on separate threads. See [org.thoughtcrime.securesms.messages.MessageDrainPipeline]. */
+  @JvmStatic
+  val pipelinedMessageDrain: Boolean by remoteBoolean(
+    key = "android.messageProcessor.pipelinedDrain",
+    defaultValue = false,
+    hotSwappable = false
+  )
+
+  /** Whether or not the websocket drain should send acks for each batch together, rather than one at a time as each envelope is committed. */
+  @JvmStatic
+  val batchedWebsocketAcks: Boolean by remoteBoolean(
+    key = "android.messageProcessor.batchedAcks",
+    defaultValue = false,
+    hotSwappable = true
+  )
+
+  /**
+   * How many lanes to use when decrypting identified 1:1 envelopes in parallel while draining the websocket. Anything less
+   * than 2 disables parallel decryption. See [org.thoughtcrime.securesms.messages.DecryptionLanes].
+   */
+  @JvmStatic
+  val messageDecryptionLanes: Int by remoteInt(
+    key = "android.messageProcessor.decryptionLanes",
+    defaultValue = 0,
+    hotSwappable = false
+  )
+
+  /**
+   * Whether or not job state changes should be journaled in memory and written to the job database in batches, rather than immediately.
+   * See [org.thoughtcrime.securesms.jobs.JobWriteJournal].
+   */
+  @JvmStatic
+  @get:JvmName("jobWriteBehind")
+  val jobWriteBehind: Boolean by remoteBoolean(
+    key = "android.jobs.writeBehind",
+    defaultValue = false,
+    hotSwappable = false
+  )
+
+  /**
+   * Whether job runners scale with queue wait time and share runners fairly between job factories, rather than purely with the number of eligible jobs.
+   * See [org.thoughtcrime.securesms.jobmanager.AdaptiveRunnerPolicy].
+   */
+  @JvmStatic
+  @get:JvmName("adaptiveJobRunners")
+  val adaptiveJobRunners: Boolean by remoteBoolean(
+    key = "android.jobs.adaptiveRunners",
+    defaultValue = false,
+    hotSwappable = false
+  )
+
+  /**
+   * The most recipients a single multi-recipient send will be talking to at once. Anything less than 1 leaves the fan out
+   * unbounded. See [org.whispersystems.signalservice.api.MessageSendFanOut].
+   */
+  @JvmStatic
+  @get:JvmName("messageSendMaxInFlight")
+  val messageSendMaxInFlight: Int by remoteInt(
+    key = "android.messageSend.maxInFlight",
+    defaultValue = 0,
+    hotSwappable = false
+  )
+
+  /** The most REST fallback sends a multi-recipient send will have in flight at once, when [messageSendMaxInFlight] is set. */
+  @JvmStatic
+  @get:JvmName("messageSendMaxRestInFlight")
+  val messageSendMaxRestInFlight: Int by remoteInt(
+    key = "android.messageSend.maxRestInFlight",
+    defaultValue = 4,
+    hotSwappable = false
+  )
+
+  /**
+   * How many ranged requests a single attachment or backup download may have in flight at once. 1 (the default) downloads sequentially.
+   * See [org.whispersystems.signalservice.internal.push.ChunkedCdnDownloader].
+   */
+  @JvmStatic
+  @get:JvmName("attachmentDownloadParallelRanges")
+  val attachmentDownloadParallelRanges: Int by remoteInt(
+    key = "android.attachmentDownload.parallelRanges",
+    defaultValue = 1,
+    hotSwappable = false
+  )
+
   /** Which phase we're in for the SVR3 migration  */
   val svr3MigrationPhase: Int by remoteInt(
     key = "global.svr3.phase",
@@ -11,6 +11,7 @@ import org.thoughtcrime.securesms.attachments.AttachmentId;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -309,6 +310,123 @@ public final class SignalLocalMetrics {
 
   }
 
+  /**
+   * Tracks a window of envelopes that were processed and committed in a single transaction while draining the websocket.
+   */
+  public static final class MessageGroupCommit {
+    private static final String NAME = "message-group-commit";
+
+    private static final String SPLIT_PROCESS   = "process";
+    private static final String SPLIT_COMMIT    = "commit";
+    private static final String SPLIT_FOLLOW_UP = "follow-up";
+    private static final String SPLIT_ACK       = "ack";
+    private static final String SPLIT_ENVELOPES = "envelopes";
+
+    private static final AtomicLong idCounter = new AtomicLong(0);
+
+    private final String id;
+
+    public static @NonNull MessageGroupCommit start() {
+      return new MessageGroupCommit();
+    }
+
+    private MessageGroupCommit() {
+      id = NAME + System.currentTimeMillis() + "-" + idCounter.incrementAndGet();
+      LocalMetrics.getInstance().start(id, NAME);
+    }
+
+    /** When every envelope in the window has been decrypted and processed, but not yet committed. */
+    public void onProcessed() {
+      LocalMetrics.getInstance().split(id, SPLIT_PROCESS);
+    }
+
+    /** When the transaction for the window has been committed. */
+    public void onCommitted() {
+      LocalMetrics.getInstance().split(id, SPLIT_COMMIT);
+    }
+
+    /** When the follow-up jobs for the window have been enqueued. */
+    public void onFollowUpsEnqueued() {
+      LocalMetrics.getInstance().split(id, SPLIT_FOLLOW_UP);
+    }
+
+    /** When every envelope in the window has been acked. Ends the metric. */
+    public void onAcked(int envelopeCount) {
+      LocalMetrics.getInstance().split(id, SPLIT_ACK);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_ENVELOPES, envelopeCount);
+      LocalMetrics.getInstance().end(id);
+    }
+
+    /** When the window could not be committed and we had to fall back to processing envelopes one at a time. */
+    public void cancel() {
+      LocalMetrics.getInstance().cancel(id);
+    }
+  }
+
+  /**
+   * Tracks how each batch moved through the pipelined websocket drain. The queue depths are recorded as durations, since that's
+   * the only numeric value a split can hold.
+   */
+  public static final class MessageDrainPipeline {
+    private static final String NAME = "message-drain-pipeline";
+
+    private static final String SPLIT_READ_WAIT       = "read-wait";
+    private static final String SPLIT_READER_BLOCKED  = "reader-blocked";
+    private static final String SPLIT_READ_QUEUE_SIZE = "read-queue-depth";
+    private static final String SPLIT_ACK_QUEUE_SIZE  = "ack-queue-depth";
+
+    private static final AtomicLong idCounter = new AtomicLong(0);
+
+    /**
+     * @param readWaitMs       How long the processing stage waited for the reader, i.e. how long we were waiting on the socket.
+     * @param readerBlockedMs  How long the reader was blocked on a full queue since the last batch, i.e. how much backpressure there was.
+     */
+    public static void onBatchTaken(long readWaitMs, long readerBlockedMs, int readQueueDepth, int ackQueueDepth) {
+      String id = NAME + System.currentTimeMillis() + "-" + idCounter.incrementAndGet();
+      LocalMetrics.getInstance().start(id, NAME);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_READ_WAIT, readWaitMs);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_READER_BLOCKED, readerBlockedMs);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_READ_QUEUE_SIZE, readQueueDepth);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_ACK_QUEUE_SIZE, ackQueueDepth);
+      LocalMetrics.getInstance().end(id);
+    }
+  }
+
+  /**
+   * Tracks how well a batch was spread across the parallel decryption lanes. Counts and the utilization percentage are recorded
+   * as durations, since that's the only numeric value a split can hold.
+   */
+  public static final class DecryptionLanes {
+    private static final String NAME = "decryption-lanes";
+
+    private static final String SPLIT_WALL_TIME   = "wall-time";
+    private static final String SPLIT_BUSY_TIME   = "lane-busy-time";
+    private static final String SPLIT_ACTIVE      = "active-lanes";
+    private static final String SPLIT_UTILIZATION = "utilization-percent";
+    private static final String SPLIT_PARALLEL    = "parallel-envelopes";
+    private static final String SPLIT_SERIAL      = "serial-envelopes";
+
+    private static final AtomicLong idCounter = new AtomicLong(0);
+
+    /**
+     * @param busyTimeMs Total time spent decrypting, summed across every lane.
+     * @param wallTimeMs How long the lanes took from start to finish.
+     */
+    public static void onBatchDecrypted(int laneCount, int activeLanes, long busyTimeMs, long wallTimeMs, int parallelEnvelopes, int serialEnvelopes) {
+      String id          = NAME + System.currentTimeMillis() + "-" + idCounter.incrementAndGet();
+      long   utilization = (busyTimeMs * 100) / (Math.max(wallTimeMs, 1) * laneCount);
+
+      LocalMetrics.getInstance().start(id, NAME);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_WALL_TIME, wallTimeMs);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_BUSY_TIME, busyTimeMs);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_ACTIVE, activeLanes);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_UTILIZATION, utilization);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_PARALLEL, parallelEnvelopes);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_SERIAL, serialEnvelopes);
+      LocalMetrics.getInstance().end(id);
+    }
+  }
+
   public static final class GroupMessageSend {
     private static final String NAME = "group-message-send";
 
@@ -6,12 +6,11 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
-import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
-import org.thoughtcrime.securesms.video.videoconverter.mediadatasource.InputStreamMediaDataSource;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartChannel;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Create via {@link EncryptedMediaDataSource}.
@@ -20,14 +19,19 @@ import java.io.InputStream;
  * <p>
  * It is "modern" compared to the {@link ClassicEncryptedMediaDataSource}. And "modern" refers to
  * the presence of a random part of the key supplied in the constructor.
+ * <p>
+ * The media framework reads from all over the file, so rather than opening a new stream for every read, we keep one
+ * {@link ModernDecryptingPartChannel} open and read from it positionally.
  */
-final class ModernEncryptedMediaDataSource extends InputStreamMediaDataSource {
+final class ModernEncryptedMediaDataSource extends MediaDataSource {
 
   private final AttachmentSecret attachmentSecret;
   private final File             mediaFile;
   private final byte[]           random;
   private final long             length;
 
+  private ModernDecryptingPartChannel channel;
+
   ModernEncryptedMediaDataSource(@NonNull AttachmentSecret attachmentSecret, @NonNull File mediaFile, @Nullable byte[] random, long length) {
     this.attachmentSecret = attachmentSecret;
     this.mediaFile        = mediaFile;
@@ -36,19 +40,38 @@ final class ModernEncryptedMediaDataSource extends InputStreamMediaDataSource {
   }
 
   @Override
-  public void close() {}
+  public int readAt(long position, byte[] bytes, int offset, int size) throws IOException {
+    if (position >= length) {
+      return -1;
+    }
+
+    int read = getChannel().read(ByteBuffer.wrap(bytes, offset, (int) Math.min(size, length - position)), position);
+
+    return read == 0 && size > 0 ? -1 : read;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
 
   @Override
   public long getSize() {
     return length;
   }
 
-  @NonNull
-  public InputStream createInputStream(long position) throws IOException {
-    if (random == null) {
-      return ModernDecryptingPartInputStream.createFor(attachmentSecret, mediaFile, position);
-    } else {
-      return ModernDecryptingPartInputStream.createFor(attachmentSecret, random, mediaFile, position);
+  private synchronized @NonNull ModernDecryptingPartChannel getChannel() throws IOException {
+    if (channel == null) {
+      if (random == null) {
+        channel = ModernDecryptingPartChannel.createFor(attachmentSecret, mediaFile);
+      } else {
+        channel = ModernDecryptingPartChannel.createFor(attachmentSecret, random, mediaFile);
+      }
     }
+
+    return channel;
   }
 }
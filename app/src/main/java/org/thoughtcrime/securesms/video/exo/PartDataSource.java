@@ -15,6 +15,7 @@ import org.signal.core.util.logging.Log;
 import org.signal.libsignal.protocol.InvalidMessageException;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.backup.v2.DatabaseAttachmentArchiveUtil;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartChannel;
 import org.thoughtcrime.securesms.database.AttachmentTable;
 import org.thoughtcrime.securesms.database.SignalDatabase;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
@@ -43,9 +44,10 @@ class PartDataSource implements DataSource {
   private final           String           TAG = Log.tag(PartDataSource.class);
   private final @Nullable TransferListener listener;
 
-  private Uri         uri;
-  private InputStream inputStream;
-  private DataSpec    activeDataSpec;
+  private Uri                         uri;
+  private InputStream                 inputStream;
+  private ModernDecryptingPartChannel channel;
+  private DataSpec                    activeDataSpec;
 
   PartDataSource(@Nullable TransferListener listener) {
     this.listener = listener;
@@ -118,7 +120,13 @@ class PartDataSource implements DataSource {
       Log.d(TAG, "Successfully loaded partial attachment file.");
     } else if (!inProgress || hasData) {
       Log.d(TAG, "Playing a fully downloaded attachment.");
-      this.inputStream = attachmentDatabase.getAttachmentStream(partUri.getPartId(), dataSpec.position);
+      this.channel = attachmentDatabase.openAttachmentChannel(partUri.getPartId());
+
+      if (channel != null) {
+        this.inputStream = channel.newInputStream(dataSpec.position);
+      } else {
+        this.inputStream = attachmentDatabase.getAttachmentStream(partUri.getPartId(), dataSpec.position);
+      }
 
       Log.d(TAG, "Successfully loaded completed attachment file.");
     } else {
@@ -160,6 +168,12 @@ class PartDataSource implements DataSource {
 
   @Override
   public void close() throws IOException {
-    if (inputStream != null) inputStream.close();
+    try {
+      if (inputStream != null) inputStream.close();
+    } finally {
+      if (channel != null) channel.close();
+      inputStream = null;
+      channel     = null;
+    }
   }
 }
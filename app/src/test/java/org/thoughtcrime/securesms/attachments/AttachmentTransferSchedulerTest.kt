@@ -0,0 +1,241 @@
+package org.thoughtcrime.securesms.attachments
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isIn
+import assertk.assertions.isNotNull
+import assertk.assertions.isNull
+import assertk.assertions.isTrue
+import org.junit.Test
+
+class AttachmentTransferSchedulerTest {
+
+  private var now = 0L
+
+  @Test
+  fun `request - granted immediately while under the limit`() {
+    val scheduler = scheduler(concurrency = 2)
+
+    assertThat(scheduler.request(1, "cdn2").isGranted).isTrue()
+    assertThat(scheduler.request(2, "cdn2").isGranted).isTrue()
+    assertThat(scheduler.request(3, "cdn2").isGranted).isFalse()
+  }
+
+  @Test
+  fun `request - visible messages go first, then prefetched, then the rest`() {
+    val scheduler = scheduler(concurrency = 1)
+    val first = scheduler.request(1, "cdn2")
+
+    val background = scheduler.request(2, "cdn2")
+    val prefetch = scheduler.request(3, "cdn2")
+    val visible = scheduler.request(4, "cdn2")
+    scheduler.updateViewport(visibleMessageIds = setOf(4), prefetchMessageIds = setOf(3))
+
+    first.await()!!.close()
+    assertThat(visible.isGranted).isTrue()
+    assertThat(prefetch.isGranted).isFalse()
+
+    visible.await()!!.close()
+    assertThat(prefetch.isGranted).isTrue()
+    assertThat(background.isGranted).isFalse()
+
+    prefetch.await()!!.close()
+    assertThat(background.isGranted).isTrue()
+  }
+
+  @Test
+  fun `request - same priority goes in order`() {
+    val scheduler = scheduler(concurrency = 1)
+    val first = scheduler.request(1, "cdn2")
+    val second = scheduler.request(2, "cdn2")
+    val third = scheduler.request(3, "cdn2")
+
+    first.await()!!.close()
+    assertThat(second.isGranted).isTrue()
+    assertThat(third.isGranted).isFalse()
+  }
+
+  @Test
+  fun `request - respects the per host limit`() {
+    val scheduler = scheduler(concurrency = 4, maxPerHost = 1)
+
+    assertThat(scheduler.request(1, "cdn2").isGranted).isTrue()
+    assertThat(scheduler.request(2, "cdn2").isGranted).isFalse()
+    assertThat(scheduler.request(3, "cdn3").isGranted).isTrue()
+  }
+
+  @Test
+  fun `acquire - returns null when cancelled while waiting`() {
+    val scheduler = scheduler(concurrency = 1)
+    scheduler.request(1, "cdn2")
+
+    assertThat(scheduler.acquire(2, "cdn2") { true }).isNull()
+  }
+
+  @Test
+  fun `cancel - gives up the ticket's place in line`() {
+    val scheduler = scheduler(concurrency = 1)
+    val first = scheduler.request(1, "cdn2")
+    val second = scheduler.request(2, "cdn2")
+    val third = scheduler.request(3, "cdn2")
+
+    second.cancel()
+    first.await()!!.close()
+
+    assertThat(third.isGranted).isTrue()
+  }
+
+  @Test
+  fun `tryAcquire - keeps its place in line between calls`() {
+    val scheduler = scheduler(concurrency = 1)
+    val first = scheduler.request(1, "cdn2")
+
+    assertThat(scheduler.tryAcquire("a", 2, "cdn2")).isNull()
+    val later = scheduler.request(3, "cdn2")
+
+    first.await()!!.close()
+
+    assertThat(later.isGranted).isFalse()
+    assertThat(scheduler.tryAcquire("a", 2, "cdn2")).isNotNull()
+  }
+
+  @Test
+  fun `tryAcquire - unclaimed permit goes to the next in line`() {
+    val scheduler = scheduler(concurrency = 1)
+    val first = scheduler.request(1, "cdn2")
+    assertThat(scheduler.tryAcquire("a", 2, "cdn2")).isNull()
+    val later = scheduler.request(3, "cdn2")
+
+    first.await()!!.close()
+    assertThat(later.isGranted).isFalse()
+
+    now += 30_000
+    scheduler.tryAcquire("b", 4, "cdn2")
+
+    assertThat(later.isGranted).isTrue()
+  }
+
+  @Test
+  fun `tryAcquire - calls back once granted, and not when the permit is returned right away`() {
+    val scheduler = scheduler(concurrency = 1)
+    var grantedA = 0
+    var grantedB = 0
+
+    val permit = scheduler.tryAcquire("a", 1, "cdn2") { grantedA++ }
+    assertThat(permit).isNotNull()
+    assertThat(scheduler.tryAcquire("b", 2, "cdn2") { grantedB++ }).isNull()
+    assertThat(scheduler.isGranted("b")).isFalse()
+
+    permit!!.close()
+
+    assertThat(grantedA).isEqualTo(0)
+    assertThat(grantedB).isEqualTo(1)
+    assertThat(scheduler.isGranted("b")).isTrue()
+    assertThat(scheduler.tryAcquire("b", 2, "cdn2")).isNotNull()
+  }
+
+  @Test
+  fun `release - gives up the place in line`() {
+    val scheduler = scheduler(concurrency = 1)
+    val first = scheduler.request(1, "cdn2")
+    assertThat(scheduler.tryAcquire("a", 2, "cdn2")).isNull()
+    val later = scheduler.request(3, "cdn2")
+
+    scheduler.release("a")
+    first.await()!!.close()
+
+    assertThat(later.isGranted).isTrue()
+  }
+
+  @Test
+  fun `concurrency - grows towards what the link can handle`() {
+    val scheduler = scheduler(concurrency = 1, maxConcurrency = 8)
+    val transport = FakeTransport(scheduler, linkBytesPerMs = 400, connectionBytesPerMs = 100)
+
+    transport.run(durationMs = 120_000)
+
+    assertThat(scheduler.concurrencyLimit).isIn(3, 4, 5)
+  }
+
+  @Test
+  fun `concurrency - shrinks when the link gets slower`() {
+    val scheduler = scheduler(concurrency = 8, maxConcurrency = 8)
+    val transport = FakeTransport(scheduler, linkBytesPerMs = 800, connectionBytesPerMs = 100)
+
+    transport.run(durationMs = 60_000)
+    assertThat(scheduler.concurrencyLimit).isIn(7, 8)
+
+    transport.linkBytesPerMs = 200
+    transport.run(durationMs = 120_000)
+    assertThat(scheduler.concurrencyLimit).isIn(1, 2, 3)
+  }
+
+  @Test
+  fun `permit - closing twice only releases once`() {
+    val scheduler = scheduler(concurrency = 1)
+    val permit = scheduler.request(1, "cdn2").await()!!
+    val waiting = scheduler.request(2, "cdn2")
+    val alsoWaiting = scheduler.request(3, "cdn2")
+
+    permit.close()
+    permit.close()
+
+    assertThat(waiting.isGranted).isTrue()
+    assertThat(alsoWaiting.isGranted).isFalse()
+    assertThat(scheduler.concurrencyLimit).isEqualTo(1)
+  }
+
+  private fun scheduler(concurrency: Int, maxConcurrency: Int = concurrency, maxPerHost: Int = 8): AttachmentTransferScheduler {
+    return AttachmentTransferScheduler(
+      minConcurrency = 1,
+      maxConcurrency = maxConcurrency,
+      initialConcurrency = concurrency,
+      maxPerHost = maxPerHost,
+      sampleWindowMs = 2_000,
+      clock = { now }
+    )
+  }
+
+  /**
+   * Simulates downloads over a link with a fixed total capacity, where each connection can only go so fast on its own. There's always more to download.
+   */
+  private inner class FakeTransport(
+    private val scheduler: AttachmentTransferScheduler,
+    var linkBytesPerMs: Long,
+    private val connectionBytesPerMs: Long
+  ) {
+    private val attachmentSize = 50_000L
+    private val tickMs = 10L
+
+    private val inFlight = mutableMapOf<AttachmentTransferScheduler.Ticket, Long>()
+    private var nextMessageId = 0L
+
+    fun run(durationMs: Long) {
+      val end = now + durationMs
+
+      while (now < end) {
+        while (inFlight.size < 20) {
+          inFlight[scheduler.request(nextMessageId++, "cdn${nextMessageId % 2 + 2}")] = 0L
+        }
+
+        val active = inFlight.keys.filter { it.isGranted }
+        if (active.isNotEmpty()) {
+          val perConnection = minOf(connectionBytesPerMs, linkBytesPerMs / active.size) * tickMs
+
+          for (ticket in active) {
+            val transferred = inFlight.getValue(ticket) + perConnection
+            if (transferred >= attachmentSize) {
+              inFlight.remove(ticket)
+              ticket.await()!!.apply { bytesTransferred = attachmentSize }.close()
+            } else {
+              inFlight[ticket] = transferred
+            }
+          }
+        }
+
+        now += tickMs
+      }
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isLessThan
+import assertk.assertions.isTrue
+import org.junit.After
+import org.junit.Ignore
+import org.junit.Test
+import org.signal.core.models.ServiceId.ACI
+import org.signal.core.models.backup.MessageBackupKey
+import org.thoughtcrime.securesms.backup.v2.proto.AccountData
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.ChatItem
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import org.thoughtcrime.securesms.backup.v2.proto.StandardMessage
+import org.thoughtcrime.securesms.backup.v2.proto.Text
+import org.thoughtcrime.securesms.util.Util
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+class PipelinedBackupExportWriterTest {
+
+  private val executor: ExecutorService = Executors.newFixedThreadPool(4)
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  fun `frames are written in the order they were given`() {
+    val outputStream = ByteArrayOutputStream()
+    val frameCount = 10_000
+
+    PipelinedBackupExportWriter(PlainTextBackupWriter(outputStream), executor, maxBytesInFlight = 64 * 1024).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+
+      for (i in 0 until frameCount) {
+        // Vary the sizes so that frames finish encoding out of order
+        writer.write(Frame(account = AccountData(username = "username-$i".repeat(1 + i % 50))))
+      }
+    }
+
+    val bytes = outputStream.toByteArray()
+    val reader = PlainTextBackupReader(bytes.inputStream(), bytes.size.toLong())
+    val frames: List<Frame> = reader.asSequence().toList()
+
+    assertThat(reader.backupInfo?.backupTimeMs).isEqualTo(1000L)
+    assertThat(frames.size).isEqualTo(frameCount)
+    for (i in 0 until frameCount) {
+      assertThat(frames[i].account?.username).isEqualTo("username-$i".repeat(1 + i % 50))
+    }
+  }
+
+  @Test
+  fun `output matches writing to the delegate directly`() {
+    val frames: List<Frame> = (0 until 1000).map { Frame(account = AccountData(username = "username-$it")) }
+
+    val expected = ByteArrayOutputStream()
+    PlainTextBackupWriter(expected).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+      frames.forEach { writer.write(it) }
+    }
+
+    val actual = ByteArrayOutputStream()
+    PipelinedBackupExportWriter(PlainTextBackupWriter(actual), executor, maxBytesInFlight = 4 * 1024).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+      frames.forEach { writer.write(it) }
+    }
+
+    assertThat(actual.toByteArray().contentEquals(expected.toByteArray())).isTrue()
+  }
+
+  @Test
+  fun `write blocks once the limit is reached`() {
+    val release = CountDownLatch(1)
+    val written = AtomicInteger(0)
+    val blockingStream = object : OutputStream() {
+      override fun write(b: Int) = release.await()
+      override fun write(b: ByteArray, off: Int, len: Int) = release.await()
+    }
+
+    val writer = PipelinedBackupExportWriter(PlainTextBackupWriter(blockingStream), executor, maxBytesInFlight = 16 * 1024)
+    val producer = thread {
+      for (i in 0 until 100) {
+        writer.write(Frame(account = AccountData(username = "a".repeat(1024))))
+        written.incrementAndGet()
+      }
+    }
+
+    producer.join(250)
+    assertThat(producer.isAlive).isTrue()
+    assertThat(written.get()).isLessThan(100)
+
+    release.countDown()
+    producer.join(TimeUnit.SECONDS.toMillis(5))
+    writer.close()
+
+    assertThat(producer.isAlive).isFalse()
+    assertThat(written.get()).isEqualTo(100)
+  }
+
+  @Test(expected = IOException::class)
+  fun `delegate failures are rethrown on close`() {
+    val failingStream = object : OutputStream() {
+      override fun write(b: Int) = throw IOException("Disk full")
+    }
+
+    PipelinedBackupExportWriter(PlainTextBackupWriter(failingStream), executor, maxBytesInFlight = 64 * 1024).use { writer ->
+      writer.write(Frame(account = AccountData(username = "username")))
+    }
+  }
+
+  /**
+   * Not a real test, just a quick way to compare encoding and encrypting a large synthetic export on one thread vs. with the pipeline.
+   */
+  @Ignore("Benchmark")
+  @Test
+  fun `benchmark - export one million chat items`() {
+    val key = MessageBackupKey(Util.getSecretBytes(32))
+    val aci = ACI.from(UUID.randomUUID())
+    val frames: List<Frame> = (0 until 1_000_000).map { i ->
+      Frame(
+        chatItem = ChatItem(
+          chatId = (i % 100).toLong(),
+          authorId = (i % 10).toLong(),
+          dateSent = i.toLong(),
+          standardMessage = StandardMessage(text = Text(body = "Message number $i. ".repeat(1 + i % 20)))
+        )
+      )
+    }
+
+    for (pipelined in listOf(false, true)) {
+      val start = System.nanoTime()
+
+      val encrypted = EncryptedBackupWriter.createForLocalOrLinking(key, aci, NullOutputStream, append = { })
+      val writer = if (pipelined) PipelinedBackupExportWriter(encrypted, executor, maxBytesInFlight = 16L * 1024 * 1024) else encrypted
+      writer.use {
+        writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+        frames.forEach { writer.write(it) }
+      }
+
+      val durationMs = (System.nanoTime() - start) / 1_000_000
+      println("Pipelined: $pipelined, Frames: ${frames.size}, Duration: $durationMs ms")
+    }
+  }
+
+  private object NullOutputStream : OutputStream() {
+    override fun write(b: Int) = Unit
+    override fun write(b: ByteArray, off: Int, len: Int) = Unit
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.backup.v2.stream
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isLessThan
+import assertk.assertions.isLessThanOrEqualTo
+import org.junit.After
+import org.junit.Test
+import org.thoughtcrime.securesms.backup.v2.proto.AccountData
+import org.thoughtcrime.securesms.backup.v2.proto.BackupInfo
+import org.thoughtcrime.securesms.backup.v2.proto.Frame
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+class PipelinedBackupImportReaderTest {
+
+  private val executor: ExecutorService = Executors.newFixedThreadPool(4)
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  fun `frames are returned in the order they were written`() {
+    val frameCount = 10_000
+    val bytes = writeBackup(frameCount)
+
+    val frames: List<Frame> = PipelinedBackupImportReader(PlainTextBackupReader(bytes.inputStream(), bytes.size.toLong()), executor, maxBytesInFlight = 16 * 1024).use { reader ->
+      assertThat(reader.getHeader()?.backupTimeMs).isEqualTo(1000L)
+      reader.asSequence().toList()
+    }
+
+    assertThat(frames.size).isEqualTo(frameCount)
+    for (i in 0 until frameCount) {
+      assertThat(frames[i].account?.username).isEqualTo("username-$i".repeat(1 + i % 50))
+    }
+  }
+
+  @Test
+  fun `bytes read only counts frames that have been returned`() {
+    val bytes = writeBackup(1000)
+
+    PipelinedBackupImportReader(PlainTextBackupReader(bytes.inputStream(), bytes.size.toLong()), executor, maxBytesInFlight = 1024 * 1024).use { reader ->
+      assertThat(reader.getBytesRead()).isEqualTo(0L)
+
+      var lastBytesRead = 0L
+      while (reader.hasNext()) {
+        reader.next()
+        assertThat(lastBytesRead).isLessThanOrEqualTo(reader.getBytesRead())
+        lastBytesRead = reader.getBytesRead()
+      }
+
+      assertThat(lastBytesRead).isEqualTo(bytes.size.toLong())
+    }
+  }
+
+  @Test(expected = IOException::class)
+  fun `read failures are rethrown to the caller`() {
+    PipelinedBackupImportReader(failingBackupReader(), executor, maxBytesInFlight = 16 * 1024).use { reader ->
+      reader.asSequence().toList()
+    }
+  }
+
+  @Test
+  fun `read failures are rethrown on every call after the first`() {
+    PipelinedBackupImportReader(failingBackupReader(), executor, maxBytesInFlight = 16 * 1024).use { reader ->
+      assertFailure { reader.asSequence().toList() }.isInstanceOf<IOException>()
+      assertFailure { reader.hasNext() }.isInstanceOf<IOException>()
+      assertFailure { reader.next() }.isInstanceOf<IOException>()
+    }
+  }
+
+  @Test
+  fun `closing leaves the delegate open for its owner to close`() {
+    val bytes = writeBackup(10)
+    var delegateCloses = 0
+    val delegate = object : BackupImportReader by PlainTextBackupReader(bytes.inputStream(), bytes.size.toLong()) {
+      override fun close() {
+        delegateCloses++
+      }
+    }
+
+    delegate.use {
+      val reader = PipelinedBackupImportReader(delegate, executor, maxBytesInFlight = 1024)
+      reader.asSequence().toList()
+      reader.close()
+      reader.close()
+    }
+
+    assertThat(delegateCloses).isEqualTo(1)
+  }
+
+  @Test
+  fun `closing early stops reading ahead`() {
+    val bytes = writeBackup(10_000)
+    val reader = PipelinedBackupImportReader(PlainTextBackupReader(bytes.inputStream(), bytes.size.toLong()), executor, maxBytesInFlight = 1024)
+
+    reader.next()
+    reader.close()
+
+    assertThat(reader.getBytesRead()).isLessThan(bytes.size.toLong())
+    assertThat(Thread.getAllStackTraces().keys.any { it.name == "backup-import-reader" && it.isAlive }).isFalse()
+  }
+
+  /** A reader whose stream fails halfway through. */
+  private fun failingBackupReader(): BackupImportReader {
+    val bytes = writeBackup(1000)
+    val failingStream = object : InputStream() {
+      private val wrapped = bytes.inputStream()
+      private var remaining = bytes.size / 2
+
+      override fun read(): Int {
+        if (remaining-- <= 0) {
+          throw IOException("Connection reset")
+        }
+        return wrapped.read()
+      }
+    }
+
+    return PlainTextBackupReader(failingStream, bytes.size.toLong())
+  }
+
+  private fun writeBackup(frameCount: Int): ByteArray {
+    val outputStream = ByteArrayOutputStream()
+
+    PlainTextBackupWriter(outputStream).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+      for (i in 0 until frameCount) {
+        writer.write(Frame(account = AccountData(username = "username-$i".repeat(1 + i % 50))))
+      }
+    }
+
+    return outputStream.toByteArray()
+  }
+}
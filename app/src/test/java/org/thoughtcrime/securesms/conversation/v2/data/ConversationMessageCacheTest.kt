@@ -0,0 +1,92 @@
+package org.thoughtcrime.securesms.conversation.v2.data
+
+import assertk.assertThat
+import assertk.assertions.containsOnly
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.Test
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.database.model.ReactionRecord
+
+class ConversationMessageCacheTest {
+
+  private val cache = ConversationMessageCache()
+
+  @Test
+  fun `given fetched data, when I get it, then I expect the cached data`() {
+    val record = record(1)
+    val reactions = listOf(mockk<ReactionRecord>())
+
+    cache.put(listOf(record), data(reactions = mapOf(1L to reactions)), cache.currentVersion())
+
+    val result = cache.get(listOf(record, record(2)))
+    assertThat(result.keys).containsOnly(1L)
+    assertThat(result[1L]!!.reactions).isEqualTo(reactions)
+  }
+
+  @Test
+  fun `given an invalidated message, when I get it, then I expect nothing`() {
+    val record = record(1)
+    cache.put(listOf(record), data(), cache.currentVersion())
+
+    cache.invalidate(1)
+
+    assertThat(cache.get(listOf(record))).isEmpty()
+  }
+
+  @Test
+  fun `given a fetch that started before an invalidation, when I put it, then I expect it to be ignored`() {
+    val record = record(1)
+    val version = cache.currentVersion()
+
+    cache.invalidate(1)
+    cache.put(listOf(record, record(2)), data(), version)
+
+    assertThat(cache.get(listOf(record, record(2))).keys).containsOnly(2L)
+  }
+
+  @Test
+  fun `given a reused message id, when I get it, then I expect nothing`() {
+    cache.put(listOf(record(1, dateSent = 100)), data(), cache.currentVersion())
+
+    assertThat(cache.get(listOf(record(1, dateSent = 200)))).isEmpty()
+  }
+
+  @Test
+  fun `given messages with and without attachments, when the conversation is invalidated, then I expect only the ones without to remain`() {
+    val records = listOf(record(1), record(2))
+    cache.put(records, data(attachments = mapOf(1L to listOf(mockk<DatabaseAttachment>()))), cache.currentVersion())
+
+    cache.onConversationInvalidated()
+
+    assertThat(cache.get(records).keys).containsOnly(2L)
+  }
+
+  @Test
+  fun `given a fetch with attachments that started before a conversation invalidation, when I put it, then I expect those messages to be ignored`() {
+    val records = listOf(record(1), record(2))
+    val version = cache.currentVersion()
+
+    cache.onConversationInvalidated()
+    cache.put(records, data(attachments = mapOf(1L to listOf(mockk<DatabaseAttachment>()))), version)
+
+    assertThat(cache.get(records).keys).containsOnly(2L)
+  }
+
+  private fun record(id: Long, dateSent: Long = 100): MessageRecord {
+    return mockk {
+      every { this@mockk.id } returns id
+      every { this@mockk.dateSent } returns dateSent
+    }
+  }
+
+  private fun data(
+    reactions: Map<Long, List<ReactionRecord>> = emptyMap(),
+    attachments: Map<Long, List<DatabaseAttachment>> = emptyMap()
+  ): MessageDataFetcher.ExtraMessageData {
+    return MessageDataFetcher.ExtraMessageData.EMPTY.copy(reactions = reactions, attachments = attachments)
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.crypto
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import kotlin.random.Random
+
+class ModernDecryptingPartChannelTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private val attachmentSecret = AttachmentSecret(ByteArray(32), ByteArray(32), Random.nextBytes(32))
+  private val plaintext = Random.nextBytes(200_000)
+
+  @Test
+  fun `sequential reads match the plaintext`() {
+    val (random, file) = encrypt(inline = false)
+
+    ModernDecryptingPartChannel.createFor(attachmentSecret, random, file).use { channel ->
+      val output = ByteBuffer.allocate(plaintext.size)
+      val chunk = ByteBuffer.allocate(1000)
+
+      while (channel.read(chunk) != -1) {
+        chunk.flip()
+        output.put(chunk)
+        chunk.clear()
+      }
+
+      assertThat(channel.size()).isEqualTo(plaintext.size.toLong())
+      assertThat(output.array().contentEquals(plaintext)).isTrue()
+    }
+  }
+
+  @Test
+  fun `positional reads at unaligned offsets match the plaintext`() {
+    val (random, file) = encrypt(inline = false)
+
+    ModernDecryptingPartChannel.createFor(attachmentSecret, random, file).use { channel ->
+      for (offset in listOf(150_001L, 0L, 17L, 65_535L, 199_990L, 3L)) {
+        val buffer = ByteBuffer.allocate(5000)
+        val read = channel.read(buffer, offset)
+        val expected = plaintext.copyOfRange(offset.toInt(), minOf(plaintext.size, offset.toInt() + 5000))
+
+        assertThat(read).isEqualTo(expected.size)
+        assertThat(buffer.array().copyOf(read).contentEquals(expected)).isTrue()
+      }
+
+      assertThat(channel.position()).isEqualTo(0L)
+      assertThat(channel.read(ByteBuffer.allocate(10), plaintext.size.toLong())).isEqualTo(-1)
+    }
+  }
+
+  @Test
+  fun `direct buffers are supported`() {
+    val (random, file) = encrypt(inline = false)
+
+    ModernDecryptingPartChannel.createFor(attachmentSecret, random, file).use { channel ->
+      val buffer = ByteBuffer.allocateDirect(100_000)
+      channel.read(buffer, 1234)
+
+      buffer.flip()
+
+      val actual = ByteArray(buffer.remaining()).also { buffer.get(it) }
+      assertThat(actual.contentEquals(plaintext.copyOfRange(1234, 101_234))).isTrue()
+    }
+  }
+
+  @Test
+  fun `inline random is read from the header`() {
+    val (_, file) = encrypt(inline = true)
+
+    ModernDecryptingPartChannel.createFor(attachmentSecret, file).use { channel ->
+      val buffer = ByteBuffer.allocate(100)
+      channel.read(buffer, 50_000)
+
+      assertThat(channel.size()).isEqualTo(plaintext.size.toLong())
+      assertThat(buffer.array().contentEquals(plaintext.copyOfRange(50_000, 50_100))).isTrue()
+    }
+  }
+
+  @Test
+  fun `input streams track their own positions`() {
+    val (random, file) = encrypt(inline = false)
+
+    ModernDecryptingPartChannel.createFor(attachmentSecret, random, file).use { channel ->
+      val first = channel.newInputStream(0)
+      val second = channel.newInputStream(100_000)
+
+      val a = ByteArray(10).also { first.read(it) }
+      val b = ByteArray(10).also { second.read(it) }
+      val c = ByteArray(10).also { first.read(it) }
+
+      assertThat(a.contentEquals(plaintext.copyOfRange(0, 10))).isTrue()
+      assertThat(b.contentEquals(plaintext.copyOfRange(100_000, 100_010))).isTrue()
+      assertThat(c.contentEquals(plaintext.copyOfRange(10, 20))).isTrue()
+
+      first.close()
+      assertThat(channel.isOpen).isTrue()
+    }
+  }
+
+  @Test(expected = ClosedChannelException::class)
+  fun `reads after close fail`() {
+    val (random, file) = encrypt(inline = false)
+    val channel = ModernDecryptingPartChannel.createFor(attachmentSecret, random, file)
+
+    channel.close()
+    assertThat(channel.isOpen).isFalse()
+
+    channel.read(ByteBuffer.allocate(10), 0)
+  }
+
+  @Test
+  fun `matches the input stream at every offset`() {
+    val (random, file) = encrypt(inline = false)
+
+    ModernDecryptingPartChannel.createFor(attachmentSecret, random, file).use { channel ->
+      for (offset in 0L until 64L) {
+        val fromStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, file, offset).use { it.readNBytes(32) }
+        val fromChannel = ByteArray(32).also { channel.read(ByteBuffer.wrap(it), offset) }
+
+        assertThat(fromChannel.contentEquals(fromStream)).isTrue()
+      }
+    }
+  }
+
+  private fun encrypt(inline: Boolean): Pair<ByteArray, File> {
+    val file = temporaryFolder.newFile()
+    val (random, outputStream) = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, inline)
+
+    outputStream.use { it.write(plaintext) }
+
+    return random to file
+  }
+}
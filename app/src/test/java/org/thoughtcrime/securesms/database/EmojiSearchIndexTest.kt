@@ -0,0 +1,145 @@
+package org.thoughtcrime.securesms.database
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.math.max
+import kotlin.random.Random
+
+class EmojiSearchIndexTest {
+
+  @Test
+  fun `given a blank query, when I search, then I expect nothing`() {
+    val index = EmojiSearchIndex.build(listOf(entry("smile", "🙂", 1)))
+
+    assertThat(index.query("  ", 10)).isEmpty()
+  }
+
+  @Test
+  fun `given labels containing the query, when I search, then I expect prefix matches and better ranks first`() {
+    val index = EmojiSearchIndex.build(
+      listOf(
+        entry("grin", "😁", 3),
+        entry("big smile", "😃", 1),
+        entry("smile", "🙂", 2),
+        entry("smiley cat", "😺", Int.MAX_VALUE)
+      )
+    )
+
+    assertThat(index.query("smi", 10)).containsExactly("🙂", "😺", "😃")
+  }
+
+  @Test
+  fun `given an uppercase query, when I search, then I expect case-insensitive matches`() {
+    val index = EmojiSearchIndex.build(listOf(entry("Thumbs Up", "👍", 1)))
+
+    assertThat(index.query("THUMBS", 10)).containsExactly("👍")
+  }
+
+  @Test
+  fun `given an emoji query, when I search, then I expect that emoji`() {
+    val index = EmojiSearchIndex.build(listOf(entry("heart", "❤️", 1), entry("love", "😍", 2)))
+
+    assertThat(index.query("😍", 10)).containsExactly("😍")
+  }
+
+  @Test
+  fun `given many labels for one emoji, when I search, then I expect it once`() {
+    val index = EmojiSearchIndex.build(listOf(entry("cat", "🐱", 1), entry("cat face", "🐱", 1), entry("catch", "🧤", 2)))
+
+    assertThat(index.query("cat", 10)).containsExactly("🐱", "🧤")
+  }
+
+  @Test
+  fun `given a short query at the end of a label, when I search, then I expect it to match`() {
+    val index = EmojiSearchIndex.build(listOf(entry("ox", "🐂", 1), entry("x", "❌", 2), entry("box", "📦", 3)))
+
+    assertThat(index.query("x", 10)).containsExactly("❌", "🐂", "📦")
+    assertThat(index.query("ox", 10)).containsExactly("🐂", "📦")
+  }
+
+  @Test
+  fun `given random labels, when I search, then I expect the same results as scanning every label`() {
+    val entries = randomEntries(Random(42), 5_000)
+    val index = EmojiSearchIndex.build(entries)
+
+    for (query in listOf("a", "d", " ", "ab", "cd", "da", "abc", "bca", "abca", "cabba", "zz", "q", "", " ab ")) {
+      assertThat(index.query(query, 50), name = query).isEqualTo(scan(entries, query, 50))
+    }
+  }
+
+  /**
+   * Not a real test, just a quick way to compare the index with scanning every label the way the old SQL query did, for queries typed a
+   * character at a time.
+   */
+  @Ignore("Benchmark")
+  @Test
+  fun `benchmark - typing sequences`() {
+    val entries = randomEntries(Random(1), 40_000)
+    val words = listOf("smiling face", "thumbs up", "heart", "cat", "party popper", "face with tears of joy")
+    val typed = words.flatMap { word -> (1..word.length).map { word.substring(0, it) } }
+
+    val buildStart = System.nanoTime()
+    val index = EmojiSearchIndex.build(entries)
+    println("Build: ${entries.size} entries in ${(System.nanoTime() - buildStart) / 1_000_000} ms")
+
+    repeat(3) { round ->
+      val indexStart = System.nanoTime()
+      typed.forEach { index.query(it, 50) }
+      val indexNanos = System.nanoTime() - indexStart
+
+      val scanStart = System.nanoTime()
+      typed.forEach { scan(entries, it, 50) }
+      val scanNanos = System.nanoTime() - scanStart
+
+      println("Round $round, ${typed.size} keystrokes: index ${indexNanos / typed.size / 1000} us/query, scan ${scanNanos / typed.size / 1000} us/query")
+    }
+  }
+
+  private fun entry(label: String, emoji: String, rank: Int): EmojiSearchIndex.Entry {
+    return EmojiSearchIndex.Entry(label, emoji, rank)
+  }
+
+  private fun randomEntries(random: Random, count: Int): List<EmojiSearchIndex.Entry> {
+    return (0 until count).map { i ->
+      val label = (0 until random.nextInt(2, 12)).map { "abc d"[random.nextInt(5)] }.joinToString("")
+      val rank = if (random.nextInt(4) == 0) Int.MAX_VALUE else random.nextInt(1, 4000)
+      entry(label, "e${i % 3000}", rank)
+    }
+  }
+
+  /**
+   * What [EmojiSearchTable] used to do: take the best ranked matches from the whole table, then order them by similarity.
+   */
+  private fun scan(entries: List<EmojiSearchIndex.Entry>, originalQuery: String, limit: Int): List<String> {
+    val query = originalQuery.trim()
+    if (query.isEmpty()) {
+      return emptyList()
+    }
+
+    val maxRank = entries.filter { it.rank != Int.MAX_VALUE }.maxOfOrNull { it.rank } ?: 0
+    val lowerQuery = query.lowercase()
+
+    return entries
+      .filter { it.label.lowercase().contains(lowerQuery) || it.emoji == query }
+      .sortedWith(compareBy<EmojiSearchIndex.Entry> { it.rank }.thenBy { it.label }.thenBy { it.emoji })
+      .take(max(limit, 200))
+      .sortedBy { entry ->
+        val label = entry.label.lowercase()
+        val scaledRank = if (entry.rank == Int.MAX_VALUE) 2f else entry.rank * (2f / maxRank)
+
+        if (query == entry.emoji || lowerQuery == label) {
+          scaledRank
+        } else {
+          val start = label.indexOf(lowerQuery)
+          2f + start * 1.75f + (label.length - start - lowerQuery.length) * 0.75f + scaledRank
+        }
+      }
+      .map { it.emoji }
+      .distinct()
+      .take(limit)
+  }
+}
@@ -6,6 +6,7 @@ import org.signal.core.util.concurrent.DeadlockDetector
 import org.signal.libsignal.net.Network
 import org.signal.libsignal.zkgroup.profiles.ClientZkProfileOperations
 import org.signal.libsignal.zkgroup.receipts.ClientZkReceiptOperations
+import org.thoughtcrime.securesms.attachments.AttachmentTransferScheduler
 import org.thoughtcrime.securesms.components.TypingStatusRepository
 import org.thoughtcrime.securesms.components.TypingStatusSender
 import org.thoughtcrime.securesms.crypto.storage.SignalServiceDataStoreImpl
@@ -219,6 +220,10 @@ class MockApplicationDependencyProvider : AppDependencies.Provider {
     return mockk(relaxed = true)
   }
 
+  override fun provideAttachmentTransferScheduler(): AttachmentTransferScheduler {
+    return AttachmentTransferScheduler()
+  }
+
   override fun provideLibsignalNetwork(config: SignalServiceConfiguration): Network {
     return mockk(relaxed = true)
   }
@@ -0,0 +1,147 @@
+package org.thoughtcrime.securesms.jobmanager
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isTrue
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.Test
+import org.thoughtcrime.securesms.jobs.MinimalJobSpec
+
+class AdaptiveRunnerPolicyTest {
+
+  @Test
+  fun `canStart - limits cpu bound jobs`() {
+    val policy = AdaptiveRunnerPolicy(maxCpuBoundJobs = 1)
+    val cpuJob = job("cpu", Job.Workload.CPU)
+
+    policy.onJobStarted(cpuJob, 0)
+
+    assertThat(policy.canStart("cpu")).isFalse()
+    assertThat(policy.canStart("io")).isTrue()
+
+    policy.onJobFinished(cpuJob, 10)
+
+    assertThat(policy.canStart("cpu")).isTrue()
+  }
+
+  @Test
+  fun `canStart - unknown factories are let through`() {
+    val policy = AdaptiveRunnerPolicy(maxCpuBoundJobs = 1)
+    policy.onJobStarted(job("cpu", Job.Workload.CPU), 0)
+
+    assertThat(policy.canStart("never-seen")).isTrue()
+  }
+
+  @Test
+  fun `order - factories that have had less time go first`() {
+    val policy = AdaptiveRunnerPolicy()
+    repeat(3) { policy.onJobStarted(job("busy"), 0) }
+
+    val busy = spec("1", "busy", createTime = 1)
+    val quiet = spec("2", "quiet", createTime = 2)
+
+    assertThat(listOf(busy, quiet).sortedWith(policy.order())).isEqualTo(listOf(quiet, busy))
+  }
+
+  @Test
+  fun `order - global priority still comes first`() {
+    val policy = AdaptiveRunnerPolicy()
+    repeat(3) { policy.onJobStarted(job("busy"), 0) }
+
+    val busy = spec("1", "busy", createTime = 1, globalPriority = Job.Parameters.PRIORITY_HIGH)
+    val quiet = spec("2", "quiet", createTime = 2)
+
+    assertThat(listOf(quiet, busy).sortedWith(policy.order())).isEqualTo(listOf(busy, quiet))
+  }
+
+  @Test
+  fun `order - heavier factories can use more time before yielding`() {
+    val policy = AdaptiveRunnerPolicy(factoryWeights = mapOf("heavy" to 3))
+    val heavyJob = job("heavy")
+    val lightJob = job("light")
+
+    policy.onJobStarted(heavyJob, 0)
+    policy.onJobStarted(lightJob, 0)
+    policy.onJobFinished(heavyJob, 300)
+    policy.onJobFinished(lightJob, 300)
+
+    val light = spec("1", "light", createTime = 1)
+    val heavy = spec("2", "heavy", createTime = 2)
+
+    assertThat(listOf(light, heavy).sortedWith(policy.order())).isEqualTo(listOf(heavy, light))
+  }
+
+  @Test
+  fun `order - an idle factory does not bank credit`() {
+    val policy = AdaptiveRunnerPolicy()
+    repeat(10) {
+      val busyJob = job("busy")
+      policy.onJobStarted(busyJob, 0)
+      policy.onJobFinished(busyJob, 100)
+    }
+
+    val returning = job("returning")
+    policy.onJobStarted(returning, 0)
+    policy.onJobFinished(returning, 100)
+
+    val busy = spec("1", "busy", createTime = 1)
+    val other = spec("2", "returning", createTime = 2)
+
+    // Both are now level, so the storage's order decides
+    assertThat(listOf(busy, other).sortedWith(policy.order())).isEqualTo(listOf(busy, other))
+  }
+
+  @Test
+  fun `getRunnersToSpawn - adds one at a time while keeping up`() {
+    val policy = AdaptiveRunnerPolicy(targetWaitMs = 500)
+    policy.onJobStarted(job("f"), 10)
+
+    assertThat(policy.getRunnersToSpawn(activeRunners = 4, idleRunners = 0, eligibleJobCount = 6, maxRunners = 16)).isEqualTo(1)
+    assertThat(policy.getRunnersToSpawn(activeRunners = 4, idleRunners = 2, eligibleJobCount = 2, maxRunners = 16)).isEqualTo(0)
+  }
+
+  @Test
+  fun `getRunnersToSpawn - covers all waiting work when jobs are waiting too long`() {
+    val policy = AdaptiveRunnerPolicy(targetWaitMs = 500)
+    repeat(20) { policy.onJobStarted(job("f"), 5_000) }
+
+    assertThat(policy.getRunnersToSpawn(activeRunners = 4, idleRunners = 0, eligibleJobCount = 6, maxRunners = 16)).isEqualTo(6)
+    assertThat(policy.getRunnersToSpawn(activeRunners = 14, idleRunners = 0, eligibleJobCount = 6, maxRunners = 16)).isEqualTo(2)
+  }
+
+  @Test
+  fun `getIdleTimeout - shorter while keeping up`() {
+    val policy = AdaptiveRunnerPolicy(targetWaitMs = 500)
+
+    assertThat(policy.getIdleTimeout(60_000)).isEqualTo(15_000)
+
+    repeat(20) { policy.onJobStarted(job("f"), 5_000) }
+
+    assertThat(policy.getIdleTimeout(60_000)).isEqualTo(60_000)
+  }
+
+  private fun job(factoryKey: String, workload: Job.Workload = Job.Workload.IO): Job {
+    return mockk {
+      every { this@mockk.factoryKey } returns factoryKey
+      every { this@mockk.workload } returns workload
+    }
+  }
+
+  private fun spec(id: String, factoryKey: String, createTime: Long, globalPriority: Int = Job.Parameters.PRIORITY_DEFAULT): MinimalJobSpec {
+    return MinimalJobSpec(
+      id = id,
+      factoryKey = factoryKey,
+      queueKey = null,
+      createTime = createTime,
+      lastRunAttemptTime = 0,
+      nextBackoffInterval = 0,
+      globalPriority = globalPriority,
+      queuePriority = 0,
+      isRunning = false,
+      isMemoryOnly = false,
+      initialDelay = 0
+    )
+  }
+}
@@ -73,7 +73,8 @@ class JobControllerTest {
       MIN_RUNNERS,
       MAX_RUNNERS,
       1.seconds.inWholeMilliseconds,
-      emptyList()
+      emptyList(),
+      null
     )
   }
 
@@ -170,6 +171,7 @@ class JobControllerTest {
     val testJob = createTestJob("test-job-1", "TestFactory")
 
     every { jobStorage.getNextEligibleJob(any(), any()) } returns jobSpec
+    every { jobStorage.isJobEligible("test-job-1", any()) } returns true
     every { jobStorage.getConstraintSpecs("test-job-1") } returns emptyList()
     every { jobInstantiator.instantiate("TestFactory", any(), any()) } returns testJob
     every { jobStorage.markJobAsRunning("test-job-1", any()) } returns Unit
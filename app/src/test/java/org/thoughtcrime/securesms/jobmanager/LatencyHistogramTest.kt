@@ -0,0 +1,47 @@
+package org.thoughtcrime.securesms.jobmanager
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import org.junit.Test
+
+class LatencyHistogramTest {
+
+  @Test
+  fun `percentile - empty histogram is zero`() {
+    assertThat(LatencyHistogram().percentile(50.0)).isEqualTo(0L)
+  }
+
+  @Test
+  fun `percentile - reports the top of the bucket`() {
+    val histogram = LatencyHistogram()
+    repeat(90) { histogram.record(20) }
+    repeat(10) { histogram.record(400) }
+
+    assertThat(histogram.percentile(50.0)).isEqualTo(25L)
+    assertThat(histogram.percentile(90.0)).isEqualTo(25L)
+    assertThat(histogram.percentile(99.0)).isEqualTo(400L)
+    assertThat(histogram.count).isEqualTo(100L)
+  }
+
+  @Test
+  fun `percentile - overflow is reported as the max`() {
+    val histogram = LatencyHistogram()
+    histogram.record(5)
+    histogram.record(120_000)
+
+    assertThat(histogram.percentile(100.0)).isEqualTo(120_000L)
+    assertThat(histogram.maxMs).isEqualTo(120_000L)
+  }
+
+  @Test
+  fun `copy - is independent of the original`() {
+    val histogram = LatencyHistogram()
+    histogram.record(5)
+
+    val copy = histogram.copy()
+    histogram.record(5)
+
+    assertThat(copy.count).isEqualTo(1L)
+    assertThat(histogram.count).isEqualTo(2L)
+  }
+}
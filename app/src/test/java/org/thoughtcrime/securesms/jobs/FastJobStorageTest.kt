@@ -9,6 +9,7 @@ import assertk.assertions.prop
 import io.mockk.every
 import io.mockk.mockk
 import io.mockk.verify
+import org.junit.Ignore
 import org.junit.Test
 import org.thoughtcrime.securesms.database.JobDatabase
 import org.thoughtcrime.securesms.jobmanager.Job
@@ -18,6 +19,10 @@ import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec
 import org.thoughtcrime.securesms.testutil.TestHelpers
 import java.nio.charset.Charset
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 class FastJobStorageTest {
 
@@ -413,6 +418,37 @@ class FastJobStorageTest {
     assertThat(subject.getNextEligibleJob(10, NO_PREDICATE)).isEqualTo(fullSpec2.jobSpec)
   }
 
+  @Test
+  fun `getNextEligibleJob - with order, uses it and keeps storage order for ties`() {
+    val fullSpec1 = FullSpec(jobSpec(id = "1", factoryKey = "f1", createTime = 1), emptyList(), emptyList())
+    val fullSpec2 = FullSpec(jobSpec(id = "2", factoryKey = "f2", createTime = 2), emptyList(), emptyList())
+    val fullSpec3 = FullSpec(jobSpec(id = "3", factoryKey = "f2", createTime = 3), emptyList(), emptyList())
+
+    val subject = FastJobStorage(mockDatabase(listOf(fullSpec1, fullSpec2, fullSpec3)))
+    subject.init()
+
+    val f2First = compareBy<MinimalJobSpec> { if (it.factoryKey == "f2") 0 else 1 }
+
+    assertThat(subject.getNextEligibleJob(10, NO_PREDICATE, f2First)).isEqualTo(fullSpec2.jobSpec)
+    assertThat(subject.getNextEligibleJob(10, { it.id != "2" }, f2First)).isEqualTo(fullSpec3.jobSpec)
+  }
+
+  @Test
+  fun `getNextEligibleJob - with order, stops filtering at the first match`() {
+    val fullSpec1 = FullSpec(jobSpec(id = "1", factoryKey = "f1", createTime = 1), emptyList(), emptyList())
+    val fullSpec2 = FullSpec(jobSpec(id = "2", factoryKey = "f2", createTime = 2), emptyList(), emptyList())
+    val fullSpec3 = FullSpec(jobSpec(id = "3", factoryKey = "f3", createTime = 3), emptyList(), emptyList())
+
+    val subject = FastJobStorage(mockDatabase(listOf(fullSpec1, fullSpec2, fullSpec3)))
+    subject.init()
+
+    val filtered = mutableListOf<String>()
+    val newestFirst = compareByDescending<MinimalJobSpec> { it.createTime }
+
+    assertThat(subject.getNextEligibleJob(10, { filtered += it.id; true }, newestFirst)).isEqualTo(fullSpec3.jobSpec)
+    assertThat(filtered).isEqualTo(listOf("3"))
+  }
+
   @Test
   fun `getNextEligibleJob - single eligible job in mixed list`() {
     val fullSpec1 = FullSpec(jobSpec(id = "1", factoryKey = "f1", isRunning = true), emptyList(), emptyList())
@@ -900,6 +936,24 @@ class FastJobStorageTest {
     assertThat(subject.getEligibleJobCount(0)).isEqualTo(1)
   }
 
+  @Test
+  fun `getEligibleJobs - only the next job of each queue`() {
+    val subject = FastJobStorage(mockDatabase(DataSet1.FULL_SPECS))
+    subject.init()
+
+    assertThat(subject.getEligibleJobs(0).map { it.id }).isEqualTo(listOf(subject.getNextEligibleJob(0, NO_PREDICATE)!!.id))
+  }
+
+  @Test
+  fun `getConstraintSpecs - loaded for every job at init`() {
+    val subject = FastJobStorage(mockDatabase(DataSet1.FULL_SPECS))
+    subject.init()
+
+    for (fullSpec in DataSet1.FULL_SPECS) {
+      assertThat(subject.getConstraintSpecs(fullSpec.jobSpec.id)).isEqualTo(fullSpec.constraintSpecs)
+    }
+  }
+
   @Test
   fun `deleteJobs - writes to database`() {
     val database = mockDatabase(DataSet1.FULL_SPECS)
@@ -1435,6 +1489,114 @@ class FastJobStorageTest {
     assertThat(nextJob.isMemoryOnly).isEqualTo(true)
   }
 
+  @Test
+  fun `isJobEligible - most eligible job in queue`() {
+    val subject = FastJobStorage(mockDatabase(listOf(fullSpec("1", "f1", "q1"))))
+    subject.init()
+
+    assertThat(subject.isJobEligible("1", 10)).isEqualTo(true)
+  }
+
+  @Test
+  fun `isJobEligible - running job`() {
+    val subject = FastJobStorage(mockDatabase(listOf(fullSpec("1", "f1", "q1"))))
+    subject.init()
+    subject.markJobAsRunning("1", 10)
+
+    assertThat(subject.isJobEligible("1", 10)).isEqualTo(false)
+  }
+
+  @Test
+  fun `isJobEligible - not the head of its queue`() {
+    val first = FullSpec(jobSpec(id = "1", factoryKey = "f1", queueKey = "q1", createTime = 1), emptyList(), emptyList())
+    val second = FullSpec(jobSpec(id = "2", factoryKey = "f1", queueKey = "q1", createTime = 2), emptyList(), emptyList())
+
+    val subject = FastJobStorage(mockDatabase(listOf(first, second)))
+    subject.init()
+
+    assertThat(subject.isJobEligible("1", 10)).isEqualTo(true)
+    assertThat(subject.isJobEligible("2", 10)).isEqualTo(false)
+  }
+
+  @Test
+  fun `isJobEligible - deleted job`() {
+    val subject = FastJobStorage(mockDatabase(listOf(fullSpec("1", "f1", "q1"))))
+    subject.init()
+    subject.deleteJob("1")
+
+    assertThat(subject.isJobEligible("1", 10)).isEqualTo(false)
+  }
+
+  @Test
+  fun `getNextEligibleJob - concurrent runners each claim every job exactly once`() {
+    val fullSpecs = (1..500).map { i -> fullSpec("job-$i", "f1", queueKey = "q${i % 25}") }
+    val subject = FastJobStorage(mockDatabase(fullSpecs))
+    subject.init()
+
+    val claimed: MutableMap<String, Int> = ConcurrentHashMap()
+    runConcurrentRunners(subject, runnerCount = 8) { claimed.merge(it, 1, Int::plus) }
+
+    assertThat(claimed.size).isEqualTo(500)
+    assertThat(claimed.values.all { it == 1 }).isEqualTo(true)
+    assertThat(subject.getEligibleJobCount(10)).isEqualTo(0)
+  }
+
+  /**
+   * Not a real test, just a quick way to compare how long it takes a set of runners to drain a large backlog of jobs.
+   */
+  @Ignore("Benchmark")
+  @Test
+  fun `benchmark - drain with concurrent runners`() {
+    for (runnerCount in listOf(1, 2, 4, 8, 16)) {
+      val fullSpecs = (1..5_000).map { i -> fullSpec("job-$i", "f${i % 10}", queueKey = "q${i % 100}", globalPriority = i % 3) }
+      val subject = FastJobStorage(mockDatabase(fullSpecs))
+      subject.init()
+
+      val start = System.nanoTime()
+      runConcurrentRunners(subject, runnerCount) { }
+      val durationMs = (System.nanoTime() - start) / 1_000_000
+
+      println("Runners: $runnerCount, Jobs: ${fullSpecs.size}, Duration: $durationMs ms")
+    }
+  }
+
+  /**
+   * Mimics how JobController uses the storage: search without a lock, then confirm and claim under a lock, then run and delete.
+   */
+  private fun runConcurrentRunners(subject: FastJobStorage, runnerCount: Int, onClaimed: (String) -> Unit) {
+    val claimLock = Any()
+    val executor = Executors.newFixedThreadPool(runnerCount)
+    val done = CountDownLatch(runnerCount)
+
+    repeat(runnerCount) {
+      executor.execute {
+        while (true) {
+          val candidate: JobSpec = subject.getNextEligibleJob(10, NO_PREDICATE) ?: break
+
+          val claimedId: String? = synchronized(claimLock) {
+            if (subject.isJobEligible(candidate.id, 10)) {
+              subject.markJobAsRunning(candidate.id, 10)
+              candidate.id
+            } else {
+              null
+            }
+          }
+
+          if (claimedId != null) {
+            onClaimed(claimedId)
+            synchronized(claimLock) {
+              subject.deleteJob(claimedId)
+            }
+          }
+        }
+        done.countDown()
+      }
+    }
+
+    done.await(1, TimeUnit.MINUTES)
+    executor.shutdown()
+  }
+
   private fun mockDatabase(fullSpecs: List<FullSpec> = emptyList()): JobDatabase {
     val jobs = fullSpecs.map { it.jobSpec }.toMutableList()
     val constraints = fullSpecs.map { it.constraintSpecs }.flatten().toMutableList()
@@ -1444,8 +1606,8 @@ class FastJobStorageTest {
     every { mock.getJobSpecs(any()) } returns jobs
     every { mock.getAllMinimalJobSpecs() } returns jobs.map { it.toMinimalJobSpec() }
     every { mock.getConstraintSpecs(any()) } returns constraints
+    every { mock.getAllConstraintSpecs() } returns constraints
     every { mock.getAllDependencySpecs() } returns dependencies
-    every { mock.getConstraintSpecsForJobs(any()) } returns constraints
     every { mock.getJobSpec(any()) } answers { jobs.firstOrNull() { it.id == firstArg() } }
     every { mock.insertJobs(any()) } answers {
       val inserts: List<FullSpec> = firstArg()
@@ -0,0 +1,354 @@
+package org.thoughtcrime.securesms.jobs
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNotNull
+import assertk.assertions.isNull
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.Test
+import org.thoughtcrime.securesms.database.JobDatabase
+import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec
+import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class JobWriteJournalTest {
+
+  private val executor: ScheduledExecutorService = mockk(relaxed = true)
+
+  @Test
+  fun `insertJobs - not written until flushed`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1")))
+    verify(exactly = 0) { database.mock.insertJobs(any()) }
+
+    journal.flush()
+    assertThat(database.jobs.map { it.id }).isEqualTo(listOf("1"))
+    verify(exactly = 1) { database.mock.runInTransaction(any()) }
+  }
+
+  @Test
+  fun `insertJobs - schedules a single flush`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1")))
+    journal.insertJobs(listOf(fullSpec("2")))
+    journal.markJobAsRunning("1", 10)
+
+    verify(exactly = 1) { executor.schedule(any<Runnable>(), any(), TimeUnit.MILLISECONDS) }
+  }
+
+  @Test
+  fun `insertJobs - critical job flushes immediately, along with anything before it`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1")))
+    journal.insertJobs(listOf(fullSpec("2", isDurableCritical = true)))
+
+    assertThat(database.jobs.map { it.id }).isEqualTo(listOf("1", "2"))
+    assertThat(journal.pendingCount).isEqualTo(0)
+  }
+
+  @Test
+  fun `deleteJobs - insert followed by delete never touches the database`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1")))
+    journal.markJobAsRunning("1", 10)
+    journal.deleteJobs(listOf("1"))
+
+    assertThat(journal.pendingCount).isEqualTo(0)
+
+    journal.flush()
+    verify(exactly = 0) { database.mock.runInTransaction(any()) }
+    verify(exactly = 0) { database.mock.insertJobs(any()) }
+    verify(exactly = 0) { database.mock.deleteJobs(any()) }
+  }
+
+  @Test
+  fun `deleteJobs - only collapses the deleted job`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1"), fullSpec("2")))
+    journal.deleteJobs(listOf("1"))
+    journal.flush()
+
+    assertThat(database.jobs.map { it.id }).isEqualTo(listOf("2"))
+    verify(exactly = 0) { database.mock.deleteJobs(any()) }
+  }
+
+  @Test
+  fun `deleteJobs - previously written job is deleted and its pending updates are dropped`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1")))
+    journal.flush()
+
+    journal.markJobAsRunning("1", 10)
+    journal.deleteJobs(listOf("1"))
+    journal.flush()
+
+    assertThat(database.jobs.size).isEqualTo(0)
+    verify(exactly = 0) { database.mock.markJobAsRunning(any(), any()) }
+    verify(exactly = 1) { database.mock.deleteJobs(listOf("1")) }
+  }
+
+  @Test
+  fun `deleteJobs - pending dependents no longer depend on a collapsed job`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1")))
+    journal.insertJobs(listOf(fullSpec("2", dependsOn = "1")))
+    journal.deleteJobs(listOf("1"))
+    journal.flush()
+
+    assertThat(database.jobs.map { it.id }).isEqualTo(listOf("2"))
+    assertThat(database.dependencies.size).isEqualTo(0)
+  }
+
+  @Test
+  fun `updates - folded into a pending insert`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1")))
+    journal.markJobAsRunning("1", 10)
+    journal.updateJobAfterRetry("1", 20, 2, 1000, null)
+    journal.flush()
+
+    verify(exactly = 0) { database.mock.markJobAsRunning(any(), any()) }
+    verify(exactly = 0) { database.mock.updateJobAfterRetry(any(), any(), any(), any(), any()) }
+
+    val job = database.jobs.single()
+    assertThat(job.isRunning).isEqualTo(false)
+    assertThat(job.runAttempt).isEqualTo(2)
+    assertThat(job.lastRunAttemptTime).isEqualTo(20)
+    assertThat(job.nextBackoffInterval).isEqualTo(1000)
+  }
+
+  @Test
+  fun `updates - previously written job is updated in order`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1")))
+    journal.flush()
+
+    journal.markJobAsRunning("1", 10)
+    journal.updateJobAfterRetry("1", 20, 2, 1000, null)
+    journal.flush()
+
+    val job = database.jobs.single()
+    assertThat(job.isRunning).isEqualTo(false)
+    assertThat(job.runAttempt).isEqualTo(2)
+  }
+
+  @Test
+  fun `crash - unflushed job is lost`() {
+    val database = FakeJobDatabase()
+    val storage = FastJobStorage(database.mock, JobWriteJournal(database.mock, executor = executor))
+    storage.init()
+    storage.insertJobs(listOf(fullSpec("1")))
+
+    val restarted = FastJobStorage(database.mock)
+    restarted.init()
+
+    assertThat(restarted.getJobSpec("1")).isNull()
+  }
+
+  @Test
+  fun `crash - critical job survives`() {
+    val database = FakeJobDatabase()
+    val storage = FastJobStorage(database.mock, JobWriteJournal(database.mock, executor = executor))
+    storage.init()
+    storage.insertJobs(listOf(fullSpec("1", isDurableCritical = true)))
+
+    val restarted = FastJobStorage(database.mock)
+    restarted.init()
+
+    assertThat(restarted.getJobSpec("1")).isNotNull()
+  }
+
+  @Test
+  fun `crash - job that finished since the last flush is run again`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+    val storage = FastJobStorage(database.mock, journal)
+    storage.init()
+    storage.insertJobs(listOf(fullSpec("1")))
+    journal.flush()
+    storage.markJobAsRunning("1", 10)
+    storage.deleteJob("1")
+
+    val restarted = FastJobStorage(database.mock)
+    restarted.init()
+    restarted.updateAllJobsToBePending()
+
+    val job = restarted.getNextEligibleJob(100) { true }
+    assertThat(job).isNotNull()
+    assertThat(job!!.id).isEqualTo("1")
+    assertThat(job.isRunning).isEqualTo(false)
+  }
+
+  @Test
+  fun `crash - critical job that finished is not run again`() {
+    val database = FakeJobDatabase()
+    val storage = FastJobStorage(database.mock, JobWriteJournal(database.mock, executor = executor))
+    storage.init()
+    storage.insertJobs(listOf(fullSpec("1", isDurableCritical = true)))
+    storage.markJobAsRunning("1", 10)
+    assertThat(database.jobs.single().isRunning).isEqualTo(true)
+
+    storage.deleteJob("1")
+
+    val restarted = FastJobStorage(database.mock)
+    restarted.init()
+
+    assertThat(restarted.getJobSpec("1")).isNull()
+  }
+
+  @Test
+  fun `crash - changes to a job from a previous process are written immediately`() {
+    val database = FakeJobDatabase()
+    database.jobs += fullSpec("1").jobSpec
+
+    val journal = JobWriteJournal(database.mock, executor = executor)
+    val storage = FastJobStorage(database.mock, journal)
+    storage.init()
+    storage.deleteJob("1")
+
+    assertThat(journal.pendingCount).isEqualTo(0)
+    assertThat(database.jobs.size).isEqualTo(0)
+  }
+
+  @Test
+  fun `flush - failed transaction keeps the journal`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+
+    journal.insertJobs(listOf(fullSpec("1")))
+    journal.markJobAsRunning("1", 10)
+
+    every { database.mock.runInTransaction(any()) } throws IllegalStateException()
+    assertThat(runCatching { journal.flush() }.isFailure).isEqualTo(true)
+    assertThat(journal.pendingCount).isEqualTo(1)
+
+    every { database.mock.runInTransaction(any()) } answers { firstArg<() -> Unit>().invoke() }
+    journal.flush()
+
+    assertThat(journal.pendingCount).isEqualTo(0)
+    assertThat(database.jobs.single().isRunning).isEqualTo(true)
+  }
+
+  @Test
+  fun `crash - flushed state is recovered`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+    val storage = FastJobStorage(database.mock, journal)
+    storage.init()
+    storage.insertJobs(listOf(fullSpec("1"), fullSpec("2")))
+    storage.updateJobAfterRetry("1", 20, 2, 1000, null)
+    storage.deleteJob("2")
+    journal.flush()
+
+    val restarted = FastJobStorage(database.mock)
+    restarted.init()
+
+    assertThat(restarted.getJobSpec("2")).isNull()
+    assertThat(restarted.getJobSpec("1")?.runAttempt).isEqualTo(2)
+  }
+
+  @Test
+  fun `reads - flush the journal first`() {
+    val database = FakeJobDatabase()
+    val journal = JobWriteJournal(database.mock, executor = executor)
+    val storage = FastJobStorage(database.mock, journal)
+    storage.init()
+    storage.insertJobs(listOf(fullSpec("1")))
+
+    storage.getAllMatchingFilter { true }
+
+    assertThat(journal.pendingCount).isEqualTo(0)
+    assertThat(database.jobs.map { it.id }).isEqualTo(listOf("1"))
+  }
+
+  private fun fullSpec(id: String, dependsOn: String? = null, isDurableCritical: Boolean = false): FullSpec {
+    val jobSpec = JobSpec(
+      id = id,
+      factoryKey = "f1",
+      queueKey = null,
+      createTime = 1,
+      lastRunAttemptTime = 0,
+      nextBackoffInterval = 0,
+      runAttempt = 0,
+      maxAttempts = 1,
+      lifespan = -1,
+      serializedData = null,
+      serializedInputData = null,
+      isRunning = false,
+      isMemoryOnly = false,
+      globalPriority = 0,
+      queuePriority = 0,
+      initialDelay = 0
+    )
+
+    val dependencies = if (dependsOn != null) listOf(DependencySpec(jobId = id, dependsOnJobId = dependsOn, isMemoryOnly = false)) else emptyList()
+
+    return FullSpec(jobSpec, emptyList(), dependencies, isDurableCritical)
+  }
+
+  /**
+   * A [JobDatabase] that keeps its state in memory, so that it can outlive a [FastJobStorage] to simulate a process restart.
+   */
+  private class FakeJobDatabase {
+    val jobs: MutableList<JobSpec> = mutableListOf()
+    val dependencies: MutableList<DependencySpec> = mutableListOf()
+
+    val mock: JobDatabase = mockk<JobDatabase>(relaxed = true).also { mock ->
+      every { mock.runInTransaction(any()) } answers { firstArg<() -> Unit>().invoke() }
+      every { mock.getAllMinimalJobSpecs() } answers { jobs.map { it.toMinimalJobSpec() } }
+      every { mock.getJobSpecs(any()) } answers { jobs.toList() }
+      every { mock.getJobSpec(any()) } answers { jobs.firstOrNull { it.id == firstArg() } }
+      every { mock.getAllConstraintSpecs() } returns emptyList()
+      every { mock.getAllDependencySpecs() } answers { dependencies.toList() }
+      every { mock.insertJobs(any()) } answers {
+        val inserts: List<FullSpec> = firstArg()
+        for (insert in inserts) {
+          jobs += insert.jobSpec
+          dependencies += insert.dependencySpecs
+        }
+      }
+      every { mock.markJobAsRunning(any(), any()) } answers {
+        val id: String = firstArg()
+        jobs.replaceAll { if (it.id == id) it.copy(isRunning = true, lastRunAttemptTime = secondArg()) else it }
+      }
+      every { mock.updateJobAfterRetry(any(), any(), any(), any(), any()) } answers {
+        val id = args[0] as String
+        jobs.replaceAll {
+          if (it.id == id) {
+            it.copy(isRunning = false, lastRunAttemptTime = args[1] as Long, runAttempt = args[2] as Int, nextBackoffInterval = args[3] as Long, serializedData = args[4] as ByteArray?)
+          } else {
+            it
+          }
+        }
+      }
+      every { mock.updateAllJobsToBePending() } answers { jobs.replaceAll { it.copy(isRunning = false) } }
+      every { mock.deleteJobs(any()) } answers {
+        val ids: List<String> = firstArg()
+        jobs.removeIf { ids.contains(it.id) }
+        dependencies.removeIf { ids.contains(it.jobId) || ids.contains(it.dependsOnJobId) }
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package org.thoughtcrime.securesms.keyvalue
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isTrue
+import org.junit.Test
+
+class KeyValueStoreTest {
+
+  @Test
+  fun `reads reflect writes immediately`() {
+    val store = KeyValueStore(MockKeyValuePersistentStorage.withDataSet(KeyValueDataSet()))
+
+    store.beginWrite().putLong("a", 1).putString("b", "hello").apply()
+
+    assertThat(store.getLong("a", 0)).isEqualTo(1L)
+    assertThat(store.getString("b", null)).isEqualTo("hello")
+  }
+
+  @Test
+  fun `removes are applied`() {
+    val initial = KeyValueDataSet().apply { putBoolean("a", true) }
+    val store = KeyValueStore(MockKeyValuePersistentStorage.withDataSet(initial))
+
+    store.beginWrite().remove("a").apply()
+
+    assertThat(store.containsKey("a")).isFalse()
+  }
+
+  @Test
+  fun `beginRead is not affected by later writes`() {
+    val store = KeyValueStore(MockKeyValuePersistentStorage.withDataSet(KeyValueDataSet()))
+    store.beginWrite().putInteger("a", 1).apply()
+
+    val reader = store.beginRead()
+    store.beginWrite().putInteger("a", 2).putBoolean("b", true).apply()
+
+    assertThat(reader.getInteger("a", 0)).isEqualTo(1)
+    assertThat(reader.containsKey("b")).isFalse()
+    assertThat(store.getInteger("a", 0)).isEqualTo(2)
+    assertThat(store.getBoolean("b", false)).isTrue()
+  }
+
+  @Test
+  fun `writes are persisted`() {
+    val persisted = KeyValueDataSet()
+    val store = KeyValueStore(MockKeyValuePersistentStorage.withDataSet(persisted))
+
+    store.beginWrite().putLong("a", 5).commit()
+
+    assertThat(persisted.getLong("a", 0)).isEqualTo(5L)
+  }
+}
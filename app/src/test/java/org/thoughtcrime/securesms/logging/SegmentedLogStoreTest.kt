@@ -0,0 +1,189 @@
+package org.thoughtcrime.securesms.logging
+
+import assertk.assertThat
+import assertk.assertions.contains
+import assertk.assertions.endsWith
+import assertk.assertions.isEmpty
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isLessThanOrEqualTo
+import assertk.assertions.startsWith
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.thoughtcrime.securesms.database.LogDatabase
+import org.thoughtcrime.securesms.database.model.LogEntry
+import java.io.File
+
+class SegmentedLogStoreTest {
+
+  @get:Rule
+  val folder = TemporaryFolder()
+
+  private val secret = ByteArray(32) { it.toByte() }
+
+  @Test
+  fun `read - formats entries lazily`() {
+    val store = store()
+    val now = System.currentTimeMillis()
+
+    store.append(listOf(entry(now, "hello")))
+
+    val lines = store.readAll(now + 1)
+    assertThat(lines.size).isEqualTo(1)
+    assertThat(lines[0]).startsWith("[1.0] [main ] ")
+    assertThat(lines[0]).endsWith(" I Tag: hello")
+  }
+
+  @Test
+  fun `read - stack trace is expanded into one line per trace line`() {
+    val store = store()
+    val now = System.currentTimeMillis()
+
+    store.append(listOf(entry(now, "oops", stackTrace = "first\nsecond")))
+
+    val lines = store.readAll(now + 1)
+    assertThat(lines.size).isEqualTo(3)
+    assertThat(lines[0]).endsWith("Tag: oops")
+    assertThat(lines[1]).endsWith("Tag: first")
+    assertThat(lines[2]).endsWith("Tag: second")
+  }
+
+  @Test
+  fun `read - interleaves keep longer entries by time and marks them`() {
+    val store = store()
+    val now = System.currentTimeMillis()
+
+    store.append(
+      listOf(
+        entry(now, "1"),
+        entry(now + 1, "2", keepLonger = true),
+        entry(now + 2, "3")
+      )
+    )
+
+    val lines = store.readAll(now + 10)
+    assertThat(lines.map { it.substringAfterLast(": ") }).isEqualTo(listOf("1", "2", "3"))
+    assertThat(lines[1]).startsWith(LogDatabase.LogTable.KEEP_LONGER_MARKER)
+  }
+
+  @Test
+  fun `read - only returns entries before the given time`() {
+    val store = store()
+    val now = System.currentTimeMillis()
+
+    store.append(listOf(entry(now, "before"), entry(now + 5, "after")))
+
+    assertThat(store.readAll(now + 5).map { it.substringAfterLast(": ") }).isEqualTo(listOf("before"))
+  }
+
+  @Test
+  fun `read - preformatted entries are returned as-is`() {
+    val store = store()
+    val now = System.currentTimeMillis()
+
+    store.append(listOf(LogEntry(now, false, SegmentedLogStore.LEVEL_PREFORMATTED, "", "", "already formatted")))
+
+    assertThat(store.readAll(now + 1)).isEqualTo(listOf("already formatted"))
+  }
+
+  @Test
+  fun `read - skips expired entries`() {
+    val store = store()
+    val now = System.currentTimeMillis()
+
+    store.append(listOf(entry(now - LogDatabase.LogTable.DEFAULT_LIFESPAN - 1, "old"), entry(now, "new")))
+
+    assertThat(store.readAll(now + 1).map { it.substringAfterLast(": ") }).isEqualTo(listOf("new"))
+  }
+
+  @Test
+  fun `append - oldest segments are dropped once the ring is full`() {
+    val store = store(segmentCount = 2)
+    val now = System.currentTimeMillis()
+
+    store.append((0 until 500).map { entry(now + it, "message $it".padEnd(100, '.')) })
+
+    val segments = segments()
+    assertThat(segments.size).isLessThanOrEqualTo(2)
+
+    val lines = store.readAll(now + 1000)
+    assertThat(lines.last()).contains("message 499")
+    assertThat(lines.first().contains("message 0.")).isFalse()
+  }
+
+  @Test
+  fun `append - segments do not contain plaintext`() {
+    val store = store()
+    val now = System.currentTimeMillis()
+
+    store.append(listOf(entry(now, "supersecretmessage")))
+
+    for (segment in segments()) {
+      assertThat(String(segment.readBytes(), Charsets.ISO_8859_1).contains("supersecretmessage")).isFalse()
+    }
+  }
+
+  @Test
+  fun `append - new instance continues where the last one left off`() {
+    val now = System.currentTimeMillis()
+
+    store().append(listOf(entry(now, "first")))
+    store().append(listOf(entry(now + 1, "second")))
+
+    assertThat(segments().size).isEqualTo(1)
+    assertThat(store().readAll(now + 2).map { it.substringAfterLast(": ") }).isEqualTo(listOf("first", "second"))
+  }
+
+  @Test
+  fun `trim - deletes segments that have expired`() {
+    val now = System.currentTimeMillis()
+
+    store().append(listOf(entry(now, "hello")))
+    assertThat(segments().size).isEqualTo(1)
+
+    store().trim(currentTime = now + LogDatabase.LogTable.DEFAULT_LIFESPAN + 1)
+    assertThat(segments()).isEmpty()
+  }
+
+  @Test
+  fun `clearKeepLonger - only removes keep longer entries`() {
+    val store = store()
+    val now = System.currentTimeMillis()
+
+    store.append(listOf(entry(now, "regular"), entry(now + 1, "kept", keepLonger = true)))
+    store.clearKeepLonger()
+
+    assertThat(store.readAll(now + 10).map { it.substringAfterLast(": ") }).isEqualTo(listOf("regular"))
+  }
+
+  private fun store(segmentCount: Int = SegmentedLogStore.DEFAULT_SEGMENT_COUNT): SegmentedLogStore {
+    return SegmentedLogStore(
+      directory = File(folder.root, "logs"),
+      secret = secret,
+      appVersion = "1.0",
+      segmentSize = 8 * 1024,
+      defaultSegmentCount = segmentCount
+    )
+  }
+
+  private fun segments(): List<File> {
+    return File(folder.root, "logs").listFiles().orEmpty().filter { it.name.startsWith("log-") }
+  }
+
+  private fun entry(createdAt: Long, message: String, keepLonger: Boolean = false, stackTrace: String? = null): LogEntry {
+    return LogEntry(
+      createdAt = createdAt,
+      keepLonger = keepLonger,
+      level = 'I',
+      threadString = "main ",
+      tag = "Tag",
+      message = message,
+      stackTrace = stackTrace
+    )
+  }
+
+  private fun SegmentedLogStore.readAll(time: Long, currentTime: Long = System.currentTimeMillis()): List<String> {
+    return read(time, currentTime).use { it.asSequence().toList() }
+  }
+}
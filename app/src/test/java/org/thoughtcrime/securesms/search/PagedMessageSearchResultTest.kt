@@ -0,0 +1,78 @@
+package org.thoughtcrime.securesms.search
+
+import assertk.assertThat
+import assertk.assertions.isEqualTo
+import assertk.assertions.isNull
+import io.mockk.mockk
+import org.junit.Test
+import org.signal.paging.PagedDataSource
+import org.thoughtcrime.securesms.recipients.Recipient
+
+class PagedMessageSearchResultTest {
+
+  private val matches: List<MessageResult> = (0 until 20).map { messageResult(it.toLong()) }
+  private val mentions: List<MessageResult> = (100 until 103).map { messageResult(it.toLong()) }
+
+  @Test
+  fun `size includes matches and mentions`() {
+    val subject = PagedMessageSearchResult("query", matches.size, mentions, FakeLoader())
+
+    assertThat(subject.size).isEqualTo(23)
+  }
+
+  @Test
+  fun `load only fetches what has not already been loaded`() {
+    val loader = FakeLoader()
+    val subject = PagedMessageSearchResult("query", matches.size, mentions, loader)
+
+    subject.load(0, 10, { false })
+    subject.load(5, 15, { false })
+
+    assertThat(loader.requests).isEqualTo(listOf(0 to 10, 10 to 5))
+    assertThat(subject[12]).isEqualTo(matches[12])
+  }
+
+  @Test
+  fun `load does not fetch mentions`() {
+    val loader = FakeLoader()
+    val subject = PagedMessageSearchResult("query", matches.size, mentions, loader)
+
+    assertThat(subject.load(18, 23, { false })).isEqualTo(23)
+
+    assertThat(loader.requests).isEqualTo(listOf(18 to 2))
+    assertThat(subject[19]).isEqualTo(matches[19])
+    assertThat(subject[20]).isEqualTo(mentions[0])
+  }
+
+  @Test
+  fun `load fails when canceled`() {
+    val subject = PagedMessageSearchResult("query", matches.size, mentions, FakeLoader())
+
+    assertThat(subject.load(0, 10, { true })).isNull()
+  }
+
+  @Test
+  fun `load returns the partial page when fewer matches come back than were counted`() {
+    val subject = PagedMessageSearchResult("query", matches.size + 5, mentions, FakeLoader())
+
+    assertThat(subject.load(15, 25, { false })).isEqualTo(20)
+    assertThat(subject[19]).isEqualTo(matches[19])
+  }
+
+  private fun messageResult(id: Long): MessageResult {
+    return MessageResult(mockk<Recipient>(), mockk<Recipient>(), "body", "snippet", 1, id, id, true)
+  }
+
+  private inner class FakeLoader : PagedMessageSearchResult.PageLoader {
+    val requests = mutableListOf<Pair<Int, Int>>()
+
+    override fun load(offset: Int, limit: Int, cancellationSignal: PagedDataSource.CancellationSignal): List<MessageResult>? {
+      if (cancellationSignal.isCanceled) {
+        return null
+      }
+
+      requests += offset to limit
+      return matches.drop(offset).take(limit)
+    }
+  }
+}
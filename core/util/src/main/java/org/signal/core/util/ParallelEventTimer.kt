@@ -52,6 +52,14 @@ class ParallelEventTimer {
     return result
   }
 
+  /**
+   * Creates a [LapTimer] that records events into this timer. Lets a single thread time a sequence of steps like you would with an [EventTimer],
+   * while many threads do the same thing at once.
+   */
+  fun newLapTimer(): LapTimer {
+    return LapTimer(this)
+  }
+
   /**
    * Stops the timer and returns a mapping of group -> [EventMetrics], which will tell you various statistics around timings for that group.
    * It is assumed that all events have been stopped by the time this has been called.
@@ -87,6 +95,20 @@ class ParallelEventTimer {
     }
   }
 
+  /**
+   * Each call to [emit] records the time since the previous call (or since creation) under the given group. Not thread-safe, so each thread
+   * should have its own.
+   */
+  class LapTimer internal constructor(private val timer: ParallelEventTimer) {
+    private var lastTimeNanos = System.nanoTime()
+
+    fun emit(group: String) {
+      val now = System.nanoTime()
+      timer.durationsByGroup.computeIfAbsent(group) { ConcurrentLinkedQueue() } += now - lastTimeNanos
+      lastTimeNanos = now
+    }
+  }
+
   fun interface EventStopper {
     fun stopEvent()
   }
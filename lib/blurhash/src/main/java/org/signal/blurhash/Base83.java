@@ -22,19 +22,26 @@ package org.signal.blurhash;
 
 import androidx.annotation.Nullable;
 
+import java.util.Arrays;
+
 final class Base83 {
 
   private static final int MAX_LENGTH = 90;
 
   private static final char[]ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~".toCharArray();
 
-  private static int indexOf(char[] a, char key) {
-    for (int i = 0; i < a.length; i++) {
-      if (a[i] == key) {
-        return i;
-      }
+  /** Maps a character back to its position in {@link #ALPHABET}, or -1. */
+  private static final byte[] INDEX = new byte[128];
+
+  static {
+    Arrays.fill(INDEX, (byte) -1);
+    for (int i = 0; i < ALPHABET.length; i++) {
+      INDEX[ALPHABET[i]] = (byte) i;
     }
-    return -1;
+  }
+
+  private static int indexOf(char key) {
+    return key < INDEX.length ? INDEX[key] : -1;
   }
 
   static void encode(long value, int length, char[] buffer, int offset) {
@@ -47,9 +54,8 @@ final class Base83 {
 
   static int decode(String value, int fromInclusive, int toExclusive) {
     int result = 0;
-    char[] chars = value.toCharArray();
     for (int i = fromInclusive; i < toExclusive; i++) {
-      result = result * 83 + indexOf(ALPHABET, chars[i]);
+      result = result * 83 + indexOf(value.charAt(i));
     }
     return result;
   }
@@ -61,7 +67,7 @@ final class Base83 {
     if (length == 0 || length > MAX_LENGTH) return false;
 
     for (int i = 0; i < length; i++) {
-      if (indexOf(ALPHABET, value.charAt(i)) == -1) return false;
+      if (indexOf(value.charAt(i)) == -1) return false;
     }
 
     return true;
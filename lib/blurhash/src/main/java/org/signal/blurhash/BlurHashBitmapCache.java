@@ -0,0 +1,66 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.signal.blurhash;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Remembers recently decoded blur hashes, keyed by hash and size, so a screen full of the same placeholders (or the same placeholder being
+ * re-bound while scrolling) only decodes each one once.
+ * <p>
+ * The bitmaps handed out are shared, so callers must not modify or recycle them.
+ */
+public final class BlurHashBitmapCache {
+
+  private static final int DEFAULT_MAX_BYTES = 512 * 1024;
+
+  private static final BlurHashBitmapCache INSTANCE = new BlurHashBitmapCache(DEFAULT_MAX_BYTES);
+
+  private final LruCache<String, Bitmap> cache;
+
+  public static @NonNull BlurHashBitmapCache getInstance() {
+    return INSTANCE;
+  }
+
+  public BlurHashBitmapCache(int maxBytes) {
+    this.cache = new LruCache<String, Bitmap>(maxBytes) {
+      @Override
+      protected int sizeOf(@NonNull String key, @NonNull Bitmap value) {
+        return value.getByteCount();
+      }
+    };
+  }
+
+  /**
+   * Returns the decoded bitmap from the cache, decoding and caching it first if needed.
+   */
+  public @Nullable Bitmap decode(@Nullable String blurHash, int width, int height) {
+    if (blurHash == null) {
+      return null;
+    }
+
+    String key    = blurHash + ":" + width + "x" + height;
+    Bitmap cached = cache.get(key);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    Bitmap decoded = BlurHashDecoder.decode(blurHash, width, height);
+    if (decoded != null) {
+      cache.put(key, decoded);
+    }
+
+    return decoded;
+  }
+
+  public void clear() {
+    cache.evictAll();
+  }
+}
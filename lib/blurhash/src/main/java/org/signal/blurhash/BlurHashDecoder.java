@@ -21,11 +21,10 @@
 package org.signal.blurhash;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
 
 import androidx.annotation.Nullable;
 
-import static org.signal.blurhash.BlurHashUtil.linearTosRGB;
+import static org.signal.blurhash.BlurHashUtil.linearTosRGBFast;
 import static org.signal.blurhash.BlurHashUtil.sRGBToLinear;
 import static org.signal.blurhash.BlurHashUtil.signPow;
 
@@ -36,6 +35,21 @@ public class BlurHashDecoder {
   }
 
   static @Nullable Bitmap decode(@Nullable String blurHash, int width, int height, double punch) {
+    int[] pixels = decodePixels(blurHash, width, height, punch);
+    if (pixels == null) {
+      return null;
+    }
+
+    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+
+    return bitmap;
+  }
+
+  /**
+   * Decodes the hash into ARGB pixels, row by row. Kept separate from the {@link Bitmap} so it can be benchmarked on the JVM.
+   */
+  static @Nullable int[] decodePixels(@Nullable String blurHash, int width, int height, double punch) {
 
     if (blurHash == null || blurHash.length() < 6) {
       return null;
@@ -49,65 +63,84 @@ public class BlurHashDecoder {
       return null;
     }
 
-    int        maxAcEnc = Base83.decode(blurHash, 1, 2);
-    double     maxAc    = (maxAcEnc + 1) / 166f;
-    double[][] colors   = new double[numCompX * numCompY][];
-    for (int i = 0; i < colors.length; i++) {
-      if (i == 0) {
-        int colorEnc = Base83.decode(blurHash, 2, 6);
-        colors[i] = decodeDc(colorEnc);
-      } else {
-        int from = 4 + i * 2;
-        int colorEnc = Base83.decode(blurHash, from, from + 2);
-        colors[i] = decodeAc(colorEnc, maxAc * punch);
-      }
+    int     maxAcEnc = Base83.decode(blurHash, 1, 2);
+    double  maxAc    = (maxAcEnc + 1) / 166f;
+    float[] colors   = new float[numCompX * numCompY * 3];
+
+    decodeDc(Base83.decode(blurHash, 2, 6), colors);
+    for (int i = 1; i < numCompX * numCompY; i++) {
+      int from = 4 + i * 2;
+      int colorEnc = Base83.decode(blurHash, from, from + 2);
+      decodeAc(colorEnc, maxAc * punch, colors, i * 3);
     }
 
-    return composeBitmap(width, height, numCompX, numCompY, colors);
+    return composePixels(width, height, numCompX, numCompY, colors);
   }
 
-  private static double[] decodeDc(int colorEnc) {
+  private static void decodeDc(int colorEnc, float[] colors) {
     int r = colorEnc >> 16;
     int g = (colorEnc >> 8) & 255;
     int b = colorEnc & 255;
-    return new double[] {sRGBToLinear(r),
-                         sRGBToLinear(g),
-                         sRGBToLinear(b)};
+    colors[0] = (float) sRGBToLinear(r);
+    colors[1] = (float) sRGBToLinear(g);
+    colors[2] = (float) sRGBToLinear(b);
   }
 
-  private static double[] decodeAc(int value, double maxAc) {
+  private static void decodeAc(int value, double maxAc, float[] colors, int offset) {
     int r = value / (19 * 19);
     int g = (value / 19) % 19;
     int b = value % 19;
-    return new double[]{
-        signPow((r - 9) / 9.0f, 2f) * maxAc,
-        signPow((g - 9) / 9.0f, 2f) * maxAc,
-        signPow((b - 9) / 9.0f, 2f) * maxAc
-    };
+    colors[offset]     = (float) (signPow((r - 9) / 9.0f, 2f) * maxAc);
+    colors[offset + 1] = (float) (signPow((g - 9) / 9.0f, 2f) * maxAc);
+    colors[offset + 2] = (float) (signPow((b - 9) / 9.0f, 2f) * maxAc);
   }
 
-  private static Bitmap composeBitmap(int width, int height, int numCompX, int numCompY, double[][] colors) {
-    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
+  /**
+   * The basis is separable, so for each row we first fold the vertical cosines into one color per horizontal component, and then each pixel
+   * only has to sum numCompX terms rather than numCompX * numCompY.
+   */
+  private static int[] composePixels(int width, int height, int numCompX, int numCompY, float[] colors) {
+    float[] cosX   = BlurHashUtil.cosineBasisFloat(numCompX, width);
+    float[] cosY   = BlurHashUtil.cosineBasisFloat(numCompY, height);
+    float[] row    = new float[numCompX * 3];
+    int[]   pixels = new int[width * height];
 
-        double r = 0f;
-        double g = 0f;
-        double b = 0f;
+    for (int y = 0; y < height; y++) {
+      for (int i = 0; i < numCompX; i++) {
+        float r = 0f;
+        float g = 0f;
+        float b = 0f;
 
         for (int j = 0; j < numCompY; j++) {
-          for (int i = 0; i < numCompX; i++) {
-            double basis = (Math.cos(Math.PI * x * i / width) * Math.cos(Math.PI * y * j / height));
-            double[] color = colors[j * numCompX + i];
-            r += color[0] * basis;
-            g += color[1] * basis;
-            b += color[2] * basis;
-          }
+          float basis = cosY[j * height + y];
+          int   color = (j * numCompX + i) * 3;
+          r += colors[color] * basis;
+          g += colors[color + 1] * basis;
+          b += colors[color + 2] * basis;
+        }
+
+        row[i * 3]     = r;
+        row[i * 3 + 1] = g;
+        row[i * 3 + 2] = b;
+      }
+
+      int rowStart = y * width;
+      for (int x = 0; x < width; x++) {
+        float r = 0f;
+        float g = 0f;
+        float b = 0f;
+
+        for (int i = 0; i < numCompX; i++) {
+          float basis = cosX[i * width + x];
+          r += row[i * 3] * basis;
+          g += row[i * 3 + 1] * basis;
+          b += row[i * 3 + 2] * basis;
         }
-        bitmap.setPixel(x, y, Color.rgb((int) linearTosRGB(r), (int) linearTosRGB(g), (int) linearTosRGB(b)));
+
+        pixels[rowStart + x] = 0xff000000 | (linearTosRGBFast(r) << 16) | (linearTosRGBFast(g) << 8) | linearTosRGBFast(b);
       }
     }
 
-    return bitmap;
+    return pixels;
   }
 }
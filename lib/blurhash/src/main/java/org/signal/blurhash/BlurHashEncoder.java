@@ -28,10 +28,11 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.InputStream;
+import java.util.Arrays;
 
+import static org.signal.blurhash.BlurHashUtil.channelToLinear;
 import static org.signal.blurhash.BlurHashUtil.linearTosRGB;
 import static org.signal.blurhash.BlurHashUtil.max;
-import static org.signal.blurhash.BlurHashUtil.sRGBToLinear;
 import static org.signal.blurhash.BlurHashUtil.signPow;
 
 public final class BlurHashEncoder {
@@ -65,7 +66,7 @@ public final class BlurHashEncoder {
     return encode(pixels, width, height, componentX, componentY);
   }
 
-  private static String encode(int[] pixels, int width, int height, int componentX, int componentY) {
+  static String encode(int[] pixels, int width, int height, int componentX, int componentY) {
 
     if (componentX < 1 || componentX > 9 || componentY < 1 || componentY > 9) {
       throw new IllegalArgumentException("Blur hash must have between 1 and 9 components");
@@ -74,24 +75,18 @@ public final class BlurHashEncoder {
       throw new IllegalArgumentException("Width and height must match the pixels array");
     }
 
-    double[][] factors = new double[componentX * componentY][3];
-    for (int j = 0; j < componentY; j++) {
-      for (int i = 0; i < componentX; i++) {
-        double normalisation = i == 0 && j == 0 ? 1 : 2;
-        applyBasisFunction(pixels, width, height,
-            normalisation, i, j,
-            factors, j * componentX + i);
-      }
-    }
+    int      componentCount = componentX * componentY;
+    double[] factors        = new double[componentCount * 3];
+    applyBasisFunctions(pixels, width, height, componentX, componentY, factors);
 
-    char[] hash = new char[1 + 1 + 4 + 2 * (factors.length - 1)]; // size flag + max AC + DC + 2 * AC components
+    char[] hash = new char[1 + 1 + 4 + 2 * (componentCount - 1)]; // size flag + max AC + DC + 2 * AC components
 
     long sizeFlag = componentX - 1 + (componentY - 1) * 9;
     Base83.encode(sizeFlag, 1, hash, 0);
 
     double maximumValue;
-    if (factors.length > 1) {
-      double actualMaximumValue    = max(factors, 1, factors.length);
+    if (componentCount > 1) {
+      double actualMaximumValue    = max(factors, 3, factors.length);
       double quantisedMaximumValue = Math.floor(Math.max(0, Math.min(82, Math.floor(actualMaximumValue * 166 - 0.5))));
       maximumValue = (quantisedMaximumValue + 1) / 166;
       Base83.encode(Math.round(quantisedMaximumValue), 1, hash, 1);
@@ -100,48 +95,72 @@ public final class BlurHashEncoder {
       Base83.encode(0, 1, hash, 1);
     }
 
-    double[] dc = factors[0];
-    Base83.encode(encodeDC(dc), 4, hash, 2);
+    Base83.encode(encodeDC(factors), 4, hash, 2);
 
-    for (int i = 1; i < factors.length; i++) {
-      Base83.encode(encodeAC(factors[i], maximumValue), 2, hash, 6 + 2 * (i - 1));
+    for (int i = 1; i < componentCount; i++) {
+      Base83.encode(encodeAC(factors, i * 3, maximumValue), 2, hash, 6 + 2 * (i - 1));
     }
     return new String(hash);
   }
 
-  private static void applyBasisFunction(int[] pixels, int width, int height,
-                                         double normalisation, int i, int j,
-                                         double[][] factors, int index)
-  {
-    double r = 0, g = 0, b = 0;
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        double basis = normalisation
-                     * Math.cos((Math.PI * i * x) / width)
-                     * Math.cos((Math.PI * j * y) / height);
-        int pixel = pixels[y * width + x];
-        r += basis * sRGBToLinear((pixel >> 16) & 0xff);
-        g += basis * sRGBToLinear((pixel >> 8)  & 0xff);
-        b += basis * sRGBToLinear( pixel        & 0xff);
+  /**
+   * Fills in all of the factors in one pass over the pixels. The basis is separable, so each row is first reduced to one sum per horizontal
+   * component, and those sums are then spread across the vertical components. The factors are laid out as {@code [r, g, b]} per component.
+   */
+  private static void applyBasisFunctions(int[] pixels, int width, int height, int componentX, int componentY, double[] factors) {
+    double[] cosX = BlurHashUtil.cosineBasis(componentX, width);
+    double[] cosY = BlurHashUtil.cosineBasis(componentY, height);
+    double[] row  = new double[componentX * 3];
+
+    for (int y = 0; y < height; y++) {
+      Arrays.fill(row, 0);
+
+      int rowStart = y * width;
+      for (int x = 0; x < width; x++) {
+        int    pixel = pixels[rowStart + x];
+        double r     = channelToLinear(pixel >> 16);
+        double g     = channelToLinear(pixel >> 8);
+        double b     = channelToLinear(pixel);
+
+        for (int i = 0; i < componentX; i++) {
+          double basis = cosX[i * width + x];
+          row[i * 3]     += basis * r;
+          row[i * 3 + 1] += basis * g;
+          row[i * 3 + 2] += basis * b;
+        }
+      }
+
+      for (int j = 0; j < componentY; j++) {
+        double basis = cosY[j * height + y];
+        for (int i = 0; i < componentX; i++) {
+          int factor = (j * componentX + i) * 3;
+          factors[factor]     += basis * row[i * 3];
+          factors[factor + 1] += basis * row[i * 3 + 1];
+          factors[factor + 2] += basis * row[i * 3 + 2];
+        }
       }
     }
+
     double scale = 1.0 / (width * height);
-    factors[index][0] = r * scale;
-    factors[index][1] = g * scale;
-    factors[index][2] = b * scale;
+    for (int c = 0; c < componentX * componentY; c++) {
+      double normalisation = c == 0 ? 1 : 2;
+      factors[c * 3]     *= normalisation * scale;
+      factors[c * 3 + 1] *= normalisation * scale;
+      factors[c * 3 + 2] *= normalisation * scale;
+    }
   }
 
-  private static long encodeDC(double[] value) {
-    long r = linearTosRGB(value[0]);
-    long g = linearTosRGB(value[1]);
-    long b = linearTosRGB(value[2]);
+  private static long encodeDC(double[] factors) {
+    long r = linearTosRGB(factors[0]);
+    long g = linearTosRGB(factors[1]);
+    long b = linearTosRGB(factors[2]);
     return (r << 16) + (g << 8) + b;
   }
 
-  private static long encodeAC(double[] value, double maximumValue) {
-    double quantR = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[0] / maximumValue, 0.5) * 9 + 9.5))));
-    double quantG = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[1] / maximumValue, 0.5) * 9 + 9.5))));
-    double quantB = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(value[2] / maximumValue, 0.5) * 9 + 9.5))));
+  private static long encodeAC(double[] factors, int offset, double maximumValue) {
+    double quantR = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(factors[offset] / maximumValue, 0.5) * 9 + 9.5))));
+    double quantG = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(factors[offset + 1] / maximumValue, 0.5) * 9 + 9.5))));
+    double quantB = Math.floor(Math.max(0, Math.min(18, Math.floor(signPow(factors[offset + 2] / maximumValue, 0.5) * 9 + 9.5))));
     return Math.round(quantR * 19 * 19 + quantG * 19 + quantB);
   }
 
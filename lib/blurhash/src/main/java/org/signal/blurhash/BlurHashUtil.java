@@ -6,15 +6,39 @@ package org.signal.blurhash;
 
 final class BlurHashUtil {
 
+  /** Every 8-bit sRGB value converted to linear, since that's all we ever convert. */
+  private static final double[] SRGB_TO_LINEAR = new double[256];
+
+  /**
+   * Linear values in [0, 1], sampled finely enough that rounding to the nearest entry is within a fraction of a step of the exact
+   * conversion, even in the steep part of the curve near black.
+   */
+  private static final int    LINEAR_TO_SRGB_STEPS = 1 << 14;
+  private static final byte[] LINEAR_TO_SRGB       = new byte[LINEAR_TO_SRGB_STEPS + 1];
+
+  static {
+    for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+      SRGB_TO_LINEAR[i] = computeSRGBToLinear(i);
+    }
+
+    for (int i = 0; i <= LINEAR_TO_SRGB_STEPS; i++) {
+      LINEAR_TO_SRGB[i] = (byte) linearTosRGB(i / (double) LINEAR_TO_SRGB_STEPS);
+    }
+  }
+
   static double sRGBToLinear(long value) {
-    double v = value / 255.0;
-    if (v <= 0.04045) {
-      return v / 12.92;
+    if (value >= 0 && value < SRGB_TO_LINEAR.length) {
+      return SRGB_TO_LINEAR[(int) value];
     } else {
-      return Math.pow((v + 0.055) / 1.055, 2.4);
+      return computeSRGBToLinear(value);
     }
   }
 
+  /** Like {@link #sRGBToLinear(long)}, but for the low 8 bits of a channel that's already been shifted into place. */
+  static double channelToLinear(int channel) {
+    return SRGB_TO_LINEAR[channel & 0xff];
+  }
+
   static long linearTosRGB(double value) {
     double v = Math.max(0, Math.min(1, value));
     if (v <= 0.0031308) {
@@ -24,23 +48,70 @@ final class BlurHashUtil {
     }
   }
 
+  /**
+   * A lookup table version of {@link #linearTosRGB(double)} for converting every pixel of a decoded image. It can be off by one from the exact
+   * conversion, so the encoder, which needs to produce the exact same hashes, doesn't use it.
+   */
+  static int linearTosRGBFast(float value) {
+    if (value <= 0f) {
+      return 0;
+    } else if (value >= 1f) {
+      return 255;
+    } else {
+      return LINEAR_TO_SRGB[(int) (value * LINEAR_TO_SRGB_STEPS + 0.5f)] & 0xff;
+    }
+  }
+
   static double signPow(double val, double exp) {
     return Math.copySign(Math.pow(Math.abs(val), exp), val);
   }
 
-  static double max(double[][] values, int from, int endExclusive) {
+  /**
+   * The max of a flat array of components, skipping the first {@code from} values.
+   */
+  static double max(double[] values, int from, int endExclusive) {
     double result = Double.NEGATIVE_INFINITY;
     for (int i = from; i < endExclusive; i++) {
-      for (int j = 0; j < values[i].length; j++) {
-        double value = values[i][j];
-        if (value > result) {
-          result = value;
-        }
+      if (values[i] > result) {
+        result = values[i];
       }
     }
     return result;
   }
 
+  /**
+   * The cosine basis for each of the components along one axis, laid out as {@code table[component * size + position]}. This is what both the
+   * encoder and decoder would otherwise be calling {@link Math#cos(double)} for on every pixel.
+   */
+  static double[] cosineBasis(int components, int size) {
+    double[] table = new double[components * size];
+    for (int i = 0; i < components; i++) {
+      for (int p = 0; p < size; p++) {
+        table[i * size + p] = Math.cos(Math.PI * i * p / size);
+      }
+    }
+    return table;
+  }
+
+  static float[] cosineBasisFloat(int components, int size) {
+    float[] table = new float[components * size];
+    for (int i = 0; i < components; i++) {
+      for (int p = 0; p < size; p++) {
+        table[i * size + p] = (float) Math.cos(Math.PI * i * p / size);
+      }
+    }
+    return table;
+  }
+
+  private static double computeSRGBToLinear(long value) {
+    double v = value / 255.0;
+    if (v <= 0.04045) {
+      return v / 12.92;
+    } else {
+      return Math.pow((v + 0.055) / 1.055, 2.4);
+    }
+  }
+
   private BlurHashUtil() {
   }
 }
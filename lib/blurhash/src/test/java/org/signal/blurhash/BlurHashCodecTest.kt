@@ -0,0 +1,225 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.blurhash
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.pow
+import kotlin.random.Random
+
+class BlurHashCodecTest {
+
+  @Test
+  fun encode_matchesReference() {
+    val random = Random(1)
+
+    repeat(200) {
+      val width = 8 + random.nextInt(120)
+      val height = 8 + random.nextInt(120)
+      val pixels = gradient(random, width, height)
+      val componentX = 1 + random.nextInt(9)
+      val componentY = 1 + random.nextInt(9)
+
+      assertEquals(
+        ReferenceBlurHash.encode(pixels, width, height, componentX, componentY),
+        BlurHashEncoder.encode(pixels, width, height, componentX, componentY)
+      )
+    }
+  }
+
+  @Test
+  fun decode_withinOneOfReference() {
+    val random = Random(2)
+
+    repeat(200) {
+      val pixels = gradient(random, 32, 32)
+      val hash = ReferenceBlurHash.encode(pixels, 32, 32, 1 + random.nextInt(9), 1 + random.nextInt(9))
+      val width = 1 + random.nextInt(64)
+      val height = 1 + random.nextInt(64)
+
+      val expected = ReferenceBlurHash.decode(hash, width, height)
+      val actual = BlurHashDecoder.decodePixels(hash, width, height, 1.0)!!
+
+      assertEquals(expected.size, actual.size)
+      for (i in expected.indices) {
+        assertEquals(expected[i] ushr 24, actual[i] ushr 24)
+        for (shift in intArrayOf(0, 8, 16)) {
+          val difference = abs(((expected[i] shr shift) and 0xff) - ((actual[i] shr shift) and 0xff))
+          assertTrue("Channel differs by $difference at $i in $hash", difference <= 1)
+        }
+      }
+    }
+  }
+
+  @Test
+  fun decode_invalidLength_returnsNull() {
+    assertNull(BlurHashDecoder.decodePixels("LEHV6nWB2yk8pyo0adR*.7kCMdn", 10, 10, 1.0))
+    assertNull(BlurHashDecoder.decodePixels("LEHV", 10, 10, 1.0))
+  }
+
+  /**
+   * Not a real test, just a quick way to compare the table-based codec with the original per-pixel [Math.cos] version.
+   */
+  @Ignore("Benchmark")
+  @Test
+  fun benchmark() {
+    val random = Random(3)
+    val image = IntArray(100 * 100) { 0xff000000.toInt() or random.nextInt(0xffffff) }
+    val hash = BlurHashEncoder.encode(image, 100, 100, 4, 3)
+
+    repeat(3) {
+      val referenceDecode = time { repeat(2_000) { ReferenceBlurHash.decode(hash, 32, 32) } }
+      val decode = time { repeat(2_000) { BlurHashDecoder.decodePixels(hash, 32, 32, 1.0) } }
+      println("Decode 2000x 32x32 -- Reference: $referenceDecode ms, Current: $decode ms")
+
+      val referenceEncode = time { repeat(100) { ReferenceBlurHash.encode(image, 100, 100, 4, 3) } }
+      val encode = time { repeat(100) { BlurHashEncoder.encode(image, 100, 100, 4, 3) } }
+      println("Encode 100x 100x100 -- Reference: $referenceEncode ms, Current: $encode ms")
+    }
+  }
+
+  private fun gradient(random: Random, width: Int, height: Int): IntArray {
+    val r0 = random.nextInt(256)
+    val g0 = random.nextInt(256)
+    val b0 = random.nextInt(256)
+
+    return IntArray(width * height) { index ->
+      val x = index % width
+      val y = index / width
+      val r = (r0 + x * 2 + random.nextInt(30)) and 0xff
+      val g = (g0 + y * 3 + random.nextInt(30)) and 0xff
+      val b = (b0 + x + y + random.nextInt(30)) and 0xff
+      0xff000000.toInt() or (r shl 16) or (g shl 8) or b
+    }
+  }
+
+  private inline fun time(block: () -> Unit): Long {
+    val start = System.nanoTime()
+    block()
+    return (System.nanoTime() - start) / 1_000_000
+  }
+
+  /**
+   * The straightforward implementation the codec used to be, calling [cos] and converting colors for every pixel of every component.
+   */
+  private object ReferenceBlurHash {
+    fun encode(pixels: IntArray, width: Int, height: Int, componentX: Int, componentY: Int): String {
+      val factors = Array(componentX * componentY) { DoubleArray(3) }
+
+      for (j in 0 until componentY) {
+        for (i in 0 until componentX) {
+          val normalisation = if (i == 0 && j == 0) 1.0 else 2.0
+          var r = 0.0
+          var g = 0.0
+          var b = 0.0
+
+          for (x in 0 until width) {
+            for (y in 0 until height) {
+              val basis = normalisation * cos(Math.PI * i * x / width) * cos(Math.PI * j * y / height)
+              val pixel = pixels[y * width + x]
+              r += basis * sRGBToLinear((pixel shr 16) and 0xff)
+              g += basis * sRGBToLinear((pixel shr 8) and 0xff)
+              b += basis * sRGBToLinear(pixel and 0xff)
+            }
+          }
+
+          val scale = 1.0 / (width * height)
+          factors[j * componentX + i] = doubleArrayOf(r * scale, g * scale, b * scale)
+        }
+      }
+
+      val hash = CharArray(1 + 1 + 4 + 2 * (factors.size - 1))
+      Base83.encode((componentX - 1 + (componentY - 1) * 9).toLong(), 1, hash, 0)
+
+      val maximumValue: Double
+      if (factors.size > 1) {
+        val actualMaximumValue = factors.drop(1).maxOf { it.max() }
+        val quantisedMaximumValue = floor(max(0.0, min(82.0, floor(actualMaximumValue * 166 - 0.5))))
+        maximumValue = (quantisedMaximumValue + 1) / 166
+        Base83.encode(Math.round(quantisedMaximumValue), 1, hash, 1)
+      } else {
+        maximumValue = 1.0
+        Base83.encode(0, 1, hash, 1)
+      }
+
+      val dc = factors[0]
+      Base83.encode((linearTosRGB(dc[0]) shl 16) + (linearTosRGB(dc[1]) shl 8) + linearTosRGB(dc[2]), 4, hash, 2)
+
+      for (i in 1 until factors.size) {
+        val quantised = factors[i].map { floor(max(0.0, min(18.0, floor(signPow(it / maximumValue, 0.5) * 9 + 9.5)))) }
+        Base83.encode(Math.round(quantised[0] * 19 * 19 + quantised[1] * 19 + quantised[2]), 2, hash, 6 + 2 * (i - 1))
+      }
+
+      return String(hash)
+    }
+
+    fun decode(hash: String, width: Int, height: Int): IntArray {
+      val numCompEnc = Base83.decode(hash, 0, 1)
+      val numCompX = (numCompEnc % 9) + 1
+      val numCompY = (numCompEnc / 9) + 1
+      val maxAc = (Base83.decode(hash, 1, 2) + 1) / 166f
+
+      val colors = Array(numCompX * numCompY) { i ->
+        if (i == 0) {
+          val value = Base83.decode(hash, 2, 6)
+          doubleArrayOf(sRGBToLinear(value shr 16), sRGBToLinear((value shr 8) and 255), sRGBToLinear(value and 255))
+        } else {
+          val value = Base83.decode(hash, 4 + i * 2, 6 + i * 2)
+          doubleArrayOf(
+            signPow(((value / (19 * 19) - 9) / 9.0f).toDouble(), 2.0) * maxAc,
+            signPow((((value / 19) % 19 - 9) / 9.0f).toDouble(), 2.0) * maxAc,
+            signPow(((value % 19 - 9) / 9.0f).toDouble(), 2.0) * maxAc
+          )
+        }
+      }
+
+      val pixels = IntArray(width * height)
+      for (y in 0 until height) {
+        for (x in 0 until width) {
+          var r = 0.0
+          var g = 0.0
+          var b = 0.0
+
+          for (j in 0 until numCompY) {
+            for (i in 0 until numCompX) {
+              val basis = cos(Math.PI * x * i / width) * cos(Math.PI * y * j / height)
+              val color = colors[j * numCompX + i]
+              r += color[0] * basis
+              g += color[1] * basis
+              b += color[2] * basis
+            }
+          }
+
+          pixels[y * width + x] = 0xff000000.toInt() or (linearTosRGB(r).toInt() shl 16) or (linearTosRGB(g).toInt() shl 8) or linearTosRGB(b).toInt()
+        }
+      }
+
+      return pixels
+    }
+
+    private fun sRGBToLinear(value: Int): Double {
+      val v = value / 255.0
+      return if (v <= 0.04045) v / 12.92 else ((v + 0.055) / 1.055).pow(2.4)
+    }
+
+    private fun linearTosRGB(value: Double): Long {
+      val v = max(0.0, min(1.0, value))
+      return if (v <= 0.0031308) (v * 12.92 * 255 + 0.5).toLong() else ((1.055 * v.pow(1 / 2.4) - 0.055) * 255 + 0.5).toLong()
+    }
+
+    private fun signPow(value: Double, exp: Double): Double {
+      return Math.copySign(abs(value).pow(exp), value)
+    }
+  }
+}
@@ -16,7 +16,7 @@ import com.bumptech.glide.load.engine.Resource;
 import com.bumptech.glide.load.resource.SimpleResource;
 
 import org.signal.blurhash.BlurHash;
-import org.signal.blurhash.BlurHashDecoder;
+import org.signal.blurhash.BlurHashBitmapCache;
 
 import java.io.IOException;
 
@@ -42,6 +42,8 @@ public class BlurHashResourceDecoder implements ResourceDecoder<BlurHash, Bitmap
       finalWidth  = (int) (finalHeight * width / (float) height);
     }
 
-    return new SimpleResource<>(BlurHashDecoder.decode(source.getHash(), finalWidth, finalHeight));
+    // Placeholders are tiny and the same hash is often shown at many view sizes that all come out the same here, so it's worth caching
+    // below Glide's own cache, which is keyed on the requested size.
+    return new SimpleResource<>(BlurHashBitmapCache.getInstance().decode(source.getHash(), finalWidth, finalHeight));
   }
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import com.bumptech.glide.Priority
 import com.bumptech.glide.load.DataSource
 import com.bumptech.glide.load.data.DataFetcher
 import org.signal.glide.common.io.InputStreamFactory
+import java.io.Closeable
 
 /**
  * A Glide [DataFetcher] that retrieves an [InputStreamFactory] for a [DecryptableUri].
@@ -20,14 +21,25 @@ class DecryptableUriStreamFetcher(
   override fun getDataClass(): Class<InputStreamFactory> = InputStreamFactory::class.java
   override fun getDataSource(): DataSource = DataSource.LOCAL
 
+  private var factory: InputStreamFactory? = null
+
   override fun loadData(priority: Priority, callback: DataFetcher.DataCallback<in InputStreamFactory>) {
     try {
-      callback.onDataReady(InputStreamFactory.build(decryptableUri.uri))
+      val factory = InputStreamFactory.build(decryptableUri.uri)
+      this.factory = factory
+      callback.onDataReady(factory)
     } catch (e: Exception) {
       callback.onLoadFailed(e)
     }
   }
 
   override fun cancel() = Unit
-  override fun cleanup() = Unit
+
+  /**
+   * Factories may hold on to an open file so that the streams they create can share it. Glide calls this once it's done decoding.
+   */
+  override fun cleanup() {
+    (factory as? Closeable)?.close()
+    factory = null
+  }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.api
+
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.Schedulers
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Controls how [SignalServiceMessageSender] fans a single message out to many recipients.
+ *
+ * - At most [maxInFlight] recipients are being sent to at any given time. The rest start as earlier sends finish, rather than all
+ *   of them being queued up on the websocket at once.
+ * - If there's an [encryptionScheduler], each recipient's envelopes are encrypted on it, so that encrypting for one recipient can
+ *   overlap with the network round trip of another. Note that the session lock still serializes the ratchet step itself. Work that's
+ *   already running on the encryption scheduler encrypts inline, since waiting on a pool you're occupying can deadlock it.
+ * - If there's a [restScheduler], REST fallback sends run on it. REST sends block a thread and hold a connection for the whole
+ *   request, so they get their own, smaller limit than websocket sends.
+ *
+ * Regardless of the limits, results are emitted as each send completes, in completion order.
+ */
+class MessageSendFanOut private constructor(
+  val maxInFlight: Int,
+  private val encryptionScheduler: BoundedScheduler?,
+  private val restScheduler: BoundedScheduler?
+) {
+
+  companion object {
+    /** Starts every send at once, encrypts on the subscribing thread, and does REST fallback sends wherever the caller asks. */
+    @JvmField
+    val UNBOUNDED = MessageSendFanOut(Int.MAX_VALUE, null, null)
+
+    @JvmStatic
+    fun bounded(maxInFlight: Int, encryptionParallelism: Int, maxRestInFlight: Int): MessageSendFanOut {
+      require(maxInFlight > 0) { "maxInFlight must be positive!" }
+      require(encryptionParallelism > 0) { "encryptionParallelism must be positive!" }
+      require(maxRestInFlight > 0) { "maxRestInFlight must be positive!" }
+
+      return MessageSendFanOut(
+        maxInFlight = maxInFlight,
+        encryptionScheduler = boundedScheduler("signal-send-encrypt", encryptionParallelism),
+        restScheduler = boundedScheduler("signal-send-rest", maxRestInFlight)
+      )
+    }
+
+    private fun boundedScheduler(name: String, threads: Int): BoundedScheduler {
+      val threadCount = AtomicInteger(0)
+      val threadGroup = ThreadGroup(name)
+      val executor = ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, LinkedBlockingQueue()) { runnable ->
+        Thread(threadGroup, runnable, "$name-${threadCount.incrementAndGet()}").apply { isDaemon = true }
+      }
+      executor.allowCoreThreadTimeOut(true)
+
+      return BoundedScheduler(Schedulers.from(executor, false, false), threadGroup)
+    }
+  }
+
+  /**
+   * A scheduler backed by a fixed number of threads, all of which belong to [threadGroup].
+   */
+  private class BoundedScheduler(val scheduler: Scheduler, private val threadGroup: ThreadGroup) {
+    val isCurrentThread: Boolean
+      get() = Thread.currentThread().threadGroup === threadGroup
+  }
+
+  /**
+   * Merges the per-recipient sends, keeping at most [maxInFlight] of them subscribed at once. Errors are delayed until every
+   * send has finished.
+   */
+  fun <T : Any> merge(sends: List<Single<T>>): Observable<T> {
+    return Observable.mergeDelayError(sends.map { it.toObservable() }, maxInFlight, 1)
+  }
+
+  /**
+   * Moves the encryption work for a single recipient onto the encryption scheduler, if there is one. If we're already on that
+   * scheduler, e.g. because a send was started from within another send's encryption, the work runs inline instead.
+   */
+  fun <T : Any> encrypt(encryption: Single<T>): Single<T> {
+    if (encryptionScheduler == null) {
+      return encryption
+    }
+
+    return Single.defer {
+      if (encryptionScheduler.isCurrentThread) encryption else encryption.subscribeOn(encryptionScheduler.scheduler)
+    }
+  }
+
+  /**
+   * Runs a blocking REST send on the REST scheduler, or [defaultScheduler] if this fan out doesn't limit REST sends.
+   */
+  fun <T : Any> sendRest(send: Single<T>, defaultScheduler: Scheduler): Single<T> {
+    return send.subscribeOn(restScheduler?.scheduler ?: defaultScheduler)
+  }
+}
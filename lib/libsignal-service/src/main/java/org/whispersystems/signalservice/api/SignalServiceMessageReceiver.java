@@ -21,6 +21,7 @@ import org.whispersystems.signalservice.api.messages.SignalServiceDataMessage;
 import org.whispersystems.signalservice.api.messages.SignalServiceStickerManifest;
 import org.whispersystems.signalservice.api.push.exceptions.MissingConfigurationException;
 import org.whispersystems.signalservice.internal.crypto.PaddingInputStream;
+import org.whispersystems.signalservice.internal.push.ChunkedCdnDownloader;
 import org.whispersystems.signalservice.internal.push.PushServiceSocket;
 import org.whispersystems.signalservice.internal.sticker.Pack;
 import org.whispersystems.signalservice.internal.util.Util;
@@ -31,6 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -105,7 +107,12 @@ public class SignalServiceMessageReceiver {
     if (integrityCheck == null) throw new InvalidMessageException("No integrity check!");
     if (pointer.getKey() == null) throw new InvalidMessageException("No key!");
 
-    socket.retrieveAttachment(pointer.getCdnNumber(), Collections.emptyMap(), pointer.getRemoteId(), destination, maxSizeBytes, listener);
+    ChunkedCdnDownloader.IncrementalMac incrementalMac = null;
+    if (pointer.getIncrementalDigest().isPresent() && pointer.getIncrementalMacChunkSize() > 0 && pointer.getKey().length == 64) {
+      incrementalMac = new ChunkedCdnDownloader.IncrementalMac(Arrays.copyOfRange(pointer.getKey(), 32, 64), pointer.getIncrementalMacChunkSize(), pointer.getIncrementalDigest().get());
+    }
+
+    socket.retrieveAttachment(pointer.getCdnNumber(), Collections.emptyMap(), pointer.getRemoteId(), destination, maxSizeBytes, listener, incrementalMac);
 
     byte[] iv = new byte[16];
     try (InputStream tempStream = new FileInputStream(destination)) {
@@ -181,8 +181,9 @@ public class SignalServiceMessageSender {
   private final MessageApi    messageApi;
   private final KeysApi       keysApi;
 
-  private final Scheduler       scheduler;
-  private final long            maxEnvelopeSize;
+  private final Scheduler         scheduler;
+  private final MessageSendFanOut fanOut;
+  private final long              maxEnvelopeSize;
   private final BooleanSupplier useRestFallback;
   private final boolean         useBinaryId;
   private final boolean         useStringId;
@@ -199,6 +200,23 @@ public class SignalServiceMessageSender {
                                     BooleanSupplier useRestFallback,
                                     boolean useBinaryId,
                                     boolean useStringId)
+  {
+    this(pushServiceSocket, store, sessionLock, attachmentApi, messageApi, keysApi, eventListener, executor, MessageSendFanOut.UNBOUNDED, maxEnvelopeSize, useRestFallback, useBinaryId, useStringId);
+  }
+
+  public SignalServiceMessageSender(PushServiceSocket pushServiceSocket,
+                                    SignalServiceDataStore store,
+                                    SignalSessionLock sessionLock,
+                                    AttachmentApi attachmentApi,
+                                    MessageApi messageApi,
+                                    KeysApi keysApi,
+                                    Optional<EventListener> eventListener,
+                                    ExecutorService executor,
+                                    MessageSendFanOut fanOut,
+                                    long maxEnvelopeSize,
+                                    BooleanSupplier useRestFallback,
+                                    boolean useBinaryId,
+                                    boolean useStringId)
   {
     CredentialsProvider credentialsProvider = pushServiceSocket.getCredentialsProvider();
 
@@ -214,6 +232,7 @@ public class SignalServiceMessageSender {
     this.maxEnvelopeSize  = maxEnvelopeSize;
     this.localPniIdentity = store.pni().getIdentityKeyPair();
     this.scheduler        = Schedulers.from(executor, false, false);
+    this.fanOut           = fanOut;
     this.keysApi          = keysApi;
     this.useRestFallback  = useRestFallback;
     this.useBinaryId      = useBinaryId;
@@ -2117,30 +2136,30 @@ public class SignalServiceMessageSender {
 
     eagerlyFetchMissingPreKeys(recipients, sealedSenderAccesses, story);
 
-    List<Observable<SendMessageResult>> singleResults              = new LinkedList<>();
-    Iterator<SignalServiceAddress>      recipientIterator          = recipients.iterator();
-    Iterator<SealedSenderAccess>        sealedSenderAccessIterator = sealedSenderAccesses.iterator();
+    List<Single<SendMessageResult>> singleResults              = new ArrayList<>(recipients.size());
+    Iterator<SignalServiceAddress>  recipientIterator          = recipients.iterator();
+    Iterator<SealedSenderAccess>    sealedSenderAccessIterator = sealedSenderAccesses.iterator();
 
     while (recipientIterator.hasNext()) {
       SignalServiceAddress recipient          = recipientIterator.next();
       SealedSenderAccess   sealedSenderAccess = sealedSenderAccessIterator.next();
 
-      singleResults.add(sendMessageRx(recipient, sealedSenderAccess, timestamp, content, online, cancelationSignal, sendEvents, urgent, story, 0).toObservable());
+      singleResults.add(sendMessageRx(recipient, sealedSenderAccess, timestamp, content, online, cancelationSignal, sendEvents, urgent, story, 0));
     }
 
     List<SendMessageResult> results;
     try {
-      results = Observable.mergeDelayError(singleResults, Integer.MAX_VALUE, 1)
-                          .observeOn(scheduler, true)
-                          .scan(new ArrayList<SendMessageResult>(singleResults.size()), (state, result) -> {
-                            state.add(result);
-                            if (partialListener != null) {
-                              partialListener.onPartialSendComplete(result);
-                            }
-                            return state;
-                          })
-                          .lastOrError()
-                          .blockingGet();
+      results = fanOut.merge(singleResults)
+                      .observeOn(scheduler, true)
+                      .scan(new ArrayList<SendMessageResult>(singleResults.size()), (state, result) -> {
+                        state.add(result);
+                        if (partialListener != null) {
+                          partialListener.onPartialSendComplete(result);
+                        }
+                        return state;
+                      })
+                      .lastOrError()
+                      .blockingGet();
     } catch (RuntimeException e) {
       Throwable cause = e instanceof CompositeException ? ((CompositeException) e).getExceptions().get(0)
                                                         : e.getCause();
@@ -2184,7 +2203,8 @@ public class SignalServiceMessageSender {
    * <p>
    * Uses a "feature" or Rx where if no {@link Single#subscribeOn(Scheduler)} operator is used, the subscribing thread is used to perform the
    * initial work. This allows the calling thread to do the starting of the send work (encryption and putting it on the wire) and can be called
-   * multiple times in a loop, but allow the network transit/processing/error retry logic to run on a background thread.
+   * multiple times in a loop, but allow the network transit/processing/error retry logic to run on a background thread. If the
+   * {@link MessageSendFanOut} has its own encryption scheduler, the encryption happens there instead.
    * <p>
    * Processing happens on the background thread via an {@link Single#observeOn(Scheduler)} call after the encrypt and send. Error
    * handling operators are added after the observe so they will also run on a background thread. Retry logic during error handling
@@ -2208,7 +2228,7 @@ public class SignalServiceMessageSender {
     long startTime = System.currentTimeMillis();
     enforceMaxEnvelopeContentSize(content);
 
-    Single<OutgoingPushMessageList> messagesSingle = Single.fromCallable(() -> {
+    Single<OutgoingPushMessageList> messagesSingle = fanOut.encrypt(Single.fromCallable(() -> {
       OutgoingPushMessageList messages = getEncryptedMessages(recipient, sealedSenderAccess, timestamp, content, online, urgent, story);
 
       if (retryCount == 0 && sendEvents != null) {
@@ -2222,7 +2242,7 @@ public class SignalServiceMessageSender {
       }
 
       return messages;
-    });
+    }));
 
     Single<SendMessageResult> sendWithFallback = messagesSingle
         .flatMap(messages -> {
@@ -2284,7 +2304,7 @@ public class SignalServiceMessageSender {
               }
             }
 
-            return Single.fromCallable(() -> {
+            return fanOut.sendRest(Single.fromCallable(() -> {
               SendMessageResponse response = socket.sendMessage(messages, sealedSenderAccess, story);
               return SendMessageResult.success(
                   recipient,
@@ -2294,7 +2314,7 @@ public class SignalServiceMessageSender {
                   System.currentTimeMillis() - startTime,
                   content.getContent()
               );
-            }).subscribeOn(scheduler);
+            }), scheduler);
           }
         });
 
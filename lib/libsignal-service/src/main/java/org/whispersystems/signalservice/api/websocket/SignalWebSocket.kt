@@ -86,6 +86,15 @@ sealed class SignalWebSocket(
   @Synchronized
   fun disconnect() {
     if (connection != null) {
+      val pendingAcks = drainPendingAcks()
+      if (pendingAcks.isNotEmpty()) {
+        try {
+          connection!!.sendResponses(pendingAcks.map { it.websocketRequest.getWebSocketResponse() })
+        } catch (e: IOException) {
+          Log.w(TAG, "$connectionName Failed to flush ${pendingAcks.size} pending acks before disconnecting. They will be re-delivered.", e)
+        }
+      }
+
       disposable.dispose()
 
       connection!!.disconnect()
@@ -174,6 +183,21 @@ sealed class SignalWebSocket(
     getWebSocket().sendResponse(response.websocketRequest.getWebSocketResponse())
   }
 
+  /**
+   * Sends acks for all of the provided envelopes in one go, in order.
+   */
+  @Throws(IOException::class)
+  fun sendAcks(responses: List<EnvelopeResponse>) {
+    if (responses.isNotEmpty()) {
+      getWebSocket().sendResponses(responses.map { it.websocketRequest.getWebSocketResponse() })
+    }
+  }
+
+  /**
+   * Any acks that have been queued but not yet sent, which will be flushed right before disconnecting.
+   */
+  protected open fun drainPendingAcks(): List<EnvelopeResponse> = emptyList()
+
   /**
    * Executes the given callback with the underlying libsignal chat connection when available.
    *
@@ -358,6 +382,37 @@ sealed class SignalWebSocket(
    */
   class AuthenticatedWebSocket(connectionFactory: WebSocketFactory, canConnect: CanConnect, sleepTimer: SleepTimer, disconnectTimeoutMs: Long) : SignalWebSocket(connectionFactory, canConnect, sleepTimer, disconnectTimeoutMs.milliseconds) {
 
+    private val pendingAcks: MutableList<EnvelopeResponse> = mutableListOf()
+
+    /**
+     * Queues an ack to be sent together with the rest of the batch, rather than immediately like [sendAck]. Queued acks are
+     * sent when [flushAcks] is called, or right before disconnecting.
+     *
+     * Only queue acks for envelopes that have already been committed, since they may be sent at any time. Callers should call
+     * [flushAcks] once they've finished with a batch, so acks aren't left waiting while nothing else is happening.
+     */
+    fun queueAck(response: EnvelopeResponse) {
+      synchronized(pendingAcks) {
+        pendingAcks += response
+      }
+    }
+
+    /**
+     * Sends any acks that were queued with [queueAck].
+     */
+    @Throws(IOException::class)
+    fun flushAcks() {
+      sendAcks(drainPendingAcks())
+    }
+
+    override fun drainPendingAcks(): List<EnvelopeResponse> {
+      synchronized(pendingAcks) {
+        val drained = pendingAcks.toList()
+        pendingAcks.clear()
+        return drained
+      }
+    }
+
     /**
      * The reads a batch of messages off of the websocket.
      *
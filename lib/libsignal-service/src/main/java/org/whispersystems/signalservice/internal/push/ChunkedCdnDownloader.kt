@@ -0,0 +1,608 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.push
+
+import okhttp3.Call
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import org.signal.core.util.logging.Log
+import org.signal.libsignal.protocol.incrementalmac.ChunkSizeChoice
+import org.signal.libsignal.protocol.incrementalmac.IncrementalMacInputStream
+import org.signal.libsignal.protocol.incrementalmac.InvalidMacException
+import org.whispersystems.signalservice.api.messages.AttachmentTransferProgress
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment.ProgressListener
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
+import org.whispersystems.signalservice.api.push.exceptions.RangeException
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.BitSet
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Downloads a CDN object as a series of ranged requests, [parallelism] of them at a time, each written straight into its place in the destination file.
+ *
+ * The first request asks for the first chunk, which also tells us how big the whole object is. The destination is then preallocated to that size and
+ * the remaining chunks are split between the workers. Which chunks have landed is kept in a small file next to the destination (see [progressFile]),
+ * so an interrupted download only re-fetches the chunks it was missing.
+ *
+ * Each chunk is checked against the range we asked for. If the attachment has an incremental MAC, the chunks are also run through it in order as they
+ * land, and any that fail are fetched once more before giving up. The content is still verified as a whole once the download is done, by
+ * [org.whispersystems.signalservice.api.crypto.AttachmentCipherInputStream], exactly as it is for a sequential download.
+ */
+class ChunkedCdnDownloader @JvmOverloads constructor(
+  private val parallelism: Int,
+  private val chunkSize: Long = DEFAULT_CHUNK_SIZE,
+  private val executor: Executor = DEFAULT_EXECUTOR
+) {
+
+  companion object {
+    private val TAG = Log.tag(ChunkedCdnDownloader::class.java)
+
+    const val DEFAULT_CHUNK_SIZE: Long = 1024 * 1024
+
+    private val CONTENT_RANGE = Regex("""bytes (\d+)-(\d+)/(\d+)""")
+
+    /** Shared by every download, so running several at once queues their chunks rather than adding threads. */
+    private const val MAX_WORKER_THREADS = 8
+
+    private val DEFAULT_EXECUTOR: Executor = run {
+      val threadCount = AtomicInteger(0)
+      ThreadPoolExecutor(MAX_WORKER_THREADS, MAX_WORKER_THREADS, 30, TimeUnit.SECONDS, LinkedBlockingQueue()) { runnable ->
+        Thread(runnable, "signal-cdn-chunk-${threadCount.incrementAndGet()}").apply { isDaemon = true }
+      }.apply {
+        allowCoreThreadTimeOut(true)
+      }
+    }
+
+    @JvmStatic
+    fun progressFile(destination: File): File {
+      return File(destination.parentFile, destination.name + ".chunks")
+    }
+
+    /**
+     * Whether there's a chunked download of [destination] in progress. If so, it has to be finished by a [ChunkedCdnDownloader], since the file has
+     * already been preallocated and can't simply be appended to.
+     */
+    @JvmStatic
+    fun hasProgress(destination: File): Boolean {
+      return progressFile(destination).exists()
+    }
+
+    @JvmStatic
+    fun clearProgress(destination: File) {
+      val file = progressFile(destination)
+      if (file.exists() && !file.delete()) {
+        Log.w(TAG, "Failed to delete chunk progress for ${destination.name}")
+      }
+    }
+
+    /**
+     * Deletes a partial download along with its chunk progress, so that the next attempt doesn't try to resume into a file that's gone.
+     *
+     * @return True if [destination] was deleted.
+     */
+    @JvmStatic
+    fun delete(destination: File): Boolean {
+      clearProgress(destination)
+      return destination.delete()
+    }
+  }
+
+  /**
+   * An incremental MAC to check the chunks against as they land.
+   *
+   * @param macKey The MAC half of the attachment key.
+   * @param chunkSize How many bytes each MAC in [digest] covers. This is unrelated to the size of the chunks we download.
+   */
+  class IncrementalMac(val macKey: ByteArray, val chunkSize: Int, val digest: ByteArray)
+
+  /**
+   * Downloads the object described by [newRequest] into [destination], picking up from where a previous call left off if possible.
+   *
+   * @param newRequest Builds a request for the object, with everything but the range set. Called once per chunk.
+   * @param connections Calls are added to this set while they're running, and removed when they're done, so that they can be cancelled from outside.
+   * @param incrementalMac If set, chunks that don't match it are fetched again, and an [InvalidMacException] is thrown if they still don't.
+   */
+  @Throws(PushNetworkException::class, NonSuccessfulResponseCodeException::class, InvalidMacException::class)
+  fun download(
+    client: OkHttpClient,
+    newRequest: () -> Request.Builder,
+    destination: File,
+    maxSizeBytes: Long,
+    listener: ProgressListener?,
+    connections: MutableSet<Call>,
+    incrementalMac: IncrementalMac? = null
+  ) {
+    val newSession = { Session(client, newRequest, destination, listener, connections) }
+
+    try {
+      var progress = ChunkProgress.read(progressFile(destination))?.takeIf { it.totalLength == destination.length() && it.chunkSize == chunkSize }
+
+      if (progress != null) {
+        Log.i(TAG, "Resuming chunked download, ${progress.completedCount()}/${progress.chunkCount} chunks done")
+      } else {
+        clearProgress(destination)
+        progress = newSession().fetchFirstChunk(maxSizeBytes) ?: return
+      }
+
+      try {
+        newSession().fetchRemainingChunks(progress, incrementalMac)
+      } catch (e: InvalidMacException) {
+        Log.w(TAG, "Chunks failed verification, fetching them again. ${progress.completedCount()}/${progress.chunkCount} chunks kept", e)
+        newSession().fetchRemainingChunks(progress, incrementalMac)
+      }
+
+      clearProgress(destination)
+    } catch (e: InvalidMacException) {
+      throw e
+    } catch (e: NonSuccessfulResponseCodeException) {
+      throw e
+    } catch (e: PushNetworkException) {
+      throw e
+    } catch (e: IOException) {
+      throw PushNetworkException(e)
+    }
+  }
+
+  private inner class Session(
+    private val client: OkHttpClient,
+    private val newRequest: () -> Request.Builder,
+    private val destination: File,
+    private val listener: ProgressListener?,
+    private val connections: MutableSet<Call>
+  ) {
+    private val downloaded = AtomicLong()
+    private val activeCalls: MutableSet<Call> = HashSet()
+    private val failure = AtomicReference<Throwable>()
+    private val landed = Object()
+
+    /** The bytes that failed verification, or null if nothing has. */
+    private var rejected: LongRange? = null
+
+    /**
+     * Fetches the first chunk, and sets up the destination and progress file based on the size of the whole object.
+     *
+     * @return The progress to continue from, or null if the server ignored the range and the whole object has already been downloaded.
+     */
+    fun fetchFirstChunk(maxSizeBytes: Long): ChunkProgress? {
+      val call = newCall(0, chunkSize - 1)
+
+      try {
+        call.execute().use { response ->
+          val body = response.body ?: throw PushNetworkException("No response body!")
+
+          when {
+            response.code == 206 -> {
+              val range = parseContentRange(response.header("Content-Range"))
+              if (range.total > maxSizeBytes) throw PushNetworkException("Response exceeds max size!")
+              if (range.start != 0L || range.end != minOf(chunkSize, range.total) - 1) throw PushNetworkException("Unexpected range: ${response.header("Content-Range")}")
+
+              val progress = ChunkProgress(range.total, chunkSize)
+
+              // The progress goes down first, so that a file that's been preallocated is never mistaken for a sequential download to append to
+              progress.write(progressFile(destination))
+
+              RandomAccessFile(destination, "rw").use { file ->
+                file.setLength(range.total)
+                writeChunk(call, body.byteStream(), file.channel, 0, range.end + 1, range.total)
+                file.channel.force(false)
+              }
+
+              progress.markCompleted(0)
+              progress.write(progressFile(destination))
+
+              return progress
+            }
+
+            response.isSuccessful -> {
+              Log.i(TAG, "Range not honored, downloading sequentially")
+              if (body.contentLength() > maxSizeBytes) throw PushNetworkException("Response exceeds max size!")
+
+              FileOutputStream(destination, false).use { out ->
+                val buffer = ByteArray(32768)
+                val total = body.contentLength()
+                val input = body.byteStream()
+                var read: Int
+
+                while (input.read(buffer).also { read = it } != -1) {
+                  out.write(buffer, 0, read)
+                  onProgress(call, read, total, maxSizeBytes)
+                }
+              }
+
+              return null
+            }
+
+            response.code == 416 -> throw RangeException(0)
+            else -> throw NonSuccessfulResponseCodeException(response.code, "Response: $response")
+          }
+        }
+      } finally {
+        untrack(call)
+      }
+    }
+
+    /**
+     * Fetches every chunk that hasn't landed yet. If there's an [incrementalMac], the calling thread checks the chunks against it while the others
+     * download, and if any fail, they're marked as missing again before an [InvalidMacException] is thrown.
+     */
+    fun fetchRemainingChunks(progress: ChunkProgress, incrementalMac: IncrementalMac?) {
+      val pending = (0 until progress.chunkCount).filter { !progress.isCompleted(it) }
+      if (pending.isEmpty() && incrementalMac == null) {
+        return
+      }
+
+      downloaded.set(progress.completedBytes())
+
+      RandomAccessFile(destination, "rw").use { file ->
+        val channel = file.channel
+        val next = AtomicInteger()
+        val workerCount = if (pending.isEmpty()) 0 else parallelism.coerceIn(1, pending.size)
+        val backgroundCount = if (incrementalMac != null) workerCount else workerCount - 1
+        val done = CountDownLatch(backgroundCount)
+
+        val worker = {
+          while (failure.get() == null) {
+            val index = next.getAndIncrement()
+            if (index >= pending.size) {
+              break
+            }
+
+            try {
+              fetchChunk(progress, pending[index], channel)
+            } catch (e: Throwable) {
+              fail(e)
+            }
+          }
+        }
+
+        repeat(backgroundCount) {
+          executor.execute {
+            try {
+              worker()
+            } finally {
+              done.countDown()
+            }
+          }
+        }
+
+        if (incrementalMac != null) {
+          verify(progress, channel, incrementalMac)
+        } else {
+          worker()
+        }
+
+        try {
+          done.await()
+        } catch (e: InterruptedException) {
+          fail(e)
+          Thread.currentThread().interrupt()
+        }
+      }
+
+      rejected?.let { bytes ->
+        synchronized(progress) {
+          progress.markMissing(bytes.first, bytes.last + 1)
+          progress.write(progressFile(destination))
+        }
+      }
+
+      when (val e = failure.get()) {
+        null -> Unit
+        is InvalidMacException -> throw e
+        is IOException -> throw e
+        is InterruptedException -> throw PushNetworkException(IOException(e))
+        is RuntimeException -> throw e
+        else -> throw AssertionError(e)
+      }
+    }
+
+    private fun fetchChunk(progress: ChunkProgress, index: Int, channel: FileChannel) {
+      val start = index * chunkSize
+      val end = minOf(start + chunkSize, progress.totalLength) - 1
+      val call = newCall(start, end)
+
+      try {
+        call.execute().use { response ->
+          when {
+            response.code == 206 -> Unit
+            response.code == 416 -> throw RangeException(start)
+            else -> throw NonSuccessfulResponseCodeException(response.code, "Response: $response")
+          }
+
+          val body = response.body ?: throw PushNetworkException("No response body!")
+          val range = parseContentRange(response.header("Content-Range"))
+          if (range.start != start || range.end != end || range.total != progress.totalLength) {
+            throw PushNetworkException("Unexpected range for chunk $index: ${response.header("Content-Range")}")
+          }
+
+          writeChunk(call, body.byteStream(), channel, start, end - start + 1, progress.totalLength)
+        }
+      } finally {
+        untrack(call)
+      }
+
+      // Make sure the chunk is on disk before the progress says it is
+      channel.force(false)
+
+      synchronized(progress) {
+        progress.markCompleted(index)
+        progress.write(progressFile(destination))
+      }
+
+      synchronized(landed) {
+        landed.notifyAll()
+      }
+    }
+
+    /**
+     * Runs the file through [IncrementalMacInputStream] from the start, waiting for each chunk to land before reading it. The stream only hands out bytes
+     * once they've been verified, so if it fails, everything between what it handed out and what it read is suspect.
+     */
+    private fun verify(progress: ChunkProgress, channel: FileChannel, incrementalMac: IncrementalMac) {
+      val input = LandedBytesInputStream(progress, channel)
+      // A MAC chunk at a time, so that when a read fails we know closely where the bad bytes are
+      val buffer = ByteArray(incrementalMac.chunkSize)
+      var verified = 0L
+
+      try {
+        IncrementalMacInputStream(input, incrementalMac.macKey, ChunkSizeChoice.everyNthByte(incrementalMac.chunkSize), incrementalMac.digest).use { macStream ->
+          while (true) {
+            val read = macStream.read(buffer)
+            if (read == -1) {
+              break
+            }
+            verified += read
+          }
+        }
+      } catch (e: InvalidMacException) {
+        rejected = verified until maxOf(input.position, verified + 1)
+        fail(e)
+      } catch (e: InterruptedException) {
+        fail(e)
+        Thread.currentThread().interrupt()
+      } catch (e: Throwable) {
+        fail(e)
+      }
+    }
+
+    /**
+     * @return How far the chunks that have landed reach without a gap, once that's past [position].
+     * @throws PushNetworkException If the download fails before then.
+     */
+    private fun awaitLanded(progress: ChunkProgress, position: Long): Long {
+      synchronized(landed) {
+        while (true) {
+          if (failure.get() != null) throw PushNetworkException("Another chunk failed.")
+
+          val end = synchronized(progress) { progress.landedPrefixLength() }
+          if (end > position) {
+            return end
+          }
+
+          landed.wait()
+        }
+      }
+    }
+
+    /**
+     * Copies exactly [length] bytes from [input] into [channel] at [position], failing if the server sends more or less than that.
+     */
+    private fun writeChunk(call: Call, input: InputStream, channel: FileChannel, position: Long, length: Long, total: Long) {
+      val buffer = ByteArray(32768)
+      var written = 0L
+
+      while (true) {
+        val read = input.read(buffer)
+        if (read == -1) {
+          break
+        }
+
+        if (written + read > length) throw PushNetworkException("Chunk at $position is longer than requested!")
+
+        val byteBuffer = ByteBuffer.wrap(buffer, 0, read)
+        var offset = position + written
+        while (byteBuffer.hasRemaining()) {
+          offset += channel.write(byteBuffer, offset)
+        }
+
+        written += read
+        onProgress(call, read, total, Long.MAX_VALUE)
+      }
+
+      if (written != length) throw PushNetworkException("Chunk at $position ended early: $written of $length bytes")
+    }
+
+    private fun onProgress(call: Call, read: Int, total: Long, maxSizeBytes: Long) {
+      val soFar = downloaded.addAndGet(read.toLong())
+      if (soFar > maxSizeBytes) throw PushNetworkException("Response exceeded max size!")
+
+      if (failure.get() != null) {
+        call.cancel()
+        throw PushNetworkException("Another chunk failed.")
+      }
+
+      if (listener != null) {
+        synchronized(listener) {
+          listener.onAttachmentProgress(AttachmentTransferProgress(total, soFar))
+          if (listener.shouldCancel()) {
+            call.cancel()
+            throw PushNetworkException("Canceled by listener check.")
+          }
+        }
+      }
+    }
+
+    private fun fail(e: Throwable) {
+      if (failure.compareAndSet(null, e)) {
+        val calls = synchronized(activeCalls) { activeCalls.toList() }
+        calls.forEach { it.cancel() }
+
+        synchronized(landed) {
+          landed.notifyAll()
+        }
+      }
+    }
+
+    private fun newCall(start: Long, end: Long): Call {
+      val call = client.newCall(newRequest().addHeader("Range", "bytes=$start-$end").build())
+
+      synchronized(activeCalls) {
+        activeCalls += call
+      }
+      synchronized(connections) {
+        connections += call
+      }
+
+      return call
+    }
+
+    private fun untrack(call: Call) {
+      synchronized(activeCalls) {
+        activeCalls -= call
+      }
+      synchronized(connections) {
+        connections -= call
+      }
+    }
+
+    /**
+     * Reads the destination from the start, handing out each chunk's bytes only once it has landed.
+     */
+    private inner class LandedBytesInputStream(private val progress: ChunkProgress, private val channel: FileChannel) : InputStream() {
+      var position = 0L
+        private set
+
+      override fun read(): Int {
+        val single = ByteArray(1)
+        return if (read(single, 0, 1) == -1) -1 else single[0].toInt() and 0xFF
+      }
+
+      override fun read(bytes: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) {
+          return 0
+        }
+
+        if (position >= progress.totalLength) {
+          return -1
+        }
+
+        val end = awaitLanded(progress, position)
+        val read = channel.read(ByteBuffer.wrap(bytes, off, minOf(len.toLong(), end - position).toInt()), position)
+        if (read == -1) throw IOException("File is shorter than the download!")
+
+        position += read
+        return read
+      }
+    }
+  }
+
+  private data class ContentRange(val start: Long, val end: Long, val total: Long)
+
+  private fun parseContentRange(header: String?): ContentRange {
+    val match = header?.let { CONTENT_RANGE.matchEntire(it.trim()) } ?: throw PushNetworkException("Bad Content-Range: $header")
+    val (start, end, total) = match.destructured
+    return ContentRange(start.toLong(), end.toLong(), total.toLong())
+  }
+
+  /**
+   * Which chunks of a download have been written to disk.
+   */
+  private class ChunkProgress(val totalLength: Long, val chunkSize: Long, private val completed: BitSet = BitSet()) {
+
+    companion object {
+      private const val VERSION = 1
+
+      fun read(file: File): ChunkProgress? {
+        if (!file.exists()) {
+          return null
+        }
+
+        return try {
+          DataInputStream(file.inputStream().buffered()).use { input ->
+            if (input.readInt() != VERSION) {
+              return null
+            }
+
+            val totalLength = input.readLong()
+            val chunkSize = input.readLong()
+            val bits = ByteArray(input.readInt()).also { input.readFully(it) }
+
+            ChunkProgress(totalLength, chunkSize, BitSet.valueOf(bits))
+          }
+        } catch (e: IOException) {
+          Log.w(TAG, "Failed to read chunk progress", e)
+          null
+        }
+      }
+    }
+
+    val chunkCount: Int = ((totalLength + chunkSize - 1) / chunkSize).toInt()
+
+    fun isCompleted(index: Int): Boolean = completed[index]
+
+    fun markCompleted(index: Int) {
+      completed.set(index)
+    }
+
+    /**
+     * Marks every chunk that overlaps the bytes from [start] up to [end] as not having landed.
+     */
+    fun markMissing(start: Long, end: Long) {
+      completed.clear((start / chunkSize).toInt(), ((end + chunkSize - 1) / chunkSize).toInt())
+    }
+
+    /** How many bytes from the start of the file have landed without a gap. */
+    fun landedPrefixLength(): Long = minOf(completed.nextClearBit(0) * chunkSize, totalLength)
+
+    fun completedCount(): Int = completed.cardinality()
+
+    fun completedBytes(): Long {
+      var bytes = 0L
+      var index = completed.nextSetBit(0)
+      while (index >= 0) {
+        bytes += minOf(chunkSize, totalLength - index * chunkSize)
+        index = completed.nextSetBit(index + 1)
+      }
+      return bytes
+    }
+
+    /**
+     * Written to a temporary file and renamed into place, so a crash mid-write leaves the previous state behind rather than a torn one.
+     */
+    fun write(file: File) {
+      val temp = File(file.parentFile, file.name + ".tmp")
+      val bits = completed.toByteArray()
+
+      DataOutputStream(FileOutputStream(temp).buffered()).use { out ->
+        out.writeInt(VERSION)
+        out.writeLong(totalLength)
+        out.writeLong(chunkSize)
+        out.writeInt(bits.size)
+        out.write(bits)
+      }
+
+      if (!temp.renameTo(file)) {
+        throw IOException("Failed to save chunk progress")
+      }
+    }
+  }
+}
@@ -211,11 +211,25 @@ public class PushServiceSocket {
   private final String                           signalAgent;
   private final SecureRandom                     random;
   private final boolean                          automaticNetworkRetry;
+  private final ChunkedCdnDownloader             chunkedCdnDownloader;
+  private final boolean                          parallelCdnDownloads;
 
   public PushServiceSocket(SignalServiceConfiguration configuration,
                            CredentialsProvider credentialsProvider,
                            String signalAgent,
                            boolean automaticNetworkRetry)
+  {
+    this(configuration, credentialsProvider, signalAgent, automaticNetworkRetry, 1);
+  }
+
+  /**
+   * @param cdnDownloadParallelism How many ranged requests a single download to a file may have in flight at once. 1 downloads sequentially.
+   */
+  public PushServiceSocket(SignalServiceConfiguration configuration,
+                           CredentialsProvider credentialsProvider,
+                           String signalAgent,
+                           boolean automaticNetworkRetry,
+                           int cdnDownloadParallelism)
   {
     this.configuration             = configuration;
     this.credentialsProvider       = credentialsProvider;
@@ -225,6 +239,8 @@ public class PushServiceSocket {
     this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
     this.storageClients            = createConnectionHolders(configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getSignalProxy());
     this.random                    = new SecureRandom();
+    this.chunkedCdnDownloader      = new ChunkedCdnDownloader(Math.max(1, cdnDownloadParallelism));
+    this.parallelCdnDownloads      = cdnDownloadParallelism > 1;
   }
 
   public SignalServiceConfiguration getConfiguration() {
@@ -607,7 +623,7 @@ public class PushServiceSocket {
   public void retrieveBackup(int cdnNumber, Map<String, String> headers, String cdnPath, File destination, long maxSizeBytes, ProgressListener listener)
       throws MissingConfigurationException, IOException
   {
-    downloadFromCdn(destination, cdnNumber, headers, cdnPath, maxSizeBytes, listener);
+    downloadFromCdn(destination, cdnNumber, headers, cdnPath, maxSizeBytes, listener, null);
   }
 
   public byte[] retrieveBackupForwardSecrecyMetadataBytes(int cdnNumber, Map<String, String> headers, String cdnPath, int maxSizeBytes)
@@ -620,6 +636,21 @@ public class PushServiceSocket {
 
   public void retrieveAttachment(int cdnNumber, Map<String, String> headers, SignalServiceAttachmentRemoteId remoteId, File destination, long maxSizeBytes, ProgressListener listener)
       throws IOException, MissingConfigurationException
+  {
+    retrieveAttachment(cdnNumber, headers, remoteId, destination, maxSizeBytes, listener, null);
+  }
+
+  /**
+   * @param incrementalMac If set, a chunked download checks its chunks against it as they land.
+   */
+  public void retrieveAttachment(int cdnNumber,
+                                 Map<String, String> headers,
+                                 SignalServiceAttachmentRemoteId remoteId,
+                                 File destination,
+                                 long maxSizeBytes,
+                                 ProgressListener listener,
+                                 @Nullable ChunkedCdnDownloader.IncrementalMac incrementalMac)
+      throws IOException, MissingConfigurationException
   {
     final String path;
     if (remoteId instanceof SignalServiceAttachmentRemoteId.V2) {
@@ -634,7 +665,7 @@ public class PushServiceSocket {
     } else {
       throw new IllegalArgumentException("Invalid cdnPath type: " + remoteId.getClass().getSimpleName());
     }
-    downloadFromCdn(destination, cdnNumber, headers, path, maxSizeBytes, listener);
+    downloadFromCdn(destination, cdnNumber, headers, path, maxSizeBytes, listener, incrementalMac);
   }
 
   public byte[] retrieveSticker(byte[] packId, int stickerId)
@@ -669,7 +700,7 @@ public class PushServiceSocket {
       throws IOException
   {
     try {
-      downloadFromCdn(destination, 0, Collections.emptyMap(), path, maxSizeBytes, null);
+      downloadFromCdn(destination, 0, Collections.emptyMap(), path, maxSizeBytes, null, null);
     } catch (MissingConfigurationException e) {
       throw new AssertionError(e);
     }
@@ -800,9 +831,22 @@ public class PushServiceSocket {
     }
   }
 
-  private void downloadFromCdn(File destination, int cdnNumber, Map<String, String> headers, String path, long maxSizeBytes, ProgressListener listener)
+  private void downloadFromCdn(File destination,
+                               int cdnNumber,
+                               Map<String, String> headers,
+                               String path,
+                               long maxSizeBytes,
+                               ProgressListener listener,
+                               @Nullable ChunkedCdnDownloader.IncrementalMac incrementalMac)
       throws IOException, MissingConfigurationException
   {
+    // A chunked download that's underway has to be finished the same way, since its file has already been preallocated
+    if (ChunkedCdnDownloader.hasProgress(destination) || (parallelCdnDownloads && destination.length() == 0)) {
+      ConnectionHolder connectionHolder = getCdnConnectionHolder(cdnNumber);
+      chunkedCdnDownloader.download(getCdnClient(connectionHolder), () -> newCdnRequest(connectionHolder, headers, path), destination, maxSizeBytes, listener, connections, incrementalMac);
+      return;
+    }
+
     try (FileOutputStream outputStream = new FileOutputStream(destination, true)) {
       downloadFromCdn(outputStream, destination.length(), cdnNumber, headers, path, maxSizeBytes, listener);
     }
@@ -810,26 +854,9 @@ public class PushServiceSocket {
 
   private void downloadFromCdn(OutputStream outputStream, long offset, int cdnNumber, Map<String, String> headers, String path, long maxSizeBytes, ProgressListener listener)
       throws PushNetworkException, NonSuccessfulResponseCodeException, MissingConfigurationException {
-    ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
-    if (cdnNumberClients == null) {
-      throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
-    }
-    ConnectionHolder   connectionHolder = getRandom(cdnNumberClients, random);
-    OkHttpClient       okHttpClient     = connectionHolder.getClient()
-                                                          .newBuilder()
-                                                          .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                          .build();
-
-    Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
-
-    if (connectionHolder.getHostHeader().isPresent()) {
-      request.addHeader("Host", connectionHolder.getHostHeader().get());
-    }
-
-    for (Map.Entry<String, String> header : headers.entrySet()) {
-      request.addHeader(header.getKey(), header.getValue());
-    }
+    ConnectionHolder connectionHolder = getCdnConnectionHolder(cdnNumber);
+    OkHttpClient     okHttpClient     = getCdnClient(connectionHolder);
+    Request.Builder  request          = newCdnRequest(connectionHolder, headers, path);
 
     if (offset > 0) {
       Log.i(TAG, "Starting download from CDN with offset " + offset);
@@ -883,6 +910,36 @@ public class PushServiceSocket {
     }
   }
 
+  private ConnectionHolder getCdnConnectionHolder(int cdnNumber) throws MissingConfigurationException {
+    ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
+    if (cdnNumberClients == null) {
+      throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
+    }
+    return getRandom(cdnNumberClients, random);
+  }
+
+  private OkHttpClient getCdnClient(ConnectionHolder connectionHolder) {
+    return connectionHolder.getClient()
+                           .newBuilder()
+                           .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
+                           .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
+                           .build();
+  }
+
+  private static Request.Builder newCdnRequest(ConnectionHolder connectionHolder, Map<String, String> headers, String path) {
+    Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
+
+    if (connectionHolder.getHostHeader().isPresent()) {
+      request.addHeader("Host", connectionHolder.getHostHeader().get());
+    }
+
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      request.addHeader(header.getKey(), header.getValue());
+    }
+
+    return request;
+  }
+
   public @Nonnull ZonedDateTime getCdnLastModifiedTime(int cdnNumber, Map<String, String> headers, String path) throws MissingConfigurationException, PushNetworkException, NonSuccessfulResponseCodeException, MalformedResponseException {
     ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
     if (cdnNumberClients == null) {
@@ -269,6 +269,24 @@ public class OkHttpWebSocketConnection extends WebSocketListener implements WebS
     }
   }
 
+  @Override
+  public synchronized void sendResponses(@NotNull List<WebSocketResponseMessage> responses) throws IOException {
+    if (client == null) {
+      throw new IOException("Connection closed!");
+    }
+
+    for (WebSocketResponseMessage response : responses) {
+      WebSocketMessage message = new WebSocketMessage.Builder()
+                                                     .type(WebSocketMessage.Type.RESPONSE)
+                                                     .response(response)
+                                                     .build();
+
+      if (!client.send(ByteString.of(message.encode()))) {
+        throw new IOException("Write failed!");
+      }
+    }
+  }
+
   @Override
   public synchronized void sendKeepAlive() throws IOException {
     if (client != null) {
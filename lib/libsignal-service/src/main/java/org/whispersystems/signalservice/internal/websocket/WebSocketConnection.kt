@@ -47,6 +47,16 @@ interface WebSocketConnection {
   @Throws(IOException::class)
   fun sendResponse(response: WebSocketResponseMessage)
 
+  /**
+   * Sends several responses at once, in order. Implementations can override this to send them more efficiently than one at a time.
+   */
+  @Throws(IOException::class)
+  fun sendResponses(responses: List<WebSocketResponseMessage>) {
+    for (response in responses) {
+      sendResponse(response)
+    }
+  }
+
   /**
    * Executes the given callback with the underlying chat connection when it becomes available.
    * This is specifically for LibSignal-based connections to access the native connection.
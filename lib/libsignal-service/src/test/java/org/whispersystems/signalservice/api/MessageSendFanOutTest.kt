@@ -0,0 +1,111 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.api
+
+import assertk.assertThat
+import assertk.assertions.containsExactlyInAnyOrder
+import assertk.assertions.isEqualTo
+import assertk.assertions.isLessThanOrEqualTo
+import assertk.assertions.isNotEqualTo
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.Schedulers
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class MessageSendFanOutTest {
+
+  @Test
+  fun `merge - bounded never exceeds max in flight`() {
+    val fanOut = MessageSendFanOut.bounded(maxInFlight = 3, encryptionParallelism = 2, maxRestInFlight = 1)
+    val inFlight = AtomicInteger(0)
+    val maxObserved = AtomicInteger(0)
+
+    val sends: List<Single<Int>> = (1..20).map { i ->
+      Single.defer {
+        maxObserved.accumulateAndGet(inFlight.incrementAndGet(), ::maxOf)
+        Single.timer(5, TimeUnit.MILLISECONDS, Schedulers.io()).map { i }
+      }.doOnSuccess { inFlight.decrementAndGet() }
+    }
+
+    val results: List<Int> = fanOut.merge(sends).toList().blockingGet()
+
+    assertThat(results).containsExactlyInAnyOrder(*(1..20).toList().toTypedArray())
+    assertThat(maxObserved.get()).isLessThanOrEqualTo(3)
+  }
+
+  @Test
+  fun `merge - errors are delayed until every send finishes`() {
+    val completed = AtomicInteger(0)
+    val sends: List<Single<Int>> = listOf(
+      Single.error(IllegalStateException()),
+      Single.fromCallable { completed.incrementAndGet() },
+      Single.fromCallable { completed.incrementAndGet() }
+    )
+
+    MessageSendFanOut.bounded(maxInFlight = 1, encryptionParallelism = 1, maxRestInFlight = 1)
+      .merge(sends)
+      .ignoreElements()
+      .onErrorComplete()
+      .blockingAwait()
+
+    assertThat(completed.get()).isEqualTo(2)
+  }
+
+  @Test
+  fun `encrypt - bounded runs off of the subscribing thread`() {
+    val fanOut = MessageSendFanOut.bounded(maxInFlight = 1, encryptionParallelism = 1, maxRestInFlight = 1)
+
+    val thread: Thread = fanOut.encrypt(Single.fromCallable { Thread.currentThread() }).blockingGet()
+
+    assertThat(thread).isNotEqualTo(Thread.currentThread())
+  }
+
+  @Test
+  fun `encrypt - bounded work started from the encryption pool runs inline instead of waiting on the pool`() {
+    val fanOut = MessageSendFanOut.bounded(maxInFlight = 1, encryptionParallelism = 1, maxRestInFlight = 1)
+
+    val threads: Pair<Thread, Thread> = fanOut.encrypt(
+      Single.fromCallable {
+        val outer = Thread.currentThread()
+        val inner = fanOut.encrypt(Single.fromCallable { Thread.currentThread() }).blockingGet()
+        outer to inner
+      }
+    ).timeout(5, TimeUnit.SECONDS).blockingGet()
+
+    assertThat(threads.second).isEqualTo(threads.first)
+  }
+
+  @Test
+  fun `encrypt - unbounded runs on the subscribing thread`() {
+    val thread: Thread = MessageSendFanOut.UNBOUNDED.encrypt(Single.fromCallable { Thread.currentThread() }).blockingGet()
+
+    assertThat(thread).isEqualTo(Thread.currentThread())
+  }
+
+  @Test
+  fun `sendRest - bounded never exceeds max rest in flight`() {
+    val fanOut = MessageSendFanOut.bounded(maxInFlight = 10, encryptionParallelism = 1, maxRestInFlight = 2)
+    val inFlight = AtomicInteger(0)
+    val maxObserved = AtomicInteger(0)
+
+    val sends: List<Single<Int>> = (1..10).map { i ->
+      fanOut.sendRest(
+        Single.fromCallable {
+          maxObserved.accumulateAndGet(inFlight.incrementAndGet(), ::maxOf)
+          Thread.sleep(5)
+          inFlight.decrementAndGet()
+          i
+        },
+        Schedulers.io()
+      )
+    }
+
+    fanOut.merge(sends).toList().blockingGet()
+
+    assertThat(maxObserved.get()).isLessThanOrEqualTo(2)
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.api.websocket
+
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import assertk.assertions.isTrue
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Single
+import org.junit.Test
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+import org.whispersystems.signalservice.internal.push.Envelope
+import org.whispersystems.signalservice.internal.websocket.WebSocketConnection
+import org.whispersystems.signalservice.internal.websocket.WebSocketRequestMessage
+import org.whispersystems.signalservice.internal.websocket.WebSocketResponseMessage
+import org.whispersystems.signalservice.internal.websocket.WebsocketResponse
+import java.util.Optional
+
+class SignalWebSocketAckTest {
+
+  private val connection = FakeWebSocketConnection()
+  private val webSocket = SignalWebSocket.AuthenticatedWebSocket(
+    connectionFactory = { connection },
+    canConnect = { true },
+    sleepTimer = { Thread.sleep(it) },
+    disconnectTimeoutMs = 60_000
+  ).apply {
+    registerKeepAliveToken("test")
+  }
+
+  @Test
+  fun `sendAck sends each ack right away`() {
+    val envelopes = envelopes(100)
+    envelopes.forEach { webSocket.sendAck(it) }
+
+    assertThat(connection.frames).containsExactly(*envelopes.map { it.websocketRequest.id }.toTypedArray())
+  }
+
+  @Test
+  fun `queued acks are not sent until flushed, however many there are`() {
+    val envelopes = envelopes(120)
+    envelopes.forEach { webSocket.queueAck(it) }
+
+    assertThat(connection.frames.size).isEqualTo(0)
+
+    webSocket.flushAcks()
+
+    assertThat(connection.frames).containsExactly(*envelopes.map { it.websocketRequest.id }.toTypedArray())
+  }
+
+  @Test
+  fun `flushing with nothing queued does not send anything`() {
+    webSocket.flushAcks()
+
+    assertThat(connection.frames.size).isEqualTo(0)
+  }
+
+  @Test
+  fun `pending acks are flushed on disconnect`() {
+    val envelopes = envelopes(5)
+    envelopes.forEach { webSocket.queueAck(it) }
+
+    webSocket.disconnect()
+
+    assertThat(connection.frames).containsExactly(*envelopes.map { it.websocketRequest.id }.toTypedArray())
+    assertThat(connection.isDead()).isTrue()
+  }
+
+  private var nextId = 0L
+
+  private fun envelopes(count: Int): List<EnvelopeResponse> {
+    return (0 until count).map {
+      val request = WebSocketRequestMessage.Builder()
+        .id(nextId++)
+        .verb("PUT")
+        .path("/api/v1/message")
+        .build()
+
+      EnvelopeResponse(Envelope.Builder().timestamp(request.id).build(), 0, request)
+    }
+  }
+
+  /**
+   * Records the ID of every response that's sent. Every response is its own frame on the wire, whether it was sent on its own or
+   * as part of [sendResponses].
+   */
+  private class FakeWebSocketConnection : WebSocketConnection {
+    val frames: MutableList<Long> = mutableListOf()
+    private var dead = false
+
+    override val name: String = "fake"
+
+    override fun connect(): Observable<WebSocketConnectionState> = Observable.just(WebSocketConnectionState.CONNECTED)
+
+    override fun isDead(): Boolean = dead
+
+    override fun disconnect() {
+      dead = true
+    }
+
+    override fun sendRequest(request: WebSocketRequestMessage, timeoutSeconds: Long): Single<WebsocketResponse> = Single.never()
+
+    override fun sendKeepAlive() = Unit
+
+    override fun readRequestIfAvailable(): Optional<WebSocketRequestMessage> = Optional.empty()
+
+    override fun readRequest(timeoutMillis: Long): WebSocketRequestMessage = throw UnsupportedOperationException()
+
+    override fun sendResponse(response: WebSocketResponseMessage) {
+      frames += response.id!!
+    }
+  }
+}
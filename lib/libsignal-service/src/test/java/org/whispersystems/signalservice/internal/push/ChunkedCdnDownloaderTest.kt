@@ -0,0 +1,235 @@
+/*
+ * Copyright 2026 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.signalservice.internal.push
+
+import assertk.assertFailure
+import assertk.assertThat
+import assertk.assertions.containsExactly
+import assertk.assertions.isEqualTo
+import assertk.assertions.isFalse
+import assertk.assertions.isInstanceOf
+import assertk.assertions.isTrue
+import com.sun.net.httpserver.HttpServer
+import okhttp3.Call
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.signal.libsignal.protocol.incrementalmac.ChunkSizeChoice
+import org.signal.libsignal.protocol.incrementalmac.IncrementalMacOutputStream
+import org.signal.libsignal.protocol.incrementalmac.InvalidMacException
+import org.whispersystems.signalservice.api.messages.AttachmentTransferProgress
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment.ProgressListener
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.net.InetSocketAddress
+import java.util.Collections
+import java.util.concurrent.Executors
+import kotlin.random.Random
+
+class ChunkedCdnDownloaderTest {
+
+  companion object {
+    private const val CHUNK_SIZE = 1024L
+    private const val MAC_CHUNK_SIZE = 512
+  }
+
+  @get:Rule
+  val folder = TemporaryFolder()
+
+  private val data = Random(42).nextBytes((CHUNK_SIZE * 5.5).toInt())
+  private val requestedRanges: MutableList<String> = Collections.synchronizedList(mutableListOf())
+  private val connections: MutableSet<Call> = HashSet()
+
+  private var supportsRanges = true
+  private var failingRangeStart = -1L
+  private var corruptRangeStart = -1L
+  private var corruptResponsesLeft = 0
+
+  private lateinit var server: HttpServer
+  private lateinit var destination: File
+
+  @Before
+  fun setUp() {
+    server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+    server.executor = Executors.newCachedThreadPool()
+    server.createContext("/file") { exchange ->
+      try {
+        val range = exchange.requestHeaders.getFirst("Range")
+        val match = range?.let { Regex("""bytes=(\d+)-(\d+)""").matchEntire(it) }
+
+        if (!supportsRanges || match == null) {
+          exchange.sendResponseHeaders(200, data.size.toLong())
+          exchange.responseBody.write(data)
+        } else {
+          requestedRanges += range
+          val start = match.groupValues[1].toInt()
+          val end = minOf(match.groupValues[2].toInt(), data.size - 1)
+
+          if (start.toLong() == failingRangeStart) {
+            exchange.sendResponseHeaders(500, -1)
+          } else {
+            val chunk = data.copyOfRange(start, end + 1)
+            if (start.toLong() == corruptRangeStart && corruptResponsesLeft > 0) {
+              corruptResponsesLeft--
+              chunk[chunk.size / 2] = (chunk[chunk.size / 2] + 1).toByte()
+            }
+
+            exchange.responseHeaders.add("Content-Range", "bytes $start-$end/${data.size}")
+            exchange.sendResponseHeaders(206, (end - start + 1).toLong())
+            exchange.responseBody.write(chunk)
+          }
+        }
+      } finally {
+        exchange.close()
+      }
+    }
+    server.start()
+
+    destination = folder.newFile("download")
+  }
+
+  @After
+  fun tearDown() {
+    server.stop(0)
+  }
+
+  @Test
+  fun `download - chunks are assembled in place`() {
+    download(parallelism = 4)
+
+    assertThat(destination.readBytes().contentEquals(data)).isTrue()
+    assertThat(requestedRanges.toSet().size).isEqualTo(6)
+    assertThat(ChunkedCdnDownloader.hasProgress(destination)).isFalse()
+    assertThat(connections.isEmpty()).isTrue()
+  }
+
+  @Test
+  fun `download - resumes with only the chunks that are missing`() {
+    failingRangeStart = CHUNK_SIZE * 3
+
+    assertFailure { download(parallelism = 1) }.isInstanceOf(NonSuccessfulResponseCodeException::class)
+    assertThat(ChunkedCdnDownloader.hasProgress(destination)).isTrue()
+
+    failingRangeStart = -1
+    requestedRanges.clear()
+    download(parallelism = 1)
+
+    assertThat(requestedRanges).containsExactly("bytes=3072-4095", "bytes=4096-5119", "bytes=5120-6143")
+    assertThat(destination.readBytes().contentEquals(data)).isTrue()
+    assertThat(ChunkedCdnDownloader.hasProgress(destination)).isFalse()
+  }
+
+  @Test
+  fun `download - starts over if the file no longer matches the saved progress`() {
+    failingRangeStart = CHUNK_SIZE * 3
+    assertFailure { download(parallelism = 1) }
+
+    failingRangeStart = -1
+    destination.writeBytes(ByteArray(0))
+    requestedRanges.clear()
+    download(parallelism = 2)
+
+    assertThat(requestedRanges.size).isEqualTo(6)
+    assertThat(destination.readBytes().contentEquals(data)).isTrue()
+  }
+
+  @Test
+  fun `download - falls back to a sequential download when ranges are not supported`() {
+    supportsRanges = false
+
+    download(parallelism = 4)
+
+    assertThat(destination.readBytes().contentEquals(data)).isTrue()
+    assertThat(ChunkedCdnDownloader.hasProgress(destination)).isFalse()
+  }
+
+  @Test
+  fun `download - fails when the object is larger than allowed`() {
+    assertFailure { download(parallelism = 4, maxSizeBytes = data.size - 1L) }.isInstanceOf(PushNetworkException::class)
+  }
+
+  @Test
+  fun `download - stops when the listener cancels`() {
+    val listener = object : ProgressListener {
+      override fun onAttachmentProgress(progress: AttachmentTransferProgress) = Unit
+      override fun shouldCancel(): Boolean = requestedRanges.size > 2
+    }
+
+    assertFailure { download(parallelism = 1, listener = listener) }.isInstanceOf(PushNetworkException::class)
+    assertThat(ChunkedCdnDownloader.hasProgress(destination)).isTrue()
+  }
+
+  @Test
+  fun `download - refetches a chunk that fails the incremental mac`() {
+    corruptRangeStart = CHUNK_SIZE * 2
+    corruptResponsesLeft = 1
+
+    download(parallelism = 2, incrementalMac = incrementalMac())
+
+    assertThat(requestedRanges.count { it == "bytes=2048-3071" }).isEqualTo(2)
+    assertThat(destination.readBytes().contentEquals(data)).isTrue()
+    assertThat(ChunkedCdnDownloader.hasProgress(destination)).isFalse()
+  }
+
+  @Test
+  fun `download - gives up on a chunk that keeps failing the incremental mac, keeping the chunks before it`() {
+    corruptRangeStart = CHUNK_SIZE * 2
+    corruptResponsesLeft = Int.MAX_VALUE
+
+    assertFailure { download(parallelism = 2, incrementalMac = incrementalMac()) }.isInstanceOf(InvalidMacException::class)
+    assertThat(ChunkedCdnDownloader.hasProgress(destination)).isTrue()
+
+    corruptResponsesLeft = 0
+    requestedRanges.clear()
+    download(parallelism = 1, incrementalMac = incrementalMac())
+
+    assertThat(requestedRanges.contains("bytes=0-1023")).isFalse()
+    assertThat(requestedRanges.contains("bytes=2048-3071")).isTrue()
+    assertThat(destination.readBytes().contentEquals(data)).isTrue()
+  }
+
+  @Test
+  fun `delete - removes the chunk progress too`() {
+    failingRangeStart = CHUNK_SIZE * 3
+    assertFailure { download(parallelism = 1) }
+
+    assertThat(ChunkedCdnDownloader.delete(destination)).isTrue()
+    assertThat(destination.exists()).isFalse()
+    assertThat(ChunkedCdnDownloader.hasProgress(destination)).isFalse()
+  }
+
+  private fun incrementalMac(): ChunkedCdnDownloader.IncrementalMac {
+    val macKey = Random(7).nextBytes(32)
+    val digest = ByteArrayOutputStream()
+
+    IncrementalMacOutputStream(ByteArrayOutputStream(), macKey, ChunkSizeChoice.everyNthByte(MAC_CHUNK_SIZE), digest).use { it.write(data) }
+
+    return ChunkedCdnDownloader.IncrementalMac(macKey, MAC_CHUNK_SIZE, digest.toByteArray())
+  }
+
+  private fun download(
+    parallelism: Int,
+    maxSizeBytes: Long = Long.MAX_VALUE,
+    listener: ProgressListener? = null,
+    incrementalMac: ChunkedCdnDownloader.IncrementalMac? = null
+  ) {
+    ChunkedCdnDownloader(parallelism, CHUNK_SIZE).download(
+      client = OkHttpClient(),
+      newRequest = { Request.Builder().url("http://127.0.0.1:${server.address.port}/file").get() },
+      destination = destination,
+      maxSizeBytes = maxSizeBytes,
+      listener = listener,
+      connections = connections,
+      incrementalMac = incrementalMac
+    )
+  }
+}
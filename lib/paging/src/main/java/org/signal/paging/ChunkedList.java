@@ -0,0 +1,314 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list for data sets that are mostly empty space, stored as a table of chunks that can be shared between versions.
+ * <p>
+ * New versions are derived with a {@link Mutator}, which copies a chunk the first time it's written to and shares every other chunk
+ * with the list it came from. That means publishing a newly-loaded page costs about the size of the page (plus a pointer per chunk)
+ * rather than the size of the whole list, and a version that's been handed off to the UI never changes underneath it.
+ * <p>
+ * Unloaded positions are null. Runs of them all share a single empty chunk, so creating a large, empty list is cheap too.
+ */
+public final class ChunkedList<E> extends AbstractList<E> implements RandomAccess {
+
+  static final int CHUNK_SIZE     = 256;
+  static final int MAX_CHUNK_SIZE = CHUNK_SIZE * 2;
+
+  private static final Object[] EMPTY_CHUNK = new Object[CHUNK_SIZE];
+
+  /** Chunks may be longer than their logical length (e.g. {@link #EMPTY_CHUNK}), so only ever read them up to that length. */
+  private final Object[][] chunks;
+
+  /** The index of the first item in each chunk, followed by the size of the list. */
+  private final int[] starts;
+
+  private ChunkedList(@NonNull Object[][] chunks, @NonNull int[] starts) {
+    this.chunks = chunks;
+    this.starts = starts;
+  }
+
+  /**
+   * @return A list of {@code size} empty positions.
+   */
+  public static <E> @NonNull ChunkedList<E> empty(int size) {
+    int        chunkCount = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    Object[][] chunks     = new Object[chunkCount][];
+    int[]      starts     = new int[chunkCount + 1];
+
+    for (int i = 0; i < chunkCount; i++) {
+      chunks[i] = EMPTY_CHUNK;
+      starts[i] = i * CHUNK_SIZE;
+    }
+    starts[chunkCount] = size;
+
+    return new ChunkedList<>(chunks, starts);
+  }
+
+  @Override
+  public int size() {
+    return starts[chunks.length];
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public @Nullable E get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+
+    int chunk = chunkFor(starts, chunks.length, index);
+    return (E) chunks[chunk][index - starts[chunk]];
+  }
+
+  /**
+   * @return A mutator that starts out with the contents of this list. This list is not affected by anything done to it.
+   */
+  public @NonNull Mutator<E> mutate() {
+    return new Mutator<>(chunks, starts);
+  }
+
+  int getChunkCount() {
+    return chunks.length;
+  }
+
+  /**
+   * Finds the chunk containing {@code index}. Relies on there being no empty chunks, so that {@code starts} is strictly increasing.
+   */
+  private static int chunkFor(@NonNull int[] starts, int chunkCount, int index) {
+    int result = Arrays.binarySearch(starts, 0, chunkCount, index);
+    return result >= 0 ? result : -result - 2;
+  }
+
+  /**
+   * Builds a new version of a {@link ChunkedList}. Chunks are copied the first time they're modified, and shared otherwise.
+   * Not thread-safe, but the lists it builds are.
+   */
+  public static final class Mutator<E> {
+
+    private Object[][] chunks;
+    private int[]      lengths;
+    private boolean[]  owned;
+    private int        chunkCount;
+
+    private int[]   starts;
+    private boolean startsValid;
+
+    private Mutator(@NonNull Object[][] chunks, @NonNull int[] starts) {
+      this.chunkCount = chunks.length;
+      this.chunks     = Arrays.copyOf(chunks, Math.max(chunkCount, 1));
+      this.lengths    = new int[this.chunks.length];
+      this.owned      = new boolean[this.chunks.length];
+
+      for (int i = 0; i < chunkCount; i++) {
+        lengths[i] = starts[i + 1] - starts[i];
+      }
+
+      this.starts      = starts;
+      this.startsValid = true;
+    }
+
+    public int size() {
+      return ensureStarts()[chunkCount];
+    }
+
+    @SuppressWarnings("unchecked")
+    public @Nullable E get(int index) {
+      checkIndex(index, size());
+
+      int chunk = chunkFor(starts, chunkCount, index);
+      return (E) chunks[chunk][index - starts[chunk]];
+    }
+
+    public void set(int index, @Nullable E element) {
+      checkIndex(index, size());
+
+      int chunk = chunkFor(starts, chunkCount, index);
+
+      if (!owned[chunk]) {
+        chunks[chunk] = Arrays.copyOf(chunks[chunk], lengths[chunk]);
+        owned[chunk]  = true;
+      }
+
+      chunks[chunk][index - starts[chunk]] = element;
+    }
+
+    public void add(int index, @Nullable E element) {
+      insertEmpty(index, 1);
+      set(index, element);
+    }
+
+    public @Nullable E remove(int index) {
+      E removed = get(index);
+      removeRange(index, index + 1);
+      return removed;
+    }
+
+    /**
+     * Inserts {@code count} empty positions starting at {@code index}. Only the chunk that {@code index} falls in is copied.
+     */
+    public void insertEmpty(int index, int count) {
+      int size = size();
+
+      if (index < 0 || index > size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+
+      if (count <= 0) {
+        return;
+      }
+
+      if (index == size) {
+        insertEmptyChunks(chunkCount, count);
+        startsValid = false;
+        return;
+      }
+
+      int chunk  = chunkFor(starts, chunkCount, index);
+      int offset = index - starts[chunk];
+      int length = lengths[chunk];
+
+      if (length + count <= MAX_CHUNK_SIZE) {
+        Object[] updated = new Object[length + count];
+        System.arraycopy(chunks[chunk], 0, updated, 0, offset);
+        System.arraycopy(chunks[chunk], offset, updated, offset + count, length - offset);
+
+        chunks[chunk]  = updated;
+        lengths[chunk] = length + count;
+        owned[chunk]   = true;
+      } else if (offset == 0) {
+        insertEmptyChunks(chunk, count);
+      } else {
+        Object[] left  = Arrays.copyOf(chunks[chunk], offset);
+        Object[] right = Arrays.copyOfRange(chunks[chunk], offset, length);
+
+        chunks[chunk]  = left;
+        lengths[chunk] = offset;
+        owned[chunk]   = true;
+
+        insertChunkSlots(chunk + 1, 1);
+        chunks[chunk + 1]  = right;
+        lengths[chunk + 1] = right.length;
+        owned[chunk + 1]   = true;
+
+        insertEmptyChunks(chunk + 1, count);
+      }
+
+      startsValid = false;
+    }
+
+    /**
+     * Removes the positions in [{@code fromIndex}, {@code toIndex}). Chunks that are removed entirely are dropped without being copied.
+     */
+    public void removeRange(int fromIndex, int toIndex) {
+      int size = size();
+
+      if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+        throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+      }
+
+      if (fromIndex == toIndex) {
+        return;
+      }
+
+      int firstChunk = chunkFor(starts, chunkCount, fromIndex);
+      int lastChunk  = chunkFor(starts, chunkCount, toIndex - 1);
+
+      for (int chunk = lastChunk; chunk >= firstChunk; chunk--) {
+        int start = Math.max(fromIndex, starts[chunk]) - starts[chunk];
+        int end   = Math.min(toIndex, starts[chunk] + lengths[chunk]) - starts[chunk];
+
+        if (start == 0 && end == lengths[chunk]) {
+          removeChunkSlot(chunk);
+        } else {
+          Object[] updated = new Object[lengths[chunk] - (end - start)];
+          System.arraycopy(chunks[chunk], 0, updated, 0, start);
+          System.arraycopy(chunks[chunk], end, updated, start, lengths[chunk] - end);
+
+          chunks[chunk]  = updated;
+          lengths[chunk] = updated.length;
+          owned[chunk]   = true;
+        }
+      }
+
+      startsValid = false;
+    }
+
+    /**
+     * @return An immutable snapshot of the current contents. The mutator can keep being used afterwards without affecting it.
+     */
+    public @NonNull ChunkedList<E> build() {
+      int[]      builtStarts = Arrays.copyOf(ensureStarts(), chunkCount + 1);
+      Object[][] builtChunks = Arrays.copyOf(chunks, chunkCount);
+
+      // Anything we've written to is now part of the snapshot, so it has to be copied again before the next write
+      Arrays.fill(owned, false);
+
+      return new ChunkedList<>(builtChunks, builtStarts);
+    }
+
+    private void insertEmptyChunks(int at, int count) {
+      int newChunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+      insertChunkSlots(at, newChunks);
+
+      for (int i = 0; i < newChunks; i++) {
+        chunks[at + i]  = EMPTY_CHUNK;
+        lengths[at + i] = Math.min(CHUNK_SIZE, count - i * CHUNK_SIZE);
+        owned[at + i]   = false;
+      }
+    }
+
+    private void insertChunkSlots(int at, int count) {
+      if (chunkCount + count > chunks.length) {
+        int capacity = Math.max(chunkCount + count, chunks.length * 2);
+
+        chunks  = Arrays.copyOf(chunks, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        owned   = Arrays.copyOf(owned, capacity);
+      }
+
+      System.arraycopy(chunks, at, chunks, at + count, chunkCount - at);
+      System.arraycopy(lengths, at, lengths, at + count, chunkCount - at);
+      System.arraycopy(owned, at, owned, at + count, chunkCount - at);
+
+      chunkCount += count;
+    }
+
+    private void removeChunkSlot(int at) {
+      System.arraycopy(chunks, at + 1, chunks, at, chunkCount - at - 1);
+      System.arraycopy(lengths, at + 1, lengths, at, chunkCount - at - 1);
+      System.arraycopy(owned, at + 1, owned, at, chunkCount - at - 1);
+
+      chunkCount--;
+      chunks[chunkCount] = null;
+    }
+
+    private @NonNull int[] ensureStarts() {
+      if (!startsValid) {
+        int[] updated = new int[chunkCount + 1];
+
+        for (int i = 0; i < chunkCount; i++) {
+          updated[i + 1] = updated[i] + lengths[i];
+        }
+
+        starts      = updated;
+        startsValid = true;
+      }
+
+      return starts;
+    }
+
+    private void checkIndex(int index, int size) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+    }
+  }
+}
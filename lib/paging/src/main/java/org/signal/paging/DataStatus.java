@@ -62,18 +62,27 @@ class DataStatus {
     return state.get(position);
   }
 
-  void insertState(int position, boolean value) {
-    if (position < 0 || position > size + 1) {
+  /**
+   * Inserts {@code count} positions starting at {@code position}, all set to {@code value}. Everything at or after {@code position}
+   * is shifted back.
+   */
+  void insertRange(int position, int count, boolean value) {
+    if (position < 0 || position > size || count < 0) {
       throw new IndexOutOfBoundsException();
     }
 
-    for (int i = size; i > position; i--) {
-      state.set(i, state.get(i - 1));
+    BitSet shifted = state.get(position, size);
+
+    state.clear(position, size + count);
+    if (value) {
+      state.set(position, position + count);
     }
 
-    state.set(position, value);
+    for (int i = shifted.nextSetBit(0); i >= 0; i = shifted.nextSetBit(i + 1)) {
+      state.set(position + count + i);
+    }
 
-    this.size = size + 1;
+    this.size = size + count;
   }
 
   int size() {
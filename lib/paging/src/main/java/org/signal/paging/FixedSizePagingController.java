@@ -16,9 +16,12 @@ import java.util.concurrent.Executor;
  * The workhorse of managing page requests.
  *
  * A controller whose life focuses around one invalidation cycle of a data set, and therefore has
- * a fixed size throughout. It assumes that all interface methods are called on a single thread,
+ * a fixed size throughout, except for inserts it's explicitly told about (see {@link #onDataItemInserted(Object, int)}),
+ * which are applied in place. It assumes that all interface methods are called on a single thread,
  * which allows it to keep track of pending requests in a thread-safe way, while spinning off
  * tasks to fetch data on its own executor.
+ * <p>
+ * Inserts update {@code loadState} and the data together on the fetch executor, so that both see the same position.
  */
 class FixedSizePagingController<Key, Data> implements PagingController<Key> {
 
@@ -33,7 +36,7 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
   private final DataStatus                  loadState;
   private final Map<Key, Integer>           keyToPosition;
 
-  private List<Data> data;
+  private ChunkedList<Data> data;
 
   private volatile boolean invalidated;
 
@@ -46,7 +49,7 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
     this.config        = config;
     this.dataStream    = dataStream;
     this.loadState     = DataStatus.obtain(size);
-    this.data          = new CompressedList<>(loadState.size());
+    this.data          = ChunkedList.empty(loadState.size());
     this.keyToPosition = new HashMap<>();
 
     if (DEBUG) Log.d(TAG, "[Constructor] Creating with size " + size + " (loadState.size() = " + loadState.size() + ")");
@@ -115,7 +118,7 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
         return;
       }
 
-      List<Data> updated = new CompressedList<>(data);
+      ChunkedList.Mutator<Data> updated = data.mutate();
 
       for (int i = 0, len = Math.min(loaded.size(), data.size() - loadStart); i < len; i++) {
         int  position = loadStart + i;
@@ -125,8 +128,8 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
         keyToPosition.put(dataSource.getKey(item), position);
       }
 
-      data = updated;
-      dataStream.next(updated);
+      data = updated.build();
+      dataStream.next(data);
     });
   }
 
@@ -173,11 +176,11 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
         return;
       }
 
-      List<Data> updatedList = new CompressedList<>(data);
+      ChunkedList.Mutator<Data> updatedList = data.mutate();
 
       updatedList.set(position, item);
-      data = updatedList;
-      dataStream.next(updatedList);
+      data = updatedList.build();
+      dataStream.next(data);
 
       if (DEBUG) Log.d(TAG, buildItemChangedLog(key, "Published updated data"));
     });
@@ -204,10 +207,12 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
       }
 
       synchronized (loadState) {
-        loadState.insertState(position, true);
+        loadState.insertRange(position, 1, true);
         if (DEBUG) Log.d(TAG, buildItemInsertedLog(key, position, "Size of loadState updated to " + loadState.size()));
       }
 
+      dataSource.onItemsInserted(position, 1);
+
       Data item = dataSource.load(key);
 
       if (item == null) {
@@ -220,25 +225,28 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
         return;
       }
 
-      List<Data> updatedList = new CompressedList<>(data);
+      ChunkedList.Mutator<Data> updatedList = data.mutate();
 
       updatedList.add(position, item);
-      rebuildKeyToPositionMap(keyToPosition, updatedList, dataSource);
+      shiftKeyPositions(position, 1);
+      keyToPosition.put(key, position);
 
-      data = updatedList;
-      dataStream.next(updatedList);
+      data = updatedList.build();
+      dataStream.next(data);
 
       if (DEBUG) Log.d(TAG, buildItemInsertedLog(key, position, "Published updated data"));
     });
   }
 
-  private void rebuildKeyToPositionMap(@NonNull Map<Key, Integer> map, @NonNull List<Data> dataList, @NonNull PagedDataSource<Key, Data> dataSource) {
-    map.clear();
+  /**
+   * Adds {@code delta} to the position of every loaded key at or after {@code startPosition}.
+   */
+  private void shiftKeyPositions(int startPosition, int delta) {
+    for (Map.Entry<Key, Integer> entry : keyToPosition.entrySet()) {
+      int position = entry.getValue();
 
-    for (int i = 0, len = dataList.size(); i < len; i++) {
-      Data item = dataList.get(i);
-      if (item != null) {
-        map.put(dataSource.getKey(item), i);
+      if (position >= startPosition) {
+        entry.setValue(position + delta);
       }
     }
   }
@@ -33,6 +33,13 @@ public interface PagedDataSource<Key, Data> {
   @WorkerThread
   @NonNull Key getKey(@NonNull Data data);
 
+  /**
+   * Called before loading anything else after {@code count} items were inserted at {@code position} without the size being recomputed. Only
+   * needed by data sources that remember positions between loads.
+   */
+  @WorkerThread
+  default void onItemsInserted(int position, int count) {}
+
   interface CancellationSignal {
     /**
      * @return True if the operation has been canceled, otherwise false.
@@ -0,0 +1,124 @@
+package org.signal.paging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Remembers the sort key (the "anchor") of the item at some positions of a paged list, so that a {@link PagedDataSource} can read a page by
+ * seeking to the nearest anchor before it rather than having the database step over every row from the top.
+ * <p>
+ * Anchors are only good for as long as the positions they were recorded at are. Data sources should {@link #clear()} them whenever they
+ * recompute their {@link PagedDataSource#size()}, and keep them in step with the structural changes they're told about.
+ */
+public final class PositionAnchors<A> {
+
+  private static final int DEFAULT_MAX_SIZE = 1024;
+
+  private final NavigableMap<Integer, A> anchors = new TreeMap<>();
+  private final int                      maxSize;
+
+  private int generation;
+
+  public PositionAnchors() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  public PositionAnchors(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Records the anchor of the item at {@code position}.
+   */
+  public synchronized void put(int position, @NonNull A anchor) {
+    anchors.put(position, anchor);
+
+    // Positions near the top are the cheapest to get to without an anchor, so they're the first to go
+    while (anchors.size() > maxSize) {
+      anchors.pollFirstEntry();
+    }
+  }
+
+  /**
+   * Same as {@link #put(int, Object)}, but does nothing if positions have changed since {@code generation} was read with
+   * {@link #getGeneration()}. Read it before querying, so that a load that raced with an invalidation doesn't leave behind a stale anchor.
+   */
+  public synchronized void put(int position, @NonNull A anchor, int generation) {
+    if (generation == this.generation) {
+      put(position, anchor);
+    }
+  }
+
+  /**
+   * @return A number that changes whenever the positions of the anchors do.
+   */
+  public synchronized int getGeneration() {
+    return generation;
+  }
+
+  /**
+   * @return The anchor at the greatest position that's less than {@code position}, or null if there isn't one.
+   */
+  public synchronized @Nullable Anchor<A> before(int position) {
+    Map.Entry<Integer, A> entry = anchors.lowerEntry(position);
+    return entry != null ? new Anchor<>(entry.getKey(), entry.getValue()) : null;
+  }
+
+  public synchronized void onItemsInserted(int position, int count) {
+    shift(position, count);
+  }
+
+  public synchronized void clear() {
+    anchors.clear();
+    generation++;
+  }
+
+  public synchronized int size() {
+    return anchors.size();
+  }
+
+  /**
+   * Adds {@code delta} to every position at or after {@code startPosition}.
+   */
+  private void shift(int startPosition, int delta) {
+    generation++;
+
+    NavigableMap<Integer, A> tail = anchors.tailMap(startPosition, true);
+    if (tail.isEmpty() || delta == 0) {
+      return;
+    }
+
+    NavigableMap<Integer, A> shifted = new TreeMap<>();
+    for (Map.Entry<Integer, A> entry : tail.entrySet()) {
+      shifted.put(entry.getKey() + delta, entry.getValue());
+    }
+
+    tail.clear();
+    anchors.putAll(shifted);
+  }
+
+  /**
+   * An anchor along with the position it was recorded at.
+   */
+  public static final class Anchor<A> {
+    private final int position;
+    private final A   value;
+
+    Anchor(int position, @NonNull A value) {
+      this.position = position;
+      this.value    = value;
+    }
+
+    public int getPosition() {
+      return position;
+    }
+
+    public @NonNull A getValue() {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package org.signal.paging
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class ChunkedListTest {
+  @Test
+  fun empty_hasSizeAndNulls() {
+    val subject = ChunkedList.empty<Int>(1000)
+
+    assertEquals(1000, subject.size)
+    assertNull(subject[0])
+    assertNull(subject[999])
+  }
+
+  @Test
+  fun empty_zero() {
+    val subject = ChunkedList.empty<Int>(0)
+
+    assertEquals(0, subject.size)
+    assertEquals(0, subject.mutate().build().size)
+  }
+
+  @Test(expected = IndexOutOfBoundsException::class)
+  fun get_outOfBoundsThrows() {
+    ChunkedList.empty<Int>(10)[10]
+  }
+
+  @Test
+  fun set_doesNotAffectOriginal() {
+    val original = ChunkedList.empty<Int>(1000)
+
+    val mutator = original.mutate()
+    mutator.set(500, 1)
+    val updated = mutator.build()
+
+    assertNull(original[500])
+    assertEquals(1, updated[500])
+  }
+
+  @Test
+  fun build_furtherMutationsDoNotAffectSnapshot() {
+    val mutator = ChunkedList.empty<Int>(10).mutate()
+    mutator.set(0, 1)
+    val first = mutator.build()
+
+    mutator.set(0, 2)
+    val second = mutator.build()
+
+    assertEquals(1, first[0])
+    assertEquals(2, second[0])
+  }
+
+  @Test
+  fun insertEmpty_atHead_shiftsEverything() {
+    val subject = filled(1000).mutate()
+
+    subject.insertEmpty(0, 3)
+    val result = subject.build()
+
+    assertEquals(1003, result.size)
+    assertNull(result[0])
+    assertNull(result[2])
+    assertEquals(0, result[3])
+    assertEquals(999, result[1002])
+  }
+
+  @Test
+  fun insertEmpty_manyAtHead_matchesArrayList() {
+    val expected = (0 until 1000).toMutableList<Int?>()
+    val subject = filled(1000).mutate()
+
+    repeat(700) { i ->
+      subject.add(0, -i)
+      expected.add(0, -i)
+    }
+
+    assertEquals(expected, subject.build())
+  }
+
+  @Test
+  fun insertEmpty_inMiddleOfFullChunk_splits() {
+    val expected = (0 until 1000).toMutableList<Int?>()
+    val subject = filled(1000).mutate()
+
+    subject.insertEmpty(100, 600)
+    repeat(600) { expected.add(100, null) }
+
+    assertEquals(expected, subject.build())
+  }
+
+  @Test
+  fun insertEmpty_atEnd_appends() {
+    val subject = filled(10).mutate()
+
+    subject.insertEmpty(10, 300)
+    val result = subject.build()
+
+    assertEquals(310, result.size)
+    assertEquals(9, result[9])
+    assertNull(result[309])
+  }
+
+  @Test
+  fun removeRange_acrossChunks_matchesArrayList() {
+    val expected = (0 until 1000).toMutableList<Int?>()
+    val subject = filled(1000).mutate()
+
+    subject.removeRange(200, 800)
+    expected.subList(200, 800).clear()
+
+    assertEquals(expected, subject.build())
+  }
+
+  @Test
+  fun remove_thenAdd_movesItem() {
+    val expected = (0 until 600).toMutableList<Int?>()
+    val subject = filled(600).mutate()
+
+    subject.add(0, subject.remove(550))
+    expected.add(0, expected.removeAt(550))
+
+    assertEquals(expected, subject.build())
+  }
+
+  private fun filled(size: Int): ChunkedList<Int> {
+    val mutator = ChunkedList.empty<Int>(size).mutate()
+    for (i in 0 until size) {
+      mutator.set(i, i)
+    }
+    return mutator.build()
+  }
+}
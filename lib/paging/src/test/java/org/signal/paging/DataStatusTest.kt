@@ -7,33 +7,20 @@ import org.junit.Test
 
 class DataStatusTest {
   @Test
-  fun insertState_initiallyEmpty_InsertAtZero() {
+  fun insertRange_initiallyEmpty_InsertAtZero() {
     val subject = DataStatus.obtain(0)
-    subject.insertState(0, true)
+    subject.insertRange(0, 1, true)
 
     assertEquals(1, subject.size())
     assertTrue(subject[0])
   }
 
   @Test
-  fun insertState_someData_InsertAtZero() {
-    val subject = DataStatus.obtain(2)
-    subject.mark(1)
-
-    subject.insertState(0, true)
-
-    assertEquals(3, subject.size())
-    assertTrue(subject[0])
-    assertFalse(subject[1])
-    assertTrue(subject[2])
-  }
-
-  @Test
-  fun insertState_someData_InsertAtOne() {
+  fun insertRange_someData_InsertAtOne() {
     val subject = DataStatus.obtain(3)
     subject.mark(1)
 
-    subject.insertState(1, true)
+    subject.insertRange(1, 1, true)
 
     assertEquals(4, subject.size())
     assertFalse(subject[0])
@@ -43,14 +30,42 @@ class DataStatusTest {
   }
 
   @Test(expected = IndexOutOfBoundsException::class)
-  fun insertState_negativeThrows() {
+  fun insertRange_negativeThrows() {
     val subject = DataStatus.obtain(0)
-    subject.insertState(-1, true)
+    subject.insertRange(-1, 1, true)
   }
 
   @Test(expected = IndexOutOfBoundsException::class)
-  fun insertState_largerThanSizePlusOneThrows() {
+  fun insertRange_largerThanSizeThrows() {
     val subject = DataStatus.obtain(0)
-    subject.insertState(2, true)
+    subject.insertRange(1, 1, true)
+  }
+
+  @Test
+  fun insertRange_someData_shiftsMarks() {
+    val subject = DataStatus.obtain(3)
+    subject.mark(0)
+    subject.mark(2)
+
+    subject.insertRange(1, 2, false)
+
+    assertEquals(5, subject.size())
+    assertTrue(subject[0])
+    assertFalse(subject[1])
+    assertFalse(subject[2])
+    assertFalse(subject[3])
+    assertTrue(subject[4])
+  }
+
+  @Test
+  fun insertRange_atEnd_marksInsertedRange() {
+    val subject = DataStatus.obtain(2)
+
+    subject.insertRange(2, 2, true)
+
+    assertEquals(4, subject.size())
+    assertFalse(subject[1])
+    assertTrue(subject[2])
+    assertTrue(subject[3])
   }
 }
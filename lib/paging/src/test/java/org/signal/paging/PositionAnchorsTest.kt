@@ -0,0 +1,59 @@
+package org.signal.paging
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class PositionAnchorsTest {
+  @Test
+  fun before_returnsNearestLowerPosition() {
+    val subject = PositionAnchors<String>()
+    subject.put(49, "a")
+    subject.put(99, "b")
+
+    assertNull(subject.before(49))
+    assertEquals(49, subject.before(50)!!.position)
+    assertEquals("a", subject.before(99)!!.value)
+    assertEquals("b", subject.before(1000)!!.value)
+  }
+
+  @Test
+  fun put_evictsLowestPositionsOverMaxSize() {
+    val subject = PositionAnchors<String>(2)
+    subject.put(10, "a")
+    subject.put(20, "b")
+    subject.put(30, "c")
+
+    assertEquals(2, subject.size())
+    assertNull(subject.before(20))
+    assertEquals("b", subject.before(21)!!.value)
+  }
+
+  @Test
+  fun put_ignoredWhenGenerationChanged() {
+    val subject = PositionAnchors<String>()
+    val generation = subject.generation
+
+    subject.clear()
+    subject.put(10, "a", generation)
+
+    assertEquals(0, subject.size())
+
+    subject.put(10, "a", subject.generation)
+
+    assertEquals(1, subject.size())
+  }
+
+  @Test
+  fun onItemsInserted_shiftsLaterPositions() {
+    val subject = PositionAnchors<String>()
+    subject.put(5, "a")
+    subject.put(10, "b")
+
+    subject.onItemsInserted(5, 2)
+
+    assertEquals(7, subject.before(8)!!.position)
+    assertEquals("a", subject.before(8)!!.value)
+    assertEquals(12, subject.before(13)!!.position)
+  }
+}
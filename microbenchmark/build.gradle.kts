@@ -54,5 +54,6 @@ dependencies {
 
   // Dependencies of modules being tested
   androidTestImplementation(project(":lib:libsignal-service"))
+  androidTestImplementation(project(":lib:paging"))
   androidTestImplementation(libs.libsignal.android)
 }
@@ -0,0 +1,101 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.Schedulers
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.util.SignalClient
+import org.whispersystems.signalservice.api.MessageSendFanOut
+import org.whispersystems.signalservice.internal.push.Envelope
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks for fanning a single message out to many recipients with [MessageSendFanOut], the way
+ * [org.whispersystems.signalservice.api.SignalServiceMessageSender] does for multi-recipient sends.
+ *
+ * Encryption is real (sealed sender, using in-memory stores), but the network is a [FakeTransport] with a fixed latency, where a
+ * portion of recipients are sent over a blocking "REST" path instead of the non-blocking "websocket".
+ */
+@RunWith(AndroidJUnit4::class)
+class MessageSendFanOutBenchmarks {
+
+  companion object {
+    private const val RECIPIENT_COUNT = 50
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private val scheduler: Scheduler = Schedulers.from(Executors.newFixedThreadPool(16), false, false)
+
+  @Test
+  fun fanOut_unbounded() {
+    fanOut(MessageSendFanOut.UNBOUNDED)
+  }
+
+  @Test
+  fun fanOut_bounded() {
+    fanOut(MessageSendFanOut.bounded(maxInFlight = 16, encryptionParallelism = Runtime.getRuntime().availableProcessors(), maxRestInFlight = 4))
+  }
+
+  private fun fanOut(fanOut: MessageSendFanOut) {
+    val alice = SignalClient()
+    val recipients: List<SignalClient> = buildRecipients(alice)
+    val transport = FakeTransport(latencyMs = 20, restEvery = 10)
+
+    benchmarkRule.measureRepeated {
+      val sends: List<Single<Int>> = recipients.mapIndexed { index, recipient ->
+        fanOut.encrypt(Single.fromCallable { alice.encryptSealedSender(recipient) })
+          .flatMap { envelope -> transport.send(fanOut, index, envelope) }
+          .observeOn(scheduler)
+      }
+
+      val completed: Int = fanOut.merge(sends)
+        .observeOn(scheduler, true)
+        .count()
+        .blockingGet()
+        .toInt()
+
+      check(completed == recipients.size)
+    }
+  }
+
+  private fun buildRecipients(alice: SignalClient): List<SignalClient> {
+    return (1..RECIPIENT_COUNT).map {
+      val bob = SignalClient()
+      alice.initializeSession(bob)
+      bob.initializeSession(alice)
+
+      bob.decryptMessage(alice.encryptSealedSender(bob))
+      alice.decryptMessage(bob.encryptSealedSender(alice))
+
+      bob
+    }
+  }
+
+  /**
+   * Pretends to send envelopes. Websocket sends complete asynchronously after [latencyMs], while every [restEvery]th send
+   * blocks a thread for [latencyMs], like a REST fallback would.
+   */
+  private inner class FakeTransport(private val latencyMs: Long, private val restEvery: Int) {
+    fun send(fanOut: MessageSendFanOut, index: Int, envelope: Envelope): Single<Int> {
+      return if (index % restEvery == 0) {
+        fanOut.sendRest(
+          Single.fromCallable {
+            Thread.sleep(latencyMs)
+            envelope.content?.size ?: 0
+          },
+          scheduler
+        )
+      } else {
+        Single.timer(latencyMs, TimeUnit.MILLISECONDS, Schedulers.io()).map { envelope.content?.size ?: 0 }
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.paging.ChunkedList
+
+/**
+ * Benchmarks for publishing pages of data as a list is scrolled from top to bottom, the way
+ * [org.signal.paging.PagedData] does as each page is loaded.
+ *
+ * The "copy" benchmarks copy the entire list for every page, which is what happened before [ChunkedList]. The "chunked"
+ * benchmarks derive each new version from the previous one with a [ChunkedList.Mutator].
+ */
+@RunWith(AndroidJUnit4::class)
+class PagingBenchmarks {
+
+  companion object {
+    private const val PAGE_SIZE = 50
+  }
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private val item = Any()
+
+  @Test
+  fun scroll_10k_copy() {
+    scrollWithCopies(10_000)
+  }
+
+  @Test
+  fun scroll_10k_chunked() {
+    scrollWithChunkedList(10_000)
+  }
+
+  @Test
+  fun scroll_100k_copy() {
+    scrollWithCopies(100_000)
+  }
+
+  @Test
+  fun scroll_100k_chunked() {
+    scrollWithChunkedList(100_000)
+  }
+
+  private fun scrollWithCopies(size: Int) {
+    benchmarkRule.measureRepeated {
+      var data: List<Any?> = ArrayList<Any?>(size).apply { repeat(size) { add(null) } }
+
+      for (start in 0 until size step PAGE_SIZE) {
+        val updated = ArrayList(data)
+        for (i in start until minOf(start + PAGE_SIZE, size)) {
+          updated[i] = item
+        }
+        data = updated
+      }
+
+      check(data[size - 1] === item)
+    }
+  }
+
+  private fun scrollWithChunkedList(size: Int) {
+    benchmarkRule.measureRepeated {
+      var data: ChunkedList<Any> = ChunkedList.empty(size)
+
+      for (start in 0 until size step PAGE_SIZE) {
+        val updated = data.mutate()
+        for (i in start until minOf(start + PAGE_SIZE, size)) {
+          updated.set(i, item)
+        }
+        data = updated.build()
+      }
+
+      check(data[size - 1] === item)
+    }
+  }
+}